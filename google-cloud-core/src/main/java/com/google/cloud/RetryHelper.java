@@ -25,10 +25,15 @@ import static java.lang.StrictMath.random;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.MoreObjects.ToStringHelper;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import java.io.InterruptedIOException;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -211,6 +216,71 @@ public class RetryHelper<V> {
     }
   }
 
+  private void scheduleAttempt(final SettableFuture<V> future, final long start,
+      final ScheduledExecutorService executor, long delayMillis) {
+    try {
+      executor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            runAttempt(future, start, executor);
+          } catch (Throwable throwable) {
+            future.setException(throwable);
+          }
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      future.setException(new NonRetriableException(e));
+    }
+  }
+
+  private void runAttempt(SettableFuture<V> future, long start,
+      ScheduledExecutorService executor) {
+    if (future.isDone()) {
+      // the future was cancelled
+      return;
+    }
+    attemptNumber++;
+    Exception exception;
+    Context previousContext = getContext();
+    setContext(new Context(this));
+    try {
+      V value = callable.call();
+      if (attemptNumber > 1 && log.isLoggable(Level.FINE)) {
+        log.fine(this + ": attempt #" + attemptNumber + " succeeded");
+      }
+      future.set(value);
+      return;
+    } catch (InterruptedException | InterruptedIOException | ClosedByInterruptException e) {
+      if (!exceptionHandler.shouldRetry(e)) {
+        future.setException(new RetryInterruptedException());
+        return;
+      }
+      exception = e;
+    } catch (Exception e) {
+      if (!exceptionHandler.shouldRetry(e)) {
+        future.setException(new NonRetriableException(e));
+        return;
+      }
+      exception = e;
+    } finally {
+      setContext(previousContext);
+    }
+    if (attemptNumber >= params.retryMaxAttempts()
+        || attemptNumber >= params.retryMinAttempts()
+        && clock.millis() - start >= params.totalRetryPeriodMillis()) {
+      future.setException(
+          new RetriesExhaustedException(this + ": Too many failures, giving up", exception));
+      return;
+    }
+    long sleepDurationMillis = getSleepDuration(params, attemptNumber);
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + ": Attempt #" + attemptNumber + " failed [" + exception
+          + "], retrying in " + sleepDurationMillis + " ms");
+    }
+    scheduleAttempt(future, start, executor, sleepDurationMillis);
+  }
+
   @VisibleForTesting
   static long getSleepDuration(RetryParams retryParams, int attemptsSoFar) {
     long initialDelay = retryParams.initialRetryDelayMillis();
@@ -246,4 +316,20 @@ public class RetryHelper<V> {
       setContext(previousContext);
     }
   }
+
+  /**
+   * Runs {@code callable} asynchronously on {@code executor}, retrying it according to
+   * {@code params} and {@code exceptionHandler}. Unlike {@link #runWithRetries}, no thread is
+   * blocked between attempts: each retry is scheduled on {@code executor} once its backoff delay
+   * has elapsed. The returned future fails with the same {@link RetryHelperException}s that
+   * {@link #runWithRetries} throws.
+   */
+  public static <V> ListenableFuture<V> runWithRetriesAsync(Callable<V> callable,
+      RetryParams params, ExceptionHandler exceptionHandler, Clock clock,
+      ScheduledExecutorService executor) {
+    RetryHelper<V> retryHelper = new RetryHelper<>(callable, params, exceptionHandler, clock);
+    SettableFuture<V> future = SettableFuture.create();
+    retryHelper.scheduleAttempt(future, clock.millis(), checkNotNull(executor), 0);
+    return future;
+  }
 }
@@ -31,6 +31,9 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -258,4 +261,68 @@ public class RetryHelperTest {
     });
   }
 
+  @Test
+  public void testAsyncTriesAtLeastMinTimes() throws Exception {
+    RetryParams params = RetryParams.builder().initialRetryDelayMillis(0)
+        .totalRetryPeriodMillis(60000)
+        .retryMinAttempts(5)
+        .retryMaxAttempts(10)
+        .build();
+    final int timesToFail = 7;
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      int attempted = RetryHelper.runWithRetriesAsync(new Callable<Integer>() {
+        int timesCalled;
+        @Override public Integer call() throws IOException {
+          timesCalled++;
+          assertEquals(timesCalled, RetryHelper.getContext().getAttemptNumber());
+          if (timesCalled <= timesToFail) {
+            throw new IOException();
+          }
+          return timesCalled;
+        }
+      }, params, ExceptionHandler.defaultInstance(), Clock.defaultClock(), executor).get();
+      assertEquals(timesToFail + 1, attempted);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAsyncFailures() throws Exception {
+    RetryParams params = RetryParams.builder().initialRetryDelayMillis(0)
+        .totalRetryPeriodMillis(60000)
+        .retryMinAttempts(0)
+        .retryMaxAttempts(3)
+        .build();
+    ExceptionHandler handler = ExceptionHandler.builder()
+        .retryOn(IOException.class).abortOn(RuntimeException.class).build();
+    final AtomicInteger timesCalled = new AtomicInteger(0);
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      RetryHelper.runWithRetriesAsync(new Callable<Void>() {
+        @Override public Void call() throws IOException {
+          timesCalled.incrementAndGet();
+          throw new IOException();
+        }
+      }, params, handler, Clock.defaultClock(), executor).get();
+      fail("Should not have succeeded, expected all attempts to fail and give up.");
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof RetriesExhaustedException);
+      assertEquals(3, timesCalled.get());
+    }
+    try {
+      RetryHelper.runWithRetriesAsync(new Callable<Void>() {
+        @Override public Void call() {
+          throw new NullPointerException("Boo!");
+        }
+      }, params, handler, Clock.defaultClock(), executor).get();
+      fail("Exception should have been thrown");
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof NonRetriableException);
+      assertEquals("Boo!", expected.getCause().getCause().getMessage());
+    } finally {
+      executor.shutdown();
+    }
+  }
 }
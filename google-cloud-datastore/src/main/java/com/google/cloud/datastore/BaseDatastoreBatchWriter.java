@@ -41,7 +41,7 @@ public abstract class BaseDatastoreBatchWriter implements DatastoreBatchWriter {
   private final Map<Key, FullEntity<Key>> toUpdate = new LinkedHashMap<>();
   private final Map<Key, FullEntity<Key>> toPut = new LinkedHashMap<>();
   private final Set<Key> toDelete = new LinkedHashSet<>();
-  private boolean active = true;
+  private volatile boolean active = true;
 
   protected BaseDatastoreBatchWriter(String name) {
     this.name = name;
@@ -30,8 +30,10 @@ import static com.google.cloud.datastore.StringValue.of;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableSortedMap;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableSortedSet;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -39,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A base class for entities (key and properties).
@@ -53,13 +56,18 @@ import java.util.Set;
 public abstract class BaseEntity<K extends IncompleteKey> implements Serializable {
 
   private static final long serialVersionUID = -9070588108769487081L;
-  private final ImmutableSortedMap<String, Value<?>> properties;
+  private volatile ImmutableSortedMap<String, Value<?>> properties;
   private final K key;
+  // protobuf the properties are lazily decoded from, null for entities built from values
+  private final transient com.google.datastore.v1.Entity entityPb;
+  private transient volatile Map<String, Value<?>> decodedProperties;
 
   public abstract static class Builder<K extends IncompleteKey, B extends Builder<K, B>> {
 
     private K key;
     private final Map<String, Value<?>> properties = new HashMap<>();
+    // protobuf whose properties have not been decoded yet
+    private com.google.datastore.v1.Entity entityPb;
 
     Builder() {
     }
@@ -74,7 +82,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
 
     Builder(K key, BaseEntity<?> entity) {
       key(key);
-      properties(entity.properties);
+      properties(entity.properties());
     }
 
     protected K key() {
@@ -82,6 +90,13 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
     }
 
     protected Map<String, Value<?>> properties() {
+      if (entityPb != null) {
+        for (Map.Entry<String, com.google.datastore.v1.Value> entry :
+            entityPb.getProperties().entrySet()) {
+          properties.put(entry.getKey(), Value.fromPb(entry.getValue()));
+        }
+        entityPb = null;
+      }
       return properties;
     }
 
@@ -90,14 +105,21 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       return (B) this;
     }
 
+    /**
+     * Fills the builder with the content of {@code entityPb}. If the builder has no properties,
+     * property values are not decoded until they are accessed: entities built right away keep the
+     * protobuf and decode each property on first access.
+     */
     @SuppressWarnings("unchecked")
     B fill(com.google.datastore.v1.Entity entityPb) {
-      Map<String, Value<?>> copiedProperties = Maps.newHashMap();
-      for (Map.Entry<String, com.google.datastore.v1.Value> entry :
-          entityPb.getProperties().entrySet()) {
-        copiedProperties.put(entry.getKey(), Value.fromPb(entry.getValue()));
+      if (properties().isEmpty()) {
+        this.entityPb = entityPb;
+      } else {
+        for (Map.Entry<String, com.google.datastore.v1.Value> entry :
+            entityPb.getProperties().entrySet()) {
+          properties.put(entry.getKey(), Value.fromPb(entry.getValue()));
+        }
       }
-      properties(copiedProperties);
       if (entityPb.hasKey()) {
         key((K) IncompleteKey.fromPb(entityPb.getKey()));
       }
@@ -105,7 +127,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
     }
 
     protected B properties(Map<String, Value<?>> properties) {
-      this.properties.putAll(properties);
+      properties().putAll(properties);
       return self();
     }
 
@@ -118,7 +140,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * Clears all the properties.
      */
     public B clear() {
-      properties.clear();
+      properties().clear();
       return self();
     }
 
@@ -126,7 +148,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * Removes a property with the given {@code name}.
      */
     public B remove(String name) {
-      properties.remove(name);
+      properties().remove(name);
       return self();
     }
 
@@ -137,7 +159,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, Value<?> value) {
-      properties.put(name, value);
+      properties().put(name, value);
       return self();
     }
 
@@ -148,7 +170,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, String value) {
-      properties.put(name, of(value));
+      properties().put(name, of(value));
       return self();
     }
 
@@ -167,7 +189,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       for (String other : others) {
         values.add(of(other));
       }
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -178,7 +200,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, long value) {
-      properties.put(name, of(value));
+      properties().put(name, of(value));
       return self();
     }
 
@@ -197,7 +219,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       for (long other : others) {
         values.add(of(other));
       }
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -208,7 +230,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, double value) {
-      properties.put(name, of(value));
+      properties().put(name, of(value));
       return self();
     }
 
@@ -227,7 +249,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       for (double other : others) {
         values.add(of(other));
       }
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -238,7 +260,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, boolean value) {
-      properties.put(name, of(value));
+      properties().put(name, of(value));
       return self();
     }
 
@@ -257,7 +279,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       for (boolean other : others) {
         values.add(of(other));
       }
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -268,7 +290,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, DateTime value) {
-      properties.put(name, of(value));
+      properties().put(name, of(value));
       return self();
     }
 
@@ -287,7 +309,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       for (DateTime other : others) {
         values.add(of(other));
       }
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -298,7 +320,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, LatLng value) {
-      properties.put(name, of(value));
+      properties().put(name, of(value));
       return self();
     }
 
@@ -317,7 +339,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       for (LatLng other : others) {
         values.add(of(other));
       }
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -328,7 +350,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, Key value) {
-      properties.put(name, of(value));
+      properties().put(name, of(value));
       return self();
     }
 
@@ -347,7 +369,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       for (Key other : others) {
         values.add(of(other));
       }
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -358,7 +380,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, FullEntity<?> value) {
-      properties.put(name, of(value));
+      properties().put(name, of(value));
       return self();
     }
 
@@ -377,7 +399,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       for (FullEntity<?> other : others) {
         values.add(of(other));
       }
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -388,7 +410,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param values list of values associated with the property
      */
     public B set(String name, List<? extends Value<?>> values) {
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -401,7 +423,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param others other values in the list
      */
     public B set(String name, Value<?> first, Value<?> second, Value<?>... others) {
-      properties.put(name, ListValue.builder().addValue(first).addValue(second, others).build());
+      properties().put(name, ListValue.builder().addValue(first).addValue(second, others).build());
       return self();
     }
 
@@ -412,7 +434,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param value value associated with the property
      */
     public B set(String name, Blob value) {
-      properties.put(name, of(value));
+      properties().put(name, of(value));
       return self();
     }
 
@@ -431,7 +453,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
       for (Blob other : others) {
         values.add(of(other));
       }
-      properties.put(name, of(values));
+      properties().put(name, of(values));
       return self();
     }
 
@@ -441,7 +463,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
      * @param name name of the property
      */
     public B setNull(String name) {
-      properties.put(name, of());
+      properties().put(name, of());
       return self();
     }
 
@@ -450,25 +472,30 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
 
   BaseEntity(Builder<K, ?> builder) {
     this.key = builder.key;
-    this.properties = ImmutableSortedMap.copyOf(builder.properties);
+    this.entityPb = builder.entityPb;
+    if (entityPb == null) {
+      this.properties = ImmutableSortedMap.copyOf(builder.properties);
+    }
   }
 
   BaseEntity(BaseEntity<K> from) {
     this.key = from.key();
     this.properties = from.properties;
+    this.entityPb = from.entityPb;
+    this.decodedProperties = from.decodedProperties;
   }
 
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
         .add("key", key)
-        .add("properties", properties)
+        .add("properties", properties())
         .toString();
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(key, properties);
+    return Objects.hash(key, properties());
   }
 
   @Override
@@ -481,7 +508,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
     }
     BaseEntity<?> other = (BaseEntity<?>) obj;
     return Objects.equals(key, other.key)
-        && Objects.equals(properties, other.properties);
+        && Objects.equals(properties(), other.properties());
   }
 
   /**
@@ -502,7 +529,9 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
    * Returns {@code true} if the entity contains a property with the given {@code name}.
    */
   public boolean contains(String name) {
-    return properties.containsKey(name);
+    ImmutableSortedMap<String, Value<?>> decoded = properties;
+    return decoded != null
+        ? decoded.containsKey(name) : entityPb.getProperties().containsKey(name);
   }
 
   /**
@@ -512,7 +541,7 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
    */
   public <V extends Value<?>> V getValue(String name) {
     @SuppressWarnings("unchecked")
-    V property = (V) properties.get(name);
+    V property = (V) property(name);
     if (property == null) {
       throw DatastoreException.throwInvalidRequest("No such property %s", name);
     }
@@ -643,14 +672,58 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
    * Returns the properties name.
    */
   public Set<String> names() {
-    return properties.keySet();
+    ImmutableSortedMap<String, Value<?>> decoded = properties;
+    return decoded != null
+        ? decoded.keySet() : ImmutableSortedSet.copyOf(entityPb.getProperties().keySet());
+  }
+
+  /**
+   * Returns the value of the property with the given name or {@code null} if there is no such
+   * property. For entities decoded from a protobuf only the requested property is decoded.
+   */
+  private Value<?> property(String name) {
+    ImmutableSortedMap<String, Value<?>> decoded = properties;
+    if (decoded != null) {
+      return decoded.get(name);
+    }
+    Map<String, Value<?>> decodedValues = decodedProperties;
+    if (decodedValues == null) {
+      decodedValues = new ConcurrentHashMap<>();
+      decodedProperties = decodedValues;
+    }
+    Value<?> value = decodedValues.get(name);
+    if (value == null) {
+      com.google.datastore.v1.Value valuePb = entityPb.getProperties().get(name);
+      if (valuePb == null) {
+        return null;
+      }
+      value = Value.fromPb(valuePb);
+      decodedValues.put(name, value);
+    }
+    return value;
   }
 
   ImmutableSortedMap<String, Value<?>> properties() {
-    return properties;
+    ImmutableSortedMap<String, Value<?>> decoded = properties;
+    if (decoded == null) {
+      Map<String, Value<?>> decodedValues = decodedProperties;
+      ImmutableSortedMap.Builder<String, Value<?>> builder = ImmutableSortedMap.naturalOrder();
+      for (Map.Entry<String, com.google.datastore.v1.Value> entry :
+          entityPb.getProperties().entrySet()) {
+        Value<?> value = decodedValues != null ? decodedValues.get(entry.getKey()) : null;
+        builder.put(entry.getKey(), value != null ? value : Value.fromPb(entry.getValue()));
+      }
+      decoded = builder.build();
+      properties = decoded;
+      decodedProperties = null;
+    }
+    return decoded;
   }
 
   final com.google.datastore.v1.Entity toPb() {
+    if (entityPb != null) {
+      return entityPb;
+    }
     com.google.datastore.v1.Entity.Builder entityPb = com.google.datastore.v1.Entity.newBuilder();
     Map<String, com.google.datastore.v1.Value> propertiesPb = entityPb.getMutableProperties();
     for (Map.Entry<String, Value<?>> entry : properties.entrySet()) {
@@ -661,4 +734,10 @@ public abstract class BaseEntity<K extends IncompleteKey> implements Serializabl
     }
     return entityPb.build();
   }
+
+  private void writeObject(ObjectOutputStream output) throws IOException {
+    // lazily decoded properties must be decoded before being serialized
+    properties();
+    output.defaultWriteObject();
+  }
 }
@@ -16,6 +16,8 @@
 
 package com.google.cloud.datastore;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import java.util.List;
 
 /**
@@ -47,6 +49,16 @@ public interface Batch extends DatastoreBatchWriter {
    */
   Response submit();
 
+  /**
+   * Sends a request to submit the batch to the Datastore. This method returns a
+   * {@code ListenableFuture} to consume the result. {@link ListenableFuture#get()} returns the
+   * batch response. The batch is no longer active once the request succeeds. The batch should not
+   * be modified while the request is in progress.
+   *
+   * @throws DatastoreException if batch is no longer active
+   */
+  ListenableFuture<Response> submitAsync();
+
   /**
    * Returns the batch associated {@link Datastore}.
    */
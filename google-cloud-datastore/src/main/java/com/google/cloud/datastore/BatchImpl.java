@@ -16,6 +16,10 @@
 
 package com.google.cloud.datastore;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -64,6 +68,25 @@ class BatchImpl extends BaseDatastoreBatchWriter implements Batch {
     return new ResponseImpl(responsePb, toAddAutoId().size());
   }
 
+  @Override
+  public ListenableFuture<Batch.Response> submitAsync() {
+    validateActive();
+    List<com.google.datastore.v1.Mutation> mutationsPb = toMutationPbList();
+    com.google.datastore.v1.CommitRequest.Builder requestPb =
+        com.google.datastore.v1.CommitRequest.newBuilder();
+    requestPb.setMode(com.google.datastore.v1.CommitRequest.Mode.NON_TRANSACTIONAL);
+    requestPb.addAllMutations(mutationsPb);
+    final int numAutoAllocatedIds = toAddAutoId().size();
+    return Futures.transform(datastore.commitAsync(requestPb.build()),
+        new Function<com.google.datastore.v1.CommitResponse, Batch.Response>() {
+          @Override
+          public Batch.Response apply(com.google.datastore.v1.CommitResponse responsePb) {
+            deactivate();
+            return new ResponseImpl(responsePb, numAutoAllocatedIds);
+          }
+        });
+  }
+
   @Override
   public Datastore datastore() {
     return datastore;
@@ -17,6 +17,7 @@
 package com.google.cloud.datastore;
 
 import com.google.cloud.Service;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.Iterator;
 import java.util.List;
@@ -24,7 +25,8 @@ import java.util.List;
 /**
  * An interface for Google Cloud Datastore.
  */
-public interface Datastore extends Service<DatastoreOptions>, DatastoreReaderWriter {
+public interface Datastore
+    extends Service<DatastoreOptions>, DatastoreReaderWriter, AutoCloseable {
 
   /**
    * Returns a new Datastore transaction.
@@ -69,6 +71,41 @@ public interface Datastore extends Service<DatastoreOptions>, DatastoreReaderWri
    */
   <T> T runInTransaction(TransactionCallable<T> callable);
 
+  /**
+   * Invokes the callback's {@link Datastore.TransactionCallable#run} method with a
+   * {@link DatastoreReaderWriter} that is associated with a new transaction, as
+   * {@link #runInTransaction(TransactionCallable)} does. If
+   * {@link TransactionOption#retryOnAbort(com.google.cloud.RetryParams)} is provided, transactions
+   * aborted because of contention are rolled back and the callback is invoked again in a new
+   * transaction, after a randomized exponential backoff. The callback must therefore be safe to run
+   * more than once.
+   *
+   * <p>Example of running in a transaction that is retried on contention.
+   * <pre> {@code
+   * String counterName = "my_counter_name";
+   * final Key counterKey = datastore.newKeyFactory().kind("Counter").newKey(counterName);
+   * TransactionCallable<Long> callable = new TransactionCallable<Long>() {
+   *   public Long run(DatastoreReaderWriter readerWriter) {
+   *     Entity counter = readerWriter.get(counterKey);
+   *     long value = counter == null ? 1 : counter.getLong("value") + 1;
+   *     readerWriter.put(Entity.builder(counterKey).set("value", value).build());
+   *     return value;
+   *   }
+   * };
+   * RetryParams retryParams = RetryParams.builder()
+   *     .retryMaxAttempts(10)
+   *     .initialRetryDelayMillis(50)
+   *     .totalRetryPeriodMillis(5000)
+   *     .build();
+   * long value = datastore.runInTransaction(callable,
+   *     TransactionOption.retryOnAbort(retryParams));
+   * }</pre>
+   *
+   * @throws DatastoreException upon failure, or when the transaction was still aborted after the
+   *     last allowed attempt
+   */
+  <T> T runInTransaction(TransactionCallable<T> callable, TransactionOption... options);
+
   /**
    * Returns a new Batch for processing multiple write operations in one request.
    *
@@ -326,4 +363,116 @@ public interface Datastore extends Service<DatastoreOptions>, DatastoreReaderWri
    * @throws DatastoreException upon failure
    */
   <T> QueryResults<T> run(Query<T> query, ReadOption... options);
+
+  /**
+   * Sends a lookup request for the given {@link Key}. This method returns a
+   * {@code ListenableFuture} to consume the result. {@link ListenableFuture#get()} returns the
+   * requested {@link Entity} or {@code null} if it doesn't exist. {@link ReadOption}s can be
+   * specified if desired. Requests are sent on the executor provided by
+   * {@link DatastoreOptions.Builder#executorFactory}. Retries of failed requests do not block any
+   * thread while backing off.
+   *
+   * <p>Example of getting an entity asynchronously.
+   * <pre> {@code
+   * String keyName = "my_key_name";
+   * Key key = datastore.newKeyFactory().kind("MyKind").newKey(keyName);
+   * ListenableFuture<Entity> future = datastore.getAsync(key);
+   * // ...
+   * Entity entity = future.get();
+   * }</pre>
+   *
+   */
+  ListenableFuture<Entity> getAsync(Key key, ReadOption... options);
+
+  /**
+   * Sends a lookup request for the given keys. This method returns a {@code ListenableFuture} to
+   * consume the result. {@link ListenableFuture#get()} returns a list with a value for each given
+   * key (ordered by input), {@code null} values are returned for nonexistent keys.
+   * {@link ReadOption}s can be specified if desired.
+   *
+   * <p>Example of fetching a list of entities asynchronously.
+   * <pre> {@code
+   * KeyFactory keyFactory = datastore.newKeyFactory().kind("MyKind");
+   * Key firstKey = keyFactory.newKey("my_first_key_name");
+   * Key secondKey = keyFactory.newKey("my_second_key_name");
+   * ListenableFuture<List<Entity>> future =
+   *     datastore.fetchAsync(Lists.newArrayList(firstKey, secondKey));
+   * // ...
+   * for (Entity entity : future.get()) {
+   *   // do something with the entity
+   * }
+   * }</pre>
+   *
+   * @see #fetch(Iterable, ReadOption...)
+   */
+  ListenableFuture<List<Entity>> fetchAsync(Iterable<Key> keys, ReadOption... options);
+
+  /**
+   * Sends a request to run a {@link Query}. This method returns a {@code ListenableFuture} to
+   * consume the result. {@link ListenableFuture#get()} returns the query results as soon as the
+   * first batch of results is available. Only the first batch is requested asynchronously:
+   * iterating the returned {@link QueryResults} past the first batch sends blocking requests for
+   * further batches, as {@link #run(Query, ReadOption...)} does. {@link ReadOption}s can be
+   * specified if desired.
+   *
+   * <p>Example of running a query asynchronously.
+   * <pre> {@code
+   * StructuredQuery<Entity> query = Query.entityQueryBuilder()
+   *     .kind("my_kind")
+   *     .build();
+   * ListenableFuture<QueryResults<Entity>> future = datastore.runAsync(query);
+   * // ...
+   * QueryResults<Entity> results = future.get();
+   * while (results.hasNext()) {
+   *   Entity result = results.next();
+   *   // do something with result
+   * }
+   * }</pre>
+   *
+   * @see #run(Query, ReadOption...)
+   */
+  <T> ListenableFuture<QueryResults<T>> runAsync(Query<T> query, ReadOption... options);
+
+  /**
+   * Sends a request to put the given entities. This method returns a {@code ListenableFuture} to
+   * consume the result. {@link ListenableFuture#get()} returns the put entities, with the same
+   * semantics as {@link #put(FullEntity...)}.
+   *
+   * <p>Example of putting multiple entities asynchronously.
+   * <pre> {@code
+   * Key key1 = datastore.newKeyFactory().kind("MyKind").newKey("my_key_name1");
+   * Key key2 = datastore.newKeyFactory().kind("MyKind").newKey("my_key_name2");
+   * Entity entity1 = Entity.builder(key1).set("propertyName", "value1").build();
+   * Entity entity2 = Entity.builder(key2).set("propertyName", "value2").build();
+   * ListenableFuture<List<Entity>> future = datastore.putAsync(entity1, entity2);
+   * // ...
+   * List<Entity> entities = future.get();
+   * }</pre>
+   *
+   * @see #put(FullEntity...)
+   */
+  ListenableFuture<List<Entity>> putAsync(FullEntity<?>... entities);
+
+  /**
+   * Returns a snapshot of the statistics of the entity cache, or {@code null} if no entity cache
+   * was configured via {@link DatastoreOptions.Builder#entityCacheOptions(EntityCacheOptions)}.
+   *
+   * <p>Example of getting the entity cache statistics.
+   * <pre> {@code
+   * EntityCacheStats stats = datastore.entityCacheStats();
+   * if (stats != null) {
+   *   double hitRate = stats.hitRate();
+   * }
+   * }</pre>
+   *
+   */
+  EntityCacheStats entityCacheStats();
+
+  /**
+   * Releases the executor used to send asynchronous requests. Asynchronous requests sent after the
+   * service is closed fail with a {@link DatastoreException}, synchronous requests are not
+   * affected.
+   */
+  @Override
+  void close();
 }
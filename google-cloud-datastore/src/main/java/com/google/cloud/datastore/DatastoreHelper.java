@@ -16,6 +16,9 @@
 
 package com.google.cloud.datastore;
 
+import com.google.cloud.Clock;
+import com.google.cloud.RetryHelper.RetryInterruptedException;
+import com.google.cloud.RetryParams;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 
@@ -25,6 +28,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Provide functionality that should be added to the appropriate interfaces
@@ -75,7 +79,7 @@ class DatastoreHelper {
     return compileEntities(keys, reader.get(Arrays.asList(keys), options));
   }
 
-  private static List<Entity> compileEntities(Key[] keys, Iterator<Entity> entities) {
+  static List<Entity> compileEntities(Key[] keys, Iterator<Entity> entities) {
     Map<Key, Entity> map = Maps.newHashMapWithExpectedSize(keys.length);
     while (entities.hasNext()) {
       Entity entity = entities.next();
@@ -89,7 +93,51 @@ class DatastoreHelper {
     return list;
   }
 
-  static <T> T runInTransaction(Datastore datastore, Datastore.TransactionCallable<T> callable) {
+  static <T> T runInTransaction(Datastore datastore, Datastore.TransactionCallable<T> callable,
+      TransactionOption... options) {
+    Map<Class<? extends TransactionOption>, TransactionOption> optionsMap =
+        TransactionOption.asImmutableMap(options);
+    TransactionOption.RetryOnAbort retryOnAbort =
+        (TransactionOption.RetryOnAbort) optionsMap.get(TransactionOption.RetryOnAbort.class);
+    TransactionOption.Listener listenerOption =
+        (TransactionOption.Listener) optionsMap.get(TransactionOption.Listener.class);
+    RetryParams retryParams =
+        retryOnAbort != null ? retryOnAbort.retryParams() : RetryParams.noRetries();
+    TransactionOption.AttemptListener listener =
+        listenerOption != null ? listenerOption.listener() : null;
+    Clock clock = retryOnAbort != null ? datastore.options().clock() : null;
+    long start = clock != null ? clock.millis() : 0;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        T value = runInTransactionOnce(datastore, callable);
+        if (listener != null) {
+          listener.committed(attempt);
+        }
+        return value;
+      } catch (DatastoreException ex) {
+        DatastoreException aborted = abortedException(ex);
+        if (aborted == null) {
+          throw ex;
+        }
+        long elapsedMillis = clock != null ? clock.millis() - start : 0;
+        long backoffMillis = abortBackoffMillis(retryParams, attempt, elapsedMillis);
+        if (listener != null) {
+          listener.aborted(attempt, aborted, backoffMillis);
+        }
+        if (backoffMillis < 0) {
+          throw ex;
+        }
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (InterruptedException e) {
+          RetryInterruptedException.propagate();
+        }
+      }
+    }
+  }
+
+  private static <T> T runInTransactionOnce(Datastore datastore,
+      Datastore.TransactionCallable<T> callable) {
     Transaction transaction = datastore.newTransaction();
     try {
       T value = callable.run(transaction);
@@ -104,4 +152,43 @@ class DatastoreHelper {
       }
     }
   }
+
+  /**
+   * Returns the {@code ABORTED} exception that caused {@code ex}, or {@code null} if the
+   * transaction failed for a different reason.
+   */
+  private static DatastoreException abortedException(DatastoreException ex) {
+    if (isAborted(ex)) {
+      return ex;
+    }
+    Throwable cause = ex.getCause();
+    if (cause instanceof DatastoreException && isAborted((DatastoreException) cause)) {
+      return (DatastoreException) cause;
+    }
+    return null;
+  }
+
+  private static boolean isAborted(DatastoreException ex) {
+    return ex.code() == com.google.rpc.Code.ABORTED_VALUE;
+  }
+
+  /**
+   * Returns how long to wait before attempt {@code attempt + 1} of an aborted transaction, or
+   * {@code -1} if no more attempts should be made. The delay is drawn uniformly between zero and
+   * the exponential backoff delay.
+   */
+  static long abortBackoffMillis(RetryParams retryParams, int attempt, long elapsedMillis) {
+    if (attempt >= retryParams.retryMaxAttempts()) {
+      return -1;
+    }
+    double delay = retryParams.initialRetryDelayMillis()
+        * Math.pow(retryParams.retryDelayBackoffFactor(), attempt - 1);
+    long maxDelay = (long) Math.min(delay, retryParams.maxRetryDelayMillis());
+    long backoffMillis = (long) (ThreadLocalRandom.current().nextDouble() * maxDelay);
+    if (attempt >= retryParams.retryMinAttempts()
+        && elapsedMillis + backoffMillis >= retryParams.totalRetryPeriodMillis()) {
+      return -1;
+    }
+    return backoffMillis;
+  }
 }
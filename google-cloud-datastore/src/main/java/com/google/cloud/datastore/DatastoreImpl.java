@@ -22,17 +22,23 @@ import com.google.cloud.RetryHelper.RetryHelperException;
 import com.google.cloud.RetryParams;
 import com.google.cloud.datastore.ReadOption.EventualConsistency;
 import com.google.cloud.datastore.spi.DatastoreRpc;
+import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.datastore.v1.ReadOptions.ReadConsistency;
 import com.google.protobuf.ByteString;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -41,16 +47,22 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
 
 final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datastore {
 
   private final DatastoreRpc datastoreRpc;
   private final RetryParams retryParams;
+  private final EntityCache entityCache;
+  private ScheduledExecutorService asyncExecutor;
+  private boolean closed;
 
   DatastoreImpl(DatastoreOptions options) {
     super(options);
     this.datastoreRpc = options.rpc();
     retryParams = MoreObjects.firstNonNull(options.retryParams(), RetryParams.noRetries());
+    entityCache = options.entityCacheOptions() != null
+        ? new EntityCache(options.entityCacheOptions(), options.clock()) : null;
   }
 
   @Override
@@ -68,6 +80,11 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
     return DatastoreHelper.runInTransaction(this, callable);
   }
 
+  @Override
+  public <T> T runInTransaction(TransactionCallable<T> callable, TransactionOption... options) {
+    return DatastoreHelper.runInTransaction(this, callable, options);
+  }
+
   @Override
   public <T> QueryResults<T> run(Query<T> query) {
     return run(null, query);
@@ -82,6 +99,54 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
     return new QueryResultsImpl<>(this, readOptionsPb, query);
   }
 
+  @Override
+  public <T> ListenableFuture<QueryResults<T>> runAsync(Query<T> query, ReadOption... options) {
+    return QueryResultsImpl.runAsync(this, toReadOptionsPb(options), query);
+  }
+
+  /**
+   * Returns the executor used to run asynchronous requests or {@code null} if the service has been
+   * closed. Requests are sent with a blocking transport, each in-flight attempt therefore uses one
+   * of its threads, but retries never block while backing off. The executor is only acquired from
+   * the options' executor factory once an asynchronous request is sent.
+   */
+  private synchronized ScheduledExecutorService asyncExecutor() {
+    if (closed) {
+      return null;
+    }
+    if (asyncExecutor == null) {
+      asyncExecutor = options().executorFactory().get();
+    }
+    return asyncExecutor;
+  }
+
+  private <V> ListenableFuture<V> runWithRetriesAsync(Callable<V> callable) {
+    ScheduledExecutorService executor = asyncExecutor();
+    if (executor == null) {
+      return Futures.immediateFailedFuture(new DatastoreException(
+          DatastoreException.UNKNOWN_CODE, "Datastore service has been closed", null));
+    }
+    ListenableFuture<V> future = RetryHelper.runWithRetriesAsync(callable, retryParams,
+        EXCEPTION_HANDLER, options().clock(), executor);
+    return Futures.catching(future, RetryHelperException.class,
+        new Function<RetryHelperException, V>() {
+          @Override
+          public V apply(RetryHelperException exception) {
+            throw DatastoreException.translateAndThrow(exception);
+          }
+        });
+  }
+
+  ListenableFuture<com.google.datastore.v1.RunQueryResponse> runQueryAsync(
+      final com.google.datastore.v1.RunQueryRequest requestPb) {
+    return runWithRetriesAsync(new Callable<com.google.datastore.v1.RunQueryResponse>() {
+      @Override
+      public com.google.datastore.v1.RunQueryResponse call() throws DatastoreException {
+        return datastoreRpc.runQuery(requestPb);
+      }
+    });
+  }
+
   com.google.datastore.v1.RunQueryResponse runQuery(
       final com.google.datastore.v1.RunQueryRequest requestPb) {
     try {
@@ -235,15 +300,130 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
     if (keys.length == 0) {
       return Collections.emptyIterator();
     }
+    Set<Key> dedupKeys = Sets.newLinkedHashSet(Arrays.asList(keys));
+    if (entityCache != null && (readOptionsPb == null || EntityCache.isCacheable(readOptionsPb))) {
+      return getCached(readOptionsPb, dedupKeys);
+    }
+    return new ResultsIterator(lookupRequest(readOptionsPb, dedupKeys));
+  }
+
+  /**
+   * Looks up entities through the entity cache. Eventually consistent reads are served from the
+   * cache when possible, strongly consistent reads always go to Datastore and refresh the cache.
+   */
+  private Iterator<Entity> getCached(com.google.datastore.v1.ReadOptions readOptionsPb,
+      Set<Key> keys) {
+    List<Entity> entities = new ArrayList<>(keys.size());
+    Collection<Key> toLoad = keys;
+    if (readOptionsPb != null) {
+      toLoad = entityCache.getAll(keys, entities);
+      if (toLoad.isEmpty()) {
+        return entities.iterator();
+      }
+    }
+    long generation = entityCache.generation();
+    int hits = entities.size();
+    Iterators.addAll(entities, new ResultsIterator(lookupRequest(readOptionsPb, toLoad)));
+    entityCache.putAll(generation, toLoad, entities.subList(hits, entities.size()));
+    return entities.iterator();
+  }
+
+  private static com.google.datastore.v1.LookupRequest.Builder lookupRequest(
+      com.google.datastore.v1.ReadOptions readOptionsPb, Collection<Key> keys) {
     com.google.datastore.v1.LookupRequest.Builder requestPb =
         com.google.datastore.v1.LookupRequest.newBuilder();
     if (readOptionsPb != null) {
       requestPb.setReadOptions(readOptionsPb);
     }
-    for (Key k : Sets.newLinkedHashSet(Arrays.asList(keys))) {
+    for (Key k : keys) {
       requestPb.addKeys(k.toPb());
     }
-    return new ResultsIterator(requestPb);
+    return requestPb;
+  }
+
+  @Override
+  public ListenableFuture<Entity> getAsync(Key key, ReadOption... options) {
+    return Futures.transform(lookupEntitiesAsync(toReadOptionsPb(options), key),
+        new Function<List<Entity>, Entity>() {
+          @Override
+          public Entity apply(List<Entity> entities) {
+            return Iterables.getFirst(entities, null);
+          }
+        });
+  }
+
+  @Override
+  public ListenableFuture<List<Entity>> fetchAsync(Iterable<Key> keys, ReadOption... options) {
+    final Key[] keysArray = Iterables.toArray(keys, Key.class);
+    return Futures.transform(lookupEntitiesAsync(toReadOptionsPb(options), keysArray),
+        new Function<List<Entity>, List<Entity>>() {
+          @Override
+          public List<Entity> apply(List<Entity> entities) {
+            return DatastoreHelper.compileEntities(keysArray, entities.iterator());
+          }
+        });
+  }
+
+  /**
+   * Asynchronously looks up the given keys, following deferred results. The returned future
+   * completes with the entities that were found, in no particular order.
+   */
+  ListenableFuture<List<Entity>> lookupEntitiesAsync(
+      com.google.datastore.v1.ReadOptions readOptionsPb, Key... keys) {
+    if (keys.length == 0) {
+      return Futures.<List<Entity>>immediateFuture(Collections.<Entity>emptyList());
+    }
+    Set<Key> dedupKeys = Sets.newLinkedHashSet(Arrays.asList(keys));
+    if (entityCache == null
+        || readOptionsPb != null && !EntityCache.isCacheable(readOptionsPb)) {
+      return lookupAllAsync(lookupRequest(readOptionsPb, dedupKeys), new ArrayList<Entity>());
+    }
+    List<Entity> entities = new ArrayList<>(dedupKeys.size());
+    final Collection<Key> toLoad =
+        readOptionsPb != null ? entityCache.getAll(dedupKeys, entities) : dedupKeys;
+    if (toLoad.isEmpty()) {
+      return Futures.immediateFuture(entities);
+    }
+    final long generation = entityCache.generation();
+    final int hits = entities.size();
+    return Futures.transform(lookupAllAsync(lookupRequest(readOptionsPb, toLoad), entities),
+        new Function<List<Entity>, List<Entity>>() {
+          @Override
+          public List<Entity> apply(List<Entity> result) {
+            entityCache.putAll(generation, toLoad, result.subList(hits, result.size()));
+            return result;
+          }
+        });
+  }
+
+  private ListenableFuture<List<Entity>> lookupAllAsync(
+      final com.google.datastore.v1.LookupRequest.Builder requestPb, final List<Entity> found) {
+    return Futures.transformAsync(lookupAsync(requestPb.build()),
+        new AsyncFunction<com.google.datastore.v1.LookupResponse, List<Entity>>() {
+          @Override
+          public ListenableFuture<List<Entity>> apply(
+              com.google.datastore.v1.LookupResponse responsePb) {
+            for (com.google.datastore.v1.EntityResult entityResultPb : responsePb.getFoundList()) {
+              found.add(Entity.fromPb(entityResultPb.getEntity()));
+            }
+            if (responsePb.getDeferredCount() == 0) {
+              return Futures.immediateFuture(found);
+            }
+            requestPb.clearKeys();
+            requestPb.addAllKeys(responsePb.getDeferredList());
+            return lookupAllAsync(requestPb, found);
+          }
+        });
+  }
+
+  ListenableFuture<com.google.datastore.v1.LookupResponse> lookupAsync(
+      final com.google.datastore.v1.LookupRequest requestPb) {
+    return runWithRetriesAsync(new Callable<com.google.datastore.v1.LookupResponse>() {
+      @Override
+      public com.google.datastore.v1.LookupResponse call() throws DatastoreException {
+        return datastoreRpc.lookup(requestPb);
+      }
+    });
   }
 
   final class ResultsIterator extends AbstractIterator<Entity> {
@@ -315,14 +495,40 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
     return DatastoreHelper.put(this, entity);
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public List<Entity> put(FullEntity<?>... entities) {
     if (entities.length == 0) {
       return Collections.emptyList();
     }
-    List<com.google.datastore.v1.Mutation> mutationsPb = new ArrayList<>();
     Map<Key, Entity> dedupEntities = new LinkedHashMap<>();
+    com.google.datastore.v1.CommitResponse commitResponse =
+        commitMutation(toPutMutationsPb(entities, dedupEntities));
+    return toPutResult(entities, dedupEntities, commitResponse);
+  }
+
+  @Override
+  public ListenableFuture<List<Entity>> putAsync(final FullEntity<?>... entities) {
+    if (entities.length == 0) {
+      return Futures.<List<Entity>>immediateFuture(Collections.<Entity>emptyList());
+    }
+    final Map<Key, Entity> dedupEntities = new LinkedHashMap<>();
+    return Futures.transform(commitMutationAsync(toPutMutationsPb(entities, dedupEntities)),
+        new Function<com.google.datastore.v1.CommitResponse, List<Entity>>() {
+          @Override
+          public List<Entity> apply(com.google.datastore.v1.CommitResponse commitResponse) {
+            return toPutResult(entities, dedupEntities, commitResponse);
+          }
+        });
+  }
+
+  /**
+   * Returns the upsert mutations for {@code entities}. Entities with a complete key are
+   * deduplicated into {@code dedupEntities}.
+   */
+  @SuppressWarnings("unchecked")
+  private static List<com.google.datastore.v1.Mutation> toPutMutationsPb(
+      FullEntity<?>[] entities, Map<Key, Entity> dedupEntities) {
+    List<com.google.datastore.v1.Mutation> mutationsPb = new ArrayList<>();
     for (FullEntity<?> entity : entities) {
       Preconditions.checkArgument(entity.hasKey(), "Entity %s is missing a key", entity);
       if (entity.key() instanceof Key) {
@@ -337,7 +543,11 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
       mutationsPb.add(
           com.google.datastore.v1.Mutation.newBuilder().setUpsert(entity.toPb()).build());
     }
-    com.google.datastore.v1.CommitResponse commitResponse = commitMutation(mutationsPb);
+    return mutationsPb;
+  }
+
+  private static List<Entity> toPutResult(FullEntity<?>[] entities,
+      Map<Key, Entity> dedupEntities, com.google.datastore.v1.CommitResponse commitResponse) {
     Iterator<com.google.datastore.v1.MutationResult> mutationResults =
         commitResponse.getMutationResultsList().iterator();
     ImmutableList.Builder<Entity> responseBuilder = ImmutableList.builder();
@@ -380,10 +590,53 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
     return commit(requestPb.build());
   }
 
+  private ListenableFuture<com.google.datastore.v1.CommitResponse> commitMutationAsync(
+      List<com.google.datastore.v1.Mutation> mutationsPb) {
+    com.google.datastore.v1.CommitRequest.Builder requestPb =
+        com.google.datastore.v1.CommitRequest.newBuilder();
+    requestPb.setMode(com.google.datastore.v1.CommitRequest.Mode.NON_TRANSACTIONAL);
+    requestPb.addAllMutations(mutationsPb);
+    return commitAsync(requestPb.build());
+  }
+
+  ListenableFuture<com.google.datastore.v1.CommitResponse> commitAsync(
+      final com.google.datastore.v1.CommitRequest requestPb) {
+    ListenableFuture<com.google.datastore.v1.CommitResponse> future =
+        runWithRetriesAsync(new Callable<com.google.datastore.v1.CommitResponse>() {
+          @Override
+          public com.google.datastore.v1.CommitResponse call() throws DatastoreException {
+            return datastoreRpc.commit(requestPb);
+          }
+        });
+    if (entityCache == null) {
+      return future;
+    }
+    // the outcome of a failed commit is unknown, invalidate the keys in any case
+    future = Futures.catching(future, DatastoreException.class,
+        new Function<DatastoreException, com.google.datastore.v1.CommitResponse>() {
+          @Override
+          public com.google.datastore.v1.CommitResponse apply(DatastoreException exception) {
+            entityCache.invalidate(requestPb.getMutationsList());
+            throw exception;
+          }
+        });
+    return Futures.transform(future,
+        new Function<com.google.datastore.v1.CommitResponse,
+            com.google.datastore.v1.CommitResponse>() {
+          @Override
+          public com.google.datastore.v1.CommitResponse apply(
+              com.google.datastore.v1.CommitResponse responsePb) {
+            entityCache.invalidateGenerated(responsePb.getMutationResultsList());
+            entityCache.invalidate(requestPb.getMutationsList());
+            return responsePb;
+          }
+        });
+  }
+
   com.google.datastore.v1.CommitResponse commit(
       final com.google.datastore.v1.CommitRequest requestPb) {
     try {
-      return RetryHelper.runWithRetries(
+      com.google.datastore.v1.CommitResponse responsePb = RetryHelper.runWithRetries(
           new Callable<com.google.datastore.v1.CommitResponse>() {
             @Override
             public com.google.datastore.v1.CommitResponse call() throws DatastoreException {
@@ -392,8 +645,34 @@ final class DatastoreImpl extends BaseService<DatastoreOptions> implements Datas
           },
           retryParams,
           EXCEPTION_HANDLER, options().clock());
+      if (entityCache != null) {
+        entityCache.invalidateGenerated(responsePb.getMutationResultsList());
+      }
+      return responsePb;
     } catch (RetryHelperException e) {
       throw DatastoreException.translateAndThrow(e);
+    } finally {
+      if (entityCache != null) {
+        // the outcome of a failed commit is unknown, invalidate the keys in any case
+        entityCache.invalidate(requestPb.getMutationsList());
+      }
+    }
+  }
+
+  @Override
+  public EntityCacheStats entityCacheStats() {
+    return entityCache != null ? entityCache.stats() : null;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (asyncExecutor != null) {
+      options().executorFactory().release(asyncExecutor);
+      asyncExecutor = null;
     }
   }
 
@@ -20,17 +20,23 @@ import static com.google.cloud.datastore.Validator.validateNamespace;
 
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.cloud.HttpServiceOptions;
 import com.google.cloud.datastore.spi.DatastoreRpc;
 import com.google.cloud.datastore.spi.DatastoreRpcFactory;
 import com.google.cloud.datastore.spi.DefaultDatastoreRpc;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.lang.reflect.Method;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class DatastoreOptions
     extends HttpServiceOptions<Datastore, DatastoreRpc, DatastoreOptions> {
@@ -40,6 +46,10 @@ public class DatastoreOptions
   private static final Set<String> SCOPES = ImmutableSet.of(DATASTORE_SCOPE);
 
   private final String namespace;
+  private final EntityCacheOptions entityCacheOptions;
+  private final String executorFactoryClassName;
+
+  private transient ExecutorFactory<ScheduledExecutorService> executorFactory;
 
   public static class DefaultDatastoreFactory implements DatastoreFactory {
 
@@ -61,10 +71,53 @@ public class DatastoreOptions
     }
   }
 
+  /**
+   * The default factory of the executor used to send asynchronous requests. Clients share a pool of
+   * up to 8 daemon threads, that is shut down once all clients using it are closed.
+   */
+  public static class DefaultExecutorFactory implements ExecutorFactory<ScheduledExecutorService> {
+
+    private static final DefaultExecutorFactory INSTANCE = new DefaultExecutorFactory();
+    private static final int THREADS = 8;
+
+    private static ScheduledExecutorService executor;
+    private static int references;
+
+    @Override
+    public ScheduledExecutorService get() {
+      synchronized (DefaultExecutorFactory.class) {
+        if (references++ == 0) {
+          ScheduledThreadPoolExecutor service = new ScheduledThreadPoolExecutor(THREADS,
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("datastore-async-%d")
+                  .build());
+          service.setKeepAliveTime(5, TimeUnit.SECONDS);
+          service.allowCoreThreadTimeOut(true);
+          service.setRemoveOnCancelPolicy(true);
+          executor = service;
+        }
+        return executor;
+      }
+    }
+
+    @Override
+    public void release(ScheduledExecutorService executor) {
+      synchronized (DefaultExecutorFactory.class) {
+        if (executor == DefaultExecutorFactory.executor && --references == 0) {
+          executor.shutdown();
+          DefaultExecutorFactory.executor = null;
+        }
+      }
+    }
+  }
+
   public static class Builder extends
       HttpServiceOptions.Builder<Datastore, DatastoreRpc, DatastoreOptions, Builder> {
 
     private String namespace;
+    private EntityCacheOptions entityCacheOptions;
+    private ExecutorFactory<ScheduledExecutorService> executorFactory;
 
     private Builder() {
     }
@@ -72,6 +125,8 @@ public class DatastoreOptions
     private Builder(DatastoreOptions options) {
       super(options);
       namespace = options.namespace;
+      entityCacheOptions = options.entityCacheOptions;
+      executorFactory = options.executorFactory;
     }
 
     @Override
@@ -86,11 +141,41 @@ public class DatastoreOptions
       this.namespace = validateNamespace(namespace);
       return this;
     }
+
+    /**
+     * Enables a client-side cache for entities looked up with
+     * {@link ReadOption#eventualConsistency()}. By default no cache is used.
+     *
+     * @see EntityCacheOptions
+     */
+    public Builder entityCacheOptions(EntityCacheOptions entityCacheOptions) {
+      this.entityCacheOptions = entityCacheOptions;
+      return this;
+    }
+
+    /**
+     * Sets the factory of the scheduled executor used to send asynchronous requests and to schedule
+     * their retries. Each in-flight asynchronous request uses one of the executor's threads, the
+     * executor therefore bounds the number of concurrent asynchronous requests. If not set, clients
+     * share a pool of up to 8 threads (see {@link DefaultExecutorFactory}). The executor is
+     * acquired when the first asynchronous request is sent and released when the service is
+     * closed.
+     *
+     * @return the builder
+     */
+    public Builder executorFactory(ExecutorFactory<ScheduledExecutorService> executorFactory) {
+      this.executorFactory = executorFactory;
+      return this;
+    }
   }
 
   private DatastoreOptions(Builder builder) {
     super(DatastoreFactory.class, DatastoreRpcFactory.class, builder);
     namespace = builder.namespace != null ? builder.namespace : defaultNamespace();
+    entityCacheOptions = builder.entityCacheOptions;
+    executorFactory = MoreObjects.<ExecutorFactory<ScheduledExecutorService>>firstNonNull(
+        builder.executorFactory, DefaultExecutorFactory.INSTANCE);
+    executorFactoryClassName = executorFactory.getClass().getName();
   }
 
   @Override
@@ -138,6 +223,20 @@ public class DatastoreOptions
     return namespace;
   }
 
+  /**
+   * Returns the options of the client-side entity cache or {@code null} if no cache is used.
+   */
+  public EntityCacheOptions entityCacheOptions() {
+    return entityCacheOptions;
+  }
+
+  /**
+   * Returns the factory of the scheduled executor used to send asynchronous requests.
+   */
+  protected ExecutorFactory<ScheduledExecutorService> executorFactory() {
+    return executorFactory;
+  }
+
   /**
    * Returns a default {@code DatastoreOptions} instance.
    */
@@ -170,7 +269,7 @@ public class DatastoreOptions
 
   @Override
   public int hashCode() {
-    return Objects.hash(baseHashCode(), namespace);
+    return Objects.hash(baseHashCode(), namespace, entityCacheOptions, executorFactoryClassName);
   }
 
   @Override
@@ -179,7 +278,24 @@ public class DatastoreOptions
       return false;
     }
     DatastoreOptions other = (DatastoreOptions) obj;
-    return baseEquals(other) && Objects.equals(namespace, other.namespace);
+    return baseEquals(other) && Objects.equals(namespace, other.namespace)
+        && Objects.equals(entityCacheOptions, other.entityCacheOptions)
+        && Objects.equals(executorFactoryClassName, other.executorFactoryClassName);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+    input.defaultReadObject();
+    Class<?> factoryClass = Class.forName(executorFactoryClassName);
+    if (factoryClass == DefaultExecutorFactory.class) {
+      executorFactory = DefaultExecutorFactory.INSTANCE;
+      return;
+    }
+    try {
+      executorFactory = (ExecutorFactory<ScheduledExecutorService>) factoryClass.newInstance();
+    } catch (InstantiationException | IllegalAccessException e) {
+      throw new IOException(e);
+    }
   }
 
   public static Builder builder() {
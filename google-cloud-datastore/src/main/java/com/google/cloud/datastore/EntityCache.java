@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import com.google.cloud.Clock;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.datastore.v1.ReadOptions.ReadConsistency;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-through cache of entities, used by {@link DatastoreImpl} for eventually consistent
+ * lookups. Missing entities are cached as absent values if
+ * {@link EntityCacheOptions#cacheMissingEntities()} is set.
+ */
+final class EntityCache {
+
+  private final Cache<Key, Optional<Entity>> cache;
+  private final boolean cacheMissingEntities;
+  private final AtomicLong negativeHitCount = new AtomicLong();
+  // incremented on every write, used to discard lookups that raced with an invalidation
+  private final AtomicLong generation = new AtomicLong();
+
+  EntityCache(EntityCacheOptions options, final Clock clock) {
+    this.cacheMissingEntities = options.cacheMissingEntities();
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(options.maxSize())
+        .expireAfterWrite(options.expireAfterWriteMillis(), TimeUnit.MILLISECONDS)
+        .ticker(new Ticker() {
+          @Override
+          public long read() {
+            return TimeUnit.MILLISECONDS.toNanos(clock.millis());
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns whether a lookup with the provided read options can be served from the cache. Only
+   * non-transactional, eventually consistent reads can.
+   */
+  static boolean isCacheable(com.google.datastore.v1.ReadOptions readOptionsPb) {
+    return readOptionsPb != null
+        && readOptionsPb.getConsistencyTypeCase()
+            == com.google.datastore.v1.ReadOptions.ConsistencyTypeCase.READ_CONSISTENCY
+        && readOptionsPb.getReadConsistency() == ReadConsistency.EVENTUAL;
+  }
+
+  /**
+   * Returns the current write generation. Callers should read it before looking up entities and
+   * pass it to {@link #putAll} so that stale results are not cached.
+   */
+  long generation() {
+    return generation.get();
+  }
+
+  /**
+   * Looks up the given keys in the cache. Found entities are added to {@code hits}, keys known not
+   * to exist are skipped and the keys that are not cached are returned.
+   */
+  List<Key> getAll(Set<Key> keys, List<Entity> hits) {
+    List<Key> misses = new ArrayList<>();
+    Map<Key, Optional<Entity>> cached = cache.getAllPresent(keys);
+    for (Key key : keys) {
+      Optional<Entity> entity = cached.get(key);
+      if (entity == null) {
+        misses.add(key);
+      } else if (entity.isPresent()) {
+        hits.add(entity.get());
+      } else {
+        negativeHitCount.incrementAndGet();
+      }
+    }
+    return misses;
+  }
+
+  /**
+   * Caches the entities loaded from Datastore for the requested keys. Requested keys that were not
+   * found are cached as missing. Nothing is cached if a write happened since {@code generation}.
+   */
+  void putAll(long generation, Iterable<Key> requested, Iterable<Entity> found) {
+    if (this.generation.get() != generation) {
+      return;
+    }
+    Set<Key> missing = new LinkedHashSet<>();
+    for (Key key : requested) {
+      missing.add(key);
+    }
+    for (Entity entity : found) {
+      cache.put(entity.key(), Optional.of(entity));
+      missing.remove(entity.key());
+    }
+    if (cacheMissingEntities) {
+      for (Key key : missing) {
+        cache.put(key, Optional.<Entity>absent());
+      }
+    }
+    if (this.generation.get() != generation) {
+      // a write raced with this lookup, its results may be stale
+      cache.invalidateAll(requested);
+    }
+  }
+
+  /**
+   * Invalidates the keys affected by the given mutations.
+   */
+  void invalidate(Iterable<com.google.datastore.v1.Mutation> mutationsPb) {
+    generation.incrementAndGet();
+    List<Key> keys = new ArrayList<>();
+    for (com.google.datastore.v1.Mutation mutationPb : mutationsPb) {
+      com.google.datastore.v1.Key keyPb;
+      switch (mutationPb.getOperationCase()) {
+        case INSERT:
+          keyPb = mutationPb.getInsert().getKey();
+          break;
+        case UPDATE:
+          keyPb = mutationPb.getUpdate().getKey();
+          break;
+        case UPSERT:
+          keyPb = mutationPb.getUpsert().getKey();
+          break;
+        case DELETE:
+          keyPb = mutationPb.getDelete();
+          break;
+        default:
+          continue;
+      }
+      if (isComplete(keyPb)) {
+        keys.add(Key.fromPb(keyPb));
+      }
+    }
+    cache.invalidateAll(keys);
+  }
+
+  /**
+   * Invalidates the keys generated by Datastore for inserted entities with incomplete keys.
+   */
+  void invalidateGenerated(Iterable<com.google.datastore.v1.MutationResult> resultsPb) {
+    List<Key> keys = new ArrayList<>();
+    for (com.google.datastore.v1.MutationResult resultPb : resultsPb) {
+      if (resultPb.hasKey()) {
+        keys.add(Key.fromPb(resultPb.getKey()));
+      }
+    }
+    cache.invalidateAll(keys);
+  }
+
+  EntityCacheStats stats() {
+    CacheStats stats = cache.stats();
+    return new EntityCacheStats(stats.hitCount(), negativeHitCount.get(), stats.missCount(),
+        stats.evictionCount(), cache.size());
+  }
+
+  private static boolean isComplete(com.google.datastore.v1.Key keyPb) {
+    int pathCount = keyPb.getPathCount();
+    if (pathCount == 0) {
+      return false;
+    }
+    com.google.datastore.v1.Key.PathElement last = keyPb.getPath(pathCount - 1);
+    return last.getIdTypeCase()
+        != com.google.datastore.v1.Key.PathElement.IdTypeCase.IDTYPE_NOT_SET;
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for the client-side entity cache. When set via
+ * {@link DatastoreOptions.Builder#entityCacheOptions(EntityCacheOptions)}, entities looked up with
+ * {@link ReadOption#eventualConsistency()} are served from an in-memory cache that is bounded both
+ * in size and in the time an entry is kept. Strongly consistent reads always go to Datastore and
+ * refresh the cache. Writes issued through the same {@link Datastore} instance (including batches
+ * and transactions) invalidate the written keys.
+ *
+ * <p>Example of enabling the entity cache.
+ * <pre> {@code
+ * EntityCacheOptions cacheOptions = EntityCacheOptions.builder()
+ *     .maxSize(10_000)
+ *     .expireAfterWrite(30, TimeUnit.SECONDS)
+ *     .build();
+ * Datastore datastore = DatastoreOptions.builder()
+ *     .entityCacheOptions(cacheOptions)
+ *     .build()
+ *     .service();
+ * Entity entity = datastore.get(key, ReadOption.eventualConsistency());
+ * }</pre>
+ */
+public final class EntityCacheOptions implements Serializable {
+
+  private static final long serialVersionUID = 2927389464736815380L;
+
+  public static final long DEFAULT_MAX_SIZE = 1_000L;
+  public static final long DEFAULT_EXPIRE_AFTER_WRITE_MILLIS = 60_000L;
+
+  private final long maxSize;
+  private final long expireAfterWriteMillis;
+  private final boolean cacheMissingEntities;
+
+  /**
+   * Builder for {@code EntityCacheOptions}.
+   */
+  public static final class Builder {
+
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long expireAfterWriteMillis = DEFAULT_EXPIRE_AFTER_WRITE_MILLIS;
+    private boolean cacheMissingEntities = true;
+
+    private Builder() {}
+
+    private Builder(EntityCacheOptions options) {
+      maxSize = options.maxSize;
+      expireAfterWriteMillis = options.expireAfterWriteMillis;
+      cacheMissingEntities = options.cacheMissingEntities;
+    }
+
+    /**
+     * Sets the maximum number of keys kept in the cache. Least recently used entries are evicted
+     * when the limit is reached.
+     */
+    public Builder maxSize(long maxSize) {
+      checkArgument(maxSize > 0, "maxSize must be positive");
+      this.maxSize = maxSize;
+      return this;
+    }
+
+    /**
+     * Sets the time after which a cached entry expires, measured from when it was loaded.
+     */
+    public Builder expireAfterWrite(long duration, TimeUnit unit) {
+      checkArgument(duration > 0, "duration must be positive");
+      this.expireAfterWriteMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    /**
+     * Sets whether lookups of nonexistent keys should be cached. If {@code true} (the default),
+     * repeated lookups of a missing key are answered from the cache until the entry expires or the
+     * key is written.
+     */
+    public Builder cacheMissingEntities(boolean cacheMissingEntities) {
+      this.cacheMissingEntities = cacheMissingEntities;
+      return this;
+    }
+
+    /**
+     * Creates an {@code EntityCacheOptions} object.
+     */
+    public EntityCacheOptions build() {
+      return new EntityCacheOptions(this);
+    }
+  }
+
+  private EntityCacheOptions(Builder builder) {
+    maxSize = builder.maxSize;
+    expireAfterWriteMillis = builder.expireAfterWriteMillis;
+    cacheMissingEntities = builder.cacheMissingEntities;
+  }
+
+  /**
+   * Returns the maximum number of keys kept in the cache.
+   */
+  public long maxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Returns the time, in milliseconds, after which a cached entry expires.
+   */
+  public long expireAfterWriteMillis() {
+    return expireAfterWriteMillis;
+  }
+
+  /**
+   * Returns whether lookups of nonexistent keys are cached.
+   */
+  public boolean cacheMissingEntities() {
+    return cacheMissingEntities;
+  }
+
+  /**
+   * Returns a builder for the current options.
+   */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(maxSize, expireAfterWriteMillis, cacheMissingEntities);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof EntityCacheOptions)) {
+      return false;
+    }
+    EntityCacheOptions other = (EntityCacheOptions) obj;
+    return maxSize == other.maxSize
+        && expireAfterWriteMillis == other.expireAfterWriteMillis
+        && cacheMissingEntities == other.cacheMissingEntities;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("maxSize", maxSize)
+        .add("expireAfterWriteMillis", expireAfterWriteMillis)
+        .add("cacheMissingEntities", cacheMissingEntities)
+        .toString();
+  }
+
+  /**
+   * Returns a builder for {@code EntityCacheOptions} objects.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns an {@code EntityCacheOptions} object with default settings.
+   */
+  public static EntityCacheOptions defaultInstance() {
+    return builder().build();
+  }
+}
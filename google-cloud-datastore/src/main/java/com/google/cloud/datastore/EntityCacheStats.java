@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Objects;
+
+/**
+ * A snapshot of the statistics of a Datastore entity cache.
+ *
+ * @see Datastore#entityCacheStats()
+ */
+public final class EntityCacheStats {
+
+  private final long hitCount;
+  private final long negativeHitCount;
+  private final long missCount;
+  private final long evictionCount;
+  private final long size;
+
+  EntityCacheStats(long hitCount, long negativeHitCount, long missCount, long evictionCount,
+      long size) {
+    this.hitCount = hitCount;
+    this.negativeHitCount = negativeHitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+    this.size = size;
+  }
+
+  /**
+   * Returns the number of keys served from the cache, including the keys known not to exist.
+   */
+  public long hitCount() {
+    return hitCount;
+  }
+
+  /**
+   * Returns the number of keys served from the cache that were known not to exist.
+   */
+  public long negativeHitCount() {
+    return negativeHitCount;
+  }
+
+  /**
+   * Returns the number of keys that had to be looked up in Datastore.
+   */
+  public long missCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the number of entries evicted from the cache because of size or expiration.
+   */
+  public long evictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the approximate number of entries in the cache.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Returns the ratio of cache hits to the total number of cacheable key lookups, or {@code 1.0}
+   * if no lookup was made.
+   */
+  public double hitRate() {
+    long requestCount = hitCount + missCount;
+    return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(hitCount, negativeHitCount, missCount, evictionCount, size);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof EntityCacheStats)) {
+      return false;
+    }
+    EntityCacheStats other = (EntityCacheStats) obj;
+    return hitCount == other.hitCount
+        && negativeHitCount == other.negativeHitCount
+        && missCount == other.missCount
+        && evictionCount == other.evictionCount
+        && size == other.size;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("hitCount", hitCount)
+        .add("negativeHitCount", negativeHitCount)
+        .add("missCount", missCount)
+        .add("evictionCount", evictionCount)
+        .add("size", size)
+        .toString();
+  }
+}
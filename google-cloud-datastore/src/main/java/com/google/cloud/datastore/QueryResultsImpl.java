@@ -17,8 +17,11 @@
 package com.google.cloud.datastore;
 
 import com.google.cloud.datastore.Query.ResultType;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.datastore.v1.QueryResultBatch.MoreResultsType;
 import com.google.protobuf.ByteString;
 
@@ -41,10 +44,53 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
 
   QueryResultsImpl(DatastoreImpl datastore, com.google.datastore.v1.ReadOptions readOptionsPb,
                    Query<T> query) {
+    this(datastore, readOptionsPb, query, partitionIdPb(datastore, query), null, null);
+  }
+
+  private QueryResultsImpl(DatastoreImpl datastore,
+      com.google.datastore.v1.ReadOptions readOptionsPb, Query<T> query,
+      com.google.datastore.v1.PartitionId partitionIdPb,
+      com.google.datastore.v1.RunQueryRequest requestPb,
+      com.google.datastore.v1.RunQueryResponse responsePb) {
     this.datastore = datastore;
     this.readOptionsPb = readOptionsPb;
     this.query = query;
     queryResultType = query.type();
+    this.partitionIdPb = partitionIdPb;
+    if (responsePb == null) {
+      sendRequest();
+    } else {
+      setResponse(requestPb, responsePb);
+    }
+    if (runQueryResponsePb.getBatch().getSkippedResults() > 0) {
+      cursor = runQueryResponsePb.getBatch().getSkippedCursor();
+    } else {
+      cursor = mostRecentQueryPb.getStartCursor();
+    }
+  }
+
+  /**
+   * Sends the request for the first batch of results asynchronously. The returned future completes
+   * with the query results once the first batch is available. Further batches are requested
+   * synchronously, by the thread iterating the results past the previous batch.
+   */
+  static <T> ListenableFuture<QueryResults<T>> runAsync(final DatastoreImpl datastore,
+      final com.google.datastore.v1.ReadOptions readOptionsPb, final Query<T> query) {
+    final com.google.datastore.v1.PartitionId partitionIdPb = partitionIdPb(datastore, query);
+    final com.google.datastore.v1.RunQueryRequest requestPb =
+        requestPb(readOptionsPb, partitionIdPb, query);
+    return Futures.transform(datastore.runQueryAsync(requestPb),
+        new Function<com.google.datastore.v1.RunQueryResponse, QueryResults<T>>() {
+          @Override
+          public QueryResults<T> apply(com.google.datastore.v1.RunQueryResponse responsePb) {
+            return new QueryResultsImpl<>(datastore, readOptionsPb, query, partitionIdPb,
+                requestPb, responsePb);
+          }
+        });
+  }
+
+  private static com.google.datastore.v1.PartitionId partitionIdPb(DatastoreImpl datastore,
+      Query<?> query) {
     com.google.datastore.v1.PartitionId.Builder pbBuilder =
          com.google.datastore.v1.PartitionId.newBuilder();
     pbBuilder.setProjectId(datastore.options().projectId());
@@ -53,16 +99,12 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
     } else if (datastore.options().namespace() != null) {
       pbBuilder.setNamespaceId(datastore.options().namespace());
     }
-    partitionIdPb = pbBuilder.build();
-    sendRequest();
-    if (runQueryResponsePb.getBatch().getSkippedResults() > 0) {
-      cursor = runQueryResponsePb.getBatch().getSkippedCursor();
-    } else {
-      cursor = mostRecentQueryPb.getStartCursor();
-    }
+    return pbBuilder.build();
   }
 
-  private void sendRequest() {
+  private static com.google.datastore.v1.RunQueryRequest requestPb(
+      com.google.datastore.v1.ReadOptions readOptionsPb,
+      com.google.datastore.v1.PartitionId partitionIdPb, Query<?> query) {
     com.google.datastore.v1.RunQueryRequest.Builder requestPb =
         com.google.datastore.v1.RunQueryRequest.newBuilder();
     if (readOptionsPb != null) {
@@ -70,7 +112,18 @@ class QueryResultsImpl<T> extends AbstractIterator<T> implements QueryResults<T>
     }
     requestPb.setPartitionId(partitionIdPb);
     query.populatePb(requestPb);
-    runQueryResponsePb = datastore.runQuery(requestPb.build());
+    return requestPb.build();
+  }
+
+  private void sendRequest() {
+    com.google.datastore.v1.RunQueryRequest requestPb =
+        requestPb(readOptionsPb, partitionIdPb, query);
+    setResponse(requestPb, datastore.runQuery(requestPb));
+  }
+
+  private void setResponse(com.google.datastore.v1.RunQueryRequest requestPb,
+      com.google.datastore.v1.RunQueryResponse responsePb) {
+    runQueryResponsePb = responsePb;
     mostRecentQueryPb = runQueryResponsePb.getQuery();
     if (mostRecentQueryPb == null) {
       mostRecentQueryPb = requestPb.getQuery();
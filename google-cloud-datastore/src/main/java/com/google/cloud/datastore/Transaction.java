@@ -16,6 +16,8 @@
 
 package com.google.cloud.datastore;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import java.util.Iterator;
 import java.util.List;
 
@@ -185,6 +187,32 @@ public interface Transaction extends DatastoreBatchWriter, DatastoreReaderWriter
    */
   Response commit();
 
+  /**
+   * Sends a request to commit the transaction. This method returns a {@code ListenableFuture} to
+   * consume the result. {@link ListenableFuture#get()} returns the commit response. The
+   * transaction is no longer active once the commit succeeds. If the commit fails,
+   * {@link ListenableFuture#get()} throws an {@link java.util.concurrent.ExecutionException} caused
+   * by a {@link DatastoreException} and the transaction is still active, so it can be rolled back.
+   * The transaction should not be modified while the commit is in progress.
+   *
+   * <p>Example of committing a transaction asynchronously.
+   * <pre> {@code
+   * // create an entity
+   * KeyFactory keyFactory = datastore.newKeyFactory().kind("MyKind");
+   * Key key = datastore.allocateId(keyFactory.newKey());
+   * Entity entity = Entity.builder(key).set("description", "commitAsync()").build();
+   *
+   * // add the entity and commit
+   * transaction.put(entity);
+   * ListenableFuture<Transaction.Response> future = transaction.commitAsync();
+   * // ...
+   * Transaction.Response response = future.get();
+   * }</pre>
+   *
+   * @throws DatastoreException if no longer active
+   */
+  ListenableFuture<Response> commitAsync();
+
   /**
    * Rollback the transaction.
    *
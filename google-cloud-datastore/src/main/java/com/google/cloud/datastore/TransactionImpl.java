@@ -16,6 +16,9 @@
 
 package com.google.cloud.datastore;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
 
 import java.util.ArrayList;
@@ -101,6 +104,26 @@ final class TransactionImpl extends BaseDatastoreBatchWriter implements Transact
     return new ResponseImpl(responsePb, toAddAutoId().size());
   }
 
+  @Override
+  public ListenableFuture<Transaction.Response> commitAsync() {
+    validateActive();
+    List<com.google.datastore.v1.Mutation> mutationsPb = toMutationPbList();
+    com.google.datastore.v1.CommitRequest.Builder requestPb =
+        com.google.datastore.v1.CommitRequest.newBuilder();
+    requestPb.setMode(com.google.datastore.v1.CommitRequest.Mode.TRANSACTIONAL);
+    requestPb.setTransaction(transaction);
+    requestPb.addAllMutations(mutationsPb);
+    final int numAutoAllocatedIds = toAddAutoId().size();
+    return Futures.transform(datastore.commitAsync(requestPb.build()),
+        new Function<com.google.datastore.v1.CommitResponse, Transaction.Response>() {
+          @Override
+          public Transaction.Response apply(com.google.datastore.v1.CommitResponse responsePb) {
+            deactivate();
+            return new ResponseImpl(responsePb, numAutoAllocatedIds);
+          }
+        });
+  }
+
   @Override
   public void rollback() {
     if (rolledback) {
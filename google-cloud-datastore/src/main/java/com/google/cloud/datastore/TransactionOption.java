@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.RetryParams;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * Specifies options for {@link Datastore#runInTransaction(Datastore.TransactionCallable,
+ * TransactionOption...)}.
+ */
+public abstract class TransactionOption {
+
+  /**
+   * Specifies that transactions aborted because of contention should be retried.
+   */
+  public static final class RetryOnAbort extends TransactionOption {
+
+    private final RetryParams retryParams;
+
+    private RetryOnAbort(RetryParams retryParams) {
+      this.retryParams = checkNotNull(retryParams);
+    }
+
+    public RetryParams retryParams() {
+      return retryParams;
+    }
+  }
+
+  /**
+   * Specifies a listener that is notified of every transaction attempt.
+   */
+  public static final class Listener extends TransactionOption {
+
+    private final AttemptListener listener;
+
+    private Listener(AttemptListener listener) {
+      this.listener = checkNotNull(listener);
+    }
+
+    public AttemptListener listener() {
+      return listener;
+    }
+  }
+
+  /**
+   * Interface for objects notified of the outcome of transaction attempts.
+   */
+  public interface AttemptListener {
+
+    /**
+     * Called when attempt number {@code attempt} (starting at 1) was aborted because of contention.
+     * {@code backoffMillis} is the time that will be waited before the next attempt, or a negative
+     * value if the transaction is not going to be retried.
+     */
+    void aborted(int attempt, DatastoreException exception, long backoffMillis);
+
+    /**
+     * Called when the transaction was committed after {@code attempts} attempts.
+     */
+    void committed(int attempts);
+  }
+
+  private TransactionOption() {}
+
+  /**
+   * Returns an option that retries transactions aborted because of contention ({@code ABORTED}).
+   * The whole transaction, including the callable, is run again. Attempts are bounded by
+   * {@link RetryParams#retryMaxAttempts()} and {@link RetryParams#totalRetryPeriodMillis()}.
+   * Before each retry the caller waits a random time between zero and the exponential delay given
+   * by {@link RetryParams#initialRetryDelayMillis()}, {@link RetryParams#retryDelayBackoffFactor()}
+   * and {@link RetryParams#maxRetryDelayMillis()}. Fully randomizing the delay spreads out
+   * conflicting writers instead of having them retry in lockstep.
+   */
+  public static RetryOnAbort retryOnAbort(RetryParams retryParams) {
+    return new RetryOnAbort(retryParams);
+  }
+
+  /**
+   * Returns an option that notifies {@code listener} of the outcome of each transaction attempt.
+   */
+  public static Listener attemptListener(AttemptListener listener) {
+    return new Listener(listener);
+  }
+
+  static Map<Class<? extends TransactionOption>, TransactionOption> asImmutableMap(
+      TransactionOption... options) {
+    ImmutableMap.Builder<Class<? extends TransactionOption>, TransactionOption> builder =
+        ImmutableMap.builder();
+    for (TransactionOption option : options) {
+      builder.put(option.getClass(), option);
+    }
+    return builder.build();
+  }
+}
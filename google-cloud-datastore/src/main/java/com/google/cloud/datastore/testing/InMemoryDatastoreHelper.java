@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore.testing;
+
+import com.google.cloud.AuthCredentials;
+import com.google.cloud.RetryParams;
+import com.google.cloud.datastore.DatastoreOptions;
+import com.google.cloud.datastore.spi.DatastoreRpc;
+import com.google.cloud.datastore.spi.DatastoreRpcFactory;
+
+import java.util.UUID;
+
+/**
+ * Utility to create an in-memory Datastore for testing. Unlike {@link LocalDatastoreHelper} it
+ * does not download or start the Datastore emulator, Datastore requests are served by an
+ * {@link InMemoryDatastoreRpc} in the calling process. See {@link InMemoryDatastoreRpc} for the
+ * supported features.
+ *
+ * <p>Example usage:
+ * <pre> {@code
+ * InMemoryDatastoreHelper helper = InMemoryDatastoreHelper.create();
+ * Datastore datastore = helper.options().service();
+ * // run tests
+ * helper.reset();
+ * } </pre>
+ */
+public class InMemoryDatastoreHelper {
+
+  private static final String PROJECT_ID_PREFIX = "test-project-";
+
+  private final String projectId;
+  private final InMemoryDatastoreRpc rpc;
+
+  private static final class InMemoryDatastoreRpcFactory implements DatastoreRpcFactory {
+
+    private final InMemoryDatastoreRpc rpc;
+
+    InMemoryDatastoreRpcFactory(InMemoryDatastoreRpc rpc) {
+      this.rpc = rpc;
+    }
+
+    @Override
+    public DatastoreRpc create(DatastoreOptions options) {
+      return rpc;
+    }
+  }
+
+  private InMemoryDatastoreHelper(InMemoryDatastoreRpc rpc) {
+    this.projectId = PROJECT_ID_PREFIX + UUID.randomUUID().toString();
+    this.rpc = rpc;
+  }
+
+  private DatastoreOptions.Builder optionsBuilder() {
+    return DatastoreOptions.builder()
+        .projectId(projectId)
+        .authCredentials(AuthCredentials.noAuth())
+        .retryParams(RetryParams.noRetries())
+        .serviceRpcFactory(new InMemoryDatastoreRpcFactory(rpc));
+  }
+
+  /**
+   * Returns a {@link DatastoreOptions} instance whose service uses the in-memory Datastore.
+   */
+  public DatastoreOptions options() {
+    return optionsBuilder().build();
+  }
+
+  /**
+   * Returns a {@link DatastoreOptions} instance whose service uses the in-memory Datastore. The
+   * default namespace is set to {@code namespace}.
+   */
+  public DatastoreOptions options(String namespace) {
+    return optionsBuilder().namespace(namespace).build();
+  }
+
+  /**
+   * Returns the project ID associated with this in-memory Datastore.
+   */
+  public String projectId() {
+    return projectId;
+  }
+
+  /**
+   * Returns the in-memory {@link DatastoreRpc} that serves requests.
+   */
+  public InMemoryDatastoreRpc rpc() {
+    return rpc;
+  }
+
+  /**
+   * Removes all entities and open transactions from the in-memory Datastore.
+   */
+  public void reset() {
+    rpc.reset();
+  }
+
+  /**
+   * Creates an in-memory Datastore helper that returns query results in batches of at most
+   * {@code maxBatchSize} results.
+   */
+  public static InMemoryDatastoreHelper create(int maxBatchSize) {
+    return new InMemoryDatastoreHelper(new InMemoryDatastoreRpc(maxBatchSize));
+  }
+
+  /**
+   * Creates an in-memory Datastore helper that returns query results in batches of at most
+   * {@value InMemoryDatastoreRpc#DEFAULT_MAX_BATCH_SIZE} results.
+   */
+  public static InMemoryDatastoreHelper create() {
+    return new InMemoryDatastoreHelper(new InMemoryDatastoreRpc());
+  }
+}
@@ -0,0 +1,823 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore.testing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.cloud.datastore.DatastoreException;
+import com.google.cloud.datastore.spi.DatastoreRpc;
+import com.google.common.primitives.Longs;
+import com.google.datastore.v1.AllocateIdsRequest;
+import com.google.datastore.v1.AllocateIdsResponse;
+import com.google.datastore.v1.BeginTransactionRequest;
+import com.google.datastore.v1.BeginTransactionResponse;
+import com.google.datastore.v1.CommitRequest;
+import com.google.datastore.v1.CommitResponse;
+import com.google.datastore.v1.Entity;
+import com.google.datastore.v1.EntityResult;
+import com.google.datastore.v1.Filter;
+import com.google.datastore.v1.Key;
+import com.google.datastore.v1.LookupRequest;
+import com.google.datastore.v1.LookupResponse;
+import com.google.datastore.v1.Mutation;
+import com.google.datastore.v1.MutationResult;
+import com.google.datastore.v1.PartitionId;
+import com.google.datastore.v1.Projection;
+import com.google.datastore.v1.PropertyFilter;
+import com.google.datastore.v1.PropertyOrder;
+import com.google.datastore.v1.PropertyReference;
+import com.google.datastore.v1.Query;
+import com.google.datastore.v1.QueryResultBatch;
+import com.google.datastore.v1.ReadOptions;
+import com.google.datastore.v1.RollbackRequest;
+import com.google.datastore.v1.RollbackResponse;
+import com.google.datastore.v1.RunQueryRequest;
+import com.google.datastore.v1.RunQueryResponse;
+import com.google.datastore.v1.Value;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An in-memory implementation of {@link DatastoreRpc}, for use in tests and benchmarks that should
+ * not depend on the Datastore emulator or on the network.
+ *
+ * <p>The following operations are supported:
+ * <ul>
+ *   <li>lookups, strongly consistent and in transactions
+ *   <li>commits, with insert, update, upsert and delete mutations and automatic id allocation
+ *   <li>id allocation
+ *   <li>transactions, with optimistic concurrency control: a transactional commit is aborted if
+ *       any entity it read or writes was modified after the transaction began
+ *   <li>structured queries by kind, with property and ancestor filters, orders, projections,
+ *       {@code distinct on}, offsets, limits and cursors
+ * </ul>
+ *
+ * <p>All queries are strongly consistent and do not require composite indexes. GQL queries are not
+ * supported. Query results are returned in batches of at most {@link #maxBatchSize()} results, so
+ * that client-side pagination is exercised.
+ *
+ * @see InMemoryDatastoreHelper
+ */
+public class InMemoryDatastoreRpc implements DatastoreRpc {
+
+  public static final int DEFAULT_MAX_BATCH_SIZE = 300;
+  private static final String KEY_PROPERTY = "__key__";
+  private static final int INVALID_ARGUMENT = 3;
+  private static final int NOT_FOUND = 5;
+  private static final int ALREADY_EXISTS = 6;
+  private static final int ABORTED = 10;
+  private static final int UNIMPLEMENTED = 12;
+
+  private final int maxBatchSize;
+  private final Object lock = new Object();
+  private final TreeMap<Key, Entity> entities = new TreeMap<>(KEY_COMPARATOR);
+  // version of the last write of each key, deleted keys included
+  private final Map<Key, Long> versions = new HashMap<>();
+  private final Map<ByteString, TransactionState> transactions = new HashMap<>();
+  private long version;
+  private long nextId = 1;
+  private long nextTransaction = 1;
+
+  private static final class TransactionState {
+
+    private final long snapshotVersion;
+    private final Set<Key> readKeys = new HashSet<>();
+
+    private TransactionState(long snapshotVersion) {
+      this.snapshotVersion = snapshotVersion;
+    }
+  }
+
+  /**
+   * A query result along with the values it is sorted by.
+   */
+  private static final class Result {
+
+    private final Entity entity;
+    private final Value[] orderValues;
+
+    private Result(Entity entity, Value[] orderValues) {
+      this.entity = entity;
+      this.orderValues = orderValues;
+    }
+
+    private ByteString cursor() {
+      Entity.Builder cursorPb = Entity.newBuilder().setKey(entity.getKey());
+      for (int i = 0; i < orderValues.length; i++) {
+        cursorPb.getMutableProperties().put(Integer.toString(i), orderValues[i]);
+      }
+      return cursorPb.build().toByteString();
+    }
+  }
+
+  private static final Comparator<Key> KEY_COMPARATOR = new Comparator<Key>() {
+    @Override
+    public int compare(Key key1, Key key2) {
+      int result = key1.getPartitionId().getProjectId()
+          .compareTo(key2.getPartitionId().getProjectId());
+      if (result != 0) {
+        return result;
+      }
+      result = key1.getPartitionId().getNamespaceId()
+          .compareTo(key2.getPartitionId().getNamespaceId());
+      if (result != 0) {
+        return result;
+      }
+      int pathCount = Math.min(key1.getPathCount(), key2.getPathCount());
+      for (int i = 0; i < pathCount; i++) {
+        result = comparePathElements(key1.getPath(i), key2.getPath(i));
+        if (result != 0) {
+          return result;
+        }
+      }
+      return Integer.compare(key1.getPathCount(), key2.getPathCount());
+    }
+  };
+
+  /**
+   * Creates an in-memory Datastore that returns query results in batches of at most
+   * {@code maxBatchSize} results.
+   */
+  public InMemoryDatastoreRpc(int maxBatchSize) {
+    checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Creates an in-memory Datastore that returns query results in batches of at most
+   * {@value #DEFAULT_MAX_BATCH_SIZE} results.
+   */
+  public InMemoryDatastoreRpc() {
+    this(DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  /**
+   * Returns the maximum number of results returned by a single query request.
+   */
+  public int maxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * Removes all entities and open transactions.
+   */
+  public void reset() {
+    synchronized (lock) {
+      entities.clear();
+      versions.clear();
+      transactions.clear();
+    }
+  }
+
+  /**
+   * Returns the number of stored entities.
+   */
+  public int size() {
+    synchronized (lock) {
+      return entities.size();
+    }
+  }
+
+  @Override
+  public AllocateIdsResponse allocateIds(AllocateIdsRequest request) {
+    AllocateIdsResponse.Builder response = AllocateIdsResponse.newBuilder();
+    synchronized (lock) {
+      for (Key keyPb : request.getKeysList()) {
+        if (isComplete(keyPb)) {
+          throw invalidArgument("Cannot allocate an id for a complete key: " + keyPb);
+        }
+        response.addKeys(allocateId(keyPb));
+      }
+    }
+    return response.build();
+  }
+
+  @Override
+  public BeginTransactionResponse beginTransaction(BeginTransactionRequest request) {
+    synchronized (lock) {
+      ByteString transaction = ByteString.copyFrom(Longs.toByteArray(nextTransaction++));
+      transactions.put(transaction, new TransactionState(version));
+      return BeginTransactionResponse.newBuilder().setTransaction(transaction).build();
+    }
+  }
+
+  @Override
+  public CommitResponse commit(CommitRequest request) {
+    synchronized (lock) {
+      TransactionState transaction = null;
+      if (request.getMode() == CommitRequest.Mode.TRANSACTIONAL) {
+        // the transaction is kept until the commit succeeds, so that it can be rolled back
+        transaction = transactions.get(request.getTransaction());
+        if (transaction == null) {
+          throw invalidArgument("Invalid transaction");
+        }
+      } else if (!request.getTransaction().isEmpty()) {
+        throw invalidArgument("A non-transactional commit may not specify a transaction");
+      }
+      boolean idempotent = transaction == null;
+      // stage all mutations first so that a failing mutation leaves the store untouched
+      Map<Key, Entity> staged = new LinkedHashMap<>();
+      List<MutationResult.Builder> results = new ArrayList<>();
+      for (Mutation mutationPb : request.getMutationsList()) {
+        MutationResult.Builder result = MutationResult.newBuilder();
+        results.add(result);
+        Key keyPb = mutationKey(mutationPb);
+        if (!isComplete(keyPb)) {
+          if (mutationPb.getOperationCase() != Mutation.OperationCase.INSERT
+              && mutationPb.getOperationCase() != Mutation.OperationCase.UPSERT) {
+            throw invalidArgument("Key must be complete: " + keyPb);
+          }
+          keyPb = allocateId(keyPb);
+          result.setKey(keyPb);
+        }
+        if (transaction != null && modifiedSince(keyPb, transaction.snapshotVersion)) {
+          throw aborted();
+        }
+        if (mutationPb.getConflictDetectionStrategyCase()
+            == Mutation.ConflictDetectionStrategyCase.BASE_VERSION
+            && mutationPb.getBaseVersion() != currentVersion(keyPb)) {
+          result.setConflictDetected(true);
+          continue;
+        }
+        boolean exists = staged.containsKey(keyPb)
+            ? staged.get(keyPb) != null : entities.containsKey(keyPb);
+        switch (mutationPb.getOperationCase()) {
+          case INSERT:
+            if (exists) {
+              throw new DatastoreException(ALREADY_EXISTS, "Entity already exists: " + keyPb,
+                  "ALREADY_EXISTS", idempotent, null);
+            }
+            staged.put(keyPb, mutationPb.getInsert().toBuilder().setKey(keyPb).build());
+            break;
+          case UPDATE:
+            if (!exists) {
+              throw new DatastoreException(NOT_FOUND, "No entity to update: " + keyPb,
+                  "NOT_FOUND", idempotent, null);
+            }
+            staged.put(keyPb, mutationPb.getUpdate());
+            break;
+          case UPSERT:
+            staged.put(keyPb, mutationPb.getUpsert().toBuilder().setKey(keyPb).build());
+            break;
+          case DELETE:
+            staged.put(keyPb, null);
+            break;
+          default:
+            throw invalidArgument("Unsupported mutation: " + mutationPb);
+        }
+      }
+      if (transaction != null) {
+        for (Key keyPb : transaction.readKeys) {
+          if (modifiedSince(keyPb, transaction.snapshotVersion)) {
+            throw aborted();
+          }
+        }
+      }
+      if (transaction != null) {
+        transactions.remove(request.getTransaction());
+      }
+      long commitVersion = ++version;
+      for (Map.Entry<Key, Entity> entry : staged.entrySet()) {
+        if (entry.getValue() != null) {
+          entities.put(entry.getKey(), entry.getValue());
+        } else {
+          entities.remove(entry.getKey());
+        }
+        versions.put(entry.getKey(), commitVersion);
+      }
+      CommitResponse.Builder response = CommitResponse.newBuilder();
+      for (MutationResult.Builder result : results) {
+        if (!result.getConflictDetected()) {
+          result.setVersion(commitVersion);
+        }
+        response.addMutationResults(result);
+      }
+      return response.build();
+    }
+  }
+
+  @Override
+  public LookupResponse lookup(LookupRequest request) {
+    LookupResponse.Builder response = LookupResponse.newBuilder();
+    synchronized (lock) {
+      TransactionState transaction = transaction(request.getReadOptions());
+      for (Key keyPb : request.getKeysList()) {
+        if (!isComplete(keyPb)) {
+          throw invalidArgument("Key must be complete: " + keyPb);
+        }
+        if (transaction != null) {
+          transaction.readKeys.add(keyPb);
+        }
+        Entity entityPb = entities.get(keyPb);
+        if (entityPb != null) {
+          response.addFound(
+              EntityResult.newBuilder().setEntity(entityPb).setVersion(currentVersion(keyPb)));
+        } else {
+          response.addMissing(EntityResult.newBuilder()
+              .setEntity(Entity.newBuilder().setKey(keyPb))
+              .setVersion(version));
+        }
+      }
+    }
+    return response.build();
+  }
+
+  @Override
+  public RollbackResponse rollback(RollbackRequest request) {
+    synchronized (lock) {
+      if (transactions.remove(request.getTransaction()) == null) {
+        throw invalidArgument("Invalid transaction");
+      }
+    }
+    return RollbackResponse.getDefaultInstance();
+  }
+
+  @Override
+  public RunQueryResponse runQuery(RunQueryRequest request) {
+    if (request.getQueryTypeCase() == RunQueryRequest.QueryTypeCase.GQL_QUERY) {
+      throw new DatastoreException(UNIMPLEMENTED, "GQL queries are not supported",
+          "UNIMPLEMENTED");
+    }
+    Query queryPb = request.getQuery();
+    if (queryPb.getKindCount() > 1) {
+      throw invalidArgument("Queries may specify at most one kind");
+    }
+    String kind = queryPb.getKindCount() == 1 ? queryPb.getKind(0).getName() : null;
+    List<PropertyOrder> orders = queryPb.getOrderList();
+    List<Result> results = new ArrayList<>();
+    TransactionState transaction;
+    synchronized (lock) {
+      transaction = transaction(request.getReadOptions());
+      for (Entity entityPb : entities.values()) {
+        Key keyPb = entityPb.getKey();
+        if (!inPartition(keyPb, request.getPartitionId())
+            || kind != null && !kind.equals(keyPb.getPath(keyPb.getPathCount() - 1).getKind())
+            || queryPb.hasFilter() && !matches(entityPb, queryPb.getFilter())) {
+          continue;
+        }
+        Result result = toResult(entityPb, orders);
+        if (result != null) {
+          results.add(result);
+        }
+      }
+    }
+    Collections.sort(results, resultComparator(orders));
+    QueryResultBatch.Builder batch = QueryResultBatch.newBuilder();
+    EntityResult.ResultType resultType = resultType(queryPb);
+    batch.setEntityResultType(resultType);
+    results = project(results, queryPb, resultType);
+    int from = 0;
+    int to = results.size();
+    if (!queryPb.getStartCursor().isEmpty()) {
+      from = position(results, parseCursor(queryPb.getStartCursor()), orders);
+    }
+    boolean moreAfterCursor = false;
+    if (!queryPb.getEndCursor().isEmpty()) {
+      int end = position(results, parseCursor(queryPb.getEndCursor()), orders);
+      moreAfterCursor = end < to;
+      to = Math.max(from, end);
+    }
+    ByteString cursor = queryPb.getStartCursor();
+    int skipped = Math.min(queryPb.getOffset(), to - from);
+    if (skipped > 0) {
+      from += skipped;
+      cursor = results.get(from - 1).cursor();
+      batch.setSkippedResults(skipped);
+      batch.setSkippedCursor(cursor);
+    }
+    int limit = queryPb.hasLimit() ? queryPb.getLimit().getValue() : Integer.MAX_VALUE;
+    int count = Math.min(Math.min(limit, maxBatchSize), to - from);
+    for (Result result : results.subList(from, from + count)) {
+      cursor = result.cursor();
+      batch.addEntityResults(EntityResult.newBuilder()
+          .setEntity(result.entity)
+          .setCursor(cursor)
+          .setVersion(currentVersion(result.entity.getKey())));
+    }
+    batch.setEndCursor(cursor);
+    if (transaction != null) {
+      synchronized (lock) {
+        for (EntityResult resultPb : batch.getEntityResultsList()) {
+          transaction.readKeys.add(resultPb.getEntity().getKey());
+        }
+      }
+    }
+    boolean more = from + count < to;
+    if (more && count == limit) {
+      batch.setMoreResults(QueryResultBatch.MoreResultsType.MORE_RESULTS_AFTER_LIMIT);
+    } else if (more) {
+      batch.setMoreResults(QueryResultBatch.MoreResultsType.NOT_FINISHED);
+    } else if (moreAfterCursor) {
+      batch.setMoreResults(QueryResultBatch.MoreResultsType.MORE_RESULTS_AFTER_CURSOR);
+    } else {
+      batch.setMoreResults(QueryResultBatch.MoreResultsType.NO_MORE_RESULTS);
+    }
+    return RunQueryResponse.newBuilder().setBatch(batch).build();
+  }
+
+  private Key allocateId(Key keyPb) {
+    Key.Builder builder = keyPb.toBuilder();
+    builder.getPathBuilder(builder.getPathCount() - 1).setId(nextId++);
+    return builder.build();
+  }
+
+  private long currentVersion(Key keyPb) {
+    synchronized (lock) {
+      Long keyVersion = versions.get(keyPb);
+      return keyVersion != null ? keyVersion : 0;
+    }
+  }
+
+  private boolean modifiedSince(Key keyPb, long snapshotVersion) {
+    return currentVersion(keyPb) > snapshotVersion;
+  }
+
+  private TransactionState transaction(ReadOptions readOptionsPb) {
+    if (readOptionsPb.getConsistencyTypeCase() != ReadOptions.ConsistencyTypeCase.TRANSACTION) {
+      return null;
+    }
+    TransactionState transaction = transactions.get(readOptionsPb.getTransaction());
+    if (transaction == null) {
+      throw invalidArgument("Invalid transaction");
+    }
+    return transaction;
+  }
+
+  private static DatastoreException invalidArgument(String message) {
+    return new DatastoreException(INVALID_ARGUMENT, message, "INVALID_ARGUMENT");
+  }
+
+  private static DatastoreException aborted() {
+    return new DatastoreException(ABORTED,
+        "too much contention on these datastore entities. please try again.", "ABORTED", false,
+        null);
+  }
+
+  private static Key mutationKey(Mutation mutationPb) {
+    switch (mutationPb.getOperationCase()) {
+      case INSERT:
+        return mutationPb.getInsert().getKey();
+      case UPDATE:
+        return mutationPb.getUpdate().getKey();
+      case UPSERT:
+        return mutationPb.getUpsert().getKey();
+      case DELETE:
+        return mutationPb.getDelete();
+      default:
+        throw invalidArgument("Unsupported mutation: " + mutationPb);
+    }
+  }
+
+  private static boolean isComplete(Key keyPb) {
+    return keyPb.getPathCount() > 0 && keyPb.getPath(keyPb.getPathCount() - 1).getIdTypeCase()
+        != Key.PathElement.IdTypeCase.IDTYPE_NOT_SET;
+  }
+
+  private static boolean inPartition(Key keyPb, PartitionId partitionIdPb) {
+    String projectId = partitionIdPb.getProjectId();
+    return keyPb.getPartitionId().getNamespaceId().equals(partitionIdPb.getNamespaceId())
+        && (projectId.isEmpty() || projectId.equals(keyPb.getPartitionId().getProjectId()));
+  }
+
+  private static boolean isAncestor(Key ancestorPb, Key keyPb) {
+    if (!ancestorPb.getPartitionId().getNamespaceId()
+        .equals(keyPb.getPartitionId().getNamespaceId())
+        || ancestorPb.getPathCount() > keyPb.getPathCount()) {
+      return false;
+    }
+    for (int i = 0; i < ancestorPb.getPathCount(); i++) {
+      if (comparePathElements(ancestorPb.getPath(i), keyPb.getPath(i)) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int comparePathElements(Key.PathElement element1, Key.PathElement element2) {
+    int result = element1.getKind().compareTo(element2.getKind());
+    if (result != 0) {
+      return result;
+    }
+    Key.PathElement.IdTypeCase type1 = element1.getIdTypeCase();
+    Key.PathElement.IdTypeCase type2 = element2.getIdTypeCase();
+    if (type1 != type2) {
+      // ids sort before names
+      return type1 == Key.PathElement.IdTypeCase.ID ? -1 : 1;
+    }
+    return type1 == Key.PathElement.IdTypeCase.ID
+        ? Long.compare(element1.getId(), element2.getId())
+        : element1.getName().compareTo(element2.getName());
+  }
+
+  /**
+   * Returns the rank of the value's type in the Datastore sort order, or -1 if values of this type
+   * are not indexed.
+   */
+  private static int typeRank(Value valuePb) {
+    switch (valuePb.getValueTypeCase()) {
+      case NULL_VALUE:
+        return 0;
+      case INTEGER_VALUE:
+        return 1;
+      case TIMESTAMP_VALUE:
+        return 2;
+      case BOOLEAN_VALUE:
+        return 3;
+      case BLOB_VALUE:
+        return 4;
+      case STRING_VALUE:
+        return 5;
+      case DOUBLE_VALUE:
+        return 6;
+      case GEO_POINT_VALUE:
+        return 7;
+      case KEY_VALUE:
+        return 8;
+      default:
+        return -1;
+    }
+  }
+
+  private static int compareValues(Value value1, Value value2) {
+    int result = Integer.compare(typeRank(value1), typeRank(value2));
+    if (result != 0) {
+      return result;
+    }
+    switch (value1.getValueTypeCase()) {
+      case INTEGER_VALUE:
+        return Long.compare(value1.getIntegerValue(), value2.getIntegerValue());
+      case TIMESTAMP_VALUE:
+        result = Long.compare(value1.getTimestampValue().getSeconds(),
+            value2.getTimestampValue().getSeconds());
+        return result != 0 ? result : Integer.compare(value1.getTimestampValue().getNanos(),
+            value2.getTimestampValue().getNanos());
+      case BOOLEAN_VALUE:
+        return Boolean.compare(value1.getBooleanValue(), value2.getBooleanValue());
+      case BLOB_VALUE:
+        return compareBytes(value1.getBlobValue(), value2.getBlobValue());
+      case STRING_VALUE:
+        return value1.getStringValue().compareTo(value2.getStringValue());
+      case DOUBLE_VALUE:
+        return Double.compare(value1.getDoubleValue(), value2.getDoubleValue());
+      case GEO_POINT_VALUE:
+        result = Double.compare(value1.getGeoPointValue().getLatitude(),
+            value2.getGeoPointValue().getLatitude());
+        return result != 0 ? result : Double.compare(value1.getGeoPointValue().getLongitude(),
+            value2.getGeoPointValue().getLongitude());
+      case KEY_VALUE:
+        return KEY_COMPARATOR.compare(value1.getKeyValue(), value2.getKeyValue());
+      default:
+        return 0;
+    }
+  }
+
+  private static int compareBytes(ByteString bytes1, ByteString bytes2) {
+    int size = Math.min(bytes1.size(), bytes2.size());
+    for (int i = 0; i < size; i++) {
+      int result = Integer.compare(bytes1.byteAt(i) & 0xff, bytes2.byteAt(i) & 0xff);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return Integer.compare(bytes1.size(), bytes2.size());
+  }
+
+  /**
+   * Returns the indexed values of the given property, an empty list if the property is missing
+   * or not indexed.
+   */
+  private static List<Value> indexedValues(Entity entityPb, String property) {
+    if (KEY_PROPERTY.equals(property)) {
+      return Collections.singletonList(Value.newBuilder().setKeyValue(entityPb.getKey()).build());
+    }
+    Value valuePb = entityPb.getProperties().get(property);
+    if (valuePb == null) {
+      return Collections.emptyList();
+    }
+    List<Value> values = new ArrayList<>();
+    List<Value> candidates = valuePb.getValueTypeCase() == Value.ValueTypeCase.ARRAY_VALUE
+        ? valuePb.getArrayValue().getValuesList() : Collections.singletonList(valuePb);
+    for (Value candidate : candidates) {
+      if (!candidate.getExcludeFromIndexes() && typeRank(candidate) >= 0) {
+        values.add(candidate.toBuilder().clearExcludeFromIndexes().clearMeaning().build());
+      }
+    }
+    return values;
+  }
+
+  private static boolean matches(Entity entityPb, Filter filterPb) {
+    switch (filterPb.getFilterTypeCase()) {
+      case COMPOSITE_FILTER:
+        for (Filter subFilterPb : filterPb.getCompositeFilter().getFiltersList()) {
+          if (!matches(entityPb, subFilterPb)) {
+            return false;
+          }
+        }
+        return true;
+      case PROPERTY_FILTER:
+        PropertyFilter propertyFilterPb = filterPb.getPropertyFilter();
+        if (propertyFilterPb.getOp() == PropertyFilter.Operator.HAS_ANCESTOR) {
+          return isAncestor(propertyFilterPb.getValue().getKeyValue(), entityPb.getKey());
+        }
+        Value filterValuePb = propertyFilterPb.getValue();
+        for (Value valuePb : indexedValues(entityPb, propertyFilterPb.getProperty().getName())) {
+          // inequality filters only match values of the same type
+          if (typeRank(valuePb) == typeRank(filterValuePb)
+              && matches(compareValues(valuePb, filterValuePb), propertyFilterPb.getOp())) {
+            return true;
+          }
+        }
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  private static boolean matches(int comparison, PropertyFilter.Operator operator) {
+    switch (operator) {
+      case LESS_THAN:
+        return comparison < 0;
+      case LESS_THAN_OR_EQUAL:
+        return comparison <= 0;
+      case GREATER_THAN:
+        return comparison > 0;
+      case GREATER_THAN_OR_EQUAL:
+        return comparison >= 0;
+      case EQUAL:
+        return comparison == 0;
+      default:
+        throw invalidArgument("Unsupported filter operator: " + operator);
+    }
+  }
+
+  /**
+   * Returns the query result for an entity, or {@code null} if the entity has no indexed value for
+   * one of the order properties.
+   */
+  private static Result toResult(Entity entityPb, List<PropertyOrder> orders) {
+    Value[] orderValues = new Value[orders.size()];
+    for (int i = 0; i < orderValues.length; i++) {
+      PropertyOrder orderPb = orders.get(i);
+      List<Value> values = indexedValues(entityPb, orderPb.getProperty().getName());
+      if (values.isEmpty()) {
+        return null;
+      }
+      // multi-valued properties sort by their smallest value ascending, largest descending
+      Value orderValue = values.get(0);
+      for (Value valuePb : values) {
+        int comparison = compareValues(valuePb, orderValue);
+        if (isDescending(orderPb) ? comparison > 0 : comparison < 0) {
+          orderValue = valuePb;
+        }
+      }
+      orderValues[i] = orderValue;
+    }
+    return new Result(entityPb, orderValues);
+  }
+
+  private static boolean isDescending(PropertyOrder orderPb) {
+    return orderPb.getDirection() == PropertyOrder.Direction.DESCENDING;
+  }
+
+  private static int compare(Value[] orderValues1, Key key1, Value[] orderValues2, Key key2,
+      List<PropertyOrder> orders) {
+    for (int i = 0; i < orders.size(); i++) {
+      int result = compareValues(orderValues1[i], orderValues2[i]);
+      if (result != 0) {
+        return isDescending(orders.get(i)) ? -result : result;
+      }
+    }
+    return KEY_COMPARATOR.compare(key1, key2);
+  }
+
+  private static Comparator<Result> resultComparator(final List<PropertyOrder> orders) {
+    return new Comparator<Result>() {
+      @Override
+      public int compare(Result result1, Result result2) {
+        return InMemoryDatastoreRpc.compare(result1.orderValues, result1.entity.getKey(),
+            result2.orderValues, result2.entity.getKey(), orders);
+      }
+    };
+  }
+
+  private static EntityResult.ResultType resultType(Query queryPb) {
+    if (queryPb.getProjectionCount() == 0) {
+      return EntityResult.ResultType.FULL;
+    }
+    if (queryPb.getProjectionCount() == 1
+        && KEY_PROPERTY.equals(queryPb.getProjection(0).getProperty().getName())) {
+      return EntityResult.ResultType.KEY_ONLY;
+    }
+    return EntityResult.ResultType.PROJECTION;
+  }
+
+  /**
+   * Applies the query's projection and {@code distinct on} clause to the sorted results. Entities
+   * missing a projected property are skipped.
+   */
+  private static List<Result> project(List<Result> results, Query queryPb,
+      EntityResult.ResultType resultType) {
+    if (resultType == EntityResult.ResultType.FULL && queryPb.getDistinctOnCount() == 0) {
+      return results;
+    }
+    List<Result> projected = new ArrayList<>(results.size());
+    Set<List<Value>> distinctValues = new HashSet<>();
+    for (Result result : results) {
+      Entity entityPb = result.entity;
+      if (resultType != EntityResult.ResultType.FULL) {
+        Entity.Builder projectedPb = Entity.newBuilder().setKey(entityPb.getKey());
+        boolean complete = true;
+        for (Projection projectionPb : queryPb.getProjectionList()) {
+          String name = projectionPb.getProperty().getName();
+          if (KEY_PROPERTY.equals(name)) {
+            continue;
+          }
+          List<Value> values = indexedValues(entityPb, name);
+          if (values.isEmpty()) {
+            complete = false;
+            break;
+          }
+          projectedPb.getMutableProperties().put(name, values.get(0));
+        }
+        if (!complete) {
+          continue;
+        }
+        entityPb = projectedPb.build();
+      }
+      if (queryPb.getDistinctOnCount() > 0) {
+        List<Value> distinctKey = new ArrayList<>();
+        for (PropertyReference propertyPb : queryPb.getDistinctOnList()) {
+          distinctKey.addAll(indexedValues(result.entity, propertyPb.getName()));
+        }
+        if (!distinctValues.add(distinctKey)) {
+          continue;
+        }
+      }
+      projected.add(new Result(entityPb, result.orderValues));
+    }
+    return projected;
+  }
+
+  private static Result parseCursor(ByteString cursor) {
+    try {
+      Entity cursorPb = Entity.parseFrom(cursor);
+      Value[] orderValues = new Value[cursorPb.getProperties().size()];
+      for (int i = 0; i < orderValues.length; i++) {
+        orderValues[i] = cursorPb.getProperties().get(Integer.toString(i));
+        if (orderValues[i] == null) {
+          throw invalidArgument("Invalid cursor");
+        }
+      }
+      return new Result(cursorPb, orderValues);
+    } catch (InvalidProtocolBufferException ex) {
+      throw invalidArgument("Invalid cursor");
+    }
+  }
+
+  /**
+   * Returns the index of the first result that sorts after the cursor position.
+   */
+  private static int position(List<Result> results, Result cursor, List<PropertyOrder> orders) {
+    if (cursor.orderValues.length != orders.size()) {
+      throw invalidArgument("Cursor does not match the query");
+    }
+    int low = 0;
+    int high = results.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      Result result = results.get(middle);
+      if (compare(result.orderValues, result.entity.getKey(), cursor.orderValues,
+          cursor.entity.getKey(), orders) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
@@ -30,6 +30,14 @@
  * helper.stop();
  * } </pre>
  *
+ * <p>{@link com.google.cloud.datastore.testing.InMemoryDatastoreHelper} serves requests from an
+ * in-memory store instead of the emulator, which makes it suitable for offline tests and
+ * benchmarks:
+ * <pre> {@code
+ * InMemoryDatastoreHelper helper = InMemoryDatastoreHelper.create();
+ * Datastore inMemoryDatastore = helper.options().service();
+ * } </pre>
+ *
  * @see <a href="https://github.com/GoogleCloudPlatform/google-cloud-java/blob/master/TESTING.md#testing-code-that-uses-datastore">
  *     Google Cloud Java tools for testing</a>
  */
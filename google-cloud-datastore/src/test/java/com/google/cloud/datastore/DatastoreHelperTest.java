@@ -27,6 +27,7 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.cloud.RetryParams;
 import com.google.cloud.datastore.Datastore.TransactionCallable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
@@ -208,4 +209,91 @@ public class DatastoreHelperTest {
     }
     verify(datastore, transaction);
   }
+
+  @Test
+  public void testRunInTransactionRetryOnAbort() throws Exception {
+    final Datastore datastore = createStrictMock(Datastore.class);
+    final Transaction transaction1 = createStrictMock(Transaction.class);
+    final Transaction transaction2 = createStrictMock(Transaction.class);
+    TransactionOption.AttemptListener listener =
+        createStrictMock(TransactionOption.AttemptListener.class);
+    DatastoreException aborted = new DatastoreException(
+        com.google.rpc.Code.ABORTED_VALUE, "contention", "ABORTED");
+    RetryParams retryParams = RetryParams.builder()
+        .retryMaxAttempts(3)
+        .initialRetryDelayMillis(1)
+        .maxRetryDelayMillis(1)
+        .build();
+    expect(datastore.options()).andReturn(DatastoreOptions.builder().projectId("ds").build());
+    expect(datastore.newTransaction()).andReturn(transaction1);
+    expect(transaction1.commit()).andThrow(aborted);
+    transaction1.rollback();
+    EasyMock.expectLastCall();
+    expect(transaction1.active()).andReturn(false);
+    listener.aborted(EasyMock.eq(1), EasyMock.same(aborted), EasyMock.geq(0L));
+    EasyMock.expectLastCall();
+    expect(datastore.newTransaction()).andReturn(transaction2);
+    expect(transaction2.commit()).andReturn(null);
+    expect(transaction2.active()).andReturn(false);
+    listener.committed(2);
+    EasyMock.expectLastCall();
+    replay(datastore, transaction1, transaction2, listener);
+    String value = DatastoreHelper.runInTransaction(datastore,
+        new TransactionCallable<String>() {
+          @Override
+          public String run(DatastoreReaderWriter readerWriter) {
+            return "done";
+          }
+        },
+        TransactionOption.retryOnAbort(retryParams),
+        TransactionOption.attemptListener(listener));
+    verify(datastore, transaction1, transaction2, listener);
+    assertEquals("done", value);
+  }
+
+  @Test
+  public void testRunInTransactionAbortedWithoutRetry() throws Exception {
+    final Datastore datastore = createStrictMock(Datastore.class);
+    final Transaction transaction = createStrictMock(Transaction.class);
+    DatastoreException aborted = new DatastoreException(
+        com.google.rpc.Code.ABORTED_VALUE, "contention", "ABORTED");
+    expect(datastore.newTransaction()).andReturn(transaction);
+    expect(transaction.commit()).andThrow(aborted);
+    transaction.rollback();
+    EasyMock.expectLastCall();
+    expect(transaction.active()).andReturn(false);
+    replay(datastore, transaction);
+    try {
+      DatastoreHelper.runInTransaction(datastore, new TransactionCallable<Void>() {
+        @Override
+        public Void run(DatastoreReaderWriter readerWriter) {
+          return null;
+        }
+      });
+      fail("DatastoreException was expected");
+    } catch (DatastoreException ex) {
+      assertSame(aborted, ex.getCause());
+    }
+    verify(datastore, transaction);
+  }
+
+  @Test
+  public void testAbortBackoffMillis() {
+    RetryParams retryParams = RetryParams.builder()
+        .retryMinAttempts(1)
+        .retryMaxAttempts(5)
+        .initialRetryDelayMillis(100)
+        .retryDelayBackoffFactor(2)
+        .maxRetryDelayMillis(300)
+        .totalRetryPeriodMillis(1000)
+        .build();
+    for (int i = 0; i < 100; i++) {
+      long backoff = DatastoreHelper.abortBackoffMillis(retryParams, 1, 0);
+      assertTrue(backoff >= 0 && backoff <= 100);
+      backoff = DatastoreHelper.abortBackoffMillis(retryParams, 4, 0);
+      assertTrue(backoff >= 0 && backoff <= 300);
+    }
+    assertEquals(-1, DatastoreHelper.abortBackoffMillis(retryParams, 5, 0));
+    assertEquals(-1, DatastoreHelper.abortBackoffMillis(retryParams, 2, 1000));
+  }
 }
@@ -17,16 +17,24 @@
 package com.google.cloud.datastore;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.cloud.datastore.spi.DatastoreRpc;
 import com.google.cloud.datastore.spi.DatastoreRpcFactory;
+import com.google.cloud.datastore.testing.InMemoryDatastoreHelper;
 
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
 public class DatastoreOptionsTest {
 
   private static final String PROJECT_ID = "project-id";
@@ -65,6 +73,54 @@ public class DatastoreOptionsTest {
     assertEquals("ns1", options.namespace("ns1").build().namespace());
   }
 
+  @Test
+  public void testEntityCacheOptions() throws Exception {
+    assertNull(options.build().entityCacheOptions());
+    EntityCacheOptions cacheOptions = EntityCacheOptions.builder().maxSize(42).build();
+    assertEquals(cacheOptions, options.entityCacheOptions(cacheOptions).build()
+        .entityCacheOptions());
+  }
+
+  @Test
+  public void testExecutorFactory() throws Exception {
+    assertTrue(
+        options.build().executorFactory() instanceof DatastoreOptions.DefaultExecutorFactory);
+    @SuppressWarnings("unchecked")
+    ExecutorFactory<ScheduledExecutorService> executorFactory =
+        EasyMock.createStrictMock(ExecutorFactory.class);
+    EasyMock.replay(executorFactory);
+    assertSame(executorFactory, options.executorFactory(executorFactory).build().executorFactory());
+  }
+
+  @Test
+  public void testAsyncExecutorLifecycle() throws Exception {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    @SuppressWarnings("unchecked")
+    ExecutorFactory<ScheduledExecutorService> executorFactory =
+        EasyMock.createStrictMock(ExecutorFactory.class);
+    EasyMock.expect(executorFactory.get()).andReturn(executor);
+    executorFactory.release(executor);
+    EasyMock.expectLastCall();
+    EasyMock.replay(executorFactory);
+    Datastore datastore = InMemoryDatastoreHelper.create().options().toBuilder()
+        .executorFactory(executorFactory)
+        .build()
+        .service();
+    Key key = datastore.newKeyFactory().kind("kind").newKey("name");
+    // the executor is acquired once, by the first asynchronous request
+    assertNull(datastore.getAsync(key).get());
+    assertNull(datastore.getAsync(key).get());
+    datastore.close();
+    try {
+      datastore.getAsync(key).get();
+      fail("Expected DatastoreException");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof DatastoreException);
+    }
+    EasyMock.verify(executorFactory);
+    executor.shutdown();
+  }
+
   @Test
   public void testDatastore() throws Exception {
     assertSame(datastoreRpc, options.build().rpc());
@@ -76,6 +132,7 @@ public class DatastoreOptionsTest {
     DatastoreOptions copy = original.toBuilder().build();
     assertEquals(original.projectId(), copy.projectId());
     assertEquals(original.namespace(), copy.namespace());
+    assertEquals(original.entityCacheOptions(), copy.entityCacheOptions());
     assertEquals(original.host(), copy.host());
     assertEquals(original.retryParams(), copy.retryParams());
     assertEquals(original.authCredentials(), copy.authCredentials());
@@ -58,11 +58,13 @@ import org.junit.runners.JUnit4;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 @RunWith(JUnit4.class)
 public class DatastoreTest {
@@ -858,6 +860,68 @@ public class DatastoreTest {
     return rpcMockOptions.service();
   }
 
+  @Test
+  public void testFetchAsyncDeferredResults() throws Exception {
+    List<Entity> foundEntities = createDatastoreForDeferredLookup()
+        .fetchAsync(ImmutableList.of(KEY1, KEY2, KEY3, KEY4, KEY5)).get();
+    assertEquals(foundEntities.get(0).key(), KEY1);
+    assertEquals(foundEntities.get(1).key(), KEY2);
+    assertEquals(foundEntities.get(2).key(), KEY3);
+    assertEquals(foundEntities.get(3).key(), KEY4);
+    assertEquals(foundEntities.get(4).key(), KEY5);
+    assertEquals(foundEntities.size(), 5);
+  }
+
+  @Test
+  public void testGetAsync() throws Exception {
+    assertEquals(ENTITY1, datastore.getAsync(KEY1).get());
+    assertNull(datastore.getAsync(KEY3).get());
+    List<Entity> entities = datastore.fetchAsync(ImmutableList.of(KEY3, KEY1, KEY2)).get();
+    assertEquals(Arrays.asList(null, ENTITY1, ENTITY2), entities);
+  }
+
+  @Test
+  public void testPutAsync() throws Exception {
+    Entity updatedEntity = Entity.builder(ENTITY1).set("new_property", 42L).build();
+    List<Entity> entities = datastore.putAsync(updatedEntity, PARTIAL_ENTITY1).get();
+    assertEquals(updatedEntity, entities.get(0));
+    assertEquals(PARTIAL_ENTITY1.properties(), entities.get(1).properties());
+    assertEquals(updatedEntity, datastore.get(updatedEntity.key()));
+    assertEquals(entities.get(1), datastore.get(entities.get(1).key()));
+  }
+
+  @Test
+  public void testRunAsync() throws Exception {
+    Query<Entity> query = Query.entityQueryBuilder().kind(KIND1).build();
+    QueryResults<Entity> results = datastore.runAsync(query).get();
+    assertTrue(results.hasNext());
+    assertEquals(ENTITY1, results.next());
+    assertFalse(results.hasNext());
+  }
+
+  @Test
+  public void testBatchSubmitAsync() throws Exception {
+    Batch batch = datastore.newBatch();
+    batch.put(ENTITY3);
+    batch.delete(KEY2);
+    batch.addWithDeferredIdAllocation(PARTIAL_ENTITY1);
+    Batch.Response response = batch.submitAsync().get();
+    assertFalse(batch.active());
+    assertEquals(1, response.generatedKeys().size());
+    assertEquals(ENTITY3, datastore.get(KEY3));
+    assertNull(datastore.get(KEY2));
+  }
+
+  @Test
+  public void testTransactionCommitAsync() throws Exception {
+    Transaction transaction = datastore.newTransaction();
+    transaction.add(ENTITY3);
+    Transaction.Response response = transaction.commitAsync().get();
+    assertFalse(transaction.active());
+    assertTrue(response.generatedKeys().isEmpty());
+    assertEquals(ENTITY3, datastore.get(KEY3));
+  }
+
   @Test
   public void testAddEntity() {
     List<Entity> keys = datastore.fetch(ENTITY1.key(), ENTITY3.key());
@@ -967,6 +1031,40 @@ public class DatastoreTest {
     EasyMock.verify(rpcFactoryMock, rpcMock);
   }
 
+  @Test
+  public void testRetryableExceptionAsync() throws Exception {
+    LookupRequest requestPb = LookupRequest.newBuilder().addKeys(KEY1.toPb()).build();
+    LookupResponse responsePb = LookupResponse.newBuilder()
+        .addFound(EntityResult.newBuilder().setEntity(ENTITY1.toPb()))
+        .build();
+    EasyMock.expect(rpcMock.lookup(requestPb))
+        .andThrow(new DatastoreException(14, "UNAVAILABLE", "UNAVAILABLE", null))
+        .andReturn(responsePb);
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    Datastore datastore = rpcMockOptions.service();
+    assertEquals(ENTITY1, datastore.getAsync(KEY1).get());
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
+  @Test
+  public void testNonRetryableExceptionAsync() throws Exception {
+    LookupRequest requestPb = LookupRequest.newBuilder().addKeys(KEY1.toPb()).build();
+    EasyMock.expect(rpcMock.lookup(requestPb))
+        .andThrow(
+            new DatastoreException(DatastoreException.UNKNOWN_CODE, "denied", "PERMISSION_DENIED"))
+        .times(1);
+    EasyMock.replay(rpcFactoryMock, rpcMock);
+    Datastore datastore = rpcMockOptions.service();
+    try {
+      datastore.getAsync(KEY1).get();
+      fail("Expected DatastoreException");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof DatastoreException);
+      assertEquals("denied", ex.getCause().getMessage());
+    }
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
   @Test
   public void testNonRetryableException() throws Exception {
     LookupRequest requestPb = LookupRequest.newBuilder().addKeys(KEY1.toPb()).build();
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.cloud.Clock;
+import com.google.cloud.datastore.spi.DatastoreRpc;
+import com.google.cloud.datastore.spi.DatastoreRpcFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.datastore.v1.CommitRequest;
+import com.google.datastore.v1.CommitResponse;
+import com.google.datastore.v1.EntityResult;
+import com.google.datastore.v1.LookupRequest;
+import com.google.datastore.v1.LookupResponse;
+import com.google.datastore.v1.MutationResult;
+import com.google.datastore.v1.ReadOptions;
+import com.google.datastore.v1.ReadOptions.ReadConsistency;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class EntityCacheTest {
+
+  private static final String PROJECT_ID = "project-id";
+  private static final Key KEY1 = Key.builder(PROJECT_ID, "kind", "name1").build();
+  private static final Key KEY2 = Key.builder(PROJECT_ID, "kind", "name2").build();
+  private static final Entity ENTITY1 = Entity.builder(KEY1).set("p", "v1").build();
+  private static final ReadOptions EVENTUAL = ReadOptions.newBuilder()
+      .setReadConsistency(ReadConsistency.EVENTUAL)
+      .build();
+  private static final long TTL_MILLIS = 1000;
+
+  private DatastoreRpcFactory rpcFactoryMock;
+  private DatastoreRpc rpcMock;
+  private FakeClock clock;
+  private Datastore datastore;
+
+  private static class FakeClock extends Clock {
+
+    private long millis;
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+
+    void advance(long millis) {
+      this.millis += millis;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    rpcFactoryMock = EasyMock.createStrictMock(DatastoreRpcFactory.class);
+    rpcMock = EasyMock.createStrictMock(DatastoreRpc.class);
+    clock = new FakeClock();
+    DatastoreOptions options = DatastoreOptions.builder()
+        .projectId(PROJECT_ID)
+        .clock(clock)
+        .serviceRpcFactory(rpcFactoryMock)
+        .entityCacheOptions(EntityCacheOptions.builder()
+            .maxSize(10)
+            .expireAfterWrite(TTL_MILLIS, TimeUnit.MILLISECONDS)
+            .build())
+        .build();
+    EasyMock.expect(rpcFactoryMock.create(options)).andReturn(rpcMock);
+    EasyMock.replay(rpcFactoryMock);
+    datastore = options.service();
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(rpcFactoryMock, rpcMock);
+  }
+
+  private static LookupRequest lookupRequest(ReadOptions readOptions, Key... keys) {
+    LookupRequest.Builder builder = LookupRequest.newBuilder();
+    if (readOptions != null) {
+      builder.setReadOptions(readOptions);
+    }
+    for (Key key : keys) {
+      builder.addKeys(key.toPb());
+    }
+    return builder.build();
+  }
+
+  private static LookupResponse lookupResponse(Entity... entities) {
+    LookupResponse.Builder builder = LookupResponse.newBuilder();
+    for (Entity entity : entities) {
+      builder.addFound(EntityResult.newBuilder().setEntity(entity.toPb()));
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testEventualReadsAreCached() {
+    EasyMock.expect(rpcMock.lookup(lookupRequest(EVENTUAL, KEY1, KEY2)))
+        .andReturn(lookupResponse(ENTITY1));
+    EasyMock.replay(rpcMock);
+    assertEquals(Arrays.asList(ENTITY1, null),
+        datastore.fetch(ImmutableList.of(KEY1, KEY2), ReadOption.eventualConsistency()));
+    assertEquals(ENTITY1, datastore.get(KEY1, ReadOption.eventualConsistency()));
+    assertNull(datastore.get(KEY2, ReadOption.eventualConsistency()));
+    EntityCacheStats stats = datastore.entityCacheStats();
+    assertEquals(2, stats.hitCount());
+    assertEquals(1, stats.negativeHitCount());
+    assertEquals(2, stats.missCount());
+    assertEquals(2, stats.size());
+  }
+
+  @Test
+  public void testStrongReadsBypassCache() {
+    EasyMock.expect(rpcMock.lookup(lookupRequest(null, KEY1)))
+        .andReturn(lookupResponse(ENTITY1))
+        .times(2);
+    EasyMock.replay(rpcMock);
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    assertEquals(ENTITY1, datastore.get(KEY1));
+    // strong reads refresh the cache
+    assertEquals(ENTITY1, datastore.get(KEY1, ReadOption.eventualConsistency()));
+    assertEquals(1, datastore.entityCacheStats().hitCount());
+  }
+
+  @Test
+  public void testEntriesExpire() {
+    EasyMock.expect(rpcMock.lookup(lookupRequest(EVENTUAL, KEY1)))
+        .andReturn(lookupResponse(ENTITY1))
+        .times(2);
+    EasyMock.replay(rpcMock);
+    assertEquals(ENTITY1, datastore.get(KEY1, ReadOption.eventualConsistency()));
+    clock.advance(TTL_MILLIS);
+    assertEquals(ENTITY1, datastore.get(KEY1, ReadOption.eventualConsistency()));
+  }
+
+  @Test
+  public void testWritesInvalidate() {
+    Entity updated = Entity.builder(ENTITY1).set("p", "v2").build();
+    EasyMock.expect(rpcMock.lookup(lookupRequest(EVENTUAL, KEY1)))
+        .andReturn(lookupResponse(ENTITY1));
+    EasyMock.expect(rpcMock.commit(EasyMock.anyObject(CommitRequest.class)))
+        .andReturn(CommitResponse.newBuilder()
+            .addMutationResults(MutationResult.getDefaultInstance())
+            .build());
+    EasyMock.expect(rpcMock.lookup(lookupRequest(EVENTUAL, KEY1)))
+        .andReturn(lookupResponse(updated));
+    EasyMock.replay(rpcMock);
+    assertEquals(ENTITY1, datastore.get(KEY1, ReadOption.eventualConsistency()));
+    datastore.put(updated);
+    assertEquals(updated, datastore.get(KEY1, ReadOption.eventualConsistency()));
+  }
+
+  @Test
+  public void testNoCacheStatsWhenDisabled() {
+    EasyMock.replay(rpcMock);
+    DatastoreOptions options = DatastoreOptions.builder()
+        .projectId(PROJECT_ID)
+        .serviceRpcFactory(new DatastoreRpcFactory() {
+          @Override
+          public DatastoreRpc create(DatastoreOptions options) {
+            return rpcMock;
+          }
+        })
+        .build();
+    assertNull(options.service().entityCacheStats());
+  }
+}
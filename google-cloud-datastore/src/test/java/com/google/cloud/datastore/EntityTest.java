@@ -17,9 +17,13 @@
 package com.google.cloud.datastore;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import com.google.common.collect.ImmutableSet;
+
 import org.junit.Test;
 
 public class EntityTest {
@@ -55,4 +59,29 @@ public class EntityTest {
     assertNotEquals(INCOMPLETE_ENTITY, entity);
     assertEquals(INCOMPLETE_ENTITY.properties(), entity.properties());
   }
+
+  @Test
+  public void testFromPb() throws Exception {
+    Entity fullEntity = Entity.builder(ENTITY).set("baz", 42L).setNull("null").build();
+    com.google.datastore.v1.Entity entityPb = fullEntity.toPb();
+    Entity entity = Entity.fromPb(entityPb);
+    assertEquals(KEY1, entity.key());
+    assertTrue(entity.contains("baz"));
+    assertFalse(entity.contains("qux"));
+    assertEquals(42L, entity.getLong("baz"));
+    assertTrue(entity.isNull("null"));
+    assertEquals(ImmutableSet.of("baz", "foo", "null"), entity.names());
+    assertSame(entityPb, entity.toPb());
+    assertEquals(fullEntity, entity);
+    assertEquals(fullEntity.hashCode(), entity.hashCode());
+    assertEquals(fullEntity.properties(), entity.properties());
+  }
+
+  @Test
+  public void testBuilderFromPb() throws Exception {
+    Entity entity = Entity.builder(Entity.fromPb(ENTITY.toPb())).set("baz", "qux").build();
+    assertEquals("bar", entity.getString("foo"));
+    assertEquals("qux", entity.getString("baz"));
+    assertEquals(Entity.builder(ENTITY).set("baz", "qux").build(), entity);
+  }
 }
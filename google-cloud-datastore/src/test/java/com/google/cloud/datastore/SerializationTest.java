@@ -115,6 +115,7 @@ public class SerializationTest extends BaseSerializationTest {
     DatastoreOptions otherOptions = options.toBuilder()
         .namespace("ns1")
         .authCredentials(null)
+        .entityCacheOptions(EntityCacheOptions.defaultInstance())
         .build();
     return new java.io.Serializable[]{KEY1, KEY2, INCOMPLETE_KEY1, INCOMPLETE_KEY2, ENTITY1,
         ENTITY2, ENTITY3, EMBEDDED_ENTITY, PROJECTION_ENTITY, DATE_TIME1, BLOB1, CURSOR1, GQL1,
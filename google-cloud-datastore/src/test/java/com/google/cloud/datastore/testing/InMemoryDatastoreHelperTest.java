@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.AuthCredentials;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreOptions;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InMemoryDatastoreHelperTest {
+
+  private static final String PROJECT_ID_PREFIX = "test-project-";
+  private static final String NAMESPACE = "namespace";
+
+  @Test
+  public void testCreate() {
+    InMemoryDatastoreHelper helper = InMemoryDatastoreHelper.create();
+    assertTrue(helper.projectId().startsWith(PROJECT_ID_PREFIX));
+    assertEquals(InMemoryDatastoreRpc.DEFAULT_MAX_BATCH_SIZE, helper.rpc().maxBatchSize());
+    helper = InMemoryDatastoreHelper.create(10);
+    assertEquals(10, helper.rpc().maxBatchSize());
+    assertNotEquals(helper.projectId(), InMemoryDatastoreHelper.create().projectId());
+  }
+
+  @Test
+  public void testOptions() {
+    InMemoryDatastoreHelper helper = InMemoryDatastoreHelper.create();
+    DatastoreOptions options = helper.options();
+    assertEquals(helper.projectId(), options.projectId());
+    assertSame(AuthCredentials.noAuth(), options.authCredentials());
+    assertSame(helper.rpc(), options.rpc());
+    options = helper.options(NAMESPACE);
+    assertEquals(helper.projectId(), options.projectId());
+    assertEquals(NAMESPACE, options.namespace());
+    assertSame(helper.rpc(), options.rpc());
+  }
+
+  @Test
+  public void testReset() {
+    InMemoryDatastoreHelper helper = InMemoryDatastoreHelper.create();
+    Datastore datastore = helper.options().service();
+    Key key = datastore.newKeyFactory().kind("kind").newKey("name");
+    datastore.put(Entity.builder(key).build());
+    assertEquals(1, helper.rpc().size());
+    helper.reset();
+    assertEquals(0, helper.rpc().size());
+    assertNull(datastore.get(key));
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.datastore.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.datastore.Cursor;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreException;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.IncompleteKey;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.KeyFactory;
+import com.google.cloud.datastore.ProjectionEntity;
+import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.StringValue;
+import com.google.cloud.datastore.StructuredQuery.CompositeFilter;
+import com.google.cloud.datastore.StructuredQuery.OrderBy;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.cloud.datastore.Transaction;
+import com.google.common.collect.ImmutableList;
+import com.google.datastore.v1.QueryResultBatch;
+import com.google.datastore.v1.QueryResultBatch.MoreResultsType;
+import com.google.datastore.v1.RunQueryRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class InMemoryDatastoreRpcTest {
+
+  private static final String KIND = "kind";
+  private static final int BATCH_SIZE = 3;
+
+  private InMemoryDatastoreHelper helper;
+  private Datastore datastore;
+  private KeyFactory keyFactory;
+
+  @Before
+  public void setUp() {
+    helper = InMemoryDatastoreHelper.create(BATCH_SIZE);
+    datastore = helper.options().service();
+    keyFactory = datastore.newKeyFactory().kind(KIND);
+  }
+
+  private List<Entity> putEntities(int count) {
+    List<Entity> entities = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      entities.add(Entity.builder(keyFactory.newKey(i + 1))
+          .set("value", i)
+          .set("parity", i % 2 == 0 ? "even" : "odd")
+          .build());
+    }
+    datastore.put(entities.toArray(new Entity[entities.size()]));
+    return entities;
+  }
+
+  private static <T> List<T> toList(QueryResults<T> results) {
+    List<T> list = new ArrayList<>();
+    while (results.hasNext()) {
+      list.add(results.next());
+    }
+    return list;
+  }
+
+  @Test
+  public void testPutGetDelete() {
+    Key key = keyFactory.newKey("name");
+    Entity entity = Entity.builder(key).set("p", "v").build();
+    assertNull(datastore.get(key));
+    datastore.put(entity);
+    assertEquals(entity, datastore.get(key));
+    datastore.delete(key);
+    assertNull(datastore.get(key));
+  }
+
+  @Test
+  public void testAddAndUpdate() {
+    Key key = keyFactory.newKey("name");
+    Entity entity = Entity.builder(key).set("p", "v").build();
+    try {
+      datastore.update(entity);
+      fail("Expecting a failure");
+    } catch (DatastoreException expected) {
+      assertEquals("NOT_FOUND", expected.reason());
+    }
+    datastore.add(entity);
+    try {
+      datastore.add(entity);
+      fail("Expecting a failure");
+    } catch (DatastoreException expected) {
+      assertEquals("ALREADY_EXISTS", expected.reason());
+    }
+    Entity updated = Entity.builder(entity).set("p", "v2").build();
+    datastore.update(updated);
+    assertEquals(updated, datastore.get(key));
+  }
+
+  @Test
+  public void testAllocateIds() {
+    IncompleteKey incompleteKey = keyFactory.newKey();
+    Key key1 = datastore.allocateId(incompleteKey);
+    Key key2 = datastore.allocateId(incompleteKey);
+    assertNotNull(key1.id());
+    assertFalse(key1.equals(key2));
+    FullEntity<IncompleteKey> partial = FullEntity.builder(incompleteKey).set("p", "v").build();
+    Entity entity = datastore.add(partial);
+    assertNotNull(entity.key().id());
+    assertEquals(entity, datastore.get(entity.key()));
+  }
+
+  @Test
+  public void testTransaction() {
+    Key key = keyFactory.newKey("name");
+    Transaction transaction = datastore.newTransaction();
+    assertNull(transaction.get(key));
+    transaction.put(Entity.builder(key).set("p", "v").build());
+    assertNull(datastore.get(key));
+    transaction.commit();
+    assertEquals("v", datastore.get(key).getString("p"));
+  }
+
+  @Test
+  public void testTransactionRollback() {
+    Key key = keyFactory.newKey("name");
+    Transaction transaction = datastore.newTransaction();
+    transaction.put(Entity.builder(key).set("p", "v").build());
+    transaction.rollback();
+    assertNull(datastore.get(key));
+  }
+
+  @Test
+  public void testConflictingTransactionIsAborted() {
+    Key key = keyFactory.newKey("name");
+    datastore.put(Entity.builder(key).set("p", "v").build());
+    Transaction transaction1 = datastore.newTransaction();
+    Transaction transaction2 = datastore.newTransaction();
+    Entity entity1 = transaction1.get(key);
+    Entity entity2 = transaction2.get(key);
+    transaction1.put(Entity.builder(entity1).set("p", "v1").build());
+    transaction2.put(Entity.builder(entity2).set("p", "v2").build());
+    transaction1.commit();
+    try {
+      transaction2.commit();
+      fail("Expecting a failure");
+    } catch (DatastoreException expected) {
+      assertEquals(10, expected.code());
+      assertEquals("ABORTED", expected.reason());
+    }
+    transaction2.rollback();
+    assertEquals("v1", datastore.get(key).getString("p"));
+  }
+
+  @Test
+  public void testQueryPagination() {
+    List<Entity> entities = putEntities(10);
+    Query<Entity> query = Query.entityQueryBuilder().kind(KIND).build();
+    assertEquals(entities, toList(datastore.run(query)));
+    query = Query.entityQueryBuilder().kind(KIND).offset(2).limit(5).build();
+    assertEquals(entities.subList(2, 7), toList(datastore.run(query)));
+    query = Query.entityQueryBuilder().kind("other").build();
+    assertFalse(datastore.run(query).hasNext());
+  }
+
+  @Test
+  public void testQueryMoreResultsAfterLimit() {
+    putEntities(4);
+    com.google.datastore.v1.Query.Builder queryPb = com.google.datastore.v1.Query.newBuilder();
+    queryPb.addKindBuilder().setName(KIND);
+    queryPb.getLimitBuilder().setValue(2);
+    RunQueryRequest request = RunQueryRequest.newBuilder()
+        .setProjectId(helper.projectId())
+        .setQuery(queryPb)
+        .build();
+    QueryResultBatch batch = helper.rpc().runQuery(request).getBatch();
+    assertEquals(2, batch.getEntityResultsCount());
+    assertEquals(MoreResultsType.MORE_RESULTS_AFTER_LIMIT, batch.getMoreResults());
+    // a limit that consumes the last matching entity leaves no more results
+    queryPb.getLimitBuilder().setValue(4);
+    request = request.toBuilder().setQuery(queryPb).build();
+    batch = helper.rpc().runQuery(request).getBatch();
+    assertEquals(BATCH_SIZE, batch.getEntityResultsCount());
+    assertEquals(MoreResultsType.NOT_FINISHED, batch.getMoreResults());
+    queryPb.setStartCursor(batch.getEndCursor()).getLimitBuilder().setValue(1);
+    request = request.toBuilder().setQuery(queryPb).build();
+    batch = helper.rpc().runQuery(request).getBatch();
+    assertEquals(1, batch.getEntityResultsCount());
+    assertEquals(MoreResultsType.NO_MORE_RESULTS, batch.getMoreResults());
+  }
+
+  @Test
+  public void testQueryFilterAndOrder() {
+    List<Entity> entities = putEntities(10);
+    Query<Entity> query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .filter(CompositeFilter.and(
+            PropertyFilter.eq("parity", "even"), PropertyFilter.ge("value", 4)))
+        .orderBy(OrderBy.desc("value"))
+        .build();
+    assertEquals(
+        ImmutableList.of(entities.get(8), entities.get(6), entities.get(4)),
+        toList(datastore.run(query)));
+    // inequality filters do not match values of other types
+    query = Query.entityQueryBuilder().kind(KIND).filter(PropertyFilter.gt("parity", 0)).build();
+    assertFalse(datastore.run(query).hasNext());
+  }
+
+  @Test
+  public void testQueryExcludesUnindexedProperties() {
+    Key key = keyFactory.newKey("name");
+    datastore.put(Entity.builder(key)
+        .set("p", StringValue.builder("v").excludeFromIndexes(true).build())
+        .build());
+    Query<Entity> query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .filter(PropertyFilter.eq("p", "v"))
+        .build();
+    assertFalse(datastore.run(query).hasNext());
+  }
+
+  @Test
+  public void testAncestorQuery() {
+    Key parent = keyFactory.newKey("parent");
+    Key child = Key.builder(parent, "child", "name").build();
+    Key other = datastore.newKeyFactory().kind("child").newKey("name");
+    datastore.put(Entity.builder(parent).build(), Entity.builder(child).build(),
+        Entity.builder(other).build());
+    Query<Key> query = Query.keyQueryBuilder().filter(PropertyFilter.hasAncestor(parent)).build();
+    assertEquals(ImmutableList.of(parent, child), toList(datastore.run(query)));
+    query = Query.keyQueryBuilder()
+        .kind("child")
+        .filter(PropertyFilter.hasAncestor(parent))
+        .build();
+    assertEquals(ImmutableList.of(child), toList(datastore.run(query)));
+  }
+
+  @Test
+  public void testProjectionQuery() {
+    putEntities(4);
+    Query<ProjectionEntity> query = Query.projectionEntityQueryBuilder()
+        .kind(KIND)
+        .projection("parity")
+        .distinctOn("parity")
+        .orderBy(OrderBy.asc("parity"))
+        .build();
+    List<ProjectionEntity> results = toList(datastore.run(query));
+    assertEquals(2, results.size());
+    assertEquals("even", results.get(0).getString("parity"));
+    assertEquals("odd", results.get(1).getString("parity"));
+    assertFalse(results.get(0).contains("value"));
+  }
+
+  @Test
+  public void testCursors() {
+    List<Entity> entities = putEntities(6);
+    Query<Entity> query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .orderBy(OrderBy.desc("value"))
+        .limit(2)
+        .build();
+    QueryResults<Entity> results = datastore.run(query);
+    assertEquals(ImmutableList.of(entities.get(5), entities.get(4)), toList(results));
+    Cursor cursor = results.cursorAfter();
+    query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .orderBy(OrderBy.desc("value"))
+        .startCursor(cursor)
+        .build();
+    assertEquals(ImmutableList.of(entities.get(3), entities.get(2), entities.get(1),
+        entities.get(0)), toList(datastore.run(query)));
+    query = Query.entityQueryBuilder()
+        .kind(KIND)
+        .orderBy(OrderBy.desc("value"))
+        .endCursor(cursor)
+        .build();
+    assertEquals(ImmutableList.of(entities.get(5), entities.get(4)),
+        toList(datastore.run(query)));
+  }
+
+  @Test
+  public void testGqlQueryNotSupported() {
+    try {
+      datastore.run(Query.gqlQueryBuilder("SELECT * FROM kind").build());
+      fail("Expecting a failure");
+    } catch (DatastoreException expected) {
+      assertEquals("UNIMPLEMENTED", expected.reason());
+    }
+    assertTrue(helper.rpc().size() == 0);
+  }
+}
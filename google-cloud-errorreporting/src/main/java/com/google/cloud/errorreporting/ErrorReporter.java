@@ -0,0 +1,465 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.errorreporting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.errorreporting.spi.v1beta1.ReportErrorsServiceApi;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.clouderrorreporting.v1beta1.ErrorContext;
+import com.google.devtools.clouderrorreporting.v1beta1.ReportedErrorEvent;
+import com.google.devtools.clouderrorreporting.v1beta1.ServiceContext;
+import com.google.protobuf.Timestamp;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports errors to Stackdriver Error Reporting in the background.
+ *
+ * <p>Application threads hand exceptions to {@link #report(Throwable)}, which never blocks on the
+ * network: admitted errors are added to a bounded lock-free queue, and dropped if the queue is
+ * full, while a background thread reports them one by one. Stack traces are formatted by the
+ * background thread, so that reporting an error costs little more than deciding whether to admit
+ * it.
+ *
+ * <p>Errors are fingerprinted by their stack trace: the exception classes and the stack frames of
+ * the exception and its causes, ignoring messages. The first error with a given fingerprint is
+ * always admitted. Errors with the same fingerprint that follow are admitted with the sample rate
+ * probability (defaults to 1) and, for each fingerprint, at most the configured number of errors
+ * per second (defaults to 1) is admitted, allowing bursts of up to one second of errors. When an
+ * application fails the same way at a high rate, only a trickle of identical errors is reported.
+ * Rate limits are tracked for a bounded number of fingerprints: once the limit is reached, errors
+ * with new fingerprints share a single rate limit.
+ * The number of errors that were sampled out, rate limited, dropped or could not be reported are
+ * available through the reporter's counters.
+ */
+public final class ErrorReporter implements AutoCloseable {
+
+  private static final int DEFAULT_MAX_QUEUE_SIZE = 1_000;
+  private static final double DEFAULT_MAX_EVENTS_PER_SECOND = 1.0;
+  static final int MAX_TRACKED_FINGERPRINTS = 1_000;
+  private static final int MAX_CAUSES = 16;
+  private static final HashFunction FINGERPRINT_HASH = Hashing.murmur3_128();
+  private static final Logger logger = Logger.getLogger(ErrorReporter.class.getName());
+
+  private final ReportErrorsServiceApi reportErrorsService;
+  private final String projectName;
+  private final ServiceContext serviceContext;
+  private final int maxQueueSize;
+  private final double sampleRate;
+  private final long intervalNanos;
+  private final long burstNanos;
+  private final Ticker ticker;
+  private final ConcurrentMap<HashCode, AtomicLong> fingerprints = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweep = new AtomicLong();
+  private final AtomicLong overflowNextFree;
+  private final Queue<QueuedError> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queuedErrors = new AtomicInteger();
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final AtomicLong sampledOutErrors = new AtomicLong();
+  private final AtomicLong rateLimitedErrors = new AtomicLong();
+  private final AtomicLong droppedErrors = new AtomicLong();
+  private final AtomicLong failedErrors = new AtomicLong();
+  private final Executor executor;
+  private final ExecutorService ownedExecutor;
+  private final Runnable drainRunnable = new Runnable() {
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+
+  private static final class QueuedError {
+
+    private final String message;
+    private final Throwable thrown;
+    private final ErrorContext context;
+    private final long timeMillis;
+
+    QueuedError(String message, Throwable thrown, ErrorContext context, long timeMillis) {
+      this.message = message;
+      this.thrown = thrown;
+      this.context = context;
+      this.timeMillis = timeMillis;
+    }
+  }
+
+  /**
+   * A builder for {@code ErrorReporter} objects.
+   */
+  public static final class Builder {
+
+    private final String projectId;
+    private final ServiceContext serviceContext;
+    private final ReportErrorsServiceApi reportErrorsService;
+    private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private double sampleRate = 1.0;
+    private double maxEventsPerSecond = DEFAULT_MAX_EVENTS_PER_SECOND;
+    private Executor executor;
+    private Ticker ticker = Ticker.systemTicker();
+
+    private Builder(String projectId, ServiceContext serviceContext,
+        ReportErrorsServiceApi reportErrorsService) {
+      this.projectId = checkNotNull(projectId);
+      this.serviceContext = checkNotNull(serviceContext);
+      this.reportErrorsService = checkNotNull(reportErrorsService);
+    }
+
+    /**
+     * Sets the maximum number of errors waiting to be reported. Errors admitted while the queue is
+     * full are dropped. If not set, 1000 is used.
+     */
+    public Builder maxQueueSize(int maxQueueSize) {
+      checkArgument(maxQueueSize > 0, "Max queue size must be > 0");
+      this.maxQueueSize = maxQueueSize;
+      return this;
+    }
+
+    /**
+     * Sets the probability with which an error is admitted when an error with the same fingerprint
+     * was already seen. If not set, 1 is used.
+     */
+    public Builder sampleRate(double sampleRate) {
+      checkArgument(sampleRate >= 0 && sampleRate <= 1, "Sample rate must be in [0, 1]");
+      this.sampleRate = sampleRate;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of errors admitted per second for each fingerprint. If not set, 1
+     * is used.
+     */
+    public Builder maxEventsPerSecond(double maxEventsPerSecond) {
+      checkArgument(maxEventsPerSecond > 0, "Max events per second must be > 0");
+      this.maxEventsPerSecond = maxEventsPerSecond;
+      return this;
+    }
+
+    /**
+     * Sets the executor used to report errors. The executor is not shut down when the reporter is
+     * closed. If not set, the reporter uses its own daemon thread.
+     */
+    public Builder executor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    Builder ticker(Ticker ticker) {
+      this.ticker = checkNotNull(ticker);
+      return this;
+    }
+
+    /**
+     * Creates an {@code ErrorReporter} object.
+     */
+    public ErrorReporter build() {
+      return new ErrorReporter(this);
+    }
+  }
+
+  private ErrorReporter(Builder builder) {
+    reportErrorsService = builder.reportErrorsService;
+    projectName = ReportErrorsServiceApi.formatProjectName(builder.projectId);
+    serviceContext = builder.serviceContext;
+    maxQueueSize = builder.maxQueueSize;
+    sampleRate = builder.sampleRate;
+    intervalNanos =
+        Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / builder.maxEventsPerSecond));
+    burstNanos = Math.max(intervalNanos, TimeUnit.SECONDS.toNanos(1));
+    ticker = builder.ticker;
+    overflowNextFree = new AtomicLong(ticker.read() - burstNanos);
+    if (builder.executor == null) {
+      ownedExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("error-reporter-%d")
+          .build());
+      executor = ownedExecutor;
+    } else {
+      ownedExecutor = null;
+      executor = builder.executor;
+    }
+  }
+
+  /**
+   * Returns a builder for {@code ErrorReporter} objects.
+   *
+   * @param projectId the project to which errors are reported
+   * @param serviceContext the service reporting errors. The service name must be set
+   * @param reportErrorsService the client used to report errors
+   */
+  public static Builder builder(String projectId, ServiceContext serviceContext,
+      ReportErrorsServiceApi reportErrorsService) {
+    return new Builder(projectId, serviceContext, reportErrorsService);
+  }
+
+  /**
+   * Reports the provided exception, unless it is sampled out, rate limited or dropped. This method
+   * never blocks.
+   *
+   * @return {@code true} if the error was queued to be reported
+   */
+  public boolean report(Throwable thrown) {
+    return report(null, thrown, null, System.currentTimeMillis());
+  }
+
+  /**
+   * Reports the provided exception, unless it is sampled out, rate limited or dropped. The
+   * message is reported before the stack trace of the exception and the context, if not
+   * {@code null}, describes the request or user that caused the error. This method never blocks.
+   *
+   * @return {@code true} if the error was queued to be reported
+   */
+  public boolean report(String message, Throwable thrown, ErrorContext context) {
+    return report(message, thrown, context, System.currentTimeMillis());
+  }
+
+  boolean report(String message, Throwable thrown, ErrorContext context, long timeMillis) {
+    checkNotNull(thrown);
+    if (closed.get()) {
+      droppedErrors.incrementAndGet();
+      return false;
+    }
+    if (!admit(fingerprint(thrown))) {
+      return false;
+    }
+    if (queuedErrors.incrementAndGet() > maxQueueSize) {
+      queuedErrors.decrementAndGet();
+      droppedErrors.incrementAndGet();
+      return false;
+    }
+    queue.add(new QueuedError(message, thrown, context, timeMillis));
+    if (draining.compareAndSet(false, true)) {
+      try {
+        executor.execute(drainRunnable);
+      } catch (RejectedExecutionException ex) {
+        draining.set(false);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the fingerprint of the provided exception, a hash of the classes and stack frames of
+   * the exception and its causes.
+   */
+  static HashCode fingerprint(Throwable thrown) {
+    Hasher hasher = FINGERPRINT_HASH.newHasher();
+    Throwable current = thrown;
+    for (int i = 0; current != null && i < MAX_CAUSES; i++) {
+      hasher.putUnencodedChars(current.getClass().getName());
+      for (StackTraceElement element : current.getStackTrace()) {
+        hasher.putUnencodedChars(element.getClassName())
+            .putUnencodedChars(element.getMethodName())
+            .putInt(element.getLineNumber());
+      }
+      current = current.getCause();
+    }
+    return hasher.hash();
+  }
+
+  private boolean admit(HashCode fingerprint) {
+    long now = ticker.read();
+    AtomicLong nextFree = fingerprints.get(fingerprint);
+    if (nextFree == null) {
+      if (fingerprints.size() >= MAX_TRACKED_FINGERPRINTS) {
+        sweep(now);
+      }
+      if (fingerprints.size() < MAX_TRACKED_FINGERPRINTS) {
+        // the first error with a fingerprint is always admitted and takes a permit
+        nextFree = fingerprints.putIfAbsent(fingerprint,
+            new AtomicLong(now - burstNanos + intervalNanos));
+        if (nextFree == null) {
+          return true;
+        }
+      } else {
+        // too many fingerprints are tracked, untracked ones share the overflow rate limit
+        nextFree = overflowNextFree;
+      }
+    }
+    if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      sampledOutErrors.incrementAndGet();
+      return false;
+    }
+    if (!tryAcquire(nextFree, now)) {
+      rateLimitedErrors.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Takes a permit from the fingerprint's rate limit, which tracks the time at which the next
+   * error is allowed in the style of the generic cell rate algorithm.
+   */
+  private boolean tryAcquire(AtomicLong nextFreeNanos, long now) {
+    while (true) {
+      long nextFree = nextFreeNanos.get();
+      long next = Math.max(nextFree, now - burstNanos) + intervalNanos;
+      if (next - now > 0) {
+        return false;
+      }
+      if (nextFreeNanos.compareAndSet(nextFree, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Stops tracking the fingerprints whose rate limit is back to a full burst, at most once per
+   * second.
+   */
+  private void sweep(long now) {
+    long sweepTime = nextSweep.get();
+    if (now - sweepTime < 0
+        || !nextSweep.compareAndSet(sweepTime, now + TimeUnit.SECONDS.toNanos(1))) {
+      return;
+    }
+    for (Map.Entry<HashCode, AtomicLong> entry : fingerprints.entrySet()) {
+      if (entry.getValue().get() - (now - burstNanos) <= 0) {
+        fingerprints.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns the number of errors waiting to be reported.
+   */
+  public int pendingErrors() {
+    return queuedErrors.get();
+  }
+
+  /**
+   * Returns the number of errors discarded by sampling.
+   */
+  public long sampledOutErrors() {
+    return sampledOutErrors.get();
+  }
+
+  /**
+   * Returns the number of errors discarded because the rate limit of their fingerprint was
+   * exceeded.
+   */
+  public long rateLimitedErrors() {
+    return rateLimitedErrors.get();
+  }
+
+  /**
+   * Returns the number of errors dropped because the queue was full or the reporter was closed.
+   */
+  public long droppedErrors() {
+    return droppedErrors.get();
+  }
+
+  /**
+   * Returns the number of errors dropped because reporting them failed.
+   */
+  public long failedErrors() {
+    return failedErrors.get();
+  }
+
+  private void drain() {
+    while (true) {
+      if (!reportNext()) {
+        draining.set(false);
+        // an error queued before the flag was cleared would otherwise wait for the next report
+        if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+          return;
+        }
+      }
+    }
+  }
+
+  private boolean reportNext() {
+    QueuedError error = queue.poll();
+    if (error == null) {
+      return false;
+    }
+    queuedErrors.decrementAndGet();
+    try {
+      reportErrorsService.reportErrorEvent(projectName, toEvent(error));
+    } catch (RuntimeException ex) {
+      failedErrors.incrementAndGet();
+      logger.log(Level.FINE, "Failed to report error", ex);
+    }
+    return true;
+  }
+
+  private ReportedErrorEvent toEvent(QueuedError error) {
+    String stackTrace = Throwables.getStackTraceAsString(error.thrown);
+    ReportedErrorEvent.Builder builder = ReportedErrorEvent.newBuilder()
+        .setEventTime(Timestamp.newBuilder()
+            .setSeconds(TimeUnit.MILLISECONDS.toSeconds(error.timeMillis))
+            .setNanos((int) TimeUnit.MILLISECONDS.toNanos(error.timeMillis % 1000)))
+        .setServiceContext(serviceContext)
+        .setMessage(error.message != null ? error.message + '\n' + stackTrace : stackTrace);
+    if (error.context != null) {
+      builder.setContext(error.context);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Reports the queued errors on the calling thread.
+   */
+  public void flush() {
+    while (reportNext()) {
+      // report until the queue is empty
+    }
+  }
+
+  /**
+   * Reports the queued errors and stops reporting errors. Errors reported after the reporter is
+   * closed are dropped. If the reporter uses its own thread, the thread is stopped. The
+   * {@link ReportErrorsServiceApi} client is not closed.
+   */
+  @Override
+  public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      flush();
+    } finally {
+      if (ownedExecutor != null) {
+        ownedExecutor.shutdown();
+      }
+    }
+  }
+}
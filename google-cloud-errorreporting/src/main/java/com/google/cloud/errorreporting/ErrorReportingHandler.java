@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.errorreporting;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * A logging handler that reports the exceptions of log records to Stackdriver Error Reporting
+ * through an {@link ErrorReporter}. Only records with a thrown exception and a level of at least
+ * the handler's level (defaults to {@link Level#SEVERE}) are reported, with the formatted log
+ * message before the stack trace. Publishing a record never blocks on the network: errors are
+ * sampled, rate limited and reported in the background by the reporter.
+ *
+ * <p>Records logged by the loggers of the libraries used to report errors are not reported, to
+ * avoid reporting the failures of error reporting itself, so the handler can be added to the root
+ * logger:
+ * <pre> {@code
+ * Logger.getLogger("").addHandler(new ErrorReportingHandler(reporter));
+ * }</pre>
+ */
+public class ErrorReportingHandler extends Handler {
+
+  private static final Set<String> EXCLUDED_LOGGERS = ImmutableSet.of("io.grpc", "io.netty",
+      "com.google.api.client.http", "sun.net.www.protocol.http",
+      ErrorReporter.class.getName());
+
+  private final ErrorReporter reporter;
+
+  /**
+   * Creates a handler that reports errors through the provided reporter. The reporter is closed
+   * when the handler is closed.
+   */
+  public ErrorReportingHandler(ErrorReporter reporter) {
+    this.reporter = checkNotNull(reporter);
+    setLevel(Level.SEVERE);
+    setFormatter(new SimpleFormatter());
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (record == null || record.getThrown() == null || !isLoggable(record)
+        || isExcluded(record.getLoggerName())) {
+      return;
+    }
+    String message;
+    try {
+      message = getFormatter().formatMessage(record);
+    } catch (Exception ex) {
+      // formatting can fail but we should not throw an exception, we report the error instead
+      reportError(null, ex, ErrorManager.FORMAT_FAILURE);
+      return;
+    }
+    try {
+      reporter.report(message, record.getThrown(), null, record.getMillis());
+    } catch (Exception ex) {
+      reportError(null, ex, ErrorManager.WRITE_FAILURE);
+    }
+  }
+
+  private static boolean isExcluded(String loggerName) {
+    if (loggerName == null) {
+      return false;
+    }
+    for (String excluded : EXCLUDED_LOGGERS) {
+      if (loggerName.equals(excluded) || loggerName.startsWith(excluded + '.')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void flush() {
+    try {
+      reporter.flush();
+    } catch (Exception ex) {
+      reportError(null, ex, ErrorManager.FLUSH_FAILURE);
+    }
+  }
+
+  @Override
+  public void close() throws SecurityException {
+    try {
+      reporter.close();
+    } catch (Exception ex) {
+      reportError(null, ex, ErrorManager.CLOSE_FAILURE);
+    }
+  }
+
+  /**
+   * Returns the reporter used by this handler.
+   */
+  public ErrorReporter reporter() {
+    return reporter;
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * High-level clients to Stackdriver Error Reporting, built on the clients in
+ * {@link com.google.cloud.errorreporting.spi.v1beta1}.
+ *
+ * <p>{@link com.google.cloud.errorreporting.ErrorReporter} reports errors in the background,
+ * sampling and rate limiting repeated errors:
+ * <pre> {@code
+ * ServiceContext serviceContext = ServiceContext.newBuilder().setService("my-service").build();
+ * try (ReportErrorsServiceApi reportErrorsServiceApi = ReportErrorsServiceApi.create();
+ *     ErrorReporter reporter =
+ *         ErrorReporter.builder("my-project", serviceContext, reportErrorsServiceApi).build()) {
+ *   reporter.report(exception);
+ * }
+ * }</pre>
+ *
+ * <p>{@link com.google.cloud.errorreporting.ErrorReportingHandler} reports the exceptions logged
+ * with {@code java.util.logging}:
+ * <pre> {@code
+ * Logger.getLogger("").addHandler(new ErrorReportingHandler(reporter));
+ * }</pre>
+ */
+package com.google.cloud.errorreporting;
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.errorreporting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.cloud.errorreporting.spi.v1beta1.MockReportErrorsService;
+import com.google.cloud.errorreporting.spi.v1beta1.ReportErrorsServiceApi;
+import com.google.cloud.errorreporting.spi.v1beta1.ReportErrorsServiceSettings;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.devtools.clouderrorreporting.v1beta1.ErrorContext;
+import com.google.devtools.clouderrorreporting.v1beta1.ReportErrorEventRequest;
+import com.google.devtools.clouderrorreporting.v1beta1.ReportErrorEventResponse;
+import com.google.devtools.clouderrorreporting.v1beta1.ServiceContext;
+import com.google.protobuf.GeneratedMessage;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class ErrorReporterTest {
+
+  private static final String PROJECT = "project";
+  private static final ServiceContext SERVICE_CONTEXT =
+      ServiceContext.newBuilder().setService("service").setVersion("1.0").build();
+  // errors are reported by calling flush
+  private static final Executor NO_OP_EXECUTOR = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      // do nothing
+    }
+  };
+
+  private static MockReportErrorsService mockReportErrorsService;
+  private static MockServiceHelper serviceHelper;
+  private ReportErrorsServiceApi reportErrorsServiceApi;
+  private ErrorReporter reporter;
+
+  private static final class FakeTicker extends Ticker {
+
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long time, TimeUnit unit) {
+      nanos += unit.toNanos(time);
+    }
+  }
+
+  @BeforeClass
+  public static void startStaticServer() {
+    mockReportErrorsService = new MockReportErrorsService();
+    serviceHelper = new MockServiceHelper("in-process-reporter",
+        Arrays.<MockGrpcService>asList(mockReportErrorsService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    ReportErrorsServiceSettings settings = ReportErrorsServiceSettings.defaultBuilder()
+        .provideChannelWith(serviceHelper.createChannel(), true)
+        .build();
+    reportErrorsServiceApi = ReportErrorsServiceApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    reporter.close();
+    reportErrorsServiceApi.close();
+  }
+
+  private ErrorReporter.Builder reporterBuilder() {
+    return ErrorReporter.builder(PROJECT, SERVICE_CONTEXT, reportErrorsServiceApi)
+        .executor(NO_OP_EXECUTOR);
+  }
+
+  private static void setResponses(int count) {
+    mockReportErrorsService.setResponses(Collections.<GeneratedMessage>nCopies(count,
+        ReportErrorEventResponse.getDefaultInstance()));
+  }
+
+  private static ReportErrorEventRequest request(int index) {
+    return (ReportErrorEventRequest) mockReportErrorsService.getRequests().get(index);
+  }
+
+  private static Exception exception(String message) {
+    return new IllegalStateException(message, new IllegalArgumentException("cause"));
+  }
+
+  private static Exception exception(int lineNumber) {
+    Exception exception = new IllegalStateException("error");
+    exception.setStackTrace(new StackTraceElement[]{
+        new StackTraceElement("Class", "method", "Class.java", lineNumber)});
+    return exception;
+  }
+
+  @Test
+  public void testReport() {
+    setResponses(2);
+    reporter = reporterBuilder().build();
+    Exception exception = exception("error");
+    ErrorContext context = ErrorContext.newBuilder().setUser("user").build();
+    assertTrue(reporter.report(exception));
+    assertTrue(reporter.report("message", new RuntimeException(), context, 1_500));
+    assertEquals(2, reporter.pendingErrors());
+    reporter.flush();
+    assertEquals(0, reporter.pendingErrors());
+    assertEquals(2, mockReportErrorsService.getRequests().size());
+    ReportErrorEventRequest request = request(0);
+    assertEquals(ReportErrorsServiceApi.formatProjectName(PROJECT), request.getProjectName());
+    assertEquals(SERVICE_CONTEXT, request.getEvent().getServiceContext());
+    assertEquals(Throwables.getStackTraceAsString(exception), request.getEvent().getMessage());
+    assertFalse(request.getEvent().hasContext());
+    request = request(1);
+    assertTrue(request.getEvent().getMessage().startsWith("message\njava.lang.RuntimeException"));
+    assertEquals(context, request.getEvent().getContext());
+    assertEquals(1, request.getEvent().getEventTime().getSeconds());
+    assertEquals(500_000_000, request.getEvent().getEventTime().getNanos());
+  }
+
+  @Test
+  public void testFingerprint() {
+    Exception[] exceptions = new Exception[2];
+    for (int i = 0; i < exceptions.length; i++) {
+      exceptions[i] = exception("error " + i);
+    }
+    // messages are ignored
+    assertEquals(ErrorReporter.fingerprint(exceptions[0]),
+        ErrorReporter.fingerprint(exceptions[1]));
+    assertNotEquals(ErrorReporter.fingerprint(exceptions[0]),
+        ErrorReporter.fingerprint(exception("error")));
+    assertNotEquals(ErrorReporter.fingerprint(exceptions[0]),
+        ErrorReporter.fingerprint(new IllegalStateException(exceptions[0].getMessage())));
+  }
+
+  @Test
+  public void testMaxEventsPerSecond() {
+    setResponses(4);
+    FakeTicker ticker = new FakeTicker();
+    reporter = reporterBuilder().maxEventsPerSecond(2).ticker(ticker).build();
+    int reported = 0;
+    for (int i = 0; i < 10; i++) {
+      if (reporter.report(exception("error " + i))) {
+        reported++;
+      }
+    }
+    assertEquals(2, reported);
+    assertEquals(8, reporter.rateLimitedErrors());
+    // other errors are limited separately
+    assertTrue(reporter.report(exception("other error")));
+    ticker.advance(500, TimeUnit.MILLISECONDS);
+    reported = 0;
+    for (int i = 0; i < 10; i++) {
+      if (reporter.report(exception("error " + i))) {
+        reported++;
+      }
+    }
+    assertEquals(1, reported);
+    assertEquals(17, reporter.rateLimitedErrors());
+  }
+
+  @Test
+  public void testUntrackedFingerprintsAreRateLimited() {
+    FakeTicker ticker = new FakeTicker();
+    reporter = reporterBuilder()
+        .maxQueueSize(2 * ErrorReporter.MAX_TRACKED_FINGERPRINTS)
+        .ticker(ticker)
+        .build();
+    for (int i = 0; i < ErrorReporter.MAX_TRACKED_FINGERPRINTS; i++) {
+      assertTrue(reporter.report(exception(i)));
+    }
+    // no tracked fingerprint can be swept, new fingerprints share a single rate limit
+    int reported = 0;
+    for (int i = 0; i < 10; i++) {
+      if (reporter.report(exception(ErrorReporter.MAX_TRACKED_FINGERPRINTS + i))) {
+        reported++;
+      }
+    }
+    assertEquals(1, reported);
+    assertEquals(9, reporter.rateLimitedErrors());
+  }
+
+  @Test
+  public void testSampleRate() {
+    setResponses(1);
+    reporter = reporterBuilder().sampleRate(0).build();
+    int reported = 0;
+    for (int i = 0; i < 10; i++) {
+      if (reporter.report(exception("error " + i))) {
+        reported++;
+      }
+    }
+    // the first error with a fingerprint is always reported
+    assertEquals(1, reported);
+    assertEquals(9, reporter.sampledOutErrors());
+  }
+
+  @Test
+  public void testMaxQueueSize() {
+    setResponses(2);
+    reporter = reporterBuilder().maxQueueSize(2).maxEventsPerSecond(10).build();
+    for (int i = 0; i < 3; i++) {
+      reporter.report(exception("error " + i));
+    }
+    assertEquals(1, reporter.droppedErrors());
+    assertEquals(2, reporter.pendingErrors());
+  }
+
+  @Test
+  public void testFailedReport() {
+    reporter = reporterBuilder().build();
+    reporter.report(exception("error"));
+    reporter.flush();
+    assertEquals(1, reporter.failedErrors());
+    assertEquals(0, reporter.pendingErrors());
+  }
+
+  @Test
+  public void testBackgroundReport() throws InterruptedException {
+    setResponses(1);
+    reporter = ErrorReporter.builder(PROJECT, SERVICE_CONTEXT, reportErrorsServiceApi).build();
+    assertTrue(reporter.report(exception("error")));
+    reporter.close();
+    // the error may still be reported by the background thread
+    for (int i = 0; i < 100 && mockReportErrorsService.getRequests().isEmpty(); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, mockReportErrorsService.getRequests().size());
+    assertFalse(reporter.report(exception("error")));
+    assertEquals(1, reporter.droppedErrors());
+  }
+}
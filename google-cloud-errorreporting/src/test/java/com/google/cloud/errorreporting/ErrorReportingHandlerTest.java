@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.errorreporting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.cloud.errorreporting.spi.v1beta1.MockReportErrorsService;
+import com.google.cloud.errorreporting.spi.v1beta1.ReportErrorsServiceApi;
+import com.google.cloud.errorreporting.spi.v1beta1.ReportErrorsServiceSettings;
+import com.google.devtools.clouderrorreporting.v1beta1.ReportErrorEventRequest;
+import com.google.devtools.clouderrorreporting.v1beta1.ReportErrorEventResponse;
+import com.google.devtools.clouderrorreporting.v1beta1.ServiceContext;
+import com.google.protobuf.GeneratedMessage;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+public class ErrorReportingHandlerTest {
+
+  private static final ServiceContext SERVICE_CONTEXT =
+      ServiceContext.newBuilder().setService("service").build();
+
+  private static MockReportErrorsService mockReportErrorsService;
+  private static MockServiceHelper serviceHelper;
+  private ReportErrorsServiceApi reportErrorsServiceApi;
+  private ErrorReportingHandler handler;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    mockReportErrorsService = new MockReportErrorsService();
+    serviceHelper = new MockServiceHelper("in-process-handler",
+        Arrays.<MockGrpcService>asList(mockReportErrorsService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    ReportErrorsServiceSettings settings = ReportErrorsServiceSettings.defaultBuilder()
+        .provideChannelWith(serviceHelper.createChannel(), true)
+        .build();
+    reportErrorsServiceApi = ReportErrorsServiceApi.create(settings);
+    ErrorReporter reporter =
+        ErrorReporter.builder("project", SERVICE_CONTEXT, reportErrorsServiceApi)
+            .executor(new Executor() {
+              @Override
+              public void execute(Runnable command) {
+                // errors are reported by flushing the handler
+              }
+            })
+            .build();
+    handler = new ErrorReportingHandler(reporter);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    handler.close();
+    reportErrorsServiceApi.close();
+  }
+
+  private static LogRecord newRecord(String loggerName, Level level, Throwable thrown) {
+    LogRecord record = new LogRecord(level, "message {0}");
+    record.setLoggerName(loggerName);
+    record.setParameters(new Object[] {42});
+    record.setThrown(thrown);
+    return record;
+  }
+
+  @Test
+  public void testPublish() {
+    mockReportErrorsService.setResponses(Collections.<GeneratedMessage>singletonList(
+        ReportErrorEventResponse.getDefaultInstance()));
+    handler.publish(newRecord("logger", Level.SEVERE, new IllegalStateException()));
+    handler.flush();
+    assertEquals(1, mockReportErrorsService.getRequests().size());
+    ReportErrorEventRequest request =
+        (ReportErrorEventRequest) mockReportErrorsService.getRequests().get(0);
+    assertTrue(request.getEvent().getMessage()
+        .startsWith("message 42\njava.lang.IllegalStateException"));
+  }
+
+  @Test
+  public void testIgnoredRecords() {
+    // records without exception or with a lower level are not reported
+    handler.publish(newRecord("logger", Level.SEVERE, null));
+    handler.publish(newRecord("logger", Level.WARNING, new IllegalStateException()));
+    // records of the libraries used to report errors are not reported
+    handler.publish(newRecord("io.grpc.internal", Level.SEVERE, new IllegalStateException()));
+    assertEquals(0, handler.reporter().pendingErrors());
+    handler.setLevel(Level.WARNING);
+    mockReportErrorsService.setResponses(Collections.<GeneratedMessage>singletonList(
+        ReportErrorEventResponse.getDefaultInstance()));
+    handler.publish(newRecord("logger", Level.WARNING, new IllegalStateException()));
+    assertEquals(1, handler.reporter().pendingErrors());
+  }
+}
@@ -22,6 +22,7 @@
 
 package com.google.cloud.examples.datastore.snippets;
 
+import com.google.cloud.RetryParams;
 import com.google.cloud.datastore.Batch;
 import com.google.cloud.datastore.Datastore;
 import com.google.cloud.datastore.Datastore.TransactionCallable;
@@ -34,6 +35,7 @@ import com.google.cloud.datastore.Query;
 import com.google.cloud.datastore.QueryResults;
 import com.google.cloud.datastore.StructuredQuery;
 import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.cloud.datastore.TransactionOption;
 import com.google.common.collect.Lists;
 
 import java.util.Iterator;
@@ -68,6 +70,33 @@ public class DatastoreSnippets {
     return result;
   }
 
+  /**
+   * Example of running in a transaction that is retried on contention.
+   */
+  // [TARGET runInTransaction(TransactionCallable, TransactionOption...)]
+  // [VARIABLE "my_counter_name"]
+  public long incrementCounter(String counterName) {
+    // [START incrementCounter]
+    final Key counterKey = datastore.newKeyFactory().kind("Counter").newKey(counterName);
+    TransactionCallable<Long> callable = new TransactionCallable<Long>() {
+      public Long run(DatastoreReaderWriter readerWriter) {
+        Entity counter = readerWriter.get(counterKey);
+        long value = counter == null ? 1 : counter.getLong("value") + 1;
+        readerWriter.put(Entity.builder(counterKey).set("value", value).build());
+        return value;
+      }
+    };
+    RetryParams retryParams = RetryParams.builder()
+        .retryMaxAttempts(10)
+        .initialRetryDelayMillis(50)
+        .totalRetryPeriodMillis(5000)
+        .build();
+    long value = datastore.runInTransaction(callable,
+        TransactionOption.retryOnAbort(retryParams));
+    // [END incrementCounter]
+    return value;
+  }
+
   /**
    * Example of starting a new batch.
    */
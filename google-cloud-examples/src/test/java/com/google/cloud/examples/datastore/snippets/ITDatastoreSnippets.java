@@ -97,6 +97,13 @@ public class ITDatastoreSnippets {
     assertEquals(testString, result);
   }
 
+  @Test
+  public void testIncrementCounter() {
+    String counterName = registerKey("my_counter_name", "Counter");
+    assertEquals(1, datastoreSnippets.incrementCounter(counterName));
+    assertEquals(2, datastoreSnippets.incrementCounter(counterName));
+  }
+
   @Test
   public void testNewBatch() {
     String testKey1 = registerKey("new_batch_key1");
@@ -75,6 +75,9 @@ import java.util.logging.SimpleFormatter;
  * <pre>
  * {@code com.example.mypackage.handlers=com.google.cloud.logging.AsyncLoggingHandler}
  * </pre>
+ *
+ * <p>Publishing a log still locks the handler. Use {@link BufferedLoggingHandler} to buffer and
+ * batch logs without locking publishing threads.
  */
 public class AsyncLoggingHandler extends LoggingHandler {
 
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.MonitoredResource;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.MessageLite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Filter;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * A logging handler that buffers logs generated with {@link java.util.logging.Logger} in memory
+ * and outputs them to Stackdriver Logging from a background thread.
+ *
+ * <p>Publishing threads never take a lock: log entries are added to a bounded lock-free ring
+ * buffer. A background flusher thread removes entries from the buffer and writes them to the
+ * Stackdriver Logging service in batches. A batch is written as soon as the buffered entries reach
+ * the configured count ({@link #setBatchSize(int)}) or estimated size in bytes
+ * ({@link #setBatchBytes(long)}), when the oldest buffered entry has waited for the configured
+ * linger time ({@link #setLingerMillis(long)}) or when a log with the flush level is published.
+ * When the buffer is full, the configured {@link OverflowPolicy} is applied. The number of entries
+ * that were dropped can be read with {@link #droppedEntries()}.
+ *
+ * <p>Java logging levels are mapped to Stackdriver Logging severities and added as labels to the
+ * corresponding {@link LogEntry} as in {@link LoggingHandler}.
+ *
+ * <p><b>Configuration</b>: By default each {@code BufferedLoggingHandler} is initialized using the
+ * following {@code LogManager} configuration properties (that you can set in the
+ * {@code logging.properties} file). If properties are not defined (or have invalid values) then the
+ * specified default values are used.
+ * <ul>
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.log} the log name (defaults to
+ *     {@code java.log}).
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.level} specifies the default level for
+ *     the handler (defaults to {@code Level.INFO}).
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.filter} specifies the name of a
+ *     {@link Filter} class to use (defaults to no filter).
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.formatter} specifies the name of a
+ *     {@link Formatter} class to use (defaults to {@link SimpleFormatter}).
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.flushLevel} specifies the flush log
+ *     level. When a log with this level is published, buffered logs are transmitted to the
+ *     Stackdriver Logging service without waiting for the linger time (defaults to
+ *     {@link LoggingLevel#ERROR}).
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.bufferSize} specifies the capacity of
+ *     the buffer, rounded up to a power of two (defaults to 16384).
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.batchSize} specifies the maximum
+ *     number of log entries in a write request (defaults to 1000).
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.batchBytes} specifies the maximum
+ *     estimated size in bytes of the log entries in a write request (defaults to 4194304).
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.lingerMillis} specifies how long, in
+ *     milliseconds, a log entry may wait in the buffer before it is transmitted (defaults to 1000).
+ * <li>{@code com.google.cloud.logging.BufferedLoggingHandler.overflowPolicy} specifies the
+ *     {@link OverflowPolicy} applied when the buffer is full (defaults to
+ *     {@link OverflowPolicy#BLOCK}).
+ * </ul>
+ * Logs are sampled, rate limited and suppressed as duplicates as in {@link LoggingHandler},
+ * configured by the {@code sampleRate}, {@code sampleLevel}, {@code rateLimit} and
+ * {@code duplicateWindowMillis} properties prefixed with
+ * {@code com.google.cloud.logging.BufferedLoggingHandler}. The {@code flushSize} property of
+ * {@link LoggingHandler} is not used by this handler.
+ *
+ * <p>Buffered logs are transmitted when {@link #flush()} or {@link #close()} are called. To add a
+ * {@code BufferedLoggingHandler} to an existing {@link Logger} and be sure to avoid infinite
+ * recursion when logging, use the {@link #addHandler(Logger, LoggingHandler)} method.
+ * Alternatively you can add the handler via {@code logging.properties}. For example using the
+ * following line:
+ * <pre>
+ * {@code com.example.mypackage.handlers=com.google.cloud.logging.BufferedLoggingHandler}
+ * </pre>
+ */
+public class BufferedLoggingHandler extends LoggingHandler {
+
+  private static final int DEFAULT_BUFFER_SIZE = 16384;
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final long DEFAULT_BATCH_BYTES = 4L * 1024 * 1024;
+  private static final long DEFAULT_LINGER_MILLIS = 1000L;
+  private static final long BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+  private static final long ENTRY_OVERHEAD_BYTES = 64L;
+  private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder()
+      .setDaemon(true)
+      .setNameFormat("logging-handler-flusher-%d")
+      .build();
+
+  private final RingBuffer<LogEntry> buffer;
+  private final AtomicLong bufferedBytes = new AtomicLong();
+  private final AtomicLong droppedEntries = new AtomicLong();
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final ReentrantLock drainLock = new ReentrantLock();
+  private volatile int batchSize;
+  private volatile long batchBytes;
+  private volatile long lingerMillis;
+  private volatile OverflowPolicy overflowPolicy;
+  private volatile Thread flusher;
+  private volatile boolean closed;
+
+  /**
+   * Policies applied when a log is published and the buffer is full.
+   */
+  public enum OverflowPolicy {
+
+    /**
+     * The publishing thread waits until the flusher makes room in the buffer. Logs published by
+     * the thread writing the buffered logs, e.g. by the underlying transport, are dropped instead.
+     */
+    BLOCK,
+
+    /**
+     * The published log is dropped.
+     */
+    DROP,
+
+    /**
+     * Logs with lower severity are dropped before the buffer is full, to leave room for logs with
+     * higher severity. {@link Severity#DEBUG} logs are dropped once the buffer is half full, logs
+     * with a severity lower than {@link Severity#WARNING} once the buffer is three quarters full.
+     * Logs with {@link Severity#WARNING} or higher severity are dropped only if the buffer is full.
+     */
+    DROP_LOWEST_SEVERITY
+  }
+
+  /**
+   * Creates a handler that publishes messages to Stackdriver Logging.
+   */
+  public BufferedLoggingHandler() {
+    this(null, null, null);
+  }
+
+  /**
+   * Creates a handler that publishes messages to Stackdriver Logging.
+   *
+   * @param log the name of the log to which log entries are written
+   */
+  public BufferedLoggingHandler(String log) {
+    this(log, null, null);
+  }
+
+  /**
+   * Creates a handler that publishes messages to Stackdriver Logging.
+   *
+   * @param log the name of the log to which log entries are written
+   * @param options options for the Stackdriver Logging service
+   */
+  public BufferedLoggingHandler(String log, LoggingOptions options) {
+    this(log, options, null);
+  }
+
+  /**
+   * Creates a handler that publishes messages to Stackdriver Logging.
+   *
+   * @param log the name of the log to which log entries are written
+   * @param options options for the Stackdriver Logging service
+   * @param monitoredResource the monitored resource to which log entries refer
+   */
+  public BufferedLoggingHandler(String log, LoggingOptions options,
+      MonitoredResource monitoredResource) {
+    this(log, options, monitoredResource, null);
+  }
+
+  BufferedLoggingHandler(String log, LoggingOptions options, MonitoredResource monitoredResource,
+      Integer capacity) {
+    super(log, options, monitoredResource);
+    LogConfigHelper helper = new LogConfigHelper();
+    String className = getClass().getName();
+    long bufferSize = capacity != null
+        ? capacity : helper.getLongProperty(className + ".bufferSize", DEFAULT_BUFFER_SIZE);
+    buffer = new RingBuffer<>(bufferSize > 0 && bufferSize <= 1 << 30
+        ? (int) bufferSize : DEFAULT_BUFFER_SIZE);
+    long batchSize = helper.getLongProperty(className + ".batchSize", DEFAULT_BATCH_SIZE);
+    this.batchSize = batchSize > 0 && batchSize <= Integer.MAX_VALUE
+        ? (int) batchSize : DEFAULT_BATCH_SIZE;
+    long batchBytes = helper.getLongProperty(className + ".batchBytes", DEFAULT_BATCH_BYTES);
+    this.batchBytes = batchBytes > 0 ? batchBytes : DEFAULT_BATCH_BYTES;
+    long lingerMillis = helper.getLongProperty(className + ".lingerMillis", DEFAULT_LINGER_MILLIS);
+    this.lingerMillis = lingerMillis > 0 ? lingerMillis : DEFAULT_LINGER_MILLIS;
+    String policy =
+        helper.getProperty(className + ".overflowPolicy", OverflowPolicy.BLOCK.name());
+    try {
+      this.overflowPolicy = OverflowPolicy.valueOf(policy.trim());
+    } catch (IllegalArgumentException ex) {
+      // If the policy does not exist we fall back to default value
+      this.overflowPolicy = OverflowPolicy.BLOCK;
+    }
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    // check that the log record should be logged
+    if (closed || !isLoggable(record)) {
+      return;
+    }
+    for (LogEntry suppressed : suppressedEntries(false)) {
+      publishEntry(suppressed, false);
+    }
+    LogEntry entry = entryToPublish(record);
+    if (entry != null) {
+      publishEntry(entry, record.getLevel().intValue() >= flushLevel().intValue());
+    }
+  }
+
+  private void publishEntry(LogEntry entry, boolean urgent) {
+    startFlusher();
+    long size = estimatedSize(entry);
+    if (!enqueue(entry)) {
+      droppedEntries.incrementAndGet();
+      return;
+    }
+    long bytes = bufferedBytes.addAndGet(size);
+    int count = buffer.size();
+    if (urgent) {
+      flushRequested.set(true);
+    }
+    // wake up the flusher when the buffer stops being empty (to start the linger time) or when a
+    // batch must be written right away
+    if (urgent || count == 1 || count >= batchSize || bytes >= batchBytes) {
+      LockSupport.unpark(flusher);
+    }
+  }
+
+  private boolean enqueue(LogEntry entry) {
+    switch (overflowPolicy) {
+      case BLOCK:
+        while (!buffer.offer(entry)) {
+          // logs published while writing (e.g. by the transport) must not wait for the buffer to
+          // be drained by the thread that is publishing them
+          if (closed || Thread.currentThread().isInterrupted()
+              || Thread.currentThread() == flusher || drainLock.isHeldByCurrentThread()) {
+            return false;
+          }
+          flushRequested.set(true);
+          LockSupport.unpark(flusher);
+          LockSupport.parkNanos(this, BLOCK_WAIT_NANOS);
+        }
+        return true;
+      case DROP_LOWEST_SEVERITY:
+        return admits(entry.severity(), buffer.size(), buffer.capacity()) && buffer.offer(entry);
+      default:
+        return buffer.offer(entry);
+    }
+  }
+
+  private static boolean admits(Severity severity, int size, int capacity) {
+    if (severity == null || severity.compareTo(Severity.WARNING) < 0) {
+      int limit = severity == Severity.DEBUG ? capacity / 2 : capacity - capacity / 4;
+      return size < limit;
+    }
+    return true;
+  }
+
+  private void startFlusher() {
+    if (flusher == null && started.compareAndSet(false, true)) {
+      Thread thread = THREAD_FACTORY.newThread(new Runnable() {
+        @Override
+        public void run() {
+          runFlusher();
+        }
+      });
+      flusher = thread;
+      thread.start();
+    }
+  }
+
+  private void runFlusher() {
+    boolean lingering = false;
+    long lingerDeadline = 0;
+    while (!closed) {
+      if (buffer.isEmpty()) {
+        lingering = false;
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(lingerMillis));
+        continue;
+      }
+      long now = System.nanoTime();
+      if (!lingering) {
+        lingering = true;
+        lingerDeadline = now + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+      }
+      if (flushRequested.getAndSet(false) || buffer.size() >= batchSize
+          || bufferedBytes.get() >= batchBytes || now - lingerDeadline >= 0) {
+        drain();
+        lingering = false;
+      } else {
+        LockSupport.parkNanos(this, lingerDeadline - now);
+      }
+    }
+  }
+
+  /**
+   * Writes the entries in the buffer, in batches of at most {@code batchSize} entries and
+   * {@code batchBytes} estimated bytes. Entries added while draining are left for the next drain.
+   */
+  private void drain() {
+    drainLock.lock();
+    try {
+      int remaining = buffer.size();
+      List<LogEntry> batch = new ArrayList<>(Math.min(remaining, batchSize));
+      long batchedBytes = 0;
+      LogEntry entry;
+      while (remaining-- > 0 && (entry = buffer.poll()) != null) {
+        long size = estimatedSize(entry);
+        bufferedBytes.addAndGet(-size);
+        if (!batch.isEmpty() && (batch.size() >= batchSize || batchedBytes + size > batchBytes)) {
+          writeBatch(batch);
+          batch = new ArrayList<>(Math.min(remaining + 1, batchSize));
+          batchedBytes = 0;
+        }
+        batch.add(entry);
+        batchedBytes += size;
+      }
+      if (!batch.isEmpty()) {
+        writeBatch(batch);
+      }
+    } finally {
+      drainLock.unlock();
+    }
+  }
+
+  private void writeBatch(List<LogEntry> batch) {
+    try {
+      write(batch, writeOptions());
+    } catch (Exception ex) {
+      // writing can fail but we should not throw an exception, we report the error instead
+      reportError(null, ex, ErrorManager.FLUSH_FAILURE);
+    }
+  }
+
+  /**
+   * Returns an estimate of the serialized size of a log entry. The estimate accounts for the
+   * payload and the labels, which make up most of an entry written by a logging handler.
+   */
+  static long estimatedSize(LogEntry entry) {
+    long size = ENTRY_OVERHEAD_BYTES;
+    Payload payload = entry.payload();
+    Object data = payload != null ? payload.data() : null;
+    if (data instanceof String) {
+      size += ((String) data).length();
+    } else if (data instanceof MessageLite) {
+      size += ((MessageLite) data).getSerializedSize();
+    }
+    for (Map.Entry<String, String> label : entry.labels().entrySet()) {
+      size += label.getKey().length() + label.getValue().length();
+    }
+    return size;
+  }
+
+  /**
+   * Transmits all buffered logs to the Stackdriver Logging service, on the calling thread.
+   */
+  @Override
+  public void flush() {
+    for (LogEntry suppressed : suppressedEntries(false)) {
+      publishEntry(suppressed, false);
+    }
+    drain();
+  }
+
+  /**
+   * Stops the flusher thread, transmits all buffered logs and closes the associated
+   * {@link Logging} object. Logs published after the handler has been closed are ignored.
+   */
+  @Override
+  public void close() throws SecurityException {
+    for (LogEntry suppressed : suppressedEntries(true)) {
+      publishEntry(suppressed, false);
+    }
+    closed = true;
+    Thread thread = flusher;
+    if (thread != null && thread != Thread.currentThread()) {
+      LockSupport.unpark(thread);
+      try {
+        thread.join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    drain();
+    super.close();
+  }
+
+  /**
+   * Sets the maximum number of log entries in a write request. If not set, 1000 is used.
+   */
+  public int setBatchSize(int batchSize) {
+    checkArgument(batchSize > 0, "Batch size must be > 0");
+    this.batchSize = batchSize;
+    return batchSize;
+  }
+
+  /**
+   * Sets the maximum estimated size in bytes of the log entries in a write request. A log entry
+   * larger than this size is written in a request of its own. If not set, 4 MiB is used.
+   */
+  public long setBatchBytes(long batchBytes) {
+    checkArgument(batchBytes > 0, "Batch bytes must be > 0");
+    this.batchBytes = batchBytes;
+    return batchBytes;
+  }
+
+  /**
+   * Sets how long, in milliseconds, a log entry may wait in the buffer before it is transmitted to
+   * the Stackdriver Logging service. If not set, 1000 milliseconds are used.
+   */
+  public long setLingerMillis(long lingerMillis) {
+    checkArgument(lingerMillis > 0, "Linger time must be > 0");
+    this.lingerMillis = lingerMillis;
+    return lingerMillis;
+  }
+
+  /**
+   * Sets the policy applied when a log is published and the buffer is full. If not set,
+   * {@link OverflowPolicy#BLOCK} is used.
+   */
+  public OverflowPolicy setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = checkNotNull(overflowPolicy);
+    return overflowPolicy;
+  }
+
+  /**
+   * Returns the number of log entries that were dropped because the buffer was full.
+   */
+  public long droppedEntries() {
+    return droppedEntries.get();
+  }
+}
@@ -75,7 +75,7 @@ public class LogEntry implements Serializable {
     private Severity severity = Severity.DEFAULT;
     private String insertId;
     private HttpRequest httpRequest;
-    private Map<String, String> labels = new HashMap<>();
+    private Map<String, String> labels = ImmutableMap.of();
     private Operation operation;
     private Payload<?> payload;
 
@@ -90,7 +90,7 @@ public class LogEntry implements Serializable {
       this.severity = entry.severity;
       this.insertId = entry.insertId;
       this.httpRequest = entry.httpRequest;
-      this.labels = new HashMap<>(entry.labels);
+      this.labels = entry.labels;
       this.operation = entry.operation;
       this.payload = entry.payload;
     }
@@ -157,7 +157,9 @@ public class LogEntry implements Serializable {
      * about the log entry.
      */
     public Builder labels(Map<String, String> labels) {
-      this.labels = new HashMap<>(checkNotNull(labels));
+      checkNotNull(labels);
+      // immutable maps are not copied until a label is added
+      this.labels = labels instanceof ImmutableMap ? labels : new HashMap<>(labels);
       return this;
     }
 
@@ -166,7 +168,10 @@ public class LogEntry implements Serializable {
      * provides additional information about the log entry.
      */
     public Builder addLabel(String key, String value) {
-      this.labels.put(key, value);
+      if (labels instanceof ImmutableMap) {
+        labels = new HashMap<>(labels);
+      }
+      labels.put(key, value);
       return this;
     }
 
@@ -175,7 +180,7 @@ public class LogEntry implements Serializable {
      * provides additional information about the log entry.
      */
     public Builder clearLabels() {
-      this.labels.clear();
+      this.labels = ImmutableMap.of();
       return this;
     }
 
@@ -344,14 +349,58 @@ public class LogEntry implements Serializable {
     return new Builder(this);
   }
 
+  /**
+   * Converts log entries to protobuf. An encoder remembers the last log name and monitored resource
+   * it converted, so that entries that share them (as entries written together usually do) do not
+   * convert them again. Encoders are not thread-safe.
+   */
+  static final class Encoder {
+
+    private final String projectId;
+    private String logName;
+    private String logNamePb;
+    private MonitoredResource resource;
+    private com.google.api.MonitoredResource resourcePb;
+
+    Encoder(String projectId) {
+      this.projectId = projectId;
+    }
+
+    private String logNamePb(String logName) {
+      if (!logName.equals(this.logName)) {
+        this.logNamePb = LoggingServiceV2Api.formatLogName(projectId, logName);
+        this.logName = logName;
+      }
+      return logNamePb;
+    }
+
+    private com.google.api.MonitoredResource resourcePb(MonitoredResource resource) {
+      if (resource != this.resource && !resource.equals(this.resource)) {
+        this.resourcePb = resource.toPb();
+        this.resource = resource;
+      }
+      return resourcePb;
+    }
+
+    com.google.logging.v2.LogEntry encode(LogEntry entry) {
+      return entry.toPb(this);
+    }
+  }
+
   com.google.logging.v2.LogEntry toPb(String projectId) {
+    return toPb(new Encoder(projectId));
+  }
+
+  private com.google.logging.v2.LogEntry toPb(Encoder encoder) {
     com.google.logging.v2.LogEntry.Builder builder = payload.toPb();
-    builder.putAllLabels(labels);
+    if (!labels.isEmpty()) {
+      builder.putAllLabels(labels);
+    }
     if (logName != null) {
-      builder.setLogName(LoggingServiceV2Api.formatLogName(projectId, logName));
+      builder.setLogName(encoder.logNamePb(logName));
     }
     if (resource != null) {
-      builder.setResource(resource.toPb());
+      builder.setResource(encoder.resourcePb(resource));
     }
     if (timestamp != null) {
       Timestamp.Builder tsBuilder = Timestamp.newBuilder();
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging;
+
+import static com.google.cloud.logging.Logging.TailOption.OptionType.FILTER;
+import static com.google.cloud.logging.Logging.TailOption.OptionType.MAX_POLL_INTERVAL;
+import static com.google.cloud.logging.Logging.TailOption.OptionType.MAX_QUEUED_ENTRIES;
+import static com.google.cloud.logging.Logging.TailOption.OptionType.MAX_TRACKED_ENTRIES;
+import static com.google.cloud.logging.Logging.TailOption.OptionType.MIN_POLL_INTERVAL;
+import static com.google.cloud.logging.Logging.TailOption.OptionType.OVERLAP;
+import static com.google.cloud.logging.Logging.TailOption.OptionType.PAGE_SIZE;
+import static com.google.cloud.logging.Logging.TailOption.OptionType.START_TIME;
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.api.client.util.DateTime;
+import com.google.cloud.logging.Logging.LogEntryProcessor;
+import com.google.cloud.logging.Logging.LogEntryTailIterator;
+import com.google.cloud.logging.spi.LoggingRpc;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.ListLogEntriesResponse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Default implementation of a log entry tail. A tail polls log entries in ascending timestamp
+ * order, with at most one list request in flight. Each poll lists the entries whose timestamp is at
+ * least the watermark (the timestamp of the most recent entry received) minus an overlap window,
+ * following all result pages. Entries seen in a previous poll are discarded by remembering the
+ * insert ids of the most recently received entries. Pages are requested ahead of the consumer
+ * while there is room for them in the queue, polling stops when the queue is full and resumes once
+ * the consumer has made room for a page.
+ */
+final class LogEntryTailer implements LogEntryTailIterator {
+
+  private static final int PAGE_SIZE_DEFAULT = 1000;
+  private static final int MAX_QUEUED_ENTRIES_DEFAULT = 5000;
+  private static final long OVERLAP_MILLIS = 10_000;
+  private static final long MIN_POLL_INTERVAL_MILLIS = 1_000;
+  private static final long MAX_POLL_INTERVAL_MILLIS = 30_000;
+  private static final int MAX_TRACKED_ENTRIES_DEFAULT = 10_000;
+  private static final String ORDER_BY = "timestamp asc";
+  private static final Logger logger = Logger.getLogger(LogEntryTailer.class.getName());
+  // queued to wake up a consumer blocked on an empty queue when the tail is closed or fails
+  private static final LogEntry WAKE_UP = LogEntry.of(Payload.StringPayload.of(""));
+
+  private final LoggingOptions serviceOptions;
+  private final LoggingRpc rpc;
+  private final LogEntryProcessor processor;
+  private final String filter;
+  private final int pageSize;
+  private final int maxQueuedEntries;
+  private final long overlapMillis;
+  private final long startTime;
+  private final long minPollIntervalMillis;
+  private final long maxPollIntervalMillis;
+  private final ScheduledExecutorService executor;
+  private final BlockingQueue<LogEntry> queue = new LinkedBlockingQueue<>();
+  private final AtomicInteger queuedEntries = new AtomicInteger();
+  private final AtomicBoolean delivering = new AtomicBoolean();
+  private final Object lock = new Object();
+  // the following fields are guarded by lock
+  private final Map<Object, Boolean> trackedEntries;
+  private long watermark;
+  private String pollFilter;
+  private String pageToken;
+  private long pollIntervalMillis;
+  private boolean receivedNewEntries;
+  private volatile boolean throttled;
+  private Future<?> scheduledPoll;
+  private Future<ListLogEntriesResponse> pendingList;
+  private Throwable failure;
+  private boolean closed;
+  // only accessed by the thread iterating the tail
+  private LogEntry nextEntry;
+
+  private final Runnable pollRunnable = new Runnable() {
+    @Override
+    public void run() {
+      poll();
+    }
+  };
+
+  private final Runnable deliveryRunnable = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        LogEntry entry;
+        while (!isClosed() && (entry = queue.poll()) != null) {
+          if (entry == WAKE_UP) {
+            continue;
+          }
+          queuedEntries.decrementAndGet();
+          try {
+            processor.process(entry);
+          } catch (Exception ex) {
+            // the entry is skipped, tailing continues with the next one
+            logger.log(Level.WARNING, "Failed to process tailed log entry", ex);
+          }
+          resumeIfNeeded();
+        }
+      } finally {
+        delivering.set(false);
+      }
+      deliver();
+    }
+  };
+
+  private LogEntryTailer(LoggingOptions serviceOptions, LogEntryProcessor processor,
+      Map<Option.OptionType, ?> options) {
+    this.serviceOptions = serviceOptions;
+    this.rpc = serviceOptions.rpc();
+    this.processor = processor;
+    this.filter = FILTER.get(options);
+    this.maxQueuedEntries =
+        firstNonNull(MAX_QUEUED_ENTRIES.<Integer>get(options), MAX_QUEUED_ENTRIES_DEFAULT);
+    // a page must fit in the queue, or polling would never resume
+    this.pageSize = Math.min(maxQueuedEntries,
+        firstNonNull(PAGE_SIZE.<Integer>get(options), PAGE_SIZE_DEFAULT));
+    this.overlapMillis = firstNonNull(OVERLAP.<Long>get(options), OVERLAP_MILLIS);
+    this.minPollIntervalMillis =
+        firstNonNull(MIN_POLL_INTERVAL.<Long>get(options), MIN_POLL_INTERVAL_MILLIS);
+    this.maxPollIntervalMillis = Math.max(minPollIntervalMillis,
+        firstNonNull(MAX_POLL_INTERVAL.<Long>get(options), MAX_POLL_INTERVAL_MILLIS));
+    checkArgument(pageSize > 0, "Page size must be positive");
+    checkArgument(overlapMillis >= 0, "Overlap must not be negative");
+    final int maxTrackedEntries =
+        firstNonNull(MAX_TRACKED_ENTRIES.<Integer>get(options), MAX_TRACKED_ENTRIES_DEFAULT);
+    checkArgument(maxTrackedEntries > 0, "The number of tracked entries must be positive");
+    this.trackedEntries = new LinkedHashMap<Object, Boolean>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = -4224541587458917425L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Boolean> eldest) {
+        return size() > maxTrackedEntries;
+      }
+    };
+    this.startTime = firstNonNull(START_TIME.<Long>get(options), System.currentTimeMillis());
+    this.watermark = startTime;
+    this.pollIntervalMillis = minPollIntervalMillis;
+    this.executor = serviceOptions.executorFactory().get();
+  }
+
+  /**
+   * Starts tailing log entries. If {@code processor} is {@code null} entries are consumed by
+   * iterating the returned object.
+   */
+  static LogEntryTailer start(LoggingOptions serviceOptions, LogEntryProcessor processor,
+      Map<Option.OptionType, ?> options) {
+    LogEntryTailer tailer = new LogEntryTailer(serviceOptions, processor, options);
+    synchronized (tailer.lock) {
+      tailer.schedule(0);
+    }
+    return tailer;
+  }
+
+  /**
+   * Returns the filter of the list requests of a poll, selecting the entries that match the tail's
+   * filter and whose timestamp is at least {@code since}.
+   */
+  static String pollFilter(String filter, long since) {
+    String timeFilter =
+        "timestamp>=\"" + new DateTime(false, since, 0).toStringRfc3339() + "\"";
+    return filter != null ? "(" + filter + ") AND " + timeFilter : timeFilter;
+  }
+
+  private void poll() {
+    ListLogEntriesRequest request;
+    synchronized (lock) {
+      scheduledPoll = null;
+      if (closed) {
+        return;
+      }
+      if (maxQueuedEntries - queuedEntries.get() < pageSize) {
+        throttled = true;
+        return;
+      }
+      if (pageToken == null) {
+        // the overlap window never reaches back before the start time
+        pollFilter = pollFilter(filter, Math.max(startTime, watermark - overlapMillis));
+        receivedNewEntries = false;
+      }
+      ListLogEntriesRequest.Builder builder = ListLogEntriesRequest.newBuilder()
+          .addProjectIds(serviceOptions.projectId())
+          .setFilter(pollFilter)
+          .setOrderBy(ORDER_BY)
+          .setPageSize(pageSize);
+      if (pageToken != null) {
+        builder.setPageToken(pageToken);
+      }
+      request = builder.build();
+    }
+    ListenableFuture<ListLogEntriesResponse> future = listenable(rpc.list(request));
+    synchronized (lock) {
+      if (closed) {
+        // the tail was closed while the request was being sent
+        future.cancel(true);
+        return;
+      }
+      pendingList = future;
+    }
+    Futures.addCallback(future, new FutureCallback<ListLogEntriesResponse>() {
+      @Override
+      public void onSuccess(ListLogEntriesResponse response) {
+        received(response);
+      }
+
+      @Override
+      public void onFailure(Throwable error) {
+        failed(error);
+      }
+    });
+  }
+
+  private ListenableFuture<ListLogEntriesResponse> listenable(
+      Future<ListLogEntriesResponse> future) {
+    if (future instanceof ListenableFuture) {
+      return (ListenableFuture<ListLogEntriesResponse>) future;
+    }
+    return JdkFutureAdapters.listenInPoolThread(future, executor);
+  }
+
+  private void received(ListLogEntriesResponse response) {
+    List<LogEntry> entries = new ArrayList<>(response.getEntriesCount());
+    for (com.google.logging.v2.LogEntry entryPb : response.getEntriesList()) {
+      entries.add(LogEntry.fromPb(entryPb));
+    }
+    synchronized (lock) {
+      pendingList = null;
+      if (closed) {
+        return;
+      }
+      // entries timestamped in the future must not move the watermark past entries still to come
+      long now = System.currentTimeMillis();
+      for (LogEntry entry : entries) {
+        if (entry.timestamp() != null) {
+          watermark = Math.max(watermark, Math.min(entry.timestamp(), now));
+        }
+        if (track(entry)) {
+          queuedEntries.incrementAndGet();
+          queue.add(entry);
+          receivedNewEntries = true;
+        }
+      }
+      String nextPageToken = response.getNextPageToken();
+      if (!nextPageToken.isEmpty()) {
+        pageToken = nextPageToken;
+        schedule(0);
+      } else {
+        pageToken = null;
+        pollIntervalMillis = receivedNewEntries
+            ? minPollIntervalMillis : Math.min(2 * pollIntervalMillis, maxPollIntervalMillis);
+        schedule(pollIntervalMillis);
+      }
+    }
+    deliver();
+  }
+
+  private void failed(Throwable error) {
+    synchronized (lock) {
+      pendingList = null;
+      if (closed || error instanceof CancellationException) {
+        return;
+      }
+      if (error instanceof LoggingException
+          && LoggingImpl.RETRYABLE_CODES.contains(((LoggingException) error).code())) {
+        // page tokens may not outlive the error, the next poll starts over from the watermark
+        pageToken = null;
+        pollIntervalMillis = maxPollIntervalMillis;
+        schedule(pollIntervalMillis);
+        return;
+      }
+    }
+    shutdown(error);
+  }
+
+  /**
+   * Remembers the provided entry, returning {@code false} if it was already received. Entries are
+   * identified by their insert id, or by their content if they have none. Must be called while
+   * holding {@code lock}.
+   */
+  private boolean track(LogEntry entry) {
+    Object key = entry.insertId() != null ? entry.insertId() : entry;
+    return trackedEntries.put(key, Boolean.TRUE) == null;
+  }
+
+  /**
+   * Schedules the next poll. Must be called while holding {@code lock}.
+   */
+  private void schedule(long delayMillis) {
+    scheduledPoll = executor.schedule(pollRunnable, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Resumes polling if it was stopped because the queue was full and a page now fits in it.
+   */
+  private void resumeIfNeeded() {
+    if (throttled && maxQueuedEntries - queuedEntries.get() >= pageSize) {
+      synchronized (lock) {
+        if (throttled && !closed) {
+          throttled = false;
+          schedule(0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Passes queued entries to the processor, if any. At most one delivery runs at a time, so that
+   * entries are processed in order.
+   */
+  private void deliver() {
+    if (processor == null || queue.isEmpty() || !delivering.compareAndSet(false, true)) {
+      return;
+    }
+    synchronized (lock) {
+      if (closed) {
+        delivering.set(false);
+        return;
+      }
+      executor.execute(deliveryRunnable);
+    }
+  }
+
+  private boolean isClosed() {
+    synchronized (lock) {
+      return closed;
+    }
+  }
+
+  private void shutdown(Throwable error) {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      failure = error;
+      if (scheduledPoll != null) {
+        scheduledPoll.cancel(false);
+        scheduledPoll = null;
+      }
+      if (pendingList != null) {
+        pendingList.cancel(true);
+        pendingList = null;
+      }
+      serviceOptions.executorFactory().release(executor);
+    }
+    if (error != null && processor != null) {
+      // nobody iterates the tail to observe the error
+      logger.log(Level.WARNING, "Log entry tailing stopped after a non-retryable error", error);
+    }
+    queue.add(WAKE_UP);
+  }
+
+  @Override
+  public Throwable failure() {
+    synchronized (lock) {
+      return failure;
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (nextEntry == null) {
+      LogEntry entry = queue.poll();
+      if (entry == null) {
+        synchronized (lock) {
+          if (failure != null) {
+            throw Throwables.propagate(failure);
+          }
+          if (closed) {
+            return false;
+          }
+        }
+        entry = Uninterruptibles.takeUninterruptibly(queue);
+      }
+      if (entry != WAKE_UP) {
+        queuedEntries.decrementAndGet();
+        resumeIfNeeded();
+        nextEntry = entry;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public LogEntry next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    LogEntry entry = nextEntry;
+    nextEntry = null;
+    return entry;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int queuedEntries() {
+    return queuedEntries.get();
+  }
+
+  @Override
+  public void close() {
+    shutdown(null);
+    queue.clear();
+    queuedEntries.set(0);
+    queue.add(WAKE_UP);
+  }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging;
+
+import static com.google.cloud.logging.Logging.WriteOption.OptionType.LABELS;
+import static com.google.cloud.logging.Logging.WriteOption.OptionType.LOG_NAME;
+import static com.google.cloud.logging.Logging.WriteOption.OptionType.RESOURCE;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.api.Metric;
+import com.google.api.MetricDescriptor.MetricKind;
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.cloud.MonitoredResource;
+import com.google.cloud.logging.Logging.WriteOption;
+import com.google.cloud.logging.spi.v2.LogEntryFilter;
+import com.google.cloud.logging.spi.v2.LoggingServiceV2Api;
+import com.google.cloud.monitoring.spi.v3.MetricServiceApi;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.Timestamp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts log entries that match log-based metrics on the client and periodically writes the counts
+ * to Stackdriver Monitoring as time series, so that high-rate entries that are only counted do not
+ * need to be written to Stackdriver Logging.
+ *
+ * <p>Each metric is configured with a {@link MetricInfo}: entries that match the metric's filter
+ * (see {@link MetricInfo#filter()}) increment its count. Filters are evaluated locally, with the
+ * restrictions of {@link LogEntryFilter}. Counts are written as cumulative {@code INT64} custom
+ * metrics, whose type is the metric type prefix (defaults to
+ * {@code custom.googleapis.com/logging/}) followed by the metric name, with an
+ * {@code instance_id} label that identifies the aggregator (see
+ * {@link Builder#instanceId(String)}), so that processes counting the same metrics write distinct
+ * time series. Counts are written every flush interval (defaults to 60 seconds), when they changed
+ * since the last write. As counts are cumulative, a failed write is made up for by the next one.
+ *
+ * <p>Entries are counted with {@link #record(Iterable, WriteOption...)}, which takes the same
+ * arguments as {@link Logging#write(Iterable, WriteOption...)}, or by a {@link LoggingHandler}
+ * (see {@link LoggingHandler#setMetricAggregator(LogMetricAggregator)}). This class is
+ * thread-safe: counts are kept in striped counters so that threads recording entries concurrently
+ * do not contend.
+ *
+ * <p>The {@code google-cloud-monitoring} dependency of this library is optional: applications
+ * that use this class must declare it explicitly.
+ *
+ * <p>Example usage:
+ * <pre> {@code
+ * MetricInfo metricInfo = MetricInfo.of("errors", "severity>=ERROR");
+ * LogMetricAggregator aggregator = LogMetricAggregator.builder(loggingOptions, metricServiceApi)
+ *     .addMetric(metricInfo)
+ *     .build();
+ * aggregator.record(entries, WriteOption.logName("my_log"));
+ * }</pre>
+ */
+public final class LogMetricAggregator implements AutoCloseable {
+
+  private static final String DEFAULT_METRIC_TYPE_PREFIX = "custom.googleapis.com/logging/";
+  static final String INSTANCE_ID_LABEL = "instance_id";
+  private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 60_000;
+  private static final int MAX_TIME_SERIES_PER_REQUEST = 200;
+  private static final Logger logger = Logger.getLogger(LogMetricAggregator.class.getName());
+
+  private final LoggingOptions options;
+  private final MetricServiceApi metricService;
+  private final String projectName;
+  private final com.google.api.MonitoredResource resourcePb;
+  private final String instanceId;
+  private final List<AggregatedMetric> metrics;
+  private final long startMillis;
+  private final Timestamp startTime;
+  private final ScheduledExecutorService executor;
+  private final ScheduledFuture<?> flushTask;
+  private final Object flushLock = new Object();
+  private boolean closed;
+
+  /**
+   * A counter whose value is spread across cells, each updated by a subset of the threads. Cells
+   * are spaced by a cache line so that updates from different threads do not invalidate each
+   * other's cache lines.
+   */
+  private static final class StripedCounter {
+
+    private static final int CELL_SPACING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+      int stripes = Integer.highestOneBit(
+          Math.min(64, Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) << 1);
+      cells = new AtomicLongArray(stripes * CELL_SPACING);
+      mask = stripes - 1;
+    }
+
+    void increment() {
+      int stripe = (int) Thread.currentThread().getId() & mask;
+      cells.incrementAndGet(stripe * CELL_SPACING);
+    }
+
+    long sum() {
+      long sum = 0;
+      for (int i = 0; i < cells.length(); i += CELL_SPACING) {
+        sum += cells.get(i);
+      }
+      return sum;
+    }
+  }
+
+  private static final class AggregatedMetric {
+
+    private final String name;
+    private final LogEntryFilter filter;
+    private final Metric metricPb;
+    private final StripedCounter counter = new StripedCounter();
+    // guarded by flushLock
+    private long writtenCount;
+
+    AggregatedMetric(MetricInfo metricInfo, String metricTypePrefix, String instanceId) {
+      this.name = metricInfo.name();
+      this.filter = LogEntryFilter.parse(metricInfo.filter());
+      Metric.Builder metricBuilder =
+          Metric.newBuilder().setType(metricTypePrefix + metricInfo.name());
+      metricBuilder.getMutableLabels().put(INSTANCE_ID_LABEL, instanceId);
+      this.metricPb = metricBuilder.build();
+    }
+  }
+
+  /**
+   * A builder for {@code LogMetricAggregator} objects.
+   */
+  public static final class Builder {
+
+    private final LoggingOptions options;
+    private final MetricServiceApi metricService;
+    private final List<MetricInfo> metrics = new ArrayList<>();
+    private MonitoredResource resource;
+    private String metricTypePrefix = DEFAULT_METRIC_TYPE_PREFIX;
+    private String instanceId;
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+
+    private Builder(LoggingOptions options, MetricServiceApi metricService) {
+      this.options = checkNotNull(options);
+      this.metricService = checkNotNull(metricService);
+    }
+
+    /**
+     * Adds a metric whose matching entries are counted.
+     */
+    public Builder addMetric(MetricInfo metricInfo) {
+      metrics.add(checkNotNull(metricInfo));
+      return this;
+    }
+
+    /**
+     * Sets the monitored resource of the written time series. If not set, the {@code global}
+     * resource of the project is used.
+     */
+    public Builder resource(MonitoredResource resource) {
+      this.resource = resource;
+      return this;
+    }
+
+    /**
+     * Sets the prefix of the type of the written metrics. If not set,
+     * {@code custom.googleapis.com/logging/} is used.
+     */
+    public Builder metricTypePrefix(String metricTypePrefix) {
+      this.metricTypePrefix = checkNotNull(metricTypePrefix);
+      return this;
+    }
+
+    /**
+     * Sets the value of the {@code instance_id} label of the written metrics. Each aggregator
+     * writes cumulative counts since its creation, so aggregators running at the same time (e.g.
+     * in different replicas of an application) must write to different time series. If not set, a
+     * random identifier is used.
+     */
+    public Builder instanceId(String instanceId) {
+      this.instanceId = checkNotNull(instanceId);
+      return this;
+    }
+
+    /**
+     * Sets how often counts are written. If not set, counts are written every 60 seconds.
+     */
+    public Builder flushInterval(long flushInterval, TimeUnit unit) {
+      checkArgument(flushInterval > 0, "Flush interval must be > 0");
+      this.flushIntervalMillis = unit.toMillis(flushInterval);
+      return this;
+    }
+
+    /**
+     * Creates a {@code LogMetricAggregator} object and starts writing counts periodically.
+     *
+     * @throws IllegalArgumentException if a metric's filter is not supported
+     */
+    public LogMetricAggregator build() {
+      return new LogMetricAggregator(this);
+    }
+  }
+
+  private LogMetricAggregator(Builder builder) {
+    options = builder.options;
+    metricService = builder.metricService;
+    projectName = MetricServiceApi.formatProjectName(options.projectId());
+    MonitoredResource resource = builder.resource != null ? builder.resource
+        : MonitoredResource.of("global", ImmutableMap.of("project_id", options.projectId()));
+    resourcePb = resource.toPb();
+    instanceId = builder.instanceId != null ? builder.instanceId : UUID.randomUUID().toString();
+    ImmutableList.Builder<AggregatedMetric> metricsBuilder = ImmutableList.builder();
+    for (MetricInfo metricInfo : builder.metrics) {
+      metricsBuilder.add(new AggregatedMetric(metricInfo, builder.metricTypePrefix, instanceId));
+    }
+    metrics = metricsBuilder.build();
+    startMillis = System.currentTimeMillis();
+    startTime = timestamp(startMillis);
+    executor = options.executorFactory().get();
+    flushTask = executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (RuntimeException ex) {
+          logger.log(Level.WARNING, "Failed to write log-based metrics", ex);
+        }
+      }
+    }, builder.flushIntervalMillis, builder.flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns a builder for {@code LogMetricAggregator} objects.
+   *
+   * @param options the options of the Stackdriver Logging service, used to resolve log names and
+   *     for the project to which time series are written
+   * @param metricService the client used to write time series
+   */
+  public static Builder builder(LoggingOptions options, MetricServiceApi metricService) {
+    return new Builder(options, metricService);
+  }
+
+  /**
+   * Counts the provided log entries. The options apply to entries as in
+   * {@link Logging#write(Iterable, WriteOption...)}: the log name, monitored resource and labels
+   * are used to match entries that do not set them.
+   *
+   * @return the number of entries that matched at least one metric
+   */
+  public int record(Iterable<LogEntry> logEntries, WriteOption... options) {
+    Map<Option.OptionType, ?> optionMap = LoggingImpl.optionMap(options);
+    String logName = LOG_NAME.get(optionMap);
+    MonitoredResource resource = RESOURCE.get(optionMap);
+    Map<String, String> labels = LABELS.get(optionMap);
+    String logNamePb = logName != null
+        ? LoggingServiceV2Api.formatLogName(this.options.projectId(), logName) : null;
+    com.google.api.MonitoredResource resourcePb = resource != null ? resource.toPb() : null;
+    if (labels == null) {
+      labels = Collections.emptyMap();
+    }
+    LogEntry.Encoder encoder = new LogEntry.Encoder(this.options.projectId());
+    int matched = 0;
+    for (LogEntry entry : logEntries) {
+      com.google.logging.v2.LogEntry entryPb = encoder.encode(entry);
+      if ((logNamePb != null && entryPb.getLogName().isEmpty())
+          || (resourcePb != null && !entryPb.hasResource()) || !labels.isEmpty()) {
+        entryPb = withDefaults(entryPb, logNamePb, resourcePb, labels);
+      }
+      long timestampMillis =
+          entry.timestamp() != null ? entry.timestamp() : System.currentTimeMillis();
+      if (record(entryPb, TimeUnit.MILLISECONDS.toNanos(timestampMillis))) {
+        matched++;
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * Counts the provided log entry, as {@link #record(Iterable, WriteOption...)} does.
+   *
+   * @return whether the entry matched at least one metric
+   */
+  public boolean record(LogEntry logEntry, WriteOption... options) {
+    return record(Collections.singletonList(logEntry), options) > 0;
+  }
+
+  private boolean record(com.google.logging.v2.LogEntry entryPb, long timestampNanos) {
+    boolean matched = false;
+    for (AggregatedMetric metric : metrics) {
+      if (metric.filter.matches(entryPb, timestampNanos)) {
+        metric.counter.increment();
+        matched = true;
+      }
+    }
+    return matched;
+  }
+
+  private static com.google.logging.v2.LogEntry withDefaults(com.google.logging.v2.LogEntry entryPb,
+      String logNamePb, com.google.api.MonitoredResource resourcePb, Map<String, String> labels) {
+    com.google.logging.v2.LogEntry.Builder builder = entryPb.toBuilder();
+    if (logNamePb != null && entryPb.getLogName().isEmpty()) {
+      builder.setLogName(logNamePb);
+    }
+    if (resourcePb != null && !entryPb.hasResource()) {
+      builder.setResource(resourcePb);
+    }
+    Map<String, String> entryLabels = builder.getMutableLabels();
+    for (Map.Entry<String, String> label : labels.entrySet()) {
+      if (!entryLabels.containsKey(label.getKey())) {
+        entryLabels.put(label.getKey(), label.getValue());
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the value of the {@code instance_id} label of the metrics written by this aggregator.
+   */
+  public String instanceId() {
+    return instanceId;
+  }
+
+  /**
+   * Returns the number of entries counted for the provided metric since this aggregator was
+   * created, or {@code -1} if the aggregator has no such metric.
+   */
+  public long count(String metricName) {
+    for (AggregatedMetric metric : metrics) {
+      if (metric.name.equals(metricName)) {
+        return metric.counter.sum();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Writes the counts that changed since the last write to Stackdriver Monitoring.
+   *
+   * @throws com.google.api.gax.grpc.ApiException if writing the time series fails
+   */
+  public void flush() {
+    synchronized (flushLock) {
+      // the end time of a cumulative point must be later than its start time
+      Timestamp endTime = timestamp(Math.max(System.currentTimeMillis(), startMillis + 1));
+      TimeInterval interval =
+          TimeInterval.newBuilder().setStartTime(startTime).setEndTime(endTime).build();
+      List<AggregatedMetric> changed = new ArrayList<>();
+      List<Long> counts = new ArrayList<>();
+      List<TimeSeries> timeSeries = new ArrayList<>();
+      for (AggregatedMetric metric : metrics) {
+        long count = metric.counter.sum();
+        if (count != metric.writtenCount) {
+          changed.add(metric);
+          counts.add(count);
+          timeSeries.add(TimeSeries.newBuilder()
+              .setMetric(metric.metricPb)
+              .setResource(resourcePb)
+              .setMetricKind(MetricKind.CUMULATIVE)
+              .setValueType(ValueType.INT64)
+              .addPoints(Point.newBuilder()
+                  .setInterval(interval)
+                  .setValue(TypedValue.newBuilder().setInt64Value(count)))
+              .build());
+        }
+      }
+      int written = 0;
+      for (List<TimeSeries> batch : Lists.partition(timeSeries, MAX_TIME_SERIES_PER_REQUEST)) {
+        metricService.createTimeSeries(projectName, batch);
+        for (int i = written; i < written + batch.size(); i++) {
+          changed.get(i).writtenCount = counts.get(i);
+        }
+        written += batch.size();
+      }
+    }
+  }
+
+  /**
+   * Stops writing counts periodically and writes the counts that changed since the last write. The
+   * {@link MetricServiceApi} client is not closed.
+   */
+  @Override
+  public void close() {
+    synchronized (flushLock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    flushTask.cancel(false);
+    try {
+      flush();
+    } finally {
+      options.executorFactory().release(executor);
+    }
+  }
+
+  private static Timestamp timestamp(long millis) {
+    return Timestamp.newBuilder()
+        .setSeconds(TimeUnit.MILLISECONDS.toSeconds(millis))
+        .setNanos((int) TimeUnit.MILLISECONDS.toNanos(millis % 1000))
+        .build();
+  }
+}
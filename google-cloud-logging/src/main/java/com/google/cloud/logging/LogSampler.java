@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Ticker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Decides which log records a logging handler publishes, to bound the volume of logs written when
+ * an application logs the same records at a high rate. Records are subject to three policies, all
+ * disabled by default:
+ * <ul>
+ * <li>Duplicate suppression: the first record with a given logger, level, message, parameters and
+ *     thrown exception class is admitted, identical records published within the duplicate window
+ *     that follows are suppressed and counted. Once the window ends the suppressed records are
+ *     returned by {@link #suppressed(boolean)}, so that a single entry can report them.
+ * <li>Sampling: records with the sample level or a lower level are admitted with the sample rate
+ *     probability.
+ * <li>Rate limiting: at most the rate limit records per second are admitted for each logger and
+ *     level with the sample level or a lower level. Bursts of up to one second of records are
+ *     admitted.
+ * </ul>
+ * This class is thread-safe.
+ */
+final class LogSampler {
+
+  private static final int MAX_TRACKED_RECORDS = 1000;
+
+  private final Ticker ticker;
+  private final ConcurrentMap<Object, Occurrences> occurrences = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Object, TokenBucket> buckets = new ConcurrentHashMap<>();
+  private final Queue<Suppressed> ended = new ConcurrentLinkedQueue<>();
+  private final AtomicLong nextSweep = new AtomicLong();
+  private final AtomicLong droppedRecords = new AtomicLong();
+  private volatile double sampleRate = 1.0;
+  private volatile Level sampleLevel = Level.WARNING;
+  private volatile double rateLimit;
+  private volatile long duplicateWindowNanos;
+
+  /**
+   * Records identical to a record that was admitted, suppressed in a duplicate window that ended.
+   */
+  static final class Suppressed {
+
+    private final LogRecord record;
+    private final long count;
+
+    private Suppressed(LogRecord record, long count) {
+      this.record = record;
+      this.count = count;
+    }
+
+    /**
+     * Returns the last suppressed record.
+     */
+    LogRecord record() {
+      return record;
+    }
+
+    /**
+     * Returns the number of suppressed records.
+     */
+    long count() {
+      return count;
+    }
+  }
+
+  /**
+   * The duplicate window of a record: counts the identical records published until it ends.
+   */
+  private static final class Occurrences {
+
+    private final long windowEnd;
+    private LogRecord lastRecord;
+    private long count;
+    private boolean ended;
+
+    Occurrences(long windowEnd) {
+      this.windowEnd = windowEnd;
+    }
+
+    /**
+     * Counts the provided record, returning {@code false} if the window has ended.
+     */
+    synchronized boolean add(LogRecord record, long now) {
+      if (ended || now - windowEnd >= 0) {
+        return false;
+      }
+      lastRecord = record;
+      count++;
+      return true;
+    }
+
+    /**
+     * Ends the window, returning the suppressed records or {@code null} if there are none.
+     */
+    synchronized Suppressed end() {
+      ended = true;
+      return count > 0 ? new Suppressed(lastRecord, count) : null;
+    }
+  }
+
+  private static final class TokenBucket {
+
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double tokens, long now) {
+      this.tokens = tokens;
+      this.lastRefill = now;
+    }
+
+    synchronized boolean tryAcquire(double rate, long now) {
+      double capacity = Math.max(1.0, rate);
+      tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+      lastRefill = now;
+      if (tokens < 1.0) {
+        return false;
+      }
+      tokens -= 1.0;
+      return true;
+    }
+  }
+
+  LogSampler(Ticker ticker) {
+    this.ticker = checkNotNull(ticker);
+  }
+
+  /**
+   * Sets the probability with which records with the sample level or a lower level are admitted.
+   */
+  void sampleRate(double sampleRate) {
+    checkArgument(sampleRate >= 0 && sampleRate <= 1, "Sample rate must be in [0, 1]");
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * Sets the highest level of records that are sampled and rate limited.
+   */
+  void sampleLevel(Level sampleLevel) {
+    this.sampleLevel = checkNotNull(sampleLevel);
+  }
+
+  /**
+   * Sets the maximum number of records admitted per second for each logger and level, or 0 for no
+   * limit.
+   */
+  void rateLimit(double rateLimit) {
+    checkArgument(rateLimit >= 0, "Rate limit must be >= 0");
+    this.rateLimit = rateLimit;
+  }
+
+  /**
+   * Sets the duplicate window in milliseconds, or 0 to disable duplicate suppression.
+   */
+  void duplicateWindowMillis(long duplicateWindowMillis) {
+    checkArgument(duplicateWindowMillis >= 0, "Duplicate window must be >= 0");
+    this.duplicateWindowNanos = TimeUnit.MILLISECONDS.toNanos(duplicateWindowMillis);
+  }
+
+  /**
+   * Returns the number of records that were not admitted because of sampling or rate limiting.
+   * Suppressed duplicates are not counted.
+   */
+  long droppedRecords() {
+    return droppedRecords.get();
+  }
+
+  /**
+   * Returns whether the provided record should be published.
+   */
+  boolean admit(LogRecord record) {
+    long now = ticker.read();
+    long window = duplicateWindowNanos;
+    if (window > 0 && isDuplicate(record, now, window)) {
+      return false;
+    }
+    if (record.getLevel().intValue() > sampleLevel.intValue()) {
+      return true;
+    }
+    double rate = sampleRate;
+    if (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate) {
+      droppedRecords.incrementAndGet();
+      return false;
+    }
+    double limit = rateLimit;
+    if (limit > 0 && !bucket(record, now).tryAcquire(limit, now)) {
+      droppedRecords.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  private boolean isDuplicate(LogRecord record, long now, long window) {
+    Object key = duplicateKey(record);
+    while (true) {
+      Occurrences current = occurrences.get(key);
+      if (current == null) {
+        if (occurrences.size() >= MAX_TRACKED_RECORDS
+            || occurrences.putIfAbsent(key, new Occurrences(now + window)) == null) {
+          return false;
+        }
+      } else if (current.add(record, now)) {
+        return true;
+      } else if (occurrences.remove(key, current)) {
+        // the window of the record has ended, the record starts a new one
+        end(current);
+      }
+    }
+  }
+
+  private TokenBucket bucket(LogRecord record, long now) {
+    Object key = Arrays.asList(record.getLoggerName(), record.getLevel().intValue());
+    TokenBucket bucket = buckets.get(key);
+    if (bucket == null) {
+      TokenBucket newBucket = new TokenBucket(Math.max(1.0, rateLimit), now);
+      bucket = buckets.putIfAbsent(key, newBucket);
+      if (bucket == null) {
+        bucket = newBucket;
+      }
+    }
+    return bucket;
+  }
+
+  private static Object duplicateKey(LogRecord record) {
+    Object[] parameters = record.getParameters();
+    Throwable thrown = record.getThrown();
+    return Arrays.asList(record.getLoggerName(), record.getLevel().intValue(), record.getMessage(),
+        parameters != null ? Arrays.asList(parameters) : null,
+        thrown != null ? thrown.getClass().getName() : null);
+  }
+
+  private void end(Occurrences current) {
+    Suppressed suppressed = current.end();
+    if (suppressed != null) {
+      ended.add(suppressed);
+    }
+  }
+
+  /**
+   * Returns the records suppressed in duplicate windows that have ended. Windows are checked at
+   * most once per duplicate window, unless {@code endAll} is {@code true}, in which case all
+   * windows are ended.
+   */
+  List<Suppressed> suppressed(boolean endAll) {
+    long now = ticker.read();
+    long next = nextSweep.get();
+    if (endAll || (now - next >= 0 && nextSweep.compareAndSet(next, now + duplicateWindowNanos))) {
+      for (Map.Entry<Object, Occurrences> entry : occurrences.entrySet()) {
+        Occurrences current = entry.getValue();
+        if ((endAll || now - current.windowEnd >= 0)
+            && occurrences.remove(entry.getKey(), current)) {
+          end(current);
+        }
+      }
+    }
+    if (ended.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Suppressed> result = new ArrayList<>();
+    Suppressed suppressed;
+    while ((suppressed = ended.poll()) != null) {
+      result.add(suppressed);
+    }
+    return result;
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.cloud.logging;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.cloud.AsyncPage;
 import com.google.cloud.MonitoredResource;
 import com.google.cloud.MonitoredResourceDescriptor;
@@ -23,8 +25,10 @@ import com.google.cloud.Page;
 import com.google.cloud.Service;
 import com.google.common.collect.ImmutableMap;
 
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public interface Logging extends AutoCloseable, Service<LoggingOptions> {
 
@@ -192,6 +196,143 @@ public interface Logging extends AutoCloseable, Service<LoggingOptions> {
     }
   }
 
+  /**
+   * Class for specifying options for tailing log entries.
+   */
+  final class TailOption extends Option {
+
+    private static final long serialVersionUID = 3571239826591578385L;
+
+    enum OptionType implements Option.OptionType {
+      FILTER, PAGE_SIZE, MAX_QUEUED_ENTRIES, START_TIME, OVERLAP, MIN_POLL_INTERVAL,
+      MAX_POLL_INTERVAL, MAX_TRACKED_ENTRIES;
+
+      @SuppressWarnings("unchecked")
+      <T> T get(Map<Option.OptionType, ?> options) {
+        return (T) options.get(this);
+      }
+    }
+
+    private TailOption(OptionType option, Object value) {
+      super(option, value);
+    }
+
+    /**
+     * Returns an option to specify a filter to the log entries to be tailed.
+     *
+     * @see <a href="https://cloud.google.com/logging/docs/view/advanced_filters">Advanced Logs
+     *     Filters</a>
+     */
+    public static TailOption filter(String filter) {
+      return new TailOption(OptionType.FILTER, filter);
+    }
+
+    /**
+     * Returns an option to specify the maximum number of log entries requested per page. Default
+     * value is 1000.
+     */
+    public static TailOption pageSize(int pageSize) {
+      return new TailOption(OptionType.PAGE_SIZE, pageSize);
+    }
+
+    /**
+     * Returns an option to specify the maximum number of log entries that can be fetched ahead of
+     * the consumer. Pages are only requested while there is room for them, so a slow consumer
+     * slows down polling rather than causing unbounded buffering. Default value is 5000.
+     */
+    public static TailOption maxQueuedEntries(int maxQueuedEntries) {
+      return new TailOption(OptionType.MAX_QUEUED_ENTRIES, maxQueuedEntries);
+    }
+
+    /**
+     * Returns an option to specify the timestamp, in milliseconds since epoch, of the oldest log
+     * entries to be tailed. If not specified, tailing starts from the current time.
+     */
+    public static TailOption startTime(long startTime) {
+      return new TailOption(OptionType.START_TIME, startTime);
+    }
+
+    /**
+     * Returns an option to specify how far behind the most recent entry received each poll looks
+     * for entries. Entries can become visible some time after their timestamp, a poll also returns
+     * the entries in this window that previous polls could not see. Entries received twice are
+     * discarded. Default value is 10 seconds.
+     */
+    public static TailOption overlap(long duration, TimeUnit unit) {
+      return new TailOption(OptionType.OVERLAP, unit.toMillis(duration));
+    }
+
+    /**
+     * Returns an option to specify the interval between polls while polls return new entries.
+     * Default value is 1 second.
+     */
+    public static TailOption minPollInterval(long interval, TimeUnit unit) {
+      checkArgument(interval > 0, "Poll interval must be positive");
+      return new TailOption(OptionType.MIN_POLL_INTERVAL, unit.toMillis(interval));
+    }
+
+    /**
+     * Returns an option to specify the maximum interval between polls. The interval doubles after
+     * each poll that returns no new entries, up to this value. Default value is 30 seconds.
+     */
+    public static TailOption maxPollInterval(long interval, TimeUnit unit) {
+      checkArgument(interval > 0, "Poll interval must be positive");
+      return new TailOption(OptionType.MAX_POLL_INTERVAL, unit.toMillis(interval));
+    }
+
+    /**
+     * Returns an option to specify how many recently received entries are remembered to discard
+     * duplicates. Entries are identified by their {@link LogEntry#insertId()}. This value should be
+     * larger than the number of entries logged within the {@link #overlap(long, TimeUnit)} window.
+     * Default value is 10000.
+     */
+    public static TailOption maxTrackedEntries(int maxTrackedEntries) {
+      return new TailOption(OptionType.MAX_TRACKED_ENTRIES, maxTrackedEntries);
+    }
+  }
+
+  /**
+   * A callback to process tailed log entries.
+   */
+  interface LogEntryProcessor {
+
+    /**
+     * Processes a tailed log entry. If this method throws an exception the exception is logged,
+     * the entry is skipped and tailing continues with the next entry.
+     */
+    void process(LogEntry entry) throws Exception;
+  }
+
+  /**
+   * An interface to control the tailing of log entries.
+   */
+  interface LogEntryTail extends AutoCloseable {
+
+    /**
+     * Returns the number of log entries that have been fetched and are waiting to be consumed.
+     */
+    int queuedEntries();
+
+    /**
+     * Returns the error that stopped tailing, or {@code null} if tailing is still running or was
+     * stopped by calling {@link #close()}. Tailing stops when polling fails with a non-retryable
+     * error.
+     */
+    Throwable failure();
+
+    /**
+     * Stops tailing. Queued entries are discarded and no more entries are fetched.
+     */
+    @Override
+    void close();
+  }
+
+  /**
+   * An iterator over tailed log entries. {@link #hasNext()} blocks until a new entry is available
+   * and only returns {@code false} once the tail is closed.
+   */
+  interface LogEntryTailIterator extends LogEntryTail, Iterator<LogEntry> {}
+
   /**
    * Creates a new sink.
    *
@@ -650,7 +791,9 @@ public interface Logging extends AutoCloseable, Service<LoggingOptions> {
    * log name for those entries that do not specify one. Use
    * {@link WriteOption#resource(MonitoredResource)} to provide a monitored resource for those
    * entries that do not specify one. Use {@link WriteOption#labels(Map)} to provide some labels
-   * to be added to every entry in {@code logEntries}.
+   * to be added to every entry in {@code logEntries}. Entries that do not fit in a single request
+   * are split into several requests, bounded in size and number of entries, that are sent
+   * concurrently.
    *
    * <p>Example of writing log entries and providing a default log name and monitored resource.
    * <pre> {@code
@@ -673,8 +816,10 @@ public interface Logging extends AutoCloseable, Service<LoggingOptions> {
    * to provide a log name for those entries that do not specify one. Use
    * {@link WriteOption#resource(MonitoredResource)} to provide a monitored resource for those
    * entries that do not specify one. Use {@link WriteOption#labels(Map)} to provide some labels
-   * to be added to every entry in {@code logEntries}. The method returns a {@code Future} object
-   * that can be used to wait for the write operation to be completed.
+   * to be added to every entry in {@code logEntries}. Entries that do not fit in a single request
+   * are split into several requests, bounded in size and number of entries, that are sent
+   * concurrently. The method returns a {@code Future} object that can be used to wait for all
+   * requests to be completed. The future fails if any of the requests fails.
    *
    * <p>Example of asynchronously writing log entries and providing a default log name and monitored
    * resource.
@@ -744,4 +889,54 @@ public interface Logging extends AutoCloseable, Service<LoggingOptions> {
    * @throws LoggingException upon failure
    */
   Future<AsyncPage<LogEntry>> listLogEntriesAsync(EntryListOption... options);
+
+  /**
+   * Tails log entries. Returns an iterator that blocks waiting for new log entries. Log entries are
+   * polled, in the background and in ascending timestamp order, with the filter set by
+   * {@link TailOption#filter(String)}. Polling restarts from the timestamp of the most recent entry
+   * received and becomes less frequent while no new entries are found (see
+   * {@link TailOption#maxPollInterval(long, TimeUnit)}). Entries are never returned twice.
+   * Call {@link LogEntryTail#close()} to stop tailing.
+   *
+   * <p>Example of tailing the log entries for a specific log.
+   * <pre> {@code
+   * String filter = "logName=projects/my_project_id/logs/my_log_name";
+   * try (LogEntryTailIterator entries = logging.tailLogEntries(TailOption.filter(filter))) {
+   *   while (entries.hasNext()) {
+   *     LogEntry entry = entries.next();
+   *     // do something with the entry
+   *   }
+   * }
+   * }</pre>
+   *
+   * @throws LoggingException from {@link Iterator#hasNext()} if polling fails with a
+   *     non-retryable error
+   */
+  LogEntryTailIterator tailLogEntries(TailOption... options);
+
+  /**
+   * Tails log entries, passing each new log entry to the provided callback. Entries are polled as
+   * described in {@link #tailLogEntries(TailOption...)} and passed to the callback one at a time,
+   * in ascending timestamp order. Tailing stops when {@link LogEntryTail#close()} is called or when
+   * polling fails with a non-retryable error, in which case the error is logged and returned by
+   * {@link LogEntryTail#failure()}.
+   *
+   * <p>Example of tailing the log entries for a specific log.
+   * <pre> {@code
+   * String filter = "logName=projects/my_project_id/logs/my_log_name";
+   * LogEntryProcessor callback = new LogEntryProcessor() {
+   *   public void process(LogEntry entry) {
+   *     // do something with the entry
+   *   }
+   * };
+   * LogEntryTail tail = logging.tailLogEntriesAsync(callback, TailOption.filter(filter));
+   * // ...
+   * // Stop tailing
+   * tail.close();
+   * }</pre>
+   *
+   * @param callback the callback to be executed on each tailed log entry
+   * @param options tailing options
+   */
+  LogEntryTail tailLogEntriesAsync(LogEntryProcessor callback, TailOption... options);
 }
@@ -20,6 +20,7 @@ import com.google.api.gax.grpc.ApiException;
 import com.google.cloud.BaseServiceException;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Set;
 
 /**
@@ -37,8 +38,12 @@ public final class LoggingException extends BaseServiceException {
     super(apiException, idempotent);
   }
 
+  LoggingException(int code, String message, String reason, boolean idempotent) {
+    super(code, message, reason, idempotent);
+  }
+
   @Override
   protected Set<Error> retryableErrors() {
-    return null;
+    return Collections.emptySet();
   }
 }
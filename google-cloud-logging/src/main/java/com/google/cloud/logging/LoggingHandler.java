@@ -17,17 +17,25 @@
 package com.google.cloud.logging;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.cloud.MonitoredResource;
+import com.google.cloud.logging.LogSampler.Suppressed;
 import com.google.cloud.logging.Logging.WriteOption;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.ErrorManager;
 import java.util.logging.Filter;
 import java.util.logging.Formatter;
@@ -80,14 +88,41 @@ import java.util.logging.SimpleFormatter;
  * <li>{@code com.google.cloud.logging.LoggingHandler.flushLevel} specifies the flush log level.
  *     When a log with this level is published, logs are transmitted to the Stackdriver Logging
  *     service (defaults to {@link LoggingLevel#ERROR}).
+ * <li>{@code com.google.cloud.logging.LoggingHandler.sampleRate} specifies the fraction, between
+ *     0 and 1, of logs with the sample level or a lower level that are published (defaults to 1).
+ * <li>{@code com.google.cloud.logging.LoggingHandler.sampleLevel} specifies the highest level of
+ *     logs that are sampled and rate limited (defaults to {@code Level.WARNING}).
+ * <li>{@code com.google.cloud.logging.LoggingHandler.rateLimit} specifies the maximum number of
+ *     logs with the sample level or a lower level published per second, for each logger and level
+ *     (defaults to 0, no limit).
+ * <li>{@code com.google.cloud.logging.LoggingHandler.duplicateWindowMillis} specifies how long, in
+ *     milliseconds, identical logs are suppressed after a log is published (defaults to 0, no
+ *     suppression).
  * </ul>
  *
+ * <p><b>Sampling and duplicate suppression</b>: Logs are identical if they have the same logger,
+ * level, message, parameters and thrown exception class. When a duplicate window is set, the first
+ * of identical logs is published and the identical logs that follow within the window are counted
+ * instead. Once the window ends, the last of them is published with an {@code occurrences} label
+ * set to their count. Ended windows are checked when logs are published and when the handler is
+ * flushed or closed. Duplicates are suppressed at all levels, sampling and rate limiting only apply
+ * to logs with the sample level or a lower level.
+ *
+ * <p><b>Log-based metrics</b>: Published logs can be counted on the client by a
+ * {@link LogMetricAggregator} (see {@link #setMetricAggregator(LogMetricAggregator)}). Logs
+ * counted by the aggregator can then be dropped or sampled (see
+ * {@link #setAggregatedSampleRate(double)}).
+ *
  * <p>To add a {@code LoggingHandler} to an existing {@link Logger} and be sure to avoid infinite
  * recursion when logging, use the {@link #addHandler(Logger, LoggingHandler)} method. Alternatively
  * you can add the handler via {@code logging.properties}. For example using the following line:
  * <pre>
  * {@code com.example.mypackage.handlers=com.google.cloud.logging.LoggingHandler}
  * </pre>
+ *
+ * <p>This handler writes logs on the thread that publishes them. To move writes off application
+ * threads use {@link AsyncLoggingHandler} or, to also batch logs in a bounded in-memory buffer
+ * that application threads never lock, {@link BufferedLoggingHandler}.
  */
 public class LoggingHandler extends Handler {
 
@@ -100,8 +135,12 @@ public class LoggingHandler extends Handler {
   private final LoggingOptions options;
   private final List<LogEntry> buffer = new LinkedList<>();
   private final WriteOption[] writeOptions;
+  private final ConcurrentMap<Level, Map<String, String>> levelLabels = new ConcurrentHashMap<>();
+  private final LogSampler sampler = new LogSampler(Ticker.systemTicker());
+  private volatile LogMetricAggregator metricAggregator;
+  private volatile double aggregatedSampleRate = 1.0;
   private Logging logging;
-  private Level flushLevel;
+  private volatile Level flushLevel;
   private long flushSize;
 
   /**
@@ -146,6 +185,13 @@ public class LoggingHandler extends Handler {
     setLevel(helper.getLevelProperty(className + ".level", Level.INFO));
     setFilter(helper.getFilterProperty(className + ".filter", null));
     setFormatter(helper.getFormatterProperty(className + ".formatter", new SimpleFormatter()));
+    double sampleRate = helper.getDoubleProperty(className + ".sampleRate", 1.0);
+    sampler.sampleRate(sampleRate >= 0 && sampleRate <= 1 ? sampleRate : 1.0);
+    sampler.sampleLevel(helper.getLevelProperty(className + ".sampleLevel", Level.WARNING));
+    double rateLimit = helper.getDoubleProperty(className + ".rateLimit", 0);
+    sampler.rateLimit(rateLimit > 0 ? rateLimit : 0);
+    long duplicateWindowMillis = helper.getLongProperty(className + ".duplicateWindowMillis", 0);
+    sampler.duplicateWindowMillis(duplicateWindowMillis > 0 ? duplicateWindowMillis : 0);
     String logName = firstNonNull(log, helper.getProperty(className + ".log", "java.log"));
     MonitoredResource resource = firstNonNull(monitoredResource, defaultResource());
     writeOptions = new WriteOption[]{WriteOption.logName(logName), WriteOption.resource(resource)};
@@ -211,7 +257,7 @@ public class LoggingHandler extends Handler {
     return MonitoredResource.of("global", ImmutableMap.of("project_id", options.projectId()));
   }
 
-  private static class LogConfigHelper {
+  static class LogConfigHelper {
 
     private final LogManager manager = LogManager.getLogManager();
 
@@ -228,6 +274,19 @@ public class LoggingHandler extends Handler {
       return defaultValue;
     }
 
+    double getDoubleProperty(String name, double defaultValue) {
+      String stringValue = manager.getProperty(name);
+      if (stringValue == null) {
+        return defaultValue;
+      }
+      try {
+        return Double.parseDouble(stringValue);
+      } catch (NumberFormatException ex) {
+        // If the value is not a number we fall back to default value
+      }
+      return defaultValue;
+    }
+
     Level getLevelProperty(String name, Level defaultValue) {
       String stringLevel = manager.getProperty(name);
       if (stringLevel == null) {
@@ -284,16 +343,78 @@ public class LoggingHandler extends Handler {
     if (!isLoggable(record)) {
       return;
     }
-    LogEntry entry = entryFor(record);
+    buffer.addAll(suppressedEntries(false));
+    LogEntry entry = entryToPublish(record);
     if (entry != null) {
       buffer.add(entry);
     }
-    if (buffer.size() >= flushSize || record.getLevel().intValue() >= flushLevel.intValue()) {
+    if (!buffer.isEmpty()
+        && (buffer.size() >= flushSize || record.getLevel().intValue() >= flushLevel.intValue())) {
       flush();
     }
   }
 
-  private LogEntry entryFor(LogRecord record) {
+  /**
+   * Returns the log entry to publish for the provided record, or {@code null} if the record could
+   * not be formatted or is dropped by sampling, rate limiting or duplicate suppression. If a metric
+   * aggregator is set, the entry is counted before sampling.
+   */
+  LogEntry entryToPublish(LogRecord record) {
+    LogMetricAggregator aggregator = metricAggregator;
+    if (aggregator == null) {
+      return sampler.admit(record) ? entryFor(record) : null;
+    }
+    LogEntry entry = entryFor(record);
+    if (entry == null) {
+      return null;
+    }
+    boolean aggregated = recordMetrics(aggregator, entry);
+    if (!sampler.admit(record)) {
+      return null;
+    }
+    double sampleRate = aggregatedSampleRate;
+    if (aggregated && sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      return null;
+    }
+    return entry;
+  }
+
+  private boolean recordMetrics(LogMetricAggregator aggregator, LogEntry entry) {
+    try {
+      return aggregator.record(entry, writeOptions);
+    } catch (Exception ex) {
+      // counting can fail but we should not throw an exception, we report the error instead
+      reportError(null, ex, ErrorManager.GENERIC_FAILURE);
+      return false;
+    }
+  }
+
+  /**
+   * Returns the entries reporting the logs suppressed as duplicates in windows that have ended. If
+   * {@code endAll} is {@code true}, all windows are ended.
+   */
+  List<LogEntry> suppressedEntries(boolean endAll) {
+    List<Suppressed> suppressed = sampler.suppressed(endAll);
+    if (suppressed.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<LogEntry> entries = new ArrayList<>(suppressed.size());
+    for (Suppressed duplicates : suppressed) {
+      LogEntry entry = entryFor(duplicates.record());
+      if (entry != null) {
+        entries.add(entry.toBuilder()
+            .addLabel("occurrences", String.valueOf(duplicates.count()))
+            .build());
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Returns the log entry for the provided record or {@code null} if the record could not be
+   * formatted.
+   */
+  LogEntry entryFor(LogRecord record) {
     String payload;
     try {
       payload = getFormatter().format(record);
@@ -303,15 +424,31 @@ public class LoggingHandler extends Handler {
       return null;
     }
     Level level = record.getLevel();
-    Map<String, String> labels = ImmutableMap.of(
-        "levelName", level.getName(),
-        "levelValue", String.valueOf(level.intValue()));
     return LogEntry.builder(Payload.StringPayload.of(payload))
-        .labels(labels)
+        .labels(labelsFor(level))
         .severity(severityFor(level))
         .build();
   }
 
+  /**
+   * Returns the labels of entries logged at the provided level. Labels are built once per level and
+   * shared by all entries. {@link Level#equals(Object)} only compares level values, so a cached map
+   * is only used if it also has the level's name.
+   */
+  private Map<String, String> labelsFor(Level level) {
+    Map<String, String> labels = levelLabels.get(level);
+    if (labels != null && labels.get("levelName").equals(level.getName())) {
+      return labels;
+    }
+    Map<String, String> newLabels = ImmutableMap.of(
+        "levelName", level.getName(),
+        "levelValue", String.valueOf(level.intValue()));
+    if (labels == null) {
+      levelLabels.putIfAbsent(level, newLabels);
+    }
+    return newLabels;
+  }
+
   private static Severity severityFor(Level level) {
     if (level instanceof LoggingLevel) {
       return ((LoggingLevel) level).severity();
@@ -351,8 +488,23 @@ public class LoggingHandler extends Handler {
     logging().write(entries, options);
   }
 
+  /**
+   * Returns the options (log name and monitored resource) used to write log entries.
+   */
+  WriteOption[] writeOptions() {
+    return writeOptions;
+  }
+
+  /**
+   * Returns the flush log level.
+   */
+  Level flushLevel() {
+    return flushLevel;
+  }
+
   @Override
   public synchronized void flush() {
+    buffer.addAll(suppressedEntries(false));
     try {
       write(buffer, writeOptions);
     } catch (Exception ex) {
@@ -368,6 +520,11 @@ public class LoggingHandler extends Handler {
    */
   @Override
   public synchronized void close() throws SecurityException {
+    List<LogEntry> suppressed = suppressedEntries(true);
+    if (!suppressed.isEmpty()) {
+      buffer.addAll(suppressed);
+      flush();
+    }
     if (logging != null) {
       try {
         logging.close();
@@ -398,6 +555,72 @@ public class LoggingHandler extends Handler {
     return flushSize;
   }
 
+  /**
+   * Sets the fraction, between 0 and 1, of logs with the sample level or a lower level that are
+   * published. If not set, all logs are published.
+   */
+  public double setSampleRate(double sampleRate) {
+    sampler.sampleRate(sampleRate);
+    return sampleRate;
+  }
+
+  /**
+   * Sets the highest level of logs that are sampled and rate limited. If not set,
+   * {@code Level.WARNING} is used.
+   */
+  public Level setSampleLevel(Level sampleLevel) {
+    sampler.sampleLevel(sampleLevel);
+    return sampleLevel;
+  }
+
+  /**
+   * Sets the maximum number of logs with the sample level or a lower level published per second,
+   * for each logger and level. Use 0 for no limit, which is the default.
+   */
+  public double setRateLimit(double rateLimit) {
+    sampler.rateLimit(rateLimit);
+    return rateLimit;
+  }
+
+  /**
+   * Sets how long, in milliseconds, logs identical to a published log are suppressed and counted.
+   * Use 0 to publish all identical logs, which is the default.
+   */
+  public long setDuplicateWindowMillis(long duplicateWindowMillis) {
+    sampler.duplicateWindowMillis(duplicateWindowMillis);
+    return duplicateWindowMillis;
+  }
+
+  /**
+   * Returns the number of logs that were dropped by sampling or rate limiting.
+   */
+  public long sampledOutRecords() {
+    return sampler.droppedRecords();
+  }
+
+  /**
+   * Sets the aggregator that counts published log entries matching log-based metrics on the
+   * client. Entries are counted before sampling, rate limiting and duplicate suppression, so counts
+   * include all published logs. The handler does not close the aggregator. Use {@code null}, which
+   * is the default, to not count entries.
+   */
+  public LogMetricAggregator setMetricAggregator(LogMetricAggregator metricAggregator) {
+    this.metricAggregator = metricAggregator;
+    return metricAggregator;
+  }
+
+  /**
+   * Sets the fraction, between 0 and 1, of log entries counted by the metric aggregator that are
+   * also written to Stackdriver Logging. Use 0 to only count entries that match a log-based metric.
+   * If not set, all entries are written.
+   */
+  public double setAggregatedSampleRate(double aggregatedSampleRate) {
+    checkArgument(aggregatedSampleRate >= 0 && aggregatedSampleRate <= 1,
+        "Sample rate must be in [0, 1]");
+    this.aggregatedSampleRate = aggregatedSampleRate;
+    return aggregatedSampleRate;
+  }
+
   /**
    * Adds the provided {@code LoggingHandler} to {@code logger}. Use this method to register Cloud
    * Logging handlers instead of {@link Logger#addHandler(Handler)} to avoid infinite recursion
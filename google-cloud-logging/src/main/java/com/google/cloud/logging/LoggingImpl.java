@@ -17,6 +17,7 @@
 package com.google.cloud.logging;
 
 import static com.google.api.client.util.Preconditions.checkArgument;
+import static com.google.api.client.util.Preconditions.checkNotNull;
 import static com.google.cloud.logging.Logging.EntryListOption.OptionType.FILTER;
 import static com.google.cloud.logging.Logging.EntryListOption.OptionType.ORDER_BY;
 import static com.google.cloud.logging.Logging.ListOption.OptionType.PAGE_SIZE;
@@ -32,6 +33,7 @@ import com.google.cloud.MonitoredResource;
 import com.google.cloud.MonitoredResourceDescriptor;
 import com.google.cloud.Page;
 import com.google.cloud.PageImpl;
+import com.google.cloud.RetryParams;
 import com.google.cloud.logging.spi.LoggingRpc;
 import com.google.cloud.logging.spi.v2.ConfigServiceV2Api;
 import com.google.cloud.logging.spi.v2.LoggingServiceV2Api;
@@ -39,11 +41,14 @@ import com.google.cloud.logging.spi.v2.MetricsServiceV2Api;
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.JdkFutureAdapters;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.logging.v2.CreateLogMetricRequest;
 import com.google.logging.v2.CreateSinkRequest;
@@ -64,16 +69,28 @@ import com.google.logging.v2.UpdateLogMetricRequest;
 import com.google.logging.v2.UpdateSinkRequest;
 import com.google.logging.v2.WriteLogEntriesRequest;
 import com.google.logging.v2.WriteLogEntriesResponse;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Empty;
 
+import io.grpc.Status.Code;
+
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 class LoggingImpl extends BaseService<LoggingOptions> implements Logging {
 
   private final LoggingRpc rpc;
+  private ScheduledExecutorService retryExecutor;
+  private volatile WritePrototype writePrototype;
   private boolean closed;
 
   private static final Function<Empty, Boolean> EMPTY_TO_BOOLEAN_FUNCTION =
@@ -96,6 +113,28 @@ class LoggingImpl extends BaseService<LoggingOptions> implements Logging {
     rpc = options.rpc();
   }
 
+  private static final Function<List<WriteLogEntriesResponse>, Void>
+      WRITE_RESPONSES_TO_VOID_FUNCTION = new Function<List<WriteLogEntriesResponse>, Void>() {
+        @Override
+        public Void apply(List<WriteLogEntriesResponse> input) {
+          return null;
+        }
+      };
+  static final Set<Integer> RETRYABLE_CODES = ImmutableSet.of(
+      Code.UNAVAILABLE.value(), Code.DEADLINE_EXCEEDED.value(), Code.RESOURCE_EXHAUSTED.value());
+  private static final String INSERT_ID_PREFIX = UUID.randomUUID().toString() + "-";
+  private static final AtomicLong INSERT_ID_COUNTER = new AtomicLong();
+
+  /**
+   * The maximum number of log entries in a write request.
+   */
+  static final int MAX_WRITE_ENTRIES = 1000;
+
+  /**
+   * The maximum serialized size of a write request, leaving room below the service's 10 MB limit.
+   */
+  static final int MAX_WRITE_BYTES = 9 * 1024 * 1024;
+
   private static <V> V get(Future<V> future) {
     try {
       return Uninterruptibles.getUninterruptibly(future);
@@ -450,24 +489,97 @@ class LoggingImpl extends BaseService<LoggingOptions> implements Logging {
     return transform(rpc.delete(request), EMPTY_TO_BOOLEAN_FUNCTION);
   }
 
-  private static WriteLogEntriesRequest writeLogEntriesRequest(LoggingOptions serviceOptions,
-      Iterable<LogEntry> logEntries, Map<Option.OptionType, ?> options) {
-    String projectId = serviceOptions.projectId();
-    WriteLogEntriesRequest.Builder builder = WriteLogEntriesRequest.newBuilder();
-    String logName = LOG_NAME.get(options);
-    if (logName != null) {
-      builder.setLogName(LoggingServiceV2Api.formatLogName(projectId, logName));
+  /**
+   * A write request without entries, holding the log name, monitored resource and labels of a set
+   * of write options. The last prototype is reused by the following writes with the same options,
+   * so that a handler or a writer that always uses the same options only encodes them once.
+   */
+  private static final class WritePrototype {
+
+    private final String logName;
+    private final MonitoredResource resource;
+    private final Map<String, String> labels;
+    private final WriteLogEntriesRequest request;
+
+    private WritePrototype(String projectId, String logName, MonitoredResource resource,
+        Map<String, String> labels) {
+      this.logName = logName;
+      this.resource = resource;
+      this.labels = labels;
+      WriteLogEntriesRequest.Builder builder = WriteLogEntriesRequest.newBuilder();
+      if (logName != null) {
+        builder.setLogName(LoggingServiceV2Api.formatLogName(projectId, logName));
+      }
+      if (resource != null) {
+        builder.setResource(resource.toPb());
+      }
+      if (labels != null) {
+        builder.putAllLabels(labels);
+      }
+      this.request = builder.build();
     }
-    MonitoredResource resource = RESOURCE.get(options);
-    if (resource != null) {
-      builder.setResource(resource.toPb());
+
+    private boolean matches(String logName, MonitoredResource resource,
+        Map<String, String> labels) {
+      return Objects.equals(this.logName, logName) && Objects.equals(this.resource, resource)
+          && Objects.equals(this.labels, labels);
     }
+  }
+
+  private WriteLogEntriesRequest writePrototype(Map<Option.OptionType, ?> options) {
+    String logName = LOG_NAME.get(options);
+    MonitoredResource resource = RESOURCE.get(options);
     Map<String, String> labels = LABELS.get(options);
-    if (labels != null) {
-      builder.putAllLabels(labels);
+    WritePrototype prototype = writePrototype;
+    if (prototype == null || !prototype.matches(logName, resource, labels)) {
+      prototype = new WritePrototype(options().projectId(), logName, resource, labels);
+      writePrototype = prototype;
     }
-    builder.addAllEntries(Iterables.transform(logEntries, LogEntry.toPbFunction(projectId)));
-    return builder.build();
+    return prototype.request;
+  }
+
+  /**
+   * Returns the requests to write the provided log entries. Entries are split into requests of at
+   * most {@link #MAX_WRITE_ENTRIES} entries and {@link #MAX_WRITE_BYTES} serialized bytes. An entry
+   * larger than {@link #MAX_WRITE_BYTES} is sent in a request of its own.
+   *
+   * @param prototype a request holding the log name, monitored resource and labels of all requests
+   * @param assignInsertIds whether entries without an insert id are given a unique one, so that
+   *     the service can de-duplicate entries sent again when a request is retried
+   */
+  static List<WriteLogEntriesRequest> writeLogEntriesRequests(WriteLogEntriesRequest prototype,
+      String projectId, Iterable<LogEntry> logEntries, boolean assignInsertIds) {
+    LogEntry.Encoder encoder = new LogEntry.Encoder(projectId);
+    int prototypeSize = prototype.getSerializedSize();
+    List<WriteLogEntriesRequest> requests = new ArrayList<>(1);
+    WriteLogEntriesRequest.Builder builder = prototype.toBuilder();
+    int requestSize = prototypeSize;
+    for (LogEntry logEntry : logEntries) {
+      com.google.logging.v2.LogEntry entryPb = encoder.encode(logEntry);
+      if (assignInsertIds && entryPb.getInsertId().isEmpty()) {
+        entryPb = entryPb.toBuilder().setInsertId(newInsertId()).build();
+      }
+      int entrySize = CodedOutputStream.computeMessageSize(
+          WriteLogEntriesRequest.ENTRIES_FIELD_NUMBER, entryPb);
+      int entryCount = builder.getEntriesCount();
+      if (entryCount > 0
+          && (entryCount >= MAX_WRITE_ENTRIES || requestSize + entrySize > MAX_WRITE_BYTES)) {
+        requests.add(builder.build());
+        builder = prototype.toBuilder();
+        requestSize = prototypeSize;
+      }
+      builder.addEntries(entryPb);
+      requestSize += entrySize;
+    }
+    requests.add(builder.build());
+    return requests;
+  }
+
+  /**
+   * Returns an insert id that is unique across processes.
+   */
+  private static String newInsertId() {
+    return INSERT_ID_PREFIX + Long.toString(INSERT_ID_COUNTER.getAndIncrement(), 36);
   }
 
   public void write(Iterable<LogEntry> logEntries, WriteOption... options) {
@@ -475,8 +587,68 @@ class LoggingImpl extends BaseService<LoggingOptions> implements Logging {
   }
 
   public Future<Void> writeAsync(Iterable<LogEntry> logEntries, WriteOption... options) {
-    return transform(rpc.write(writeLogEntriesRequest(options(), logEntries, optionMap(options))),
-        WRITE_RESPONSE_TO_VOID_FUNCTION);
+    // write requests are not idempotent: retried entries need insert ids to be de-duplicated
+    List<WriteLogEntriesRequest> requests = writeLogEntriesRequests(
+        writePrototype(optionMap(options)), options().projectId(), logEntries,
+        options().retryParams().retryMaxAttempts() > 1);
+    if (requests.size() == 1) {
+      return transform(write(requests.get(0), 1), WRITE_RESPONSE_TO_VOID_FUNCTION);
+    }
+    List<ListenableFuture<WriteLogEntriesResponse>> futures = new ArrayList<>(requests.size());
+    for (WriteLogEntriesRequest request : requests) {
+      futures.add(write(request, 1));
+    }
+    return Futures.transform(Futures.allAsList(futures), WRITE_RESPONSES_TO_VOID_FUNCTION);
+  }
+
+  /**
+   * Sends a write request. If the request fails with a retryable error and attempts are left, a
+   * new attempt is scheduled according to the service's {@link RetryParams}. Each request is
+   * retried on its own, so that a failed request does not resend the entries of other requests.
+   */
+  private ListenableFuture<WriteLogEntriesResponse> write(final WriteLogEntriesRequest request,
+      final int attempt) {
+    ListenableFuture<WriteLogEntriesResponse> future =
+        JdkFutureAdapters.listenInPoolThread(rpc.write(request));
+    final RetryParams retryParams = options().retryParams();
+    if (attempt >= retryParams.retryMaxAttempts()) {
+      return future;
+    }
+    return Futures.catchingAsync(future, LoggingException.class,
+        new AsyncFunction<LoggingException, WriteLogEntriesResponse>() {
+          @Override
+          public ListenableFuture<WriteLogEntriesResponse> apply(LoggingException exception) {
+            ScheduledExecutorService executor = retryExecutor();
+            if (executor == null || !RETRYABLE_CODES.contains(exception.code())) {
+              throw exception;
+            }
+            long delay = (long) Math.min(retryParams.initialRetryDelayMillis()
+                * Math.pow(retryParams.retryDelayBackoffFactor(), attempt - 1),
+                retryParams.maxRetryDelayMillis());
+            final SettableFuture<WriteLogEntriesResponse> retry = SettableFuture.create();
+            executor.schedule(new Runnable() {
+              @Override
+              public void run() {
+                retry.setFuture(write(request, attempt + 1));
+              }
+            }, delay, TimeUnit.MILLISECONDS);
+            return retry;
+          }
+        });
+  }
+
+  /**
+   * Returns the executor used to schedule write retries or {@code null} if the service has been
+   * closed.
+   */
+  private synchronized ScheduledExecutorService retryExecutor() {
+    if (closed) {
+      return null;
+    }
+    if (retryExecutor == null) {
+      retryExecutor = options().executorFactory().get();
+    }
+    return retryExecutor;
   }
 
   private static ListLogEntriesRequest listLogEntriesRequest(LoggingOptions serviceOptions,
@@ -531,11 +703,25 @@ class LoggingImpl extends BaseService<LoggingOptions> implements Logging {
   }
 
   @Override
-  public void close() throws Exception {
+  public LogEntryTailIterator tailLogEntries(TailOption... options) {
+    return LogEntryTailer.start(options(), null, optionMap(options));
+  }
+
+  @Override
+  public LogEntryTail tailLogEntriesAsync(LogEntryProcessor callback, TailOption... options) {
+    return LogEntryTailer.start(options(), checkNotNull(callback), optionMap(options));
+  }
+
+  @Override
+  public synchronized void close() throws Exception {
     if (closed) {
       return;
     }
     closed = true;
+    if (retryExecutor != null) {
+      options().executorFactory().release(retryExecutor);
+      retryExecutor = null;
+    }
     rpc.close();
   }
 
@@ -20,10 +20,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.api.client.util.Types;
 import com.google.common.base.Function;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.protobuf.ListValue;
 import com.google.protobuf.NullValue;
 import com.google.protobuf.Struct;
@@ -47,12 +45,6 @@ final class Structs {
       return valueToObject(value);
     }
   };
-  private static final Function<Object, Value> OBJECT_TO_VALUE = new Function<Object, Value>() {
-    @Override
-    public Value apply(Object obj) {
-      return objectToValue(obj);
-    }
-  };
 
   private Structs() {}
 
@@ -115,8 +107,12 @@ final class Structs {
    * Enums are serialized as strings.
    */
   static Struct newStruct(Map<String, Object> map) {
-    Map<String, Value> valueMap = Maps.transformValues(checkNotNull(map), OBJECT_TO_VALUE);
-    return Struct.newBuilder().putAllFields(valueMap).build();
+    Struct.Builder builder = Struct.newBuilder();
+    Map<String, Value> fields = builder.getMutableFields();
+    for (Map.Entry<String, Object> entry : checkNotNull(map).entrySet()) {
+      fields.put(entry.getKey(), objectToValue(entry.getValue()));
+    }
+    return builder.build();
   }
 
   private static Object valueToObject(Value value) {
@@ -138,8 +134,12 @@ final class Structs {
     }
   }
 
+  /**
+   * Creates a new {@link Value} object given the provided object. Maps are converted to
+   * {@link Struct} values and iterables or arrays to {@link ListValue} values.
+   */
   @SuppressWarnings("unchecked")
-  private static Value objectToValue(final Object obj) {
+  static Value objectToValue(final Object obj) {
     Value.Builder builder = Value.newBuilder();
     if (obj == null) {
       builder.setNullValue(NullValue.NULL_VALUE);
@@ -153,8 +153,11 @@ final class Structs {
     } else if (obj instanceof Boolean) {
       builder.setBoolValue((Boolean) obj);
     } else if (obj instanceof Iterable<?> || objClass.isArray()) {
-      builder.setListValue(ListValue.newBuilder()
-          .addAllValues(Iterables.transform(Types.iterableOf(obj), OBJECT_TO_VALUE)));
+      ListValue.Builder listBuilder = ListValue.newBuilder();
+      for (Object element : Types.iterableOf(obj)) {
+        listBuilder.addValues(objectToValue(element));
+      }
+      builder.setListValue(listBuilder);
     } else if (objClass.isEnum()) {
       builder.setStringValue(((Enum<?>) obj).name());
     } else if (obj instanceof Map) {
@@ -0,0 +1,491 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.client.util.DateTime;
+import com.google.common.collect.ImmutableList;
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A parsed log entry filter. Only a subset of the advanced logs filter syntax is supported: a
+ * conjunction of comparisons, joined by {@code AND} or by whitespace and possibly parenthesized.
+ * A comparison has the form {@code field operator value}, where the operator is one of {@code =},
+ * {@code !=}, {@code <}, {@code <=}, {@code >}, {@code >=} and {@code :} (has) and the value is
+ * either a quoted string or a bare word. Supported fields are {@code logName}, {@code severity},
+ * {@code timestamp}, {@code insertId}, {@code textPayload}, {@code jsonPayload.*},
+ * {@code resource.type}, {@code resource.labels.*}, {@code labels.*}, {@code operation.id},
+ * {@code operation.producer} and {@code httpRequest.status}.
+ *
+ * <p>Filters are evaluated locally, for instance to count matching entries on the client or to
+ * serve entries from an in-memory store. Besides matching entries, a filter exposes the log name,
+ * severity range and timestamp range it requires, so that a store can scan only the relevant
+ * entries.
+ */
+public final class LogEntryFilter {
+
+  private static final LogEntryFilter MATCH_ALL =
+      new LogEntryFilter(ImmutableList.<Comparison>of());
+
+  private final List<Comparison> comparisons;
+
+  enum Operator {
+    EQUAL("="), NOT_EQUAL("!="), LESS("<"), LESS_OR_EQUAL("<="), GREATER(">"),
+    GREATER_OR_EQUAL(">="), HAS(":");
+
+    private final String symbol;
+
+    Operator(String symbol) {
+      this.symbol = symbol;
+    }
+
+    static Operator of(String symbol) {
+      for (Operator operator : values()) {
+        if (operator.symbol.equals(symbol)) {
+          return operator;
+        }
+      }
+      return null;
+    }
+
+    boolean test(int comparison) {
+      switch (this) {
+        case EQUAL:
+        case HAS:
+          return comparison == 0;
+        case NOT_EQUAL:
+          return comparison != 0;
+        case LESS:
+          return comparison < 0;
+        case LESS_OR_EQUAL:
+          return comparison <= 0;
+        case GREATER:
+          return comparison > 0;
+        case GREATER_OR_EQUAL:
+          return comparison >= 0;
+        default:
+          throw new AssertionError(this);
+      }
+    }
+  }
+
+  private static final class Comparison {
+
+    private final String field;
+    private final Operator operator;
+    private final String value;
+    // the value, parsed according to the field, for severity and timestamp comparisons
+    private final long numericValue;
+
+    Comparison(String field, Operator operator, String value) {
+      this.field = field;
+      this.operator = operator;
+      this.value = value;
+      if ("severity".equals(field)) {
+        numericValue = parseSeverity(value);
+      } else if ("timestamp".equals(field)) {
+        numericValue = parseTimestamp(value);
+      } else if (!isSupported(field)) {
+        throw new IllegalArgumentException("Unsupported filter field " + field);
+      } else {
+        numericValue = 0;
+      }
+    }
+
+    boolean matches(LogEntry entry, long timestampNanos) {
+      if ("severity".equals(field)) {
+        return operator.test(Long.compare(entry.getSeverityValue(), numericValue));
+      }
+      if ("timestamp".equals(field)) {
+        return operator.test(Long.compare(timestampNanos, numericValue));
+      }
+      String fieldValue = fieldValue(entry, field);
+      if (fieldValue == null) {
+        // comparisons with missing fields only hold for !=
+        return operator == Operator.NOT_EQUAL;
+      }
+      if (operator == Operator.HAS) {
+        return fieldValue.toLowerCase(Locale.ENGLISH).contains(value.toLowerCase(Locale.ENGLISH));
+      }
+      return operator.test(compare(fieldValue, value));
+    }
+  }
+
+  private LogEntryFilter(List<Comparison> comparisons) {
+    this.comparisons = comparisons;
+  }
+
+  /**
+   * Parses the provided filter. An empty filter matches all entries.
+   *
+   * @throws IllegalArgumentException if the filter is malformed or uses unsupported syntax
+   */
+  public static LogEntryFilter parse(String filter) {
+    if (filter == null || filter.trim().isEmpty()) {
+      return MATCH_ALL;
+    }
+    Parser parser = new Parser(tokenize(filter));
+    List<Comparison> comparisons = new ArrayList<>();
+    parser.parseConjunction(comparisons);
+    if (parser.hasNext()) {
+      throw new IllegalArgumentException("Unexpected token " + parser.peek() + " in filter");
+    }
+    return new LogEntryFilter(ImmutableList.copyOf(comparisons));
+  }
+
+  /**
+   * Returns whether the provided entry matches this filter.
+   *
+   * @param timestampNanos the entry's timestamp, in nanoseconds since epoch
+   */
+  public boolean matches(LogEntry entry, long timestampNanos) {
+    for (Comparison comparison : comparisons) {
+      if (!comparison.matches(entry, timestampNanos)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the log name that matching entries must have, or {@code null} if the filter does not
+   * restrict the log name.
+   */
+  public String logName() {
+    for (Comparison comparison : comparisons) {
+      if ("logName".equals(comparison.field) && comparison.operator == Operator.EQUAL) {
+        return comparison.value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns whether the filter restricts entries to a range of severities.
+   */
+  public boolean hasSeverityRange() {
+    return minSeverity() > LogSeverity.DEFAULT_VALUE
+        || maxSeverity() < LogSeverity.EMERGENCY_VALUE;
+  }
+
+  /**
+   * Returns the lowest severity value that matching entries can have.
+   */
+  public int minSeverity() {
+    long min = LogSeverity.DEFAULT_VALUE;
+    for (Comparison comparison : comparisons) {
+      if ("severity".equals(comparison.field)) {
+        switch (comparison.operator) {
+          case EQUAL:
+          case GREATER_OR_EQUAL:
+            min = Math.max(min, comparison.numericValue);
+            break;
+          case GREATER:
+            min = Math.max(min, comparison.numericValue + 1);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    return (int) min;
+  }
+
+  /**
+   * Returns the highest severity value that matching entries can have.
+   */
+  public int maxSeverity() {
+    long max = LogSeverity.EMERGENCY_VALUE;
+    for (Comparison comparison : comparisons) {
+      if ("severity".equals(comparison.field)) {
+        switch (comparison.operator) {
+          case EQUAL:
+          case LESS_OR_EQUAL:
+            max = Math.min(max, comparison.numericValue);
+            break;
+          case LESS:
+            max = Math.min(max, comparison.numericValue - 1);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    return (int) max;
+  }
+
+  /**
+   * Returns the lowest timestamp, in nanoseconds since epoch, that matching entries can have.
+   */
+  public long minTimestamp() {
+    long min = Long.MIN_VALUE;
+    for (Comparison comparison : comparisons) {
+      if ("timestamp".equals(comparison.field)) {
+        switch (comparison.operator) {
+          case EQUAL:
+          case GREATER_OR_EQUAL:
+            min = Math.max(min, comparison.numericValue);
+            break;
+          case GREATER:
+            min = Math.max(min, comparison.numericValue + 1);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    return min;
+  }
+
+  /**
+   * Returns the highest timestamp, in nanoseconds since epoch, that matching entries can have.
+   */
+  public long maxTimestamp() {
+    long max = Long.MAX_VALUE;
+    for (Comparison comparison : comparisons) {
+      if ("timestamp".equals(comparison.field)) {
+        switch (comparison.operator) {
+          case EQUAL:
+          case LESS_OR_EQUAL:
+            max = Math.min(max, comparison.numericValue);
+            break;
+          case LESS:
+            max = Math.min(max, comparison.numericValue - 1);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    return max;
+  }
+
+  private static boolean isSupported(String field) {
+    switch (field) {
+      case "logName":
+      case "insertId":
+      case "textPayload":
+      case "resource.type":
+      case "operation.id":
+      case "operation.producer":
+      case "httpRequest.status":
+        return true;
+      default:
+        return field.startsWith("jsonPayload.") || field.startsWith("resource.labels.")
+            || field.startsWith("labels.");
+    }
+  }
+
+  private static String fieldValue(LogEntry entry, String field) {
+    switch (field) {
+      case "logName":
+        return entry.getLogName();
+      case "insertId":
+        return entry.getInsertId();
+      case "textPayload":
+        return entry.getPayloadCase() == LogEntry.PayloadCase.TEXT_PAYLOAD
+            ? entry.getTextPayload() : null;
+      case "resource.type":
+        return entry.hasResource() ? entry.getResource().getType() : null;
+      case "operation.id":
+        return entry.hasOperation() ? entry.getOperation().getId() : null;
+      case "operation.producer":
+        return entry.hasOperation() ? entry.getOperation().getProducer() : null;
+      case "httpRequest.status":
+        return entry.hasHttpRequest() ? String.valueOf(entry.getHttpRequest().getStatus()) : null;
+      default:
+        break;
+    }
+    if (field.startsWith("labels.")) {
+      return entry.getLabels().get(field.substring("labels.".length()));
+    }
+    if (field.startsWith("resource.labels.")) {
+      return entry.hasResource()
+          ? entry.getResource().getLabels().get(field.substring("resource.labels.".length()))
+          : null;
+    }
+    if (entry.getPayloadCase() != LogEntry.PayloadCase.JSON_PAYLOAD) {
+      return null;
+    }
+    Struct struct = entry.getJsonPayload();
+    String[] path = field.substring("jsonPayload.".length()).split("\\.");
+    for (int i = 0; i < path.length - 1; i++) {
+      Value value = struct.getFields().get(path[i]);
+      if (value == null || value.getKindCase() != Value.KindCase.STRUCT_VALUE) {
+        return null;
+      }
+      struct = value.getStructValue();
+    }
+    Value value = struct.getFields().get(path[path.length - 1]);
+    if (value == null) {
+      return null;
+    }
+    switch (value.getKindCase()) {
+      case STRING_VALUE:
+        return value.getStringValue();
+      case NUMBER_VALUE:
+        return String.valueOf(value.getNumberValue());
+      case BOOL_VALUE:
+        return String.valueOf(value.getBoolValue());
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Compares two values numerically if both are numbers, lexicographically otherwise.
+   */
+  private static int compare(String left, String right) {
+    try {
+      return Double.compare(Double.parseDouble(left), Double.parseDouble(right));
+    } catch (NumberFormatException ex) {
+      return left.compareTo(right);
+    }
+  }
+
+  private static long parseSeverity(String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException ex) {
+      try {
+        return LogSeverity.valueOf(value.toUpperCase(Locale.ENGLISH)).getNumber();
+      } catch (IllegalArgumentException severityEx) {
+        throw new IllegalArgumentException("Invalid severity " + value);
+      }
+    }
+  }
+
+  private static long parseTimestamp(String value) {
+    try {
+      return DateTime.parseRfc3339(value).getValue() * 1_000_000L;
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("Invalid timestamp " + value);
+    }
+  }
+
+  private static List<String> tokenize(String filter) {
+    List<String> tokens = new ArrayList<>();
+    int index = 0;
+    while (index < filter.length()) {
+      char current = filter.charAt(index);
+      if (Character.isWhitespace(current)) {
+        index++;
+      } else if (current == '(' || current == ')') {
+        tokens.add(String.valueOf(current));
+        index++;
+      } else if (current == '"') {
+        StringBuilder builder = new StringBuilder("\"");
+        index++;
+        while (index < filter.length() && filter.charAt(index) != '"') {
+          if (filter.charAt(index) == '\\' && index + 1 < filter.length()) {
+            index++;
+          }
+          builder.append(filter.charAt(index++));
+        }
+        if (index == filter.length()) {
+          throw new IllegalArgumentException("Unterminated string in filter");
+        }
+        tokens.add(builder.toString());
+        index++;
+      } else if ("=!<>:".indexOf(current) >= 0) {
+        int end = index + 1;
+        if (end < filter.length() && filter.charAt(end) == '='
+            && current != '=' && current != ':') {
+          end++;
+        }
+        tokens.add(filter.substring(index, end));
+        index = end;
+      } else {
+        int end = index;
+        while (end < filter.length() && !Character.isWhitespace(filter.charAt(end))
+            && "()\"=!<>:".indexOf(filter.charAt(end)) < 0) {
+          end++;
+        }
+        tokens.add(filter.substring(index, end));
+        index = end;
+      }
+    }
+    return tokens;
+  }
+
+  private static final class Parser {
+
+    private final List<String> tokens;
+    private int position;
+
+    Parser(List<String> tokens) {
+      this.tokens = tokens;
+    }
+
+    boolean hasNext() {
+      return position < tokens.size();
+    }
+
+    String peek() {
+      return tokens.get(position);
+    }
+
+    String next() {
+      if (!hasNext()) {
+        throw new IllegalArgumentException("Unexpected end of filter");
+      }
+      return tokens.get(position++);
+    }
+
+    void parseConjunction(List<Comparison> comparisons) {
+      parseTerm(comparisons);
+      while (hasNext() && !")".equals(peek())) {
+        if ("OR".equals(peek()) || "NOT".equals(peek())) {
+          throw new IllegalArgumentException(peek() + " is not supported in filters");
+        }
+        if ("AND".equals(peek())) {
+          next();
+        }
+        parseTerm(comparisons);
+      }
+    }
+
+    void parseTerm(List<Comparison> comparisons) {
+      String token = next();
+      if ("(".equals(token)) {
+        parseConjunction(comparisons);
+        if (!")".equals(next())) {
+          throw new IllegalArgumentException("Missing ) in filter");
+        }
+        return;
+      }
+      if ("OR".equals(token) || "NOT".equals(token) || "-".equals(token)) {
+        throw new IllegalArgumentException(token + " is not supported in filters");
+      }
+      Operator operator = Operator.of(next());
+      if (operator == null) {
+        throw new IllegalArgumentException("Missing comparison operator after " + token);
+      }
+      String value = next();
+      if (value.startsWith("\"")) {
+        value = value.substring(1);
+      } else if (Operator.of(value) != null || "(".equals(value) || ")".equals(value)) {
+        throw new IllegalArgumentException("Missing value after " + token + operator.symbol);
+      }
+      comparisons.add(new Comparison(token, operator, value));
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2.testing;
+
+import com.google.cloud.logging.spi.v2.testing.LocalResources.ResourcePage;
+import com.google.logging.v2.ConfigServiceV2Grpc;
+import com.google.logging.v2.CreateSinkRequest;
+import com.google.logging.v2.DeleteSinkRequest;
+import com.google.logging.v2.GetSinkRequest;
+import com.google.logging.v2.ListSinksRequest;
+import com.google.logging.v2.ListSinksResponse;
+import com.google.logging.v2.LogSink;
+import com.google.logging.v2.UpdateSinkRequest;
+import com.google.protobuf.Empty;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * An in-memory implementation of the Logging config service, for use in tests. Sinks are stored
+ * by their full resource name, {@code projects/[PROJECT]/sinks/[SINK]}.
+ */
+public class LocalConfigImpl implements ConfigServiceV2Grpc.ConfigServiceV2 {
+
+  private final LocalResources<LogSink> sinks = new LocalResources<>();
+
+  @Override
+  public void listSinks(ListSinksRequest request,
+      StreamObserver<ListSinksResponse> responseObserver) {
+    ResourcePage<LogSink> page =
+        sinks.list(request.getParent() + "/sinks/", request.getPageToken(), request.getPageSize());
+    responseObserver.onNext(ListSinksResponse.newBuilder()
+        .addAllSinks(page.values)
+        .setNextPageToken(page.nextPageToken)
+        .build());
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void getSink(GetSinkRequest request, StreamObserver<LogSink> responseObserver) {
+    LogSink sink = sinks.get(request.getSinkName());
+    if (sink == null) {
+      responseObserver.onError(Status.NOT_FOUND
+          .withDescription("Sink " + request.getSinkName() + " not found")
+          .asRuntimeException());
+      return;
+    }
+    responseObserver.onNext(sink);
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void createSink(CreateSinkRequest request, StreamObserver<LogSink> responseObserver) {
+    LogSink sink = request.getSink();
+    if (sink.getName().isEmpty()) {
+      responseObserver.onError(Status.INVALID_ARGUMENT
+          .withDescription("Sinks must have a name")
+          .asRuntimeException());
+      return;
+    }
+    String sinkName = request.getParent() + "/sinks/" + sink.getName();
+    if (!sinks.create(sinkName, sink)) {
+      responseObserver.onError(Status.ALREADY_EXISTS
+          .withDescription("Sink " + sinkName + " already exists")
+          .asRuntimeException());
+      return;
+    }
+    responseObserver.onNext(sink);
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Updates a sink, creating it if it does not exist.
+   */
+  @Override
+  public void updateSink(UpdateSinkRequest request, StreamObserver<LogSink> responseObserver) {
+    sinks.put(request.getSinkName(), request.getSink());
+    responseObserver.onNext(request.getSink());
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void deleteSink(DeleteSinkRequest request, StreamObserver<Empty> responseObserver) {
+    if (!sinks.delete(request.getSinkName())) {
+      responseObserver.onError(Status.NOT_FOUND
+          .withDescription("Sink " + request.getSinkName() + " not found")
+          .asRuntimeException());
+      return;
+    }
+    responseObserver.onNext(Empty.getDefaultInstance());
+    responseObserver.onCompleted();
+  }
+
+  public void reset() {
+    sinks.clear();
+  }
+}
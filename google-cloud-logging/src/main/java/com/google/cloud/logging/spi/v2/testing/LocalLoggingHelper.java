@@ -14,7 +14,9 @@
 
 package com.google.cloud.logging.spi.v2.testing;
 
+import com.google.logging.v2.ConfigServiceV2Grpc;
 import com.google.logging.v2.LoggingServiceV2Grpc;
+import com.google.logging.v2.MetricsServiceV2Grpc;
 
 import io.grpc.ManagedChannel;
 import io.grpc.Server;
@@ -29,7 +31,8 @@ import java.io.IOException;
 import java.net.SocketAddress;
 
 /**
- * LocalLoggingHelper runs an in-memory Logging server for use in tests.
+ * LocalLoggingHelper runs an in-memory Logging server for use in tests. The server serves the
+ * logging, config (sinks) and metrics services.
  */
 public class LocalLoggingHelper {
   private static final int FLOW_CONTROL_WINDOW = 65 * 1024;
@@ -37,6 +40,8 @@ public class LocalLoggingHelper {
   private final SocketAddress address;
   private final Server server;
   private final LocalLoggingImpl loggingImpl;
+  private final LocalConfigImpl configImpl;
+  private final LocalMetricsImpl metricsImpl;
 
   /**
    * Constructs a new LocalPubsubHelper. The method start() must
@@ -45,11 +50,15 @@ public class LocalLoggingHelper {
   public LocalLoggingHelper(String addressString) {
     address = new LocalAddress(addressString);
     loggingImpl = new LocalLoggingImpl();
+    configImpl = new LocalConfigImpl();
+    metricsImpl = new LocalMetricsImpl();
     NettyServerBuilder builder =
         NettyServerBuilder.forAddress(address)
             .flowControlWindow(FLOW_CONTROL_WINDOW)
             .channelType(LocalServerChannel.class);
     builder.addService(LoggingServiceV2Grpc.bindService(loggingImpl));
+    builder.addService(ConfigServiceV2Grpc.bindService(configImpl));
+    builder.addService(MetricsServiceV2Grpc.bindService(metricsImpl));
     server = builder.build();
   }
   /**
@@ -67,6 +76,8 @@ public class LocalLoggingHelper {
    */
   public void reset() {
     loggingImpl.reset();
+    configImpl.reset();
+    metricsImpl.reset();
   }
   /**
    * Returns the internal in-memory service.
@@ -74,6 +85,18 @@ public class LocalLoggingHelper {
   public LocalLoggingImpl getLoggingImpl() {
     return loggingImpl;
   }
+  /**
+   * Returns the internal in-memory config service.
+   */
+  public LocalConfigImpl getConfigImpl() {
+    return configImpl;
+  }
+  /**
+   * Returns the internal in-memory metrics service.
+   */
+  public LocalMetricsImpl getMetricsImpl() {
+    return metricsImpl;
+  }
   /**
    * Creates a channel for making requests to the in-memory service.
    */
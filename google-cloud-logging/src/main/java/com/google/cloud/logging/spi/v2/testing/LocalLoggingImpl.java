@@ -14,6 +14,9 @@
 
 package com.google.cloud.logging.spi.v2.testing;
 
+import com.google.cloud.logging.spi.v2.LogEntryFilter;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
 import com.google.logging.v2.DeleteLogRequest;
 import com.google.logging.v2.ListLogEntriesRequest;
 import com.google.logging.v2.ListLogEntriesResponse;
@@ -23,23 +26,155 @@ import com.google.logging.v2.LogEntry;
 import com.google.logging.v2.LoggingServiceV2Grpc;
 import com.google.logging.v2.WriteLogEntriesRequest;
 import com.google.logging.v2.WriteLogEntriesResponse;
-import com.google.protobuf.ByteString;
 import com.google.protobuf.Empty;
 
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * An in-memory implementation of the Logging service, for use in tests. Entries are indexed by log
+ * name and by severity, each index being sorted by timestamp, so that listing entries only scans
+ * the logs, severities and time range the filter selects. Entries can be written and listed
+ * concurrently. {@code listLogEntries} supports the filters described in {@link LogEntryFilter},
+ * ordering by ascending or descending timestamp and paging.
+ *
+ * <p>Entries are stored as written, except that the log name, monitored resource and labels of the
+ * write request are applied to the entries that do not have their own.
+ */
 public class LocalLoggingImpl implements LoggingServiceV2Grpc.LoggingServiceV2 {
 
-  private Map<String, List<LogEntry>> logs = new HashMap<>();
+  private static final int DEFAULT_PAGE_SIZE = 1000;
+
+  /**
+   * The position of an entry in the indexes: entries are sorted by timestamp, then insert id, then
+   * the order in which they were written. A key can be used as a page token.
+   */
+  static final class EntryKey implements Comparable<EntryKey> {
+
+    private final long timestampNanos;
+    private final String insertId;
+    private final long sequence;
+
+    EntryKey(long timestampNanos, String insertId, long sequence) {
+      this.timestampNanos = timestampNanos;
+      this.insertId = insertId;
+      this.sequence = sequence;
+    }
+
+    static EntryKey fromToken(String token) {
+      String[] parts = token.split("/", 3);
+      if (parts.length != 3) {
+        throw new IllegalArgumentException("Invalid page token " + token);
+      }
+      try {
+        return new EntryKey(Long.parseLong(parts[0]), parts[2], Long.parseLong(parts[1]));
+      } catch (NumberFormatException ex) {
+        throw new IllegalArgumentException("Invalid page token " + token);
+      }
+    }
+
+    String toToken() {
+      return timestampNanos + "/" + sequence + "/" + insertId;
+    }
+
+    @Override
+    public int compareTo(EntryKey other) {
+      int result = Long.compare(timestampNanos, other.timestampNanos);
+      if (result == 0) {
+        result = insertId.compareTo(other.insertId);
+      }
+      return result != 0 ? result : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  private static final Comparator<Map.Entry<EntryKey, LogEntry>> ENTRY_COMPARATOR =
+      new Comparator<Map.Entry<EntryKey, LogEntry>>() {
+        @Override
+        public int compare(Map.Entry<EntryKey, LogEntry> first,
+            Map.Entry<EntryKey, LogEntry> second) {
+          return first.getKey().compareTo(second.getKey());
+        }
+      };
+
+  // writes hold the read lock, so that they run concurrently, deleting a log holds the write lock
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ConcurrentMap<String, ConcurrentNavigableMap<EntryKey, LogEntry>> logs =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, ConcurrentNavigableMap<EntryKey, LogEntry>> severities =
+      new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  private static <K> ConcurrentNavigableMap<EntryKey, LogEntry> index(
+      ConcurrentMap<K, ConcurrentNavigableMap<EntryKey, LogEntry>> indexes, K key) {
+    ConcurrentNavigableMap<EntryKey, LogEntry> index = indexes.get(key);
+    if (index == null) {
+      index = new ConcurrentSkipListMap<>();
+      ConcurrentNavigableMap<EntryKey, LogEntry> previous = indexes.putIfAbsent(key, index);
+      if (previous != null) {
+        index = previous;
+      }
+    }
+    return index;
+  }
+
+  private static LogEntry withDefaults(LogEntry entry, WriteLogEntriesRequest request) {
+    if (!entry.getLogName().isEmpty() && entry.hasResource() && request.getLabels().isEmpty()) {
+      return entry;
+    }
+    LogEntry.Builder builder = entry.toBuilder();
+    if (entry.getLogName().isEmpty()) {
+      builder.setLogName(request.getLogName());
+    }
+    if (!entry.hasResource() && !request.getResource().getType().isEmpty()) {
+      builder.setResource(request.getResource());
+    }
+    for (Map.Entry<String, String> label : request.getLabels().entrySet()) {
+      if (!entry.getLabels().containsKey(label.getKey())) {
+        builder.getMutableLabels().put(label.getKey(), label.getValue());
+      }
+    }
+    return builder.build();
+  }
+
+  private static long timestampNanos(LogEntry entry, long receiveTimeNanos) {
+    if (!entry.hasTimestamp()) {
+      return receiveTimeNanos;
+    }
+    return entry.getTimestamp().getSeconds() * 1_000_000_000L + entry.getTimestamp().getNanos();
+  }
 
   @Override
   public void deleteLog(DeleteLogRequest request, StreamObserver<Empty> responseObserver) {
-    logs.remove(request.getLogName());
+    lock.writeLock().lock();
+    try {
+      ConcurrentNavigableMap<EntryKey, LogEntry> entries = logs.remove(request.getLogName());
+      if (entries == null) {
+        responseObserver.onError(Status.NOT_FOUND
+            .withDescription("Log " + request.getLogName() + " not found")
+            .asRuntimeException());
+        return;
+      }
+      for (Map.Entry<EntryKey, LogEntry> entry : entries.entrySet()) {
+        severities.get(entry.getValue().getSeverityValue()).remove(entry.getKey());
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
     responseObserver.onNext(Empty.getDefaultInstance());
     responseObserver.onCompleted();
   }
@@ -47,12 +182,29 @@ public class LocalLoggingImpl implements LoggingServiceV2Grpc.LoggingServiceV2 {
   @Override
   public void writeLogEntries(
       WriteLogEntriesRequest request, StreamObserver<WriteLogEntriesResponse> responseObserver) {
-    List<LogEntry> entries = logs.get(request.getLogName());
-    if (entries == null) {
-      entries = new ArrayList<LogEntry>();
-      logs.put(request.getLogName(), entries);
+    List<LogEntry> entries = new ArrayList<>(request.getEntriesCount());
+    for (LogEntry entry : request.getEntriesList()) {
+      LogEntry withDefaults = withDefaults(entry, request);
+      if (withDefaults.getLogName().isEmpty()) {
+        responseObserver.onError(Status.INVALID_ARGUMENT
+            .withDescription("Log entries must have a log name")
+            .asRuntimeException());
+        return;
+      }
+      entries.add(withDefaults);
+    }
+    long receiveTimeNanos = System.currentTimeMillis() * 1_000_000L;
+    lock.readLock().lock();
+    try {
+      for (LogEntry entry : entries) {
+        EntryKey key = new EntryKey(timestampNanos(entry, receiveTimeNanos), entry.getInsertId(),
+            sequence.getAndIncrement());
+        index(logs, entry.getLogName()).put(key, entry);
+        index(severities, entry.getSeverityValue()).put(key, entry);
+      }
+    } finally {
+      lock.readLock().unlock();
     }
-    entries.addAll(request.getEntriesList());
     // Response is empty
     responseObserver.onNext(WriteLogEntriesResponse.newBuilder().build());
     responseObserver.onCompleted();
@@ -61,18 +213,141 @@ public class LocalLoggingImpl implements LoggingServiceV2Grpc.LoggingServiceV2 {
   @Override
   public void listLogEntries(
       ListLogEntriesRequest request, StreamObserver<ListLogEntriesResponse> responseObserver) {
-    List<LogEntry> entries = new ArrayList<>();
+    LogEntryFilter filter;
+    boolean descending;
+    EntryKey pageStart;
+    try {
+      filter = LogEntryFilter.parse(request.getFilter());
+      descending = isDescending(request.getOrderBy());
+      pageStart =
+          request.getPageToken().isEmpty() ? null : EntryKey.fromToken(request.getPageToken());
+    } catch (IllegalArgumentException ex) {
+      responseObserver.onError(
+          Status.INVALID_ARGUMENT.withDescription(ex.getMessage()).asRuntimeException());
+      return;
+    }
+    List<String> prefixes = new ArrayList<>(request.getProjectIdsCount());
+    for (String projectId : request.getProjectIdsList()) {
+      prefixes.add("projects/" + projectId + "/");
+    }
+    List<Iterator<Map.Entry<EntryKey, LogEntry>>> iterators = new ArrayList<>();
+    for (NavigableMap<EntryKey, LogEntry> index : indexes(filter, prefixes)) {
+      iterators.add(range(index, filter, pageStart, descending).entrySet().iterator());
+    }
+    Comparator<Map.Entry<EntryKey, LogEntry>> comparator =
+        descending ? Ordering.from(ENTRY_COMPARATOR).reverse() : ENTRY_COMPARATOR;
+    Iterator<Map.Entry<EntryKey, LogEntry>> candidates =
+        Iterators.mergeSorted(iterators, comparator);
+    int pageSize = request.getPageSize() > 0 ? request.getPageSize() : DEFAULT_PAGE_SIZE;
+    ListLogEntriesResponse.Builder response = ListLogEntriesResponse.newBuilder();
+    EntryKey lastKey = null;
+    while (candidates.hasNext()) {
+      Map.Entry<EntryKey, LogEntry> candidate = candidates.next();
+      LogEntry entry = candidate.getValue();
+      if (!inProjects(entry.getLogName(), prefixes)
+          || !filter.matches(entry, candidate.getKey().timestampNanos)) {
+        continue;
+      }
+      if (response.getEntriesCount() == pageSize) {
+        // there is at least one more matching entry, the next page starts after the last one
+        response.setNextPageToken(lastKey.toToken());
+        break;
+      }
+      response.addEntries(entry);
+      lastKey = candidate.getKey();
+    }
+    responseObserver.onNext(response.build());
+    responseObserver.onCompleted();
+  }
+
+  private static boolean isDescending(String orderBy) {
+    switch (orderBy.trim()) {
+      case "":
+      case "timestamp":
+      case "timestamp asc":
+        return false;
+      case "timestamp desc":
+        return true;
+      default:
+        throw new IllegalArgumentException("Unsupported order " + orderBy);
+    }
+  }
+
+  private static boolean inProjects(String logName, List<String> prefixes) {
+    for (String prefix : prefixes) {
+      if (logName.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-    for (ByteString proj : request.getProjectIdsList().asByteStringList()) {
-      String prefix = "projects/" + proj.toStringUtf8() + "/";
-      for (Map.Entry<String, List<LogEntry>> entry : logs.entrySet()) {
-        if (entry.getKey().startsWith(prefix)) {
-          entries.addAll(entry.getValue());
+  /**
+   * Returns the indexes that contain all entries that can match the provided filter: the index of
+   * the filter's log name if it has one, else the indexes of the severities it selects if it
+   * restricts severity, else the indexes of all logs in the requested projects.
+   */
+  private List<NavigableMap<EntryKey, LogEntry>> indexes(LogEntryFilter filter,
+      List<String> prefixes) {
+    List<NavigableMap<EntryKey, LogEntry>> indexes = new ArrayList<>();
+    String logName = filter.logName();
+    if (logName != null) {
+      NavigableMap<EntryKey, LogEntry> index = logs.get(logName);
+      if (index != null && inProjects(logName, prefixes)) {
+        indexes.add(index);
+      }
+    } else if (filter.hasSeverityRange()) {
+      for (Map.Entry<Integer, ConcurrentNavigableMap<EntryKey, LogEntry>> index
+          : severities.entrySet()) {
+        if (index.getKey() >= filter.minSeverity() && index.getKey() <= filter.maxSeverity()) {
+          indexes.add(index.getValue());
+        }
+      }
+    } else {
+      for (Map.Entry<String, ConcurrentNavigableMap<EntryKey, LogEntry>> index : logs.entrySet()) {
+        if (inProjects(index.getKey(), prefixes)) {
+          indexes.add(index.getValue());
         }
       }
     }
-    responseObserver.onNext(ListLogEntriesResponse.newBuilder().addAllEntries(entries).build());
-    responseObserver.onCompleted();
+    return indexes;
+  }
+
+  /**
+   * Restricts an index to the filter's timestamp range and to the entries after the page start,
+   * in the requested order.
+   */
+  private static NavigableMap<EntryKey, LogEntry> range(NavigableMap<EntryKey, LogEntry> index,
+      LogEntryFilter filter, EntryKey pageStart, boolean descending) {
+    long minTimestamp = filter.minTimestamp();
+    long maxTimestamp = filter.maxTimestamp();
+    EntryKey lower = minTimestamp != Long.MIN_VALUE
+        ? new EntryKey(minTimestamp, "", Long.MIN_VALUE) : null;
+    boolean lowerInclusive = true;
+    EntryKey upper = maxTimestamp != Long.MAX_VALUE
+        ? new EntryKey(maxTimestamp + 1, "", Long.MIN_VALUE) : null;
+    boolean upperInclusive = false;
+    if (pageStart != null && !descending && (lower == null || pageStart.compareTo(lower) >= 0)) {
+      lower = pageStart;
+      lowerInclusive = false;
+    }
+    if (pageStart != null && descending && (upper == null || pageStart.compareTo(upper) <= 0)) {
+      upper = pageStart;
+      upperInclusive = false;
+    }
+    NavigableMap<EntryKey, LogEntry> range;
+    if (lower != null && upper != null) {
+      range = lower.compareTo(upper) < 0
+          ? index.subMap(lower, lowerInclusive, upper, upperInclusive)
+          : new TreeMap<EntryKey, LogEntry>();
+    } else if (lower != null) {
+      range = index.tailMap(lower, lowerInclusive);
+    } else if (upper != null) {
+      range = index.headMap(upper, upperInclusive);
+    } else {
+      range = index;
+    }
+    return descending ? range.descendingMap() : range;
   }
 
   @Override
@@ -83,6 +358,12 @@ public class LocalLoggingImpl implements LoggingServiceV2Grpc.LoggingServiceV2 {
   }
 
   public void reset() {
-    logs.clear();
+    lock.writeLock().lock();
+    try {
+      logs.clear();
+      severities.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2.testing;
+
+import com.google.cloud.logging.spi.v2.testing.LocalResources.ResourcePage;
+import com.google.logging.v2.MetricsServiceV2Grpc;
+import com.google.logging.v2.CreateLogMetricRequest;
+import com.google.logging.v2.DeleteLogMetricRequest;
+import com.google.logging.v2.GetLogMetricRequest;
+import com.google.logging.v2.ListLogMetricsRequest;
+import com.google.logging.v2.ListLogMetricsResponse;
+import com.google.logging.v2.LogMetric;
+import com.google.logging.v2.UpdateLogMetricRequest;
+import com.google.protobuf.Empty;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * An in-memory implementation of the Logging metrics service, for use in tests. Metrics are stored
+ * by their full resource name, {@code projects/[PROJECT]/metrics/[METRIC]}.
+ */
+public class LocalMetricsImpl implements MetricsServiceV2Grpc.MetricsServiceV2 {
+
+  private final LocalResources<LogMetric> metrics = new LocalResources<>();
+
+  @Override
+  public void listLogMetrics(ListLogMetricsRequest request,
+      StreamObserver<ListLogMetricsResponse> responseObserver) {
+    ResourcePage<LogMetric> page =
+        metrics.list(request.getParent() + "/metrics/", request.getPageToken(),
+            request.getPageSize());
+    responseObserver.onNext(ListLogMetricsResponse.newBuilder()
+        .addAllMetrics(page.values)
+        .setNextPageToken(page.nextPageToken)
+        .build());
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void getLogMetric(GetLogMetricRequest request,
+      StreamObserver<LogMetric> responseObserver) {
+    LogMetric metric = metrics.get(request.getMetricName());
+    if (metric == null) {
+      responseObserver.onError(Status.NOT_FOUND
+          .withDescription("Metric " + request.getMetricName() + " not found")
+          .asRuntimeException());
+      return;
+    }
+    responseObserver.onNext(metric);
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void createLogMetric(CreateLogMetricRequest request,
+      StreamObserver<LogMetric> responseObserver) {
+    LogMetric metric = request.getLogMetric();
+    if (metric.getName().isEmpty()) {
+      responseObserver.onError(Status.INVALID_ARGUMENT
+          .withDescription("Metrics must have a name")
+          .asRuntimeException());
+      return;
+    }
+    String metricName = request.getParent() + "/metrics/" + metric.getName();
+    if (!metrics.create(metricName, metric)) {
+      responseObserver.onError(Status.ALREADY_EXISTS
+          .withDescription("Metric " + metricName + " already exists")
+          .asRuntimeException());
+      return;
+    }
+    responseObserver.onNext(metric);
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Updates a metric, creating it if it does not exist.
+   */
+  @Override
+  public void updateLogMetric(UpdateLogMetricRequest request,
+      StreamObserver<LogMetric> responseObserver) {
+    metrics.put(request.getMetricName(), request.getLogMetric());
+    responseObserver.onNext(request.getLogMetric());
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void deleteLogMetric(DeleteLogMetricRequest request,
+      StreamObserver<Empty> responseObserver) {
+    if (!metrics.delete(request.getMetricName())) {
+      responseObserver.onError(Status.NOT_FOUND
+          .withDescription("Metric " + request.getMetricName() + " not found")
+          .asRuntimeException());
+      return;
+    }
+    responseObserver.onNext(Empty.getDefaultInstance());
+    responseObserver.onCompleted();
+  }
+
+  public void reset() {
+    metrics.clear();
+  }
+}
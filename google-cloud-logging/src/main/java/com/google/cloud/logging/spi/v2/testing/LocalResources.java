@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.logging.spi.v2.testing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A thread-safe store of named resources, such as sinks or metrics, sorted by their full name. The
+ * name of the last resource in a page is used as the page token of the next page.
+ */
+final class LocalResources<V> {
+
+  private static final int DEFAULT_PAGE_SIZE = 100;
+
+  private final ConcurrentNavigableMap<String, V> resources = new ConcurrentSkipListMap<>();
+
+  /**
+   * A page of resources.
+   */
+  static final class ResourcePage<V> {
+
+    final List<V> values;
+    final String nextPageToken;
+
+    private ResourcePage(List<V> values, String nextPageToken) {
+      this.values = values;
+      this.nextPageToken = nextPageToken;
+    }
+  }
+
+  /**
+   * Adds a resource, returning {@code false} if a resource with the same name already exists.
+   */
+  boolean create(String name, V resource) {
+    return resources.putIfAbsent(name, resource) == null;
+  }
+
+  void put(String name, V resource) {
+    resources.put(name, resource);
+  }
+
+  V get(String name) {
+    return resources.get(name);
+  }
+
+  /**
+   * Removes a resource, returning {@code false} if it does not exist.
+   */
+  boolean delete(String name) {
+    return resources.remove(name) != null;
+  }
+
+  /**
+   * Returns a page of the resources whose name starts with the provided prefix.
+   *
+   * @param pageToken the token returned with the previous page, or an empty string
+   * @param pageSize the maximum number of resources per page, or 0 for the default page size
+   */
+  ResourcePage<V> list(String prefix, String pageToken, int pageSize) {
+    int size = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+    ConcurrentNavigableMap<String, V> range = pageToken.isEmpty()
+        ? resources.tailMap(prefix, true) : resources.tailMap(pageToken, false);
+    List<V> values = new ArrayList<>();
+    String lastName = null;
+    for (Map.Entry<String, V> entry : range.entrySet()) {
+      if (!entry.getKey().startsWith(prefix)) {
+        break;
+      }
+      if (values.size() == size) {
+        return new ResourcePage<>(values, lastName);
+      }
+      values.add(entry.getValue());
+      lastName = entry.getKey();
+    }
+    return new ResourcePage<>(values, "");
+  }
+
+  void clear() {
+    resources.clear();
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging;
+
+import static com.google.cloud.logging.LoggingHandlerTest.TestFormatter;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.MonitoredResource;
+import com.google.cloud.logging.BufferedLoggingHandler.OverflowPolicy;
+import com.google.cloud.logging.Logging.WriteOption;
+import com.google.cloud.logging.Payload.StringPayload;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+public class BufferedLoggingHandlerTest {
+
+  private static final String LOG_NAME = "java.log";
+  private static final String MESSAGE = "message";
+  private static final String PROJECT = "project";
+  private static final MonitoredResource DEFAULT_RESOURCE =
+      MonitoredResource.of("global", ImmutableMap.of("project_id", PROJECT));
+  private static final long LONG_LINGER_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private Logging logging;
+  private LoggingOptions options;
+
+  @Before
+  public void setUp() {
+    logging = EasyMock.createStrictMock(Logging.class);
+    options = EasyMock.createStrictMock(LoggingOptions.class);
+  }
+
+  @After
+  public void afterClass() {
+    EasyMock.verify(logging, options);
+  }
+
+  private static LogEntry entry(Level level, Severity severity, String message) {
+    return LogEntry.builder(StringPayload.of(message))
+        .severity(severity)
+        .addLabel("levelName", level.getName())
+        .addLabel("levelValue", String.valueOf(level.intValue()))
+        .build();
+  }
+
+  private static LogRecord record(Level level, String message) {
+    return new LogRecord(level, message);
+  }
+
+  private BufferedLoggingHandler handler(Integer capacity) {
+    BufferedLoggingHandler handler =
+        new BufferedLoggingHandler(LOG_NAME, options, null, capacity);
+    handler.setLevel(Level.ALL);
+    handler.setFormatter(new TestFormatter());
+    handler.setLingerMillis(LONG_LINGER_MILLIS);
+    return handler;
+  }
+
+  private void expectWrite(List<LogEntry> entries) {
+    logging.write(entries, WriteOption.logName(LOG_NAME), WriteOption.resource(DEFAULT_RESOURCE));
+    EasyMock.expectLastCall();
+  }
+
+  @Test
+  public void testFlush() {
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    expectWrite(ImmutableList.of(entry(Level.FINEST, Severity.DEBUG, "1"),
+        entry(Level.INFO, Severity.INFO, "2"), entry(Level.WARNING, Severity.WARNING, "3")));
+    EasyMock.replay(options, logging);
+    BufferedLoggingHandler handler = handler(null);
+    handler.publish(record(Level.FINEST, "1"));
+    handler.publish(record(Level.INFO, "2"));
+    handler.publish(record(Level.WARNING, "3"));
+    handler.flush();
+    handler.flush();
+  }
+
+  @Test
+  public void testBatchSize() {
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    expectWrite(ImmutableList.of(entry(Level.INFO, Severity.INFO, "1"),
+        entry(Level.INFO, Severity.INFO, "2")));
+    expectWrite(ImmutableList.of(entry(Level.INFO, Severity.INFO, "3"),
+        entry(Level.INFO, Severity.INFO, "4")));
+    expectWrite(ImmutableList.of(entry(Level.INFO, Severity.INFO, "5")));
+    EasyMock.replay(options, logging);
+    BufferedLoggingHandler handler = handler(null);
+    for (int i = 1; i <= 5; i++) {
+      handler.publish(record(Level.INFO, String.valueOf(i)));
+    }
+    handler.setBatchSize(2);
+    handler.flush();
+  }
+
+  @Test
+  public void testBatchBytes() {
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    LogEntry entry = entry(Level.INFO, Severity.INFO, MESSAGE);
+    expectWrite(ImmutableList.of(entry, entry));
+    expectWrite(ImmutableList.of(entry));
+    EasyMock.replay(options, logging);
+    BufferedLoggingHandler handler = handler(null);
+    for (int i = 0; i < 3; i++) {
+      handler.publish(record(Level.INFO, MESSAGE));
+    }
+    handler.setBatchBytes(2 * BufferedLoggingHandler.estimatedSize(entry));
+    handler.flush();
+  }
+
+  @Test
+  public void testFlushLevel() throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    expectWrite(ImmutableList.of(entry(Level.FINEST, Severity.DEBUG, "1"),
+        entry(Level.SEVERE, Severity.ERROR, "2")));
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override
+      public Void answer() {
+        latch.countDown();
+        return null;
+      }
+    });
+    EasyMock.replay(options, logging);
+    BufferedLoggingHandler handler = handler(null);
+    handler.publish(record(Level.FINEST, "1"));
+    handler.publish(record(Level.SEVERE, "2"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testLinger() throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    expectWrite(ImmutableList.of(entry(Level.INFO, Severity.INFO, MESSAGE)));
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override
+      public Void answer() {
+        latch.countDown();
+        return null;
+      }
+    });
+    EasyMock.replay(options, logging);
+    BufferedLoggingHandler handler = handler(null);
+    handler.setLingerMillis(10);
+    handler.publish(record(Level.INFO, MESSAGE));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testOverflowDrop() {
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    expectWrite(ImmutableList.of(entry(Level.INFO, Severity.INFO, "1"),
+        entry(Level.INFO, Severity.INFO, "2"), entry(Level.INFO, Severity.INFO, "3"),
+        entry(Level.INFO, Severity.INFO, "4")));
+    EasyMock.replay(options, logging);
+    BufferedLoggingHandler handler = handler(4);
+    handler.setOverflowPolicy(OverflowPolicy.DROP);
+    for (int i = 1; i <= 6; i++) {
+      handler.publish(record(Level.INFO, String.valueOf(i)));
+    }
+    assertEquals(2, handler.droppedEntries());
+    handler.flush();
+  }
+
+  @Test
+  public void testOverflowDropLowestSeverity() {
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    ImmutableList.Builder<LogEntry> expected = ImmutableList.builder();
+    for (int i = 0; i < 4; i++) {
+      expected.add(entry(Level.FINEST, Severity.DEBUG, MESSAGE));
+    }
+    for (int i = 0; i < 2; i++) {
+      expected.add(entry(Level.INFO, Severity.INFO, MESSAGE));
+    }
+    for (int i = 0; i < 2; i++) {
+      expected.add(entry(Level.WARNING, Severity.WARNING, MESSAGE));
+    }
+    expectWrite(expected.build());
+    EasyMock.replay(options, logging);
+    BufferedLoggingHandler handler = handler(8);
+    handler.setOverflowPolicy(OverflowPolicy.DROP_LOWEST_SEVERITY);
+    // debug entries are accepted while the buffer is less than half full
+    for (int i = 0; i < 5; i++) {
+      handler.publish(record(Level.FINEST, MESSAGE));
+    }
+    assertEquals(1, handler.droppedEntries());
+    // info entries are accepted while the buffer is less than three quarters full
+    for (int i = 0; i < 3; i++) {
+      handler.publish(record(Level.INFO, MESSAGE));
+    }
+    assertEquals(2, handler.droppedEntries());
+    // warning entries are accepted until the buffer is full
+    for (int i = 0; i < 3; i++) {
+      handler.publish(record(Level.WARNING, MESSAGE));
+    }
+    assertEquals(3, handler.droppedEntries());
+    handler.flush();
+  }
+
+  @Test
+  public void testOverflowBlock() throws Exception {
+    final List<LogEntry> written = Collections.synchronizedList(new ArrayList<LogEntry>());
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    logging.write(EasyMock.<Iterable<LogEntry>>anyObject(),
+        EasyMock.eq(WriteOption.logName(LOG_NAME)),
+        EasyMock.eq(WriteOption.resource(DEFAULT_RESOURCE)));
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override
+      public Void answer() {
+        @SuppressWarnings("unchecked")
+        Iterable<LogEntry> entries = (Iterable<LogEntry>) EasyMock.getCurrentArguments()[0];
+        Iterables.addAll(written, entries);
+        return null;
+      }
+    }).atLeastOnce();
+    logging.close();
+    EasyMock.expectLastCall();
+    EasyMock.replay(options, logging);
+    BufferedLoggingHandler handler = handler(2);
+    ImmutableList.Builder<LogEntry> expected = ImmutableList.builder();
+    for (int i = 0; i < 100; i++) {
+      handler.publish(record(Level.INFO, String.valueOf(i)));
+      expected.add(entry(Level.INFO, Severity.INFO, String.valueOf(i)));
+    }
+    handler.close();
+    assertEquals(0, handler.droppedEntries());
+    assertEquals(expected.build(), written);
+  }
+
+  private void expectNestedPublish(List<LogEntry> entries, final BufferedLoggingHandler[] handler,
+      final CountDownLatch latch) {
+    expectWrite(entries);
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override
+      public Void answer() {
+        // the buffer has room for two of the logs published while writing
+        for (int i = 0; i < 3; i++) {
+          handler[0].publish(record(Level.INFO, "nested"));
+        }
+        latch.countDown();
+        return null;
+      }
+    });
+  }
+
+  @Test(timeout = 10000)
+  public void testOverflowBlockPublishFromFlusher() throws Exception {
+    final BufferedLoggingHandler[] handler = new BufferedLoggingHandler[1];
+    CountDownLatch latch = new CountDownLatch(1);
+    LogEntry nested = entry(Level.INFO, Severity.INFO, "nested");
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    expectNestedPublish(ImmutableList.of(entry(Level.INFO, Severity.INFO, "1"),
+        entry(Level.SEVERE, Severity.ERROR, "2")), handler, latch);
+    expectWrite(ImmutableList.of(nested, nested));
+    logging.close();
+    EasyMock.expectLastCall();
+    EasyMock.replay(options, logging);
+    handler[0] = handler(2);
+    handler[0].publish(record(Level.INFO, "1"));
+    handler[0].publish(record(Level.SEVERE, "2"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(1, handler[0].droppedEntries());
+    handler[0].close();
+  }
+
+  @Test(timeout = 10000)
+  public void testOverflowBlockPublishWhileFlushing() throws Exception {
+    final BufferedLoggingHandler[] handler = new BufferedLoggingHandler[1];
+    CountDownLatch latch = new CountDownLatch(1);
+    LogEntry nested = entry(Level.INFO, Severity.INFO, "nested");
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    expectNestedPublish(ImmutableList.of(entry(Level.INFO, Severity.INFO, "1"),
+        entry(Level.INFO, Severity.INFO, "2")), handler, latch);
+    expectWrite(ImmutableList.of(nested, nested));
+    EasyMock.replay(options, logging);
+    handler[0] = handler(2);
+    handler[0].publish(record(Level.INFO, "1"));
+    handler[0].publish(record(Level.INFO, "2"));
+    handler[0].flush();
+    assertEquals(0, latch.getCount());
+    assertEquals(1, handler[0].droppedEntries());
+    handler[0].flush();
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    expectWrite(ImmutableList.of(entry(Level.FINEST, Severity.DEBUG, MESSAGE)));
+    logging.close();
+    EasyMock.expectLastCall();
+    EasyMock.replay(options, logging);
+    BufferedLoggingHandler handler = handler(null);
+    handler.publish(record(Level.FINEST, MESSAGE));
+    handler.close();
+    // logs published after close are ignored
+    handler.publish(record(Level.FINEST, MESSAGE));
+    handler.close();
+  }
+}
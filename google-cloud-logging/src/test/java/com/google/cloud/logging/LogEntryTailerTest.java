@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.logging.Logging.LogEntryProcessor;
+import com.google.cloud.logging.Logging.LogEntryTail;
+import com.google.cloud.logging.Logging.LogEntryTailIterator;
+import com.google.cloud.logging.Logging.TailOption;
+import com.google.cloud.logging.Payload.StringPayload;
+import com.google.cloud.logging.spi.LoggingRpc;
+import com.google.cloud.logging.spi.LoggingRpcFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.ListLogEntriesResponse;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LogEntryTailerTest {
+
+  private static final String PROJECT = "project";
+  private static final String FILTER = "logName=projects/project/logs/log";
+  private static final long START_TIME = 1_000_000L;
+  private static final LogEntry LOG_ENTRY1 = entry(1);
+  private static final LogEntry LOG_ENTRY2 = entry(2);
+  private static final LogEntry LOG_ENTRY3 = entry(3);
+  private static final LogEntry LOG_ENTRY4 = entry(4);
+  private static final ListLogEntriesResponse EMPTY_RESPONSE =
+      ListLogEntriesResponse.getDefaultInstance();
+  private static final TailOption[] TAIL_OPTIONS = {
+      TailOption.filter(FILTER),
+      TailOption.startTime(START_TIME),
+      TailOption.overlap(0, TimeUnit.MILLISECONDS),
+      TailOption.pageSize(2),
+      TailOption.minPollInterval(1, TimeUnit.MILLISECONDS),
+      TailOption.maxPollInterval(1, TimeUnit.MILLISECONDS)
+  };
+
+  private LoggingOptions options;
+  private LoggingRpcFactory rpcFactoryMock;
+  private LoggingRpc loggingRpcMock;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static LogEntry entry(int index) {
+    return LogEntry.builder(StringPayload.of("entry" + index))
+        .timestamp(START_TIME + index)
+        .insertId(String.valueOf(index))
+        .build();
+  }
+
+  private static ListLogEntriesRequest request(long since, String pageToken) {
+    ListLogEntriesRequest.Builder builder = ListLogEntriesRequest.newBuilder()
+        .addProjectIds(PROJECT)
+        .setFilter(LogEntryTailer.pollFilter(FILTER, since))
+        .setOrderBy("timestamp asc")
+        .setPageSize(2);
+    if (pageToken != null) {
+      builder.setPageToken(pageToken);
+    }
+    return builder.build();
+  }
+
+  private static Future<ListLogEntriesResponse> response(String pageToken, LogEntry... entries) {
+    ListLogEntriesResponse.Builder builder = ListLogEntriesResponse.newBuilder()
+        .addAllEntries(Lists.transform(ImmutableList.copyOf(entries),
+            LogEntry.toPbFunction(PROJECT)));
+    if (pageToken != null) {
+      builder.setNextPageToken(pageToken);
+    }
+    return Futures.immediateFuture(builder.build());
+  }
+
+  @Before
+  public void setUp() {
+    rpcFactoryMock = EasyMock.createStrictMock(LoggingRpcFactory.class);
+    loggingRpcMock = EasyMock.createStrictMock(LoggingRpc.class);
+    EasyMock.expect(rpcFactoryMock.create(EasyMock.anyObject(LoggingOptions.class)))
+        .andReturn(loggingRpcMock);
+    options = LoggingOptions.builder()
+        .projectId(PROJECT)
+        .serviceRpcFactory(rpcFactoryMock)
+        .build();
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(rpcFactoryMock, loggingRpcMock);
+  }
+
+  private void expectEmptyPolls() {
+    EasyMock.expect(loggingRpcMock.list(EasyMock.<ListLogEntriesRequest>anyObject()))
+        .andReturn(Futures.immediateFuture(EMPTY_RESPONSE)).anyTimes();
+  }
+
+  private void expectTail() {
+    EasyMock.expect(loggingRpcMock.list(request(START_TIME, null)))
+        .andReturn(response("token", LOG_ENTRY1, LOG_ENTRY2));
+    EasyMock.expect(loggingRpcMock.list(request(START_TIME, "token")))
+        .andReturn(response(null, LOG_ENTRY3));
+    // the next poll starts from the most recent entry, which is returned again
+    EasyMock.expect(loggingRpcMock.list(request(START_TIME + 3, null)))
+        .andReturn(response(null, LOG_ENTRY3, LOG_ENTRY4));
+    expectEmptyPolls();
+  }
+
+  @Test
+  public void testPollFilter() {
+    assertEquals("timestamp>=\"1970-01-01T00:16:40.000Z\"",
+        LogEntryTailer.pollFilter(null, START_TIME));
+    assertEquals("(" + FILTER + ") AND timestamp>=\"1970-01-01T00:16:40.000Z\"",
+        LogEntryTailer.pollFilter(FILTER, START_TIME));
+  }
+
+  @Test
+  public void testTailLogEntries() {
+    expectTail();
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    List<LogEntry> entries = new ArrayList<>();
+    try (LogEntryTailIterator tail = options.service().tailLogEntries(TAIL_OPTIONS)) {
+      for (int i = 0; i < 4; i++) {
+        assertTrue(tail.hasNext());
+        entries.add(tail.next());
+      }
+      tail.close();
+      assertFalse(tail.hasNext());
+      assertEquals(0, tail.queuedEntries());
+      assertNull(tail.failure());
+    }
+    assertEquals(ImmutableList.of(LOG_ENTRY1, LOG_ENTRY2, LOG_ENTRY3, LOG_ENTRY4), entries);
+  }
+
+  @Test
+  public void testTailLogEntriesAsync() throws InterruptedException {
+    expectTail();
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    final List<LogEntry> entries = Collections.synchronizedList(new ArrayList<LogEntry>());
+    final CountDownLatch latch = new CountDownLatch(4);
+    LogEntryProcessor processor = new LogEntryProcessor() {
+      @Override
+      public void process(LogEntry entry) throws Exception {
+        entries.add(entry);
+        latch.countDown();
+        // failing to process an entry does not stop tailing
+        throw new IllegalStateException();
+      }
+    };
+    try (LogEntryTail tail = options.service().tailLogEntriesAsync(processor, TAIL_OPTIONS)) {
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+    assertEquals(ImmutableList.of(LOG_ENTRY1, LOG_ENTRY2, LOG_ENTRY3, LOG_ENTRY4), entries);
+  }
+
+  @Test
+  public void testTailLogEntriesBackpressure() {
+    final LogEntryTailIterator[] tail = new LogEntryTailIterator[1];
+    final AtomicInteger queuedEntries = new AtomicInteger(-1);
+    EasyMock.expect(loggingRpcMock.list(request(START_TIME, null)))
+        .andReturn(response("token", LOG_ENTRY1, LOG_ENTRY2));
+    EasyMock.expect(loggingRpcMock.list(request(START_TIME, "token")))
+        .andAnswer(new IAnswer<Future<ListLogEntriesResponse>>() {
+          @Override
+          public Future<ListLogEntriesResponse> answer() {
+            queuedEntries.set(tail[0].queuedEntries());
+            return response(null, LOG_ENTRY3);
+          }
+        });
+    expectEmptyPolls();
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    List<LogEntry> entries = new ArrayList<>();
+    tail[0] = options.service().tailLogEntries(TailOption.filter(FILTER),
+        TailOption.startTime(START_TIME), TailOption.overlap(0, TimeUnit.MILLISECONDS),
+        TailOption.pageSize(2), TailOption.maxQueuedEntries(2),
+        TailOption.minPollInterval(1, TimeUnit.MILLISECONDS),
+        TailOption.maxPollInterval(1, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < 3; i++) {
+      entries.add(tail[0].next());
+    }
+    tail[0].close();
+    assertEquals(ImmutableList.of(LOG_ENTRY1, LOG_ENTRY2, LOG_ENTRY3), entries);
+    // the next page is only requested once the queued entries are consumed
+    assertEquals(0, queuedEntries.get());
+  }
+
+  @Test
+  public void testTailLogEntriesRetryableError() {
+    LoggingException unavailable = new LoggingException(14, "unavailable", "UNAVAILABLE", false);
+    EasyMock.expect(loggingRpcMock.list(request(START_TIME, null)))
+        .andReturn(Futures.<ListLogEntriesResponse>immediateFailedFuture(unavailable));
+    EasyMock.expect(loggingRpcMock.list(request(START_TIME, null)))
+        .andReturn(response(null, LOG_ENTRY1));
+    expectEmptyPolls();
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    try (LogEntryTailIterator tail = options.service().tailLogEntries(TAIL_OPTIONS)) {
+      assertEquals(LOG_ENTRY1, tail.next());
+    }
+  }
+
+  @Test
+  public void testTailLogEntriesNonRetryableError() {
+    LoggingException invalid = new LoggingException(3, "invalid", "INVALID_ARGUMENT", false);
+    EasyMock.expect(loggingRpcMock.list(request(START_TIME, null)))
+        .andReturn(Futures.<ListLogEntriesResponse>immediateFailedFuture(invalid));
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    try (LogEntryTailIterator tail = options.service().tailLogEntries(TAIL_OPTIONS)) {
+      thrown.expect(LoggingException.class);
+      thrown.expectMessage("invalid");
+      tail.hasNext();
+    }
+  }
+
+  @Test
+  public void testTailLogEntriesAsyncNonRetryableError() throws InterruptedException {
+    LoggingException invalid = new LoggingException(3, "invalid", "INVALID_ARGUMENT", false);
+    EasyMock.expect(loggingRpcMock.list(request(START_TIME, null)))
+        .andReturn(Futures.<ListLogEntriesResponse>immediateFailedFuture(invalid));
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    LogEntryProcessor processor = new LogEntryProcessor() {
+      @Override
+      public void process(LogEntry entry) {
+        throw new AssertionError("No entry expected");
+      }
+    };
+    try (LogEntryTail tail = options.service().tailLogEntriesAsync(processor, TAIL_OPTIONS)) {
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (tail.failure() == null && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertSame(invalid, tail.failure());
+    }
+  }
+}
@@ -29,6 +29,7 @@ import com.google.protobuf.Empty;
 
 import org.junit.Test;
 
+import java.util.HashMap;
 import java.util.Map;
 
 public class LogEntryTest {
@@ -213,6 +214,39 @@ public class LogEntryTest {
     compareLogEntry(logEntry, LogEntry.fromPb(logEntry.toPb("project")));
   }
 
+  @Test
+  public void testEncoder() {
+    MonitoredResource otherResource = MonitoredResource.of("global", ImmutableMap.of("id", "id"));
+    LogEntry.Encoder encoder = new LogEntry.Encoder("project");
+    LogEntry[] entries = {
+        STRING_ENTRY,
+        JSON_ENTRY,
+        LogEntry.of(STRING_PAYLOAD),
+        LogEntry.of("otherLog", otherResource, STRING_PAYLOAD),
+        PROTO_ENTRY,
+        LogEntry.of(LOG_NAME, RESOURCE, STRING_PAYLOAD)
+    };
+    for (LogEntry entry : entries) {
+      assertEquals(entry.toPb("project"), encoder.encode(entry));
+    }
+  }
+
+  @Test
+  public void testBuilderLabels() {
+    LogEntry logEntry = STRING_ENTRY.toBuilder()
+        .addLabel("key3", "value3")
+        .build();
+    assertEquals(ImmutableMap.of("key1", "value1", "key2", "value2", "key3", "value3"),
+        logEntry.labels());
+    assertEquals(LABELS, STRING_ENTRY.labels());
+    Map<String, String> labels = new HashMap<>(LABELS);
+    logEntry = LogEntry.builder(STRING_PAYLOAD).labels(labels).build();
+    labels.put("key3", "value3");
+    assertEquals(LABELS, logEntry.labels());
+    logEntry = logEntry.toBuilder().clearLabels().addLabel("key3", "value3").build();
+    assertEquals(ImmutableMap.of("key3", "value3"), logEntry.labels());
+  }
+
   private void compareLogEntry(LogEntry expected, LogEntry value) {
     assertEquals(expected, value);
     assertEquals(expected.logName(), value.logName());
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.MetricDescriptor.MetricKind;
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.cloud.MonitoredResource;
+import com.google.cloud.logging.Logging.WriteOption;
+import com.google.cloud.logging.Payload.StringPayload;
+import com.google.cloud.monitoring.spi.v3.MetricServiceApi;
+import com.google.cloud.monitoring.spi.v3.MetricServiceSettings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.monitoring.v3.CreateMetricDescriptorRequest;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.DeleteMetricDescriptorRequest;
+import com.google.monitoring.v3.GetMetricDescriptorRequest;
+import com.google.monitoring.v3.GetMonitoredResourceDescriptorRequest;
+import com.google.monitoring.v3.ListMetricDescriptorsRequest;
+import com.google.monitoring.v3.ListMetricDescriptorsResponse;
+import com.google.monitoring.v3.ListMonitoredResourceDescriptorsRequest;
+import com.google.monitoring.v3.ListMonitoredResourceDescriptorsResponse;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.ListTimeSeriesResponse;
+import com.google.monitoring.v3.MetricServiceGrpc;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Empty;
+import com.google.protobuf.GeneratedMessage;
+
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+public class LogMetricAggregatorTest {
+
+  private static final String PROJECT = "project";
+  private static final String LOG_NAME = "my-log";
+  private static final MetricInfo ERRORS_METRIC = MetricInfo.of("errors", "severity>=ERROR");
+  private static final MetricInfo LOG_METRIC =
+      MetricInfo.of("my-log", "logName=projects/project/logs/my-log");
+  private static final LogEntry INFO_ENTRY = LogEntry.builder(StringPayload.of("info"))
+      .severity(Severity.INFO)
+      .build();
+  private static final LogEntry ERROR_ENTRY = LogEntry.builder(StringPayload.of("error"))
+      .severity(Severity.ERROR)
+      .build();
+  private static final LogEntry OTHER_LOG_ENTRY = LogEntry.builder(StringPayload.of("other"))
+      .logName("other-log")
+      .severity(Severity.INFO)
+      .build();
+
+  private static MockMetricService metricService;
+  private static MockServiceHelper serviceHelper;
+  private MetricServiceApi metricServiceApi;
+  private LogMetricAggregator aggregator;
+
+  private static final class MockMetricServiceImpl implements MetricServiceGrpc.MetricService {
+
+    private final List<GeneratedMessage> requests =
+        Collections.synchronizedList(new ArrayList<GeneratedMessage>());
+
+    private static void unimplemented(StreamObserver<?> responseObserver) {
+      responseObserver.onError(Status.UNIMPLEMENTED.asRuntimeException());
+    }
+
+    @Override
+    public void listMonitoredResourceDescriptors(ListMonitoredResourceDescriptorsRequest request,
+        StreamObserver<ListMonitoredResourceDescriptorsResponse> responseObserver) {
+      unimplemented(responseObserver);
+    }
+
+    @Override
+    public void getMonitoredResourceDescriptor(GetMonitoredResourceDescriptorRequest request,
+        StreamObserver<com.google.api.MonitoredResourceDescriptor> responseObserver) {
+      unimplemented(responseObserver);
+    }
+
+    @Override
+    public void listMetricDescriptors(ListMetricDescriptorsRequest request,
+        StreamObserver<ListMetricDescriptorsResponse> responseObserver) {
+      unimplemented(responseObserver);
+    }
+
+    @Override
+    public void getMetricDescriptor(GetMetricDescriptorRequest request,
+        StreamObserver<com.google.api.MetricDescriptor> responseObserver) {
+      unimplemented(responseObserver);
+    }
+
+    @Override
+    public void createMetricDescriptor(CreateMetricDescriptorRequest request,
+        StreamObserver<com.google.api.MetricDescriptor> responseObserver) {
+      unimplemented(responseObserver);
+    }
+
+    @Override
+    public void deleteMetricDescriptor(DeleteMetricDescriptorRequest request,
+        StreamObserver<Empty> responseObserver) {
+      unimplemented(responseObserver);
+    }
+
+    @Override
+    public void listTimeSeries(ListTimeSeriesRequest request,
+        StreamObserver<ListTimeSeriesResponse> responseObserver) {
+      unimplemented(responseObserver);
+    }
+
+    @Override
+    public void createTimeSeries(CreateTimeSeriesRequest request,
+        StreamObserver<Empty> responseObserver) {
+      requests.add(request);
+      responseObserver.onNext(Empty.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+  }
+
+  private static final class MockMetricService implements MockGrpcService {
+
+    private MockMetricServiceImpl serviceImpl = new MockMetricServiceImpl();
+
+    @Override
+    public List<GeneratedMessage> getRequests() {
+      return serviceImpl.requests;
+    }
+
+    @Override
+    public void setResponses(List<GeneratedMessage> responses) {
+      // createTimeSeries always responds with an empty message
+    }
+
+    @Override
+    public ServerServiceDefinition getServiceDefinition() {
+      return MetricServiceGrpc.bindService(serviceImpl);
+    }
+
+    @Override
+    public void reset() {
+      serviceImpl.requests.clear();
+    }
+  }
+
+  @BeforeClass
+  public static void startStaticServer() {
+    metricService = new MockMetricService();
+    serviceHelper = new MockServiceHelper("in-process-metrics", metricService);
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    MetricServiceSettings settings = MetricServiceSettings.defaultBuilder()
+        .provideChannelWith(serviceHelper.createChannel(), true)
+        .build();
+    metricServiceApi = MetricServiceApi.create(settings);
+    aggregator = LogMetricAggregator.builder(
+            LoggingOptions.builder().projectId(PROJECT).build(), metricServiceApi)
+        .addMetric(ERRORS_METRIC)
+        .addMetric(LOG_METRIC)
+        .flushInterval(1, TimeUnit.HOURS)
+        .build();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    aggregator.close();
+    metricServiceApi.close();
+  }
+
+  private static CreateTimeSeriesRequest request(int index) {
+    return (CreateTimeSeriesRequest) metricService.getRequests().get(index);
+  }
+
+  @Test
+  public void testRecord() {
+    assertEquals(2, aggregator.record(ImmutableList.of(INFO_ENTRY, ERROR_ENTRY, OTHER_LOG_ENTRY),
+        WriteOption.logName(LOG_NAME)));
+    assertTrue(aggregator.record(ERROR_ENTRY.toBuilder().logName("other-log").build()));
+    assertFalse(aggregator.record(INFO_ENTRY));
+    assertEquals(2, aggregator.count("errors"));
+    assertEquals(2, aggregator.count("my-log"));
+    assertEquals(-1, aggregator.count("missing"));
+  }
+
+  @Test
+  public void testFlush() {
+    aggregator.record(ImmutableList.of(INFO_ENTRY, ERROR_ENTRY), WriteOption.logName(LOG_NAME));
+    aggregator.flush();
+    assertEquals(1, metricService.getRequests().size());
+    CreateTimeSeriesRequest request = request(0);
+    assertEquals(MetricServiceApi.formatProjectName(PROJECT), request.getName());
+    assertEquals(2, request.getTimeSeriesCount());
+    TimeSeries errors = request.getTimeSeries(0);
+    assertEquals("custom.googleapis.com/logging/errors", errors.getMetric().getType());
+    assertEquals(MonitoredResource.of("global", ImmutableMap.of("project_id", PROJECT)).toPb(),
+        errors.getResource());
+    assertEquals(MetricKind.CUMULATIVE, errors.getMetricKind());
+    assertEquals(ValueType.INT64, errors.getValueType());
+    assertEquals(1, errors.getPoints(0).getValue().getInt64Value());
+    TimeSeries logEntries = request.getTimeSeries(1);
+    assertEquals("custom.googleapis.com/logging/my-log", logEntries.getMetric().getType());
+    assertEquals(2, logEntries.getPoints(0).getValue().getInt64Value());
+    // unchanged counts are not written again
+    aggregator.flush();
+    assertEquals(1, metricService.getRequests().size());
+    aggregator.record(ERROR_ENTRY);
+    aggregator.close();
+    assertEquals(2, metricService.getRequests().size());
+    request = request(1);
+    assertEquals(1, request.getTimeSeriesCount());
+    assertEquals(2, request.getTimeSeries(0).getPoints(0).getValue().getInt64Value());
+    assertEquals(errors.getPoints(0).getInterval().getStartTime(),
+        request.getTimeSeries(0).getPoints(0).getInterval().getStartTime());
+  }
+
+  @Test
+  public void testInstancesWriteDistinctTimeSeries() {
+    LogMetricAggregator other = LogMetricAggregator.builder(
+            LoggingOptions.builder().projectId(PROJECT).build(), metricServiceApi)
+        .addMetric(ERRORS_METRIC)
+        .flushInterval(1, TimeUnit.HOURS)
+        .build();
+    LogMetricAggregator named = LogMetricAggregator.builder(
+            LoggingOptions.builder().projectId(PROJECT).build(), metricServiceApi)
+        .addMetric(ERRORS_METRIC)
+        .flushInterval(1, TimeUnit.HOURS)
+        .instanceId("replica-1")
+        .build();
+    try {
+      aggregator.record(ERROR_ENTRY);
+      other.record(ERROR_ENTRY);
+      named.record(ERROR_ENTRY);
+      aggregator.flush();
+      other.flush();
+      named.flush();
+      assertEquals(3, metricService.getRequests().size());
+      com.google.api.Metric metric = request(0).getTimeSeries(0).getMetric();
+      com.google.api.Metric otherMetric = request(1).getTimeSeries(0).getMetric();
+      com.google.api.Metric namedMetric = request(2).getTimeSeries(0).getMetric();
+      assertEquals(metric.getType(), otherMetric.getType());
+      assertEquals(aggregator.instanceId(),
+          metric.getLabels().get(LogMetricAggregator.INSTANCE_ID_LABEL));
+      assertEquals(other.instanceId(),
+          otherMetric.getLabels().get(LogMetricAggregator.INSTANCE_ID_LABEL));
+      assertNotEquals(metric, otherMetric);
+      assertEquals("replica-1", named.instanceId());
+      assertEquals("replica-1", namedMetric.getLabels().get(LogMetricAggregator.INSTANCE_ID_LABEL));
+    } finally {
+      other.close();
+      named.close();
+    }
+  }
+
+  @Test
+  public void testLoggingHandler() {
+    LoggingOptions options = EasyMock.createStrictMock(LoggingOptions.class);
+    Logging logging = EasyMock.createStrictMock(Logging.class);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    MonitoredResource resource =
+        MonitoredResource.of("global", ImmutableMap.of("project_id", PROJECT));
+    logging.write(ImmutableList.of(LogEntry.builder(StringPayload.of("info"))
+        .severity(Severity.INFO)
+        .addLabel("levelName", "INFO")
+        .addLabel("levelValue", String.valueOf(Level.INFO.intValue()))
+        .build()), WriteOption.logName("java.log"), WriteOption.resource(resource));
+    EasyMock.expectLastCall();
+    EasyMock.replay(options, logging);
+    LoggingHandler handler = new LoggingHandler("java.log", options);
+    handler.setFormatter(new Formatter() {
+      @Override
+      public String format(LogRecord record) {
+        return record.getMessage();
+      }
+    });
+    handler.setMetricAggregator(aggregator);
+    handler.setAggregatedSampleRate(0);
+    handler.publish(new LogRecord(Level.SEVERE, "error"));
+    handler.publish(new LogRecord(Level.INFO, "info"));
+    assertEquals(1, aggregator.count("errors"));
+    EasyMock.verify(options, logging);
+  }
+}
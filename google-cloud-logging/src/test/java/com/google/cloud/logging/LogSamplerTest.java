@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.logging.LogSampler.Suppressed;
+import com.google.common.base.Ticker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+public class LogSamplerTest {
+
+  private static final String MESSAGE = "message";
+
+  private FakeTicker ticker;
+  private LogSampler sampler;
+
+  private static final class FakeTicker extends Ticker {
+
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long duration, TimeUnit unit) {
+      nanos += unit.toNanos(duration);
+    }
+  }
+
+  private static LogRecord record(Level level, String message) {
+    LogRecord record = new LogRecord(level, message);
+    record.setLoggerName("logger");
+    return record;
+  }
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+    sampler = new LogSampler(ticker);
+  }
+
+  @Test
+  public void testDefaults() {
+    for (int i = 0; i < 100; i++) {
+      assertTrue(sampler.admit(record(Level.INFO, MESSAGE)));
+    }
+    assertTrue(sampler.suppressed(true).isEmpty());
+    assertEquals(0, sampler.droppedRecords());
+  }
+
+  @Test
+  public void testSampleRate() {
+    sampler.sampleRate(0);
+    assertFalse(sampler.admit(record(Level.INFO, MESSAGE)));
+    assertFalse(sampler.admit(record(Level.WARNING, MESSAGE)));
+    // records with a level higher than the sample level are not sampled
+    assertTrue(sampler.admit(record(Level.SEVERE, MESSAGE)));
+    sampler.sampleLevel(Level.INFO);
+    assertTrue(sampler.admit(record(Level.WARNING, MESSAGE)));
+    assertEquals(2, sampler.droppedRecords());
+  }
+
+  @Test
+  public void testRateLimit() {
+    sampler.rateLimit(2);
+    assertTrue(sampler.admit(record(Level.INFO, MESSAGE)));
+    assertTrue(sampler.admit(record(Level.INFO, MESSAGE)));
+    assertFalse(sampler.admit(record(Level.INFO, MESSAGE)));
+    // each logger and level has its own limit
+    assertTrue(sampler.admit(record(Level.WARNING, MESSAGE)));
+    assertTrue(sampler.admit(record(Level.SEVERE, MESSAGE)));
+    ticker.advance(500, TimeUnit.MILLISECONDS);
+    assertTrue(sampler.admit(record(Level.INFO, MESSAGE)));
+    assertFalse(sampler.admit(record(Level.INFO, MESSAGE)));
+    assertEquals(2, sampler.droppedRecords());
+  }
+
+  @Test
+  public void testDuplicateWindow() {
+    sampler.duplicateWindowMillis(1000);
+    assertTrue(sampler.admit(record(Level.WARNING, MESSAGE)));
+    assertFalse(sampler.admit(record(Level.WARNING, MESSAGE)));
+    assertTrue(sampler.admit(record(Level.SEVERE, MESSAGE)));
+    assertTrue(sampler.admit(record(Level.WARNING, "other")));
+    LogRecord last = record(Level.WARNING, MESSAGE);
+    assertFalse(sampler.admit(last));
+    assertTrue(sampler.suppressed(false).isEmpty());
+    ticker.advance(1, TimeUnit.SECONDS);
+    List<Suppressed> suppressed = sampler.suppressed(false);
+    assertEquals(1, suppressed.size());
+    assertSame(last, suppressed.get(0).record());
+    assertEquals(2, suppressed.get(0).count());
+    // the window has ended, the next record starts a new one
+    assertTrue(sampler.admit(record(Level.WARNING, MESSAGE)));
+    assertFalse(sampler.admit(record(Level.WARNING, MESSAGE)));
+    suppressed = sampler.suppressed(true);
+    assertEquals(1, suppressed.size());
+    assertEquals(1, suppressed.get(0).count());
+    assertEquals(0, sampler.droppedRecords());
+  }
+
+  @Test
+  public void testDuplicateWindowEndedByRecord() {
+    sampler.duplicateWindowMillis(1000);
+    assertTrue(sampler.admit(record(Level.WARNING, MESSAGE)));
+    assertFalse(sampler.admit(record(Level.WARNING, MESSAGE)));
+    ticker.advance(2, TimeUnit.SECONDS);
+    assertTrue(sampler.admit(record(Level.WARNING, MESSAGE)));
+    List<Suppressed> suppressed = sampler.suppressed(false);
+    assertEquals(1, suppressed.size());
+    assertEquals(1, suppressed.get(0).count());
+  }
+
+  @Test
+  public void testDuplicateParameters() {
+    sampler.duplicateWindowMillis(1000);
+    LogRecord first = record(Level.INFO, "value {0}");
+    first.setParameters(new Object[] {1});
+    LogRecord second = record(Level.INFO, "value {0}");
+    second.setParameters(new Object[] {2});
+    LogRecord third = record(Level.INFO, "value {0}");
+    third.setParameters(new Object[] {1});
+    assertTrue(sampler.admit(first));
+    assertTrue(sampler.admit(second));
+    assertFalse(sampler.admit(third));
+  }
+}
@@ -32,6 +32,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.concurrent.TimeUnit;
 import java.util.logging.ErrorManager;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
@@ -296,6 +297,51 @@ public class LoggingHandlerTest {
     handler.publish(new LogRecord(Level.WARNING, MESSAGE));
   }
 
+  @Test
+  public void testDuplicateSuppression() throws Exception {
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    logging.write(ImmutableList.of(WARNING_ENTRY), WriteOption.logName(LOG_NAME),
+        WriteOption.resource(DEFAULT_RESOURCE));
+    EasyMock.expectLastCall();
+    logging.write(ImmutableList.of(INFO_ENTRY), WriteOption.logName(LOG_NAME),
+        WriteOption.resource(DEFAULT_RESOURCE));
+    EasyMock.expectLastCall();
+    logging.write(ImmutableList.of(WARNING_ENTRY.toBuilder().addLabel("occurrences", "2").build()),
+        WriteOption.logName(LOG_NAME), WriteOption.resource(DEFAULT_RESOURCE));
+    EasyMock.expectLastCall();
+    logging.close();
+    EasyMock.expectLastCall();
+    EasyMock.replay(options, logging);
+    LoggingHandler handler = new LoggingHandler(LOG_NAME, options);
+    handler.setLevel(Level.ALL);
+    handler.setDuplicateWindowMillis(TimeUnit.HOURS.toMillis(1));
+    handler.setFormatter(new TestFormatter());
+    handler.publish(new LogRecord(Level.WARNING, MESSAGE));
+    handler.publish(new LogRecord(Level.WARNING, MESSAGE));
+    handler.publish(new LogRecord(Level.INFO, MESSAGE));
+    handler.publish(new LogRecord(Level.WARNING, MESSAGE));
+    handler.close();
+  }
+
+  @Test
+  public void testSampleRate() {
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.service()).andReturn(logging);
+    logging.write(ImmutableList.of(SEVERE_ENTRY), WriteOption.logName(LOG_NAME),
+        WriteOption.resource(DEFAULT_RESOURCE));
+    EasyMock.expectLastCall();
+    EasyMock.replay(options, logging);
+    LoggingHandler handler = new LoggingHandler(LOG_NAME, options);
+    handler.setLevel(Level.ALL);
+    handler.setSampleRate(0);
+    handler.setFormatter(new TestFormatter());
+    handler.publish(new LogRecord(Level.INFO, MESSAGE));
+    handler.publish(new LogRecord(Level.WARNING, MESSAGE));
+    handler.publish(new LogRecord(Level.SEVERE, MESSAGE));
+    assertEquals(2, handler.sampledOutRecords());
+  }
+
   @Test
   public void testAddHandler() {
     EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
@@ -19,6 +19,7 @@ package com.google.cloud.logging;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -37,6 +38,7 @@ import com.google.cloud.logging.SinkInfo.Destination;
 import com.google.cloud.logging.spi.LoggingRpc;
 import com.google.cloud.logging.spi.LoggingRpcFactory;
 import com.google.common.base.Function;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
@@ -65,6 +67,8 @@ import com.google.logging.v2.WriteLogEntriesRequest;
 import com.google.logging.v2.WriteLogEntriesResponse;
 import com.google.protobuf.Empty;
 
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Before;
@@ -1205,6 +1209,98 @@ public class LoggingImplTest {
         WriteOption.resource(MONITORED_RESOURCE), WriteOption.labels(labels));
   }
 
+  @Test
+  public void testWriteLogEntriesSplitByCount() {
+    List<LogEntry> entries = Lists.newArrayList();
+    for (int i = 0; i < 2 * LoggingImpl.MAX_WRITE_ENTRIES + 1; i++) {
+      entries.add(i % 2 == 0 ? LOG_ENTRY1 : LOG_ENTRY2);
+    }
+    WriteLogEntriesResponse response = WriteLogEntriesResponse.newBuilder().build();
+    for (List<LogEntry> chunk : Lists.partition(entries, LoggingImpl.MAX_WRITE_ENTRIES)) {
+      WriteLogEntriesRequest request = WriteLogEntriesRequest.newBuilder()
+          .setLogName(LOG_NAME_PB)
+          .addAllEntries(Iterables.transform(chunk, LogEntry.toPbFunction(PROJECT)))
+          .build();
+      EasyMock.expect(loggingRpcMock.write(request)).andReturn(Futures.immediateFuture(response));
+    }
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    logging = options.service();
+    logging.write(entries, WriteOption.logName(LOG_NAME));
+  }
+
+  @Test
+  public void testWriteLogEntriesSplitBySize() throws ExecutionException, InterruptedException {
+    LogEntry largeEntry =
+        LogEntry.of(StringPayload.of(Strings.repeat("x", LoggingImpl.MAX_WRITE_BYTES / 3)));
+    WriteLogEntriesRequest request1 = WriteLogEntriesRequest.newBuilder()
+        .addAllEntries(Iterables.transform(ImmutableList.of(largeEntry, largeEntry),
+            LogEntry.toPbFunction(PROJECT)))
+        .build();
+    WriteLogEntriesRequest request2 = WriteLogEntriesRequest.newBuilder()
+        .addEntries(largeEntry.toPb(PROJECT))
+        .build();
+    WriteLogEntriesResponse response = WriteLogEntriesResponse.newBuilder().build();
+    EasyMock.expect(loggingRpcMock.write(request1)).andReturn(Futures.immediateFuture(response));
+    EasyMock.expect(loggingRpcMock.write(request2)).andReturn(Futures.immediateFuture(response));
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    logging = options.service();
+    logging.writeAsync(ImmutableList.of(largeEntry, largeEntry, largeEntry)).get();
+  }
+
+  @Test
+  public void testWriteLogEntriesAsyncRetry() throws ExecutionException, InterruptedException {
+    options = options.toBuilder()
+        .retryParams(RetryParams.builder()
+            .retryMaxAttempts(3)
+            .initialRetryDelayMillis(1)
+            .maxRetryDelayMillis(1)
+            .build())
+        .build();
+    Capture<WriteLogEntriesRequest> requests = Capture.newInstance(CaptureType.ALL);
+    WriteLogEntriesResponse response = WriteLogEntriesResponse.newBuilder().build();
+    LoggingException unavailable = new LoggingException(14, "unavailable", "UNAVAILABLE", false);
+    EasyMock.expect(loggingRpcMock.write(EasyMock.capture(requests)))
+        .andReturn(Futures.<WriteLogEntriesResponse>immediateFailedFuture(unavailable)).times(2);
+    EasyMock.expect(loggingRpcMock.write(EasyMock.capture(requests)))
+        .andReturn(Futures.immediateFuture(response));
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    logging = options.service();
+    logging.writeAsync(ImmutableList.of(LOG_ENTRY1, LOG_ENTRY2)).get();
+    assertEquals(3, requests.getValues().size());
+    WriteLogEntriesRequest request = requests.getValues().get(0);
+    // entries are given insert ids, so that the service can de-duplicate retried entries
+    String insertId1 = request.getEntries(0).getInsertId();
+    String insertId2 = request.getEntries(1).getInsertId();
+    assertFalse(insertId1.isEmpty());
+    assertFalse(insertId2.isEmpty());
+    assertNotEquals(insertId1, insertId2);
+    assertEquals(LOG_ENTRY1.toPb(PROJECT),
+        request.getEntries(0).toBuilder().clearInsertId().build());
+    assertEquals(LOG_ENTRY2.toPb(PROJECT),
+        request.getEntries(1).toBuilder().clearInsertId().build());
+    assertEquals(request, requests.getValues().get(1));
+    assertEquals(request, requests.getValues().get(2));
+  }
+
+  @Test
+  public void testWriteLogEntriesNonRetryableError() {
+    options = options.toBuilder()
+        .retryParams(RetryParams.builder()
+            .retryMaxAttempts(3)
+            .initialRetryDelayMillis(1)
+            .maxRetryDelayMillis(1)
+            .build())
+        .build();
+    LoggingException invalid = new LoggingException(3, "invalid", "INVALID_ARGUMENT", false);
+    EasyMock.expect(loggingRpcMock.write(EasyMock.<WriteLogEntriesRequest>anyObject()))
+        .andReturn(Futures.<WriteLogEntriesResponse>immediateFailedFuture(invalid));
+    EasyMock.replay(rpcFactoryMock, loggingRpcMock);
+    logging = options.service();
+    thrown.expect(LoggingException.class);
+    thrown.expectMessage("invalid");
+    logging.write(ImmutableList.of(LOG_ENTRY1, LOG_ENTRY2));
+  }
+
   @Test
   public void testListLogEntries() {
     String cursor = "cursor";
@@ -109,6 +109,38 @@ public class PayloadTest {
     assertEquals(JSON_DATA, jsonPayload.dataAsMap());
   }
 
+  @Test
+  public void testJsonPayloadBuilder() {
+    JsonPayload innerPayload = JsonPayload.builder()
+        .putNull("null")
+        .put("number", NUMBER.doubleValue())
+        .put("string", STRING)
+        .put("boolean", BOOLEAN.booleanValue())
+        .put("list", LIST)
+        .build();
+    JsonPayload jsonPayload = JsonPayload.builder()
+        .putNull("null")
+        .put("number", NUMBER.doubleValue())
+        .put("string", STRING)
+        .put("boolean", BOOLEAN.booleanValue())
+        .put("list", LIST)
+        .put("struct", innerPayload)
+        .build();
+    comparePayload(JSON_PAYLOAD, jsonPayload);
+    assertEquals(JSON_DATA, jsonPayload.dataAsMap());
+    jsonPayload = JsonPayload.builder()
+        .put("null", (String) null)
+        .put("number", (Object) NUMBER)
+        .put("string", (Object) STRING)
+        .put("boolean", (Object) BOOLEAN)
+        .put("list", LIST)
+        .put("struct", (Object) INNER_MAP)
+        .put("removed", "value")
+        .remove("removed")
+        .build();
+    comparePayload(JSON_PAYLOAD, jsonPayload);
+  }
+
   @Test
   public void testToAndFromPb() {
     Payload<?> payload = Payload.fromPb(STRING_PAYLOAD.toPb().build());
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class RingBufferTest {
+
+  @Test
+  public void testCapacity() {
+    assertEquals(1, new RingBuffer<String>(1).capacity());
+    assertEquals(8, new RingBuffer<String>(8).capacity());
+    assertEquals(16, new RingBuffer<String>(9).capacity());
+  }
+
+  @Test
+  public void testOfferAndPoll() {
+    RingBuffer<String> buffer = new RingBuffer<>(4);
+    assertTrue(buffer.isEmpty());
+    assertNull(buffer.poll());
+    for (int round = 0; round < 3; round++) {
+      assertTrue(buffer.offer("a"));
+      assertTrue(buffer.offer("b"));
+      assertTrue(buffer.offer("c"));
+      assertTrue(buffer.offer("d"));
+      assertFalse(buffer.offer("e"));
+      assertEquals(4, buffer.size());
+      assertEquals("a", buffer.poll());
+      assertTrue(buffer.offer("e"));
+      assertEquals("b", buffer.poll());
+      assertEquals("c", buffer.poll());
+      assertEquals("d", buffer.poll());
+      assertEquals("e", buffer.poll());
+      assertNull(buffer.poll());
+      assertEquals(0, buffer.size());
+    }
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final int producers = 4;
+    final int elementsPerProducer = 10000;
+    final RingBuffer<Integer> buffer = new RingBuffer<>(64);
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < producers; i++) {
+      final int producer = i;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+          } catch (InterruptedException ex) {
+            return;
+          }
+          for (int j = 0; j < elementsPerProducer; j++) {
+            while (!buffer.offer(producer * elementsPerProducer + j)) {
+              Thread.yield();
+            }
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    startLatch.countDown();
+    int[] last = new int[producers];
+    for (int i = 0; i < producers; i++) {
+      last[i] = -1;
+    }
+    int received = 0;
+    while (received < producers * elementsPerProducer) {
+      Integer element = buffer.poll();
+      if (element == null) {
+        Thread.yield();
+        continue;
+      }
+      int producer = element / elementsPerProducer;
+      int sequence = element % elementsPerProducer;
+      // elements from the same producer are received in order
+      assertEquals(last[producer] + 1, sequence);
+      last[producer] = sequence;
+      received++;
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(buffer.isEmpty());
+  }
+}
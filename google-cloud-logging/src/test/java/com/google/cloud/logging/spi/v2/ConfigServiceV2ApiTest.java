@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.logging.spi.v2;
+
+import com.google.api.gax.grpc.ApiException;
+import com.google.cloud.logging.spi.v2.testing.LocalLoggingHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.logging.v2.ListSinksRequest;
+import com.google.logging.v2.ListSinksResponse;
+import com.google.logging.v2.LogSink;
+
+import io.grpc.Status;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class ConfigServiceV2ApiTest {
+  private static LocalLoggingHelper loggingHelper;
+  private ConfigServiceV2Api configApi;
+
+  @BeforeClass
+  public static void startStaticServer() {
+    loggingHelper = new LocalLoggingHelper("in-process-2");
+    loggingHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    loggingHelper.shutdownNow();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    loggingHelper.reset();
+    ConfigServiceV2Settings settings = ConfigServiceV2Settings.defaultBuilder()
+        .provideChannelWith(loggingHelper.createChannel(), true)
+        .build();
+    configApi = ConfigServiceV2Api.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    configApi.close();
+  }
+
+  private static LogSink sink(String name) {
+    return LogSink.newBuilder().setName(name).setFilter("severity>=ERROR").build();
+  }
+
+  @Test
+  public void testCreateAndGetSink() {
+    String parent = ConfigServiceV2Api.formatParentName("my-project");
+    LogSink sink = sink("my-sink");
+    Assert.assertEquals(sink, configApi.createSink(parent, sink));
+    Assert.assertEquals(sink,
+        configApi.getSink(ConfigServiceV2Api.formatSinkName("my-project", "my-sink")));
+    try {
+      configApi.createSink(parent, sink);
+      Assert.fail();
+    } catch (ApiException ex) {
+      Assert.assertEquals(Status.Code.ALREADY_EXISTS, ex.getStatusCode());
+    }
+  }
+
+  @Test
+  public void testUpdateAndDeleteSink() {
+    String sinkName = ConfigServiceV2Api.formatSinkName("my-project", "my-sink");
+    LogSink sink = sink("my-sink");
+    Assert.assertEquals(sink, configApi.updateSink(sinkName, sink));
+    LogSink updated = sink.toBuilder().setFilter("severity>=WARNING").build();
+    Assert.assertEquals(updated, configApi.updateSink(sinkName, updated));
+    Assert.assertEquals(updated, configApi.getSink(sinkName));
+    configApi.deleteSink(sinkName);
+    try {
+      configApi.getSink(sinkName);
+      Assert.fail();
+    } catch (ApiException ex) {
+      Assert.assertEquals(Status.Code.NOT_FOUND, ex.getStatusCode());
+    }
+  }
+
+  @Test
+  public void testListSinks() {
+    String parent = ConfigServiceV2Api.formatParentName("my-project");
+    LogSink sink1 = sink("sink1");
+    LogSink sink2 = sink("sink2");
+    LogSink sink3 = sink("sink3");
+    configApi.createSink(parent, sink2);
+    configApi.createSink(parent, sink1);
+    configApi.createSink(parent, sink3);
+    configApi.createSink(ConfigServiceV2Api.formatParentName("other-project"), sink("sink4"));
+    Assert.assertEquals(ImmutableList.of(sink1, sink2, sink3),
+        Lists.newArrayList(configApi.listSinks(parent)));
+    ListSinksRequest request = ListSinksRequest.newBuilder()
+        .setParent(parent)
+        .setPageSize(2)
+        .build();
+    ListSinksResponse response = configApi.listSinksCallable().call(request);
+    Assert.assertEquals(ImmutableList.of(sink1, sink2), response.getSinksList());
+    response = configApi.listSinksCallable()
+        .call(request.toBuilder().setPageToken(response.getNextPageToken()).build());
+    Assert.assertEquals(ImmutableList.of(sink3), response.getSinksList());
+    Assert.assertTrue(response.getNextPageToken().isEmpty());
+  }
+}
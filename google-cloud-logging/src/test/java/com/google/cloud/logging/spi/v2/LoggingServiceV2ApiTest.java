@@ -17,8 +17,15 @@ package com.google.cloud.logging.spi.v2;
 import com.google.api.MonitoredResource;
 import com.google.api.gax.core.PageAccessor;
 import com.google.cloud.logging.spi.v2.testing.LocalLoggingHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.ListLogEntriesRequest;
+import com.google.logging.v2.ListLogEntriesResponse;
 import com.google.logging.v2.LogEntry;
+import com.google.protobuf.Timestamp;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -36,6 +43,34 @@ public class LoggingServiceV2ApiTest {
   private static LocalLoggingHelper loggingHelper;
   private LoggingServiceV2Api loggingApi;
 
+  private static LogEntry entry(String logName, int seconds, LogSeverity severity, String label) {
+    return LogEntry.newBuilder()
+        .setLogName(logName)
+        .setTextPayload("entry" + seconds)
+        .setTimestamp(Timestamp.newBuilder().setSeconds(seconds))
+        .setSeverity(severity)
+        .putAllLabels(ImmutableMap.of("key", label))
+        .setInsertId(String.valueOf(seconds))
+        .build();
+  }
+
+  private List<LogEntry> writeEntries() {
+    String logName = LoggingServiceV2Api.formatLogName("my-project", "my-log");
+    MonitoredResource resource = MonitoredResource.newBuilder().build();
+    List<LogEntry> entries = ImmutableList.of(
+        entry(logName, 3, LogSeverity.INFO, "a"),
+        entry(logName, 1, LogSeverity.ERROR, "b"),
+        entry(logName, 2, LogSeverity.WARNING, "a"),
+        entry(logName, 4, LogSeverity.DEBUG, "b"));
+    loggingApi.writeLogEntries(logName, resource, Collections.<String, String>emptyMap(), entries);
+    return entries;
+  }
+
+  private List<LogEntry> list(String filter, String orderBy) {
+    return Lists.newArrayList(
+        loggingApi.listLogEntries(Collections.singletonList("my-project"), filter, orderBy));
+  }
+
   @BeforeClass
   public static void startStaticServer() {
     loggingHelper = new LocalLoggingHelper("in-process-1");
@@ -104,4 +139,48 @@ public class LoggingServiceV2ApiTest {
         loggingApi.listLogEntries(Collections.singletonList("my-project"), "", "");
     Assert.assertTrue(Iterables.isEmpty(gotEntries));
   }
+
+  @Test
+  public void testListLogOrderBy() {
+    List<LogEntry> entries = writeEntries();
+    List<LogEntry> ascending =
+        ImmutableList.of(entries.get(1), entries.get(2), entries.get(0), entries.get(3));
+    Assert.assertEquals(ascending, list("", ""));
+    Assert.assertEquals(ascending, list("", "timestamp asc"));
+    Assert.assertEquals(Lists.reverse(ascending), list("", "timestamp desc"));
+  }
+
+  @Test
+  public void testListLogFilter() {
+    List<LogEntry> entries = writeEntries();
+    String logName = LoggingServiceV2Api.formatLogName("my-project", "my-log");
+    Assert.assertEquals(ImmutableList.of(entries.get(1), entries.get(2)),
+        list("severity>=WARNING", ""));
+    Assert.assertEquals(ImmutableList.of(entries.get(2), entries.get(0)),
+        list("labels.key=\"a\"", ""));
+    Assert.assertEquals(ImmutableList.of(entries.get(0), entries.get(2)),
+        list("logName=\"" + logName + "\" AND timestamp>=\"1970-01-01T00:00:02Z\""
+            + " AND timestamp<=\"1970-01-01T00:00:03Z\"", "timestamp desc"));
+    Assert.assertEquals(ImmutableList.of(entries.get(3)),
+        list("(severity<INFO) AND textPayload:entry", ""));
+    Assert.assertTrue(list("logName=projects/my-project/logs/other-log", "").isEmpty());
+  }
+
+  @Test
+  public void testListLogPaging() {
+    List<LogEntry> entries = writeEntries();
+    ListLogEntriesRequest request = ListLogEntriesRequest.newBuilder()
+        .addProjectIds("my-project")
+        .setOrderBy("timestamp desc")
+        .setPageSize(3)
+        .build();
+    ListLogEntriesResponse response = loggingApi.listLogEntriesCallable().call(request);
+    Assert.assertEquals(ImmutableList.of(entries.get(3), entries.get(0), entries.get(2)),
+        response.getEntriesList());
+    Assert.assertFalse(response.getNextPageToken().isEmpty());
+    response = loggingApi.listLogEntriesCallable()
+        .call(request.toBuilder().setPageToken(response.getNextPageToken()).build());
+    Assert.assertEquals(ImmutableList.of(entries.get(1)), response.getEntriesList());
+    Assert.assertTrue(response.getNextPageToken().isEmpty());
+  }
 }
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.monitoring;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.api.Metric;
+import com.google.api.MetricDescriptor.MetricKind;
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.api.MonitoredResource;
+import com.google.api.gax.grpc.ApiException;
+import com.google.cloud.monitoring.spi.v3.MetricServiceApi;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.protobuf.Timestamp;
+
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes time series points to Stackdriver Monitoring in the background.
+ *
+ * <p>Application threads record points with {@link #record(Metric, MonitoredResource, Point)} or
+ * {@link #record(TimeSeries)}, which never block on the network: points are kept in a concurrent
+ * registry, striped to let threads record points in parallel, with one entry per time series (a
+ * metric and a monitored resource). As Stackdriver
+ * Monitoring accepts at most one point per time series in a request, only the most recent point of
+ * each time series (the one with the latest end time) is kept until it is written. Every flush
+ * interval (defaults to 60 seconds) a background thread writes the registered points, in
+ * {@code CreateTimeSeries} requests of at most 200 time series.
+ *
+ * <p>If a request fails with a retryable error, its points are registered again and written by the
+ * next flush, unless a more recent point was recorded for their time series in the meantime.
+ * Points are dropped after the configured number of attempts (defaults to 3). If a request fails
+ * because some of its points are invalid, the request is split in two halves that are written
+ * separately, so that a bad point only causes its own time series to be dropped. Points of requests
+ * that fail with other errors are dropped. The number of dropped points can be read with
+ * {@link #droppedPoints()}.
+ */
+public final class TimeSeriesWriter implements AutoCloseable {
+
+  private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 60_000;
+  private static final int MAX_SERIES_PER_REQUEST = 200;
+  private static final int DEFAULT_MAX_ATTEMPTS = 3;
+  private static final Set<Status.Code> RETRYABLE_CODES = ImmutableSet.of(Status.Code.UNAVAILABLE,
+      Status.Code.DEADLINE_EXCEEDED, Status.Code.INTERNAL, Status.Code.ABORTED,
+      Status.Code.RESOURCE_EXHAUSTED);
+  private static final Logger logger = Logger.getLogger(TimeSeriesWriter.class.getName());
+
+  private final MetricServiceApi metricService;
+  private final String projectName;
+  private final int maxSeriesPerRequest;
+  private final int maxAttempts;
+  private final ConcurrentMap<SeriesKey, PendingPoint> pending;
+  private final AtomicLong droppedPoints = new AtomicLong();
+  private final ScheduledExecutorService executor;
+  private final boolean ownsExecutor;
+  private final ScheduledFuture<?> flushTask;
+  private final Object flushLock = new Object();
+  private boolean closed;
+
+  /**
+   * Identifies a time series. Protocol buffer messages memoize their hash codes, so keys are cheap
+   * to hash.
+   */
+  private static final class SeriesKey {
+
+    private final Metric metric;
+    private final MonitoredResource resource;
+
+    SeriesKey(Metric metric, MonitoredResource resource) {
+      this.metric = metric;
+      this.resource = resource;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(metric, resource);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof SeriesKey)) {
+        return false;
+      }
+      SeriesKey other = (SeriesKey) obj;
+      return metric.equals(other.metric) && resource.equals(other.resource);
+    }
+  }
+
+  /**
+   * The point to write for a time series.
+   */
+  private static final class PendingPoint {
+
+    private final SeriesKey key;
+    private final MetricKind metricKind;
+    private final ValueType valueType;
+    private final Point point;
+    private final int attempts;
+
+    PendingPoint(SeriesKey key, MetricKind metricKind, ValueType valueType, Point point,
+        int attempts) {
+      this.key = key;
+      this.metricKind = metricKind;
+      this.valueType = valueType;
+      this.point = point;
+      this.attempts = attempts;
+    }
+
+    boolean isNewerThan(PendingPoint other) {
+      Timestamp end = point.getInterval().getEndTime();
+      Timestamp otherEnd = other.point.getInterval().getEndTime();
+      return end.getSeconds() != otherEnd.getSeconds()
+          ? end.getSeconds() > otherEnd.getSeconds() : end.getNanos() > otherEnd.getNanos();
+    }
+
+    PendingPoint nextAttempt() {
+      return new PendingPoint(key, metricKind, valueType, point, attempts + 1);
+    }
+
+    TimeSeries toTimeSeries() {
+      TimeSeries.Builder builder = TimeSeries.newBuilder()
+          .setMetric(key.metric)
+          .setResource(key.resource)
+          .addPoints(point);
+      if (metricKind != null) {
+        builder.setMetricKind(metricKind);
+      }
+      if (valueType != null) {
+        builder.setValueType(valueType);
+      }
+      return builder.build();
+    }
+  }
+
+  /**
+   * A builder for {@code TimeSeriesWriter} objects.
+   */
+  public static final class Builder {
+
+    private final String projectId;
+    private final MetricServiceApi metricService;
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private int maxSeriesPerRequest = MAX_SERIES_PER_REQUEST;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private ScheduledExecutorService executor;
+
+    private Builder(String projectId, MetricServiceApi metricService) {
+      this.projectId = checkNotNull(projectId);
+      this.metricService = checkNotNull(metricService);
+    }
+
+    /**
+     * Sets how often registered points are written. If not set, points are written every 60
+     * seconds.
+     */
+    public Builder flushInterval(long flushInterval, TimeUnit unit) {
+      checkArgument(flushInterval > 0, "Flush interval must be > 0");
+      this.flushIntervalMillis = unit.toMillis(flushInterval);
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of time series in a request. The value must be between 1 and 200,
+     * the limit of the Stackdriver Monitoring service. If not set, 200 is used.
+     */
+    public Builder maxSeriesPerRequest(int maxSeriesPerRequest) {
+      checkArgument(maxSeriesPerRequest > 0 && maxSeriesPerRequest <= MAX_SERIES_PER_REQUEST,
+          "Max series per request must be in [1, %s]", MAX_SERIES_PER_REQUEST);
+      this.maxSeriesPerRequest = maxSeriesPerRequest;
+      return this;
+    }
+
+    /**
+     * Sets the number of times a point is written before it is dropped, if writing it fails with a
+     * retryable error. If not set, 3 is used.
+     */
+    public Builder maxAttempts(int maxAttempts) {
+      checkArgument(maxAttempts > 0, "Max attempts must be > 0");
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    /**
+     * Sets the executor used to write points. The executor is not shut down when the writer is
+     * closed. If not set, the writer uses its own daemon thread.
+     */
+    public Builder executor(ScheduledExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Creates a {@code TimeSeriesWriter} object and starts writing points periodically.
+     */
+    public TimeSeriesWriter build() {
+      return new TimeSeriesWriter(this);
+    }
+  }
+
+  private TimeSeriesWriter(Builder builder) {
+    metricService = builder.metricService;
+    projectName = MetricServiceApi.formatProjectName(builder.projectId);
+    maxSeriesPerRequest = builder.maxSeriesPerRequest;
+    maxAttempts = builder.maxAttempts;
+    pending = new ConcurrentHashMap<>(16, 0.75f, 4 * Runtime.getRuntime().availableProcessors());
+    ownsExecutor = builder.executor == null;
+    executor = ownsExecutor
+        ? Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("time-series-writer-%d")
+            .build())
+        : builder.executor;
+    flushTask = executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (RuntimeException ex) {
+          logger.log(Level.WARNING, "Failed to write time series", ex);
+        }
+      }
+    }, builder.flushIntervalMillis, builder.flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns a builder for {@code TimeSeriesWriter} objects.
+   *
+   * @param projectId the project to which time series are written
+   * @param metricService the client used to write time series
+   */
+  public static Builder builder(String projectId, MetricServiceApi metricService) {
+    return new Builder(projectId, metricService);
+  }
+
+  /**
+   * Records a point of the time series identified by the provided metric and monitored resource.
+   * The point replaces the point registered for the time series, if any, unless that point is more
+   * recent. The metric kind and value type are left to the service.
+   */
+  public void record(Metric metric, MonitoredResource resource, Point point) {
+    record(new PendingPoint(new SeriesKey(checkNotNull(metric), checkNotNull(resource)), null, null,
+        checkNotNull(point), 0));
+  }
+
+  /**
+   * Records the most recent point of the provided time series, along with its metric kind and
+   * value type, as {@link #record(Metric, MonitoredResource, Point)} does.
+   *
+   * @throws IllegalArgumentException if the time series has no points
+   */
+  public void record(TimeSeries timeSeries) {
+    checkArgument(timeSeries.getPointsCount() > 0, "Time series must have at least one point");
+    SeriesKey key = new SeriesKey(timeSeries.getMetric(), timeSeries.getResource());
+    PendingPoint latest = null;
+    for (Point point : timeSeries.getPointsList()) {
+      PendingPoint pendingPoint = new PendingPoint(key, timeSeries.getMetricKind(),
+          timeSeries.getValueType(), point, 0);
+      if (latest == null || pendingPoint.isNewerThan(latest)) {
+        latest = pendingPoint;
+      }
+    }
+    record(latest);
+  }
+
+  private void record(PendingPoint point) {
+    while (true) {
+      PendingPoint current = pending.putIfAbsent(point.key, point);
+      if (current == null
+          || current.isNewerThan(point)
+          || pending.replace(point.key, current, point)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of registered points that have not been written yet.
+   */
+  public int pendingPoints() {
+    return pending.size();
+  }
+
+  /**
+   * Returns the number of points that were dropped because they could not be written.
+   */
+  public long droppedPoints() {
+    return droppedPoints.get();
+  }
+
+  /**
+   * Writes the registered points on the calling thread.
+   */
+  public void flush() {
+    synchronized (flushLock) {
+      List<PendingPoint> points = new ArrayList<>(pending.size());
+      for (Map.Entry<SeriesKey, PendingPoint> entry : pending.entrySet()) {
+        if (pending.remove(entry.getKey(), entry.getValue())) {
+          points.add(entry.getValue());
+        }
+      }
+      for (List<PendingPoint> batch : Lists.partition(points, maxSeriesPerRequest)) {
+        write(batch);
+      }
+    }
+  }
+
+  private void write(List<PendingPoint> batch) {
+    CreateTimeSeriesRequest.Builder request = CreateTimeSeriesRequest.newBuilder()
+        .setName(projectName);
+    for (PendingPoint point : batch) {
+      request.addTimeSeries(point.toTimeSeries());
+    }
+    try {
+      metricService.createTimeSeries(request.build());
+    } catch (ApiException ex) {
+      if (RETRYABLE_CODES.contains(ex.getStatusCode())) {
+        retry(batch);
+      } else if (ex.getStatusCode() == Status.Code.INVALID_ARGUMENT && batch.size() > 1) {
+        // isolate the points that the service rejects
+        int half = batch.size() / 2;
+        write(batch.subList(0, half));
+        write(batch.subList(half, batch.size()));
+      } else {
+        droppedPoints.addAndGet(batch.size());
+        logger.log(Level.FINE, "Dropped time series points rejected by the service", ex);
+      }
+    } catch (RuntimeException ex) {
+      retry(batch);
+    }
+  }
+
+  private void retry(List<PendingPoint> batch) {
+    for (PendingPoint point : batch) {
+      if (point.attempts + 1 >= maxAttempts) {
+        droppedPoints.incrementAndGet();
+      } else {
+        // a point recorded since the failed write is more recent and replaces the failed one
+        pending.putIfAbsent(point.key, point.nextAttempt());
+      }
+    }
+  }
+
+  /**
+   * Stops writing points periodically and writes the registered points. If the writer uses its own
+   * thread, the thread is stopped. The {@link MetricServiceApi} client is not closed.
+   */
+  @Override
+  public void close() {
+    synchronized (flushLock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    flushTask.cancel(false);
+    try {
+      flush();
+    } finally {
+      if (ownsExecutor) {
+        executor.shutdown();
+      }
+    }
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * High-level clients to Stackdriver Monitoring, built on the clients in
+ * {@link com.google.cloud.monitoring.spi.v3}.
+ *
+ * <p>{@link com.google.cloud.monitoring.TimeSeriesWriter} writes custom metric points in the
+ * background, in batches:
+ * <pre> {@code
+ * try (MetricServiceApi metricServiceApi = MetricServiceApi.create();
+ *     TimeSeriesWriter writer = TimeSeriesWriter.builder("my-project", metricServiceApi).build()) {
+ *   writer.record(metric, resource, point);
+ * }
+ * }</pre>
+ */
+package com.google.cloud.monitoring;
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.monitoring;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.api.Metric;
+import com.google.api.MetricDescriptor.MetricKind;
+import com.google.api.MetricDescriptor.ValueType;
+import com.google.api.MonitoredResource;
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.cloud.monitoring.spi.v3.MetricServiceApi;
+import com.google.cloud.monitoring.spi.v3.MetricServiceSettings;
+import com.google.cloud.monitoring.spi.v3.MockMetricServiceImpl;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.MetricServiceGrpc;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.Empty;
+import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.Timestamp;
+
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+public class TimeSeriesWriterTest {
+
+  private static final String PROJECT = "project";
+  private static final MonitoredResource RESOURCE = MonitoredResource.newBuilder()
+      .setType("global")
+      .putAllLabels(Collections.singletonMap("project_id", PROJECT))
+      .build();
+
+  private static TestMetricService metricService;
+  private static MockServiceHelper serviceHelper;
+  private MetricServiceApi metricServiceApi;
+  private TimeSeriesWriter writer;
+
+  /**
+   * A metric service that fails requests with queued errors, and requests with time series of a
+   * rejected metric type with {@code INVALID_ARGUMENT}.
+   */
+  private static final class TestMetricServiceImpl extends MockMetricServiceImpl {
+
+    private final List<CreateTimeSeriesRequest> requests =
+        Collections.synchronizedList(new ArrayList<CreateTimeSeriesRequest>());
+    private final Queue<Status> errors = new LinkedList<>();
+    private volatile String rejectedType;
+
+    @Override
+    public synchronized void createTimeSeries(CreateTimeSeriesRequest request,
+        StreamObserver<Empty> responseObserver) {
+      Status error = errors.poll();
+      if (error == null) {
+        for (TimeSeries timeSeries : request.getTimeSeriesList()) {
+          if (timeSeries.getMetric().getType().equals(rejectedType)) {
+            error = Status.INVALID_ARGUMENT;
+          }
+        }
+      }
+      if (error != null) {
+        responseObserver.onError(error.asRuntimeException());
+        return;
+      }
+      requests.add(request);
+      responseObserver.onNext(Empty.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+  }
+
+  private static final class TestMetricService implements MockGrpcService {
+
+    private final TestMetricServiceImpl serviceImpl = new TestMetricServiceImpl();
+
+    @Override
+    public List<GeneratedMessage> getRequests() {
+      return ImmutableList.<GeneratedMessage>copyOf(serviceImpl.requests);
+    }
+
+    @Override
+    public void setResponses(List<GeneratedMessage> responses) {
+      // successful requests always respond with an empty message
+    }
+
+    @Override
+    public ServerServiceDefinition getServiceDefinition() {
+      return MetricServiceGrpc.bindService(serviceImpl);
+    }
+
+    @Override
+    public void reset() {
+      serviceImpl.requests.clear();
+      serviceImpl.errors.clear();
+      serviceImpl.rejectedType = null;
+    }
+  }
+
+  private static Metric metric(String name) {
+    return Metric.newBuilder().setType("custom.googleapis.com/" + name).build();
+  }
+
+  private static Point point(long seconds, long value) {
+    return Point.newBuilder()
+        .setInterval(TimeInterval.newBuilder()
+            .setEndTime(Timestamp.newBuilder().setSeconds(seconds)))
+        .setValue(TypedValue.newBuilder().setInt64Value(value))
+        .build();
+  }
+
+  private static TimeSeries timeSeries(Metric metric, Point point) {
+    return TimeSeries.newBuilder()
+        .setMetric(metric)
+        .setResource(RESOURCE)
+        .addPoints(point)
+        .build();
+  }
+
+  private static CreateTimeSeriesRequest request(int index) {
+    return (CreateTimeSeriesRequest) metricService.getRequests().get(index);
+  }
+
+  @BeforeClass
+  public static void startStaticServer() {
+    metricService = new TestMetricService();
+    serviceHelper = new MockServiceHelper("in-process-writer", metricService);
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    MetricServiceSettings settings = MetricServiceSettings.defaultBuilder()
+        .provideChannelWith(serviceHelper.createChannel(), true)
+        .build();
+    metricServiceApi = MetricServiceApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    writer.close();
+    metricServiceApi.close();
+  }
+
+  private TimeSeriesWriter.Builder writerBuilder() {
+    return TimeSeriesWriter.builder(PROJECT, metricServiceApi).flushInterval(1, TimeUnit.HOURS);
+  }
+
+  @Test
+  public void testFlushLatestPoints() {
+    writer = writerBuilder().build();
+    writer.record(metric("a"), RESOURCE, point(1, 1));
+    writer.record(metric("a"), RESOURCE, point(2, 2));
+    writer.record(metric("b"), RESOURCE, point(2, 2));
+    // older points do not replace more recent ones
+    writer.record(metric("b"), RESOURCE, point(1, 1));
+    TimeSeries cumulative = TimeSeries.newBuilder(timeSeries(metric("c"), point(3, 3)))
+        .addPoints(point(1, 1))
+        .setMetricKind(MetricKind.CUMULATIVE)
+        .setValueType(ValueType.INT64)
+        .build();
+    writer.record(cumulative);
+    assertEquals(3, writer.pendingPoints());
+    writer.flush();
+    assertEquals(0, writer.pendingPoints());
+    assertEquals(1, metricService.getRequests().size());
+    CreateTimeSeriesRequest request = request(0);
+    assertEquals(MetricServiceApi.formatProjectName(PROJECT), request.getName());
+    List<TimeSeries> expected = ImmutableList.of(timeSeries(metric("a"), point(2, 2)),
+        timeSeries(metric("b"), point(2, 2)),
+        cumulative.toBuilder().clearPoints().addPoints(point(3, 3)).build());
+    assertEquals(expected.size(), request.getTimeSeriesCount());
+    assertEquals(ImmutableSet.copyOf(expected), ImmutableSet.copyOf(request.getTimeSeriesList()));
+    writer.flush();
+    assertEquals(1, metricService.getRequests().size());
+  }
+
+  @Test
+  public void testMaxSeriesPerRequest() {
+    writer = writerBuilder().maxSeriesPerRequest(2).build();
+    for (int i = 0; i < 5; i++) {
+      writer.record(metric("metric" + i), RESOURCE, point(1, i));
+    }
+    writer.flush();
+    assertEquals(3, metricService.getRequests().size());
+    assertEquals(2, request(0).getTimeSeriesCount());
+    assertEquals(2, request(1).getTimeSeriesCount());
+    assertEquals(1, request(2).getTimeSeriesCount());
+    assertEquals(0, writer.droppedPoints());
+  }
+
+  @Test
+  public void testRetryableFailure() {
+    writer = writerBuilder().maxAttempts(2).build();
+    metricService.serviceImpl.errors.add(Status.UNAVAILABLE);
+    writer.record(metric("a"), RESOURCE, point(1, 1));
+    writer.flush();
+    assertEquals(0, metricService.getRequests().size());
+    assertEquals(1, writer.pendingPoints());
+    // a point recorded after the failure replaces the failed one
+    writer.record(metric("a"), RESOURCE, point(2, 2));
+    writer.flush();
+    assertEquals(1, metricService.getRequests().size());
+    assertEquals(timeSeries(metric("a"), point(2, 2)), request(0).getTimeSeries(0));
+    assertEquals(0, writer.pendingPoints());
+    assertEquals(0, writer.droppedPoints());
+  }
+
+  @Test
+  public void testRetryableFailureMaxAttempts() {
+    writer = writerBuilder().maxAttempts(2).build();
+    metricService.serviceImpl.errors.add(Status.UNAVAILABLE);
+    metricService.serviceImpl.errors.add(Status.DEADLINE_EXCEEDED);
+    writer.record(metric("a"), RESOURCE, point(1, 1));
+    writer.flush();
+    assertEquals(1, writer.pendingPoints());
+    writer.flush();
+    assertEquals(0, writer.pendingPoints());
+    assertEquals(1, writer.droppedPoints());
+    assertEquals(0, metricService.getRequests().size());
+  }
+
+  @Test
+  public void testRejectedPointIsolated() {
+    writer = writerBuilder().build();
+    metricService.serviceImpl.rejectedType = metric("bad").getType();
+    writer.record(metric("a"), RESOURCE, point(1, 1));
+    writer.record(metric("bad"), RESOURCE, point(1, 1));
+    writer.record(metric("b"), RESOURCE, point(1, 1));
+    writer.record(metric("c"), RESOURCE, point(1, 1));
+    writer.flush();
+    assertEquals(1, writer.droppedPoints());
+    assertEquals(0, writer.pendingPoints());
+    int written = 0;
+    for (int i = 0; i < metricService.getRequests().size(); i++) {
+      written += request(i).getTimeSeriesCount();
+    }
+    assertEquals(3, written);
+  }
+
+  @Test
+  public void testCloseFlushes() throws Exception {
+    writer = writerBuilder().build();
+    writer.record(metric("a"), RESOURCE, point(1, 1));
+    writer.close();
+    assertEquals(1, metricService.getRequests().size());
+    assertEquals(0, writer.pendingPoints());
+  }
+}
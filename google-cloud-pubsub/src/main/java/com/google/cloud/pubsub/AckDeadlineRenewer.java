@@ -18,44 +18,68 @@ package com.google.cloud.pubsub;
 
 import com.google.cloud.Clock;
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimaps;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Class for an automatic ack deadline renewer. An ack deadline renewer automatically renews the
  * acknowledge deadline of messages added to it (via {@link #add(String, String)} or
  * {@link #add(String, Iterable)}. The acknowledge deadlines of added messages are renewed until the
- * messages are explicitly removed using {@link #remove(String, String)}.
+ * messages are explicitly removed using {@link #remove(String, String)}. Renewal requests are sent
+ * through an {@link AckDispatcher}.
+ *
+ * <p>Messages are tracked in a hashed timing wheel: every {@code TICK_MILLIS} the renewer renews
+ * the messages whose deadline expires in the following {@code RENEW_THRESHOLD_MILLIS}, grouping
+ * renewals by subscription. Adding and removing messages does not take any lock shared with the
+ * renewer: added messages are handed over to the renewer through a concurrent queue and removed
+ * messages are only marked as such. Acknowledge deadlines are extended by the 99th percentile of
+ * the observed processing times (the time between a message being added and removed), bounded by
+ * the minimum and maximum acknowledge deadlines accepted by the service.
  */
 class AckDeadlineRenewer implements AutoCloseable {
 
   private static final int MIN_DEADLINE_MILLIS = 10_000;
+  private static final int MAX_DEADLINE_MILLIS = 600_000;
   private static final int DEADLINE_SLACK_MILLIS = 1_000;
-  private static final int RENEW_THRESHOLD_MILLIS = 3_000;
   private static final int NEXT_RENEWAL_THRESHOLD_MILLIS = 1_000;
+  private static final long TICK_MILLIS = 1_000;
+  // Messages whose deadline expires in the following RENEW_THRESHOLD_MILLIS are renewed together
+  private static final int RENEW_THRESHOLD_TICKS = 2;
+  private static final int WHEEL_SIZE = 512;
+  private static final double EXTENSION_PERCENTILE = 99;
 
-  private final PubSub pubsub;
+  private final AckDispatcher ackDispatcher;
   private final ScheduledExecutorService executor;
   private final ExecutorFactory<ScheduledExecutorService> executorFactory;
   private final Clock clock;
-  private final Queue<Message> messageQueue;
-  private final Map<MessageId, Long> messageDeadlines;
-  private final Object lock = new Object();
+  private final long startMillis;
+  private final ConcurrentMap<MessageId, Lease> leases = new ConcurrentHashMap<>();
+  private final Queue<Lease> addedLeases = new ConcurrentLinkedQueue<>();
+  private final Distribution processingTimes = new Distribution(MAX_DEADLINE_MILLIS / 1_000);
+  // the timing wheel, only accessed by the renewal task
+  private final List<List<Lease>> wheel = new ArrayList<>(WHEEL_SIZE);
+  private int wheelLeases;
+  private long processedTick = -1;
   private final Object futureLock = new Object();
-  private Future<?> renewerFuture;
-  private boolean closed;
+  private volatile Future<?> renewerFuture;
+  private volatile boolean closed;
 
   /**
    * This class holds the identity of a message to renew: subscription and acknowledge id.
@@ -106,141 +130,192 @@ class AckDeadlineRenewer implements AutoCloseable {
   }
 
   /**
-   * This class holds the identity of a message to renew and its expected ack deadline.
+   * This class holds the identity of a message to renew, the time it was added to the renewer and
+   * the wheel tick at which its ack deadline must be renewed next. A lease is cancelled when its
+   * message is removed from the renewer, or added again.
    */
-  private static final class Message {
+  private static final class Lease {
 
     private final MessageId messageId;
-    private final Long deadline;
+    private final long addedMillis;
+    private final long renewAtMillis;
+    private long dueTick;
+    private volatile boolean cancelled;
 
-    Message(MessageId messageId, Long deadline) {
+    Lease(MessageId messageId, long addedMillis) {
       this.messageId = messageId;
-      this.deadline = deadline;
+      this.addedMillis = addedMillis;
+      this.renewAtMillis = addedMillis + MIN_DEADLINE_MILLIS - DEADLINE_SLACK_MILLIS
+          - NEXT_RENEWAL_THRESHOLD_MILLIS;
     }
 
-    MessageId messageId() {
-      return messageId;
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("messageId", messageId)
+          .add("addedMillis", addedMillis)
+          .add("dueTick", dueTick)
+          .add("cancelled", cancelled)
+          .toString();
     }
+  }
 
-    Long expectedDeadline() {
-      return deadline;
-    }
+  /**
+   * A distribution of durations, in seconds, used to compute processing time percentiles. Values
+   * are recorded without locking.
+   */
+  static final class Distribution {
 
-    @Override
-    public boolean equals(Object obj) {
-      if (obj == this) {
-        return true;
-      }
-      if (!(obj instanceof Message)) {
-        return false;
-      }
-      Message other = (Message) obj;
-      return Objects.equals(other.messageId, this.messageId)
-          && Objects.equals(other.deadline, this.deadline);
+    private final AtomicLongArray buckets;
+    private final AtomicLong count = new AtomicLong();
+
+    Distribution(int maxSeconds) {
+      buckets = new AtomicLongArray(maxSeconds + 1);
     }
 
-    @Override
-    public int hashCode() {
-      return Objects.hash(messageId, deadline);
+    void record(long millis) {
+      long seconds = (millis + 999) / 1_000;
+      int bucket = (int) Math.max(0, Math.min(seconds, buckets.length() - 1));
+      buckets.incrementAndGet(bucket);
+      count.incrementAndGet();
     }
 
-    @Override
-    public String toString() {
-      return MoreObjects.toStringHelper(this)
-          .add("messageId", messageId)
-          .add("expectedDeadline", deadline)
-          .toString();
+    /**
+     * Returns the provided percentile of the recorded values, in seconds, or {@code 0} if no value
+     * was recorded.
+     */
+    int percentile(double percentile) {
+      long total = count.get();
+      if (total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(total * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < buckets.length(); i++) {
+        seen += buckets.get(i);
+        if (seen >= rank) {
+          return i;
+        }
+      }
+      return buckets.length() - 1;
     }
   }
 
-  AckDeadlineRenewer(PubSub pubsub) {
+  AckDeadlineRenewer(PubSub pubsub, AckDispatcher ackDispatcher) {
     PubSubOptions options = pubsub.options();
-    this.pubsub = pubsub;
+    this.ackDispatcher = ackDispatcher;
     this.executorFactory = options.executorFactory();
     this.executor = executorFactory.get();
     this.clock = options.clock();
-    this.messageQueue = new LinkedList<>();
-    this.messageDeadlines = new HashMap<>();
+    this.startMillis = clock.millis();
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel.add(new ArrayList<Lease>());
+    }
   }
 
-  private void unsetAndScheduleNextRenewal() {
-    synchronized (futureLock) {
-      renewerFuture = null;
-      scheduleNextRenewal();
-    }
+  private long tick(long millis) {
+    return (millis - startMillis) / TICK_MILLIS;
   }
 
-  private void scheduleNextRenewal() {
-    // Schedules next renewal if there are still messages to process and no renewals scheduled that
-    // could handle them, otherwise does nothing
-    Message nextMessage;
-    synchronized (lock) {
-      Message peek = messageQueue.peek();
-      // We remove from the queue messages that were removed from the ack deadline renewer (and
-      // possibly re-added)
-      while (peek != null && (!messageDeadlines.containsKey(peek.messageId())
-          || messageDeadlines.get(peek.messageId()) > peek.expectedDeadline())) {
-        messageQueue.poll();
-        peek = messageQueue.peek();
-      }
-      nextMessage = peek;
-    }
-    synchronized (futureLock) {
-      if (renewerFuture == null && nextMessage != null) {
-        long delay =
-            (nextMessage.expectedDeadline() - clock.millis()) - NEXT_RENEWAL_THRESHOLD_MILLIS;
-        renewerFuture = executor.schedule(new Runnable() {
-          @Override
-          public void run() {
-            renewAckDeadlines();
-          }
-        }, delay, TimeUnit.MILLISECONDS);
+  /**
+   * Returns the ack deadline extension, in milliseconds, that renewals should request.
+   */
+  @VisibleForTesting
+  int extensionMillis() {
+    long millis = processingTimes.percentile(EXTENSION_PERCENTILE) * 1_000L;
+    return (int) Math.max(MIN_DEADLINE_MILLIS, Math.min(millis, MAX_DEADLINE_MILLIS));
+  }
+
+  private void scheduleRenewal() {
+    // Schedules the next activation of the renewal task, unless one is already scheduled
+    if (renewerFuture == null) {
+      synchronized (futureLock) {
+        if (renewerFuture == null && !closed) {
+          renewerFuture = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+              renewAckDeadlines();
+            }
+          }, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
       }
     }
   }
 
+  private void insert(Lease lease) {
+    // leases whose renewal is overdue are renewed at the next tick
+    lease.dueTick = Math.max(lease.dueTick, processedTick + 1);
+    wheel.get((int) (lease.dueTick % WHEEL_SIZE)).add(lease);
+    wheelLeases++;
+  }
+
   private void renewAckDeadlines() {
-    ListMultimap<String, String> messagesToRenewNext = LinkedListMultimap.create();
+    long now = clock.millis();
+    long currentTick = tick(now);
+    if (wheelLeases == 0) {
+      // nothing to renew in the ticks that passed while the wheel was empty
+      processedTick = Math.max(processedTick, currentTick - 1);
+    }
+    Lease added;
+    while ((added = addedLeases.poll()) != null) {
+      if (!added.cancelled) {
+        added.dueTick = tick(added.renewAtMillis);
+        insert(added);
+      }
+    }
     // At every activation we renew all ack deadlines that will expire in the following
-    // RENEW_THRESHOLD_MILLIS
-    long threshold = clock.millis() + RENEW_THRESHOLD_MILLIS;
-    Message message;
-    while ((message = nextMessageToRenew(threshold)) != null) {
-      // If the expected deadline is null the message was removed and we must ignore it, otherwise
-      // we renew its ack deadline
-      if (message.expectedDeadline() != null) {
-        messagesToRenewNext.put(message.messageId().subscription(), message.messageId().ackId());
+    // RENEW_THRESHOLD_TICKS, so that renewals for a subscription are sent together
+    long lastTick = currentTick + RENEW_THRESHOLD_TICKS;
+    long firstTick = Math.max(processedTick + 1, lastTick - WHEEL_SIZE + 1);
+    int extensionMillis = extensionMillis();
+    ListMultimap<String, String> messagesToRenew = LinkedListMultimap.create();
+    List<Lease> renewed = new ArrayList<>();
+    for (long tick = firstTick; tick <= lastTick; tick++) {
+      List<Lease> bucket = wheel.get((int) (tick % WHEEL_SIZE));
+      int kept = 0;
+      for (Lease lease : bucket) {
+        if (lease.cancelled) {
+          wheelLeases--;
+        } else if (lease.dueTick <= lastTick) {
+          messagesToRenew.put(lease.messageId.subscription(), lease.messageId.ackId());
+          renewed.add(lease);
+          wheelLeases--;
+        } else {
+          bucket.set(kept++, lease);
+        }
       }
+      bucket.subList(kept, bucket.size()).clear();
     }
-    for (Map.Entry<String, List<String>> entry : Multimaps.asMap(messagesToRenewNext).entrySet()) {
-      // We send all ack deadline renewals for a subscription
-      pubsub.modifyAckDeadlineAsync(entry.getKey(), MIN_DEADLINE_MILLIS, TimeUnit.MILLISECONDS,
+    processedTick = Math.max(processedTick, currentTick);
+    long nextDueTick = tick(now + extensionMillis - DEADLINE_SLACK_MILLIS
+        - NEXT_RENEWAL_THRESHOLD_MILLIS);
+    for (Lease lease : renewed) {
+      lease.dueTick = nextDueTick;
+      insert(lease);
+    }
+    for (Map.Entry<String, List<String>> entry : Multimaps.asMap(messagesToRenew).entrySet()) {
+      // We send all ack deadline renewals for a subscription, the dispatcher coalesces them with
+      // other renewals to the same deadline
+      ackDispatcher.modifyAckDeadline(entry.getKey(), extensionMillis, TimeUnit.MILLISECONDS,
           entry.getValue());
     }
-    unsetAndScheduleNextRenewal();
+    synchronized (futureLock) {
+      renewerFuture = null;
+      // We check for added leases after unsetting the future, leases added concurrently either see
+      // the unset future and schedule a renewal themselves or are seen here
+      if (!closed && (wheelLeases > 0 || !addedLeases.isEmpty())) {
+        scheduleRenewal();
+      }
+    }
   }
 
-  private Message nextMessageToRenew(long threshold) {
-    synchronized (lock) {
-      Message message = messageQueue.peek();
-      // if the queue is empty or the next expected deadline is after threshold we stop
-      if (message == null || message.expectedDeadline() > threshold) {
-        return null;
-      }
-      MessageId messageId = messageQueue.poll().messageId();
-      // Check if the next expected deadline changed. This can happen if the message was removed
-      // from the ack deadline renewer or if it was nacked and then pulled again
-      Long deadline = messageDeadlines.get(messageId);
-      if (deadline == null || deadline > threshold) {
-        // the message was removed (deadline == null) or removed and then added back
-        // (deadline > threshold), we should not renew its deadline (yet)
-        return new Message(messageId, null);
-      } else {
-        // Message deadline must be renewed, we must submit it again to the renewer
-        add(messageId.subscription(), messageId.ackId());
-        return new Message(messageId, deadline);
-      }
+  private void add(MessageId messageId, long now) {
+    Lease lease = new Lease(messageId, now);
+    Lease previous = leases.put(messageId, lease);
+    if (previous != null) {
+      previous.cancelled = true;
     }
+    addedLeases.add(lease);
   }
 
   /**
@@ -253,13 +328,8 @@ class AckDeadlineRenewer implements AutoCloseable {
    * @param ackId the message's acknowledge id
    */
   void add(String subscription, String ackId) {
-    synchronized (lock) {
-      long deadline = clock.millis() + MIN_DEADLINE_MILLIS - DEADLINE_SLACK_MILLIS;
-      Message message = new Message(new MessageId(subscription, ackId), deadline);
-      messageQueue.add(message);
-      messageDeadlines.put(message.messageId(), deadline);
-    }
-    scheduleNextRenewal();
+    add(new MessageId(subscription, ackId), clock.millis());
+    scheduleRenewal();
   }
 
   /**
@@ -272,28 +342,28 @@ class AckDeadlineRenewer implements AutoCloseable {
    * @param ackIds the acknowledge ids of the messages
    */
   void add(String subscription, Iterable<String> ackIds) {
-    synchronized (lock) {
-      long deadline = clock.millis() + MIN_DEADLINE_MILLIS - DEADLINE_SLACK_MILLIS;
-      for (String ackId : ackIds) {
-        Message message = new Message(new MessageId(subscription, ackId), deadline);
-        messageQueue.add(message);
-        messageDeadlines.put(message.messageId(), deadline);
-      }
+    long now = clock.millis();
+    for (String ackId : ackIds) {
+      add(new MessageId(subscription, ackId), now);
     }
-    scheduleNextRenewal();
+    scheduleRenewal();
   }
 
   /**
    * Removes a message from this {@code AckDeadlineRenewer}. The message is identified by the
    * subscription from which it was pulled and its acknowledge id. Once the message is removed from
-   * this {@code AckDeadlineRenewer}, automated ack deadline renewals will stop.
+   * this {@code AckDeadlineRenewer}, automated ack deadline renewals will stop. The time the
+   * message was held by this {@code AckDeadlineRenewer} is used to adapt the ack deadline
+   * extension of future renewals.
    *
    * @param subscription the subscription from which the message has been pulled
    * @param ackId the message's acknowledge id
    */
   void remove(String subscription, String ackId) {
-    synchronized (lock) {
-      messageDeadlines.remove(new MessageId(subscription, ackId));
+    Lease lease = leases.remove(new MessageId(subscription, ackId));
+    if (lease != null) {
+      lease.cancelled = true;
+      processingTimes.record(clock.millis() - lease.addedMillis);
     }
   }
 
@@ -303,10 +373,11 @@ class AckDeadlineRenewer implements AutoCloseable {
       return;
     }
     closed = true;
-    synchronized (lock) {
-      messageDeadlines.clear();
-      messageQueue.clear();
+    for (Lease lease : leases.values()) {
+      lease.cancelled = true;
     }
+    leases.clear();
+    addedLeases.clear();
     synchronized (futureLock) {
       if (renewerFuture != null) {
         renewerFuture.cancel(true);
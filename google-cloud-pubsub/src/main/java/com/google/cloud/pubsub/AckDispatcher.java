@@ -0,0 +1,353 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class for an acknowledge dispatcher. An acknowledge dispatcher buffers acks, nacks and ack
+ * deadline modifications (via {@link #ack(String, String)}, {@link #nack(String, String)} and
+ * {@link #modifyAckDeadline(String, int, TimeUnit, Iterable)}) and sends the buffered acknowledge
+ * ids of a subscription in a single request once a count, byte size or time threshold is reached.
+ * Buffered requests are sent when {@link #flush(String)}, {@link #flush()} or {@link #close()} is
+ * called.
+ */
+class AckDispatcher implements AutoCloseable {
+
+  // Limits are kept well below the 512KB maximum request size
+  private static final int MAX_ACK_IDS = 2_500;
+  private static final long MAX_BYTES = 400L * 1024;
+  private static final long MAX_DELAY_MILLIS = 100;
+  // Approximate size of the protobuf framing of an ack id in a request
+  private static final int ACK_ID_OVERHEAD_BYTES = 3;
+
+  private final PubSub pubsub;
+  private final ScheduledExecutorService executor;
+  private final ExecutorFactory<ScheduledExecutorService> executorFactory;
+  private final int maxAckIds;
+  private final long maxBytes;
+  private final long maxDelayMillis;
+  private final Map<BufferKey, Buffer> buffers = new LinkedHashMap<>();
+  private final Object lock = new Object();
+  private final List<Future<Void>> inFlight = new LinkedList<>();
+  private Future<?> flushFuture;
+  private int sending;
+  private boolean closed;
+
+  private enum Type {
+    ACK, NACK, MODIFY_ACK_DEADLINE
+  }
+
+  /**
+   * This class identifies a group of acknowledge ids that can be sent in the same request:
+   * subscription, type of request and, for ack deadline modifications, the new deadline.
+   */
+  private static final class BufferKey {
+
+    private final String subscription;
+    private final Type type;
+    private final long deadlineMillis;
+
+    BufferKey(String subscription, Type type, long deadlineMillis) {
+      this.subscription = subscription;
+      this.type = type;
+      this.deadlineMillis = deadlineMillis;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof BufferKey)) {
+        return false;
+      }
+      BufferKey other = (BufferKey) obj;
+      return Objects.equals(other.subscription, this.subscription)
+          && other.type == this.type
+          && other.deadlineMillis == this.deadlineMillis;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(subscription, type, deadlineMillis);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("subscription", subscription)
+          .add("type", type)
+          .add("deadlineMillis", deadlineMillis)
+          .toString();
+    }
+  }
+
+  /**
+   * This class holds the buffered acknowledge ids for a {@link BufferKey}.
+   */
+  private static final class Buffer {
+
+    private final BufferKey key;
+    private final List<String> ackIds = new ArrayList<>();
+    private long bytes;
+
+    Buffer(BufferKey key) {
+      this.key = key;
+    }
+
+    void add(String ackId) {
+      ackIds.add(ackId);
+      bytes += ackId.length() + ACK_ID_OVERHEAD_BYTES;
+    }
+  }
+
+  AckDispatcher(PubSub pubsub, ExecutorFactory<ScheduledExecutorService> executorFactory) {
+    this(pubsub, executorFactory, MAX_ACK_IDS, MAX_BYTES, MAX_DELAY_MILLIS);
+  }
+
+  @VisibleForTesting
+  AckDispatcher(PubSub pubsub, ExecutorFactory<ScheduledExecutorService> executorFactory,
+      int maxAckIds, long maxBytes, long maxDelayMillis) {
+    this.pubsub = pubsub;
+    this.executorFactory = executorFactory;
+    this.executor = executorFactory.get();
+    this.maxAckIds = maxAckIds;
+    this.maxBytes = maxBytes;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  /**
+   * Buffers an acknowledgment for a message pulled from the provided subscription.
+   *
+   * @param subscription the subscription from which the message has been pulled
+   * @param ackId the message's acknowledge id
+   */
+  void ack(String subscription, String ackId) {
+    add(new BufferKey(subscription, Type.ACK, 0), Collections.singletonList(ackId));
+  }
+
+  /**
+   * Buffers a "nack" for a message pulled from the provided subscription. "Nacked" messages will
+   * be available for pulling again once the request is sent.
+   *
+   * @param subscription the subscription from which the message has been pulled
+   * @param ackId the message's acknowledge id
+   */
+  void nack(String subscription, String ackId) {
+    add(new BufferKey(subscription, Type.NACK, 0), Collections.singletonList(ackId));
+  }
+
+  /**
+   * Buffers an acknowledge deadline modification for messages pulled from the provided
+   * subscription. Modifications to the same deadline are sent in the same request.
+   *
+   * @param subscription the subscription from which the messages have been pulled
+   * @param deadline the new deadline, relative to the time the request is sent
+   * @param unit the time unit for {@code deadline}
+   * @param ackIds the acknowledge ids of the messages
+   */
+  void modifyAckDeadline(String subscription, int deadline, TimeUnit unit,
+      Iterable<String> ackIds) {
+    add(new BufferKey(subscription, Type.MODIFY_ACK_DEADLINE, unit.toMillis(deadline)), ackIds);
+  }
+
+  private void add(BufferKey key, Iterable<String> ackIds) {
+    List<Buffer> ready = new LinkedList<>();
+    synchronized (lock) {
+      Buffer current = buffers.get(key);
+      Buffer buffer = current;
+      for (String ackId : ackIds) {
+        if (buffer == null) {
+          buffer = new Buffer(key);
+        }
+        buffer.add(ackId);
+        if (closed || buffer.ackIds.size() >= maxAckIds || buffer.bytes >= maxBytes) {
+          ready.add(buffer);
+          buffer = null;
+        }
+      }
+      if (buffer == null) {
+        buffers.remove(key);
+      } else if (buffer != current) {
+        buffers.put(key, buffer);
+        if (flushFuture == null) {
+          scheduleFlush();
+        }
+      }
+      sending += ready.size();
+    }
+    for (Buffer buffer : ready) {
+      send(buffer);
+    }
+  }
+
+  private void scheduleFlush() {
+    // A single flush is scheduled for all buffers, so that requests are sent in the order their
+    // buffers were created. Buffers are held for at most maxDelayMillis
+    flushFuture = executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        List<Buffer> ready;
+        synchronized (lock) {
+          flushFuture = null;
+          ready = new ArrayList<>(buffers.values());
+          buffers.clear();
+          sending += ready.size();
+        }
+        for (Buffer buffer : ready) {
+          send(buffer);
+        }
+      }
+    }, maxDelayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sends the request for the provided buffer. Callers must increment {@link #sending}, while
+   * holding {@link #lock}, when removing the buffer from {@link #buffers}.
+   */
+  private void send(Buffer buffer) {
+    BufferKey key = buffer.key;
+    List<String> ackIds = ImmutableList.copyOf(buffer.ackIds);
+    Future<Void> future = null;
+    try {
+      switch (key.type) {
+        case ACK:
+          future = pubsub.ackAsync(key.subscription, ackIds);
+          break;
+        case NACK:
+          future = pubsub.nackAsync(key.subscription, ackIds);
+          break;
+        case MODIFY_ACK_DEADLINE:
+          future = pubsub.modifyAckDeadlineAsync(key.subscription, (int) key.deadlineMillis,
+              TimeUnit.MILLISECONDS, ackIds);
+          break;
+        default:
+          throw new IllegalStateException("Unexpected request type " + key.type);
+      }
+    } finally {
+      sent(future);
+    }
+  }
+
+  private void sent(Future<Void> future) {
+    synchronized (lock) {
+      sending--;
+      Iterator<Future<Void>> iterator = inFlight.iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().isDone()) {
+          iterator.remove();
+        }
+      }
+      if (future != null && !future.isDone()) {
+        inFlight.add(future);
+      }
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Sends all buffered requests for the provided subscription.
+   */
+  void flush(String subscription) {
+    List<Buffer> ready = new LinkedList<>();
+    synchronized (lock) {
+      Iterator<Buffer> iterator = buffers.values().iterator();
+      while (iterator.hasNext()) {
+        Buffer buffer = iterator.next();
+        if (buffer.key.subscription.equals(subscription)) {
+          ready.add(buffer);
+          iterator.remove();
+        }
+      }
+      sending += ready.size();
+    }
+    for (Buffer buffer : ready) {
+      send(buffer);
+    }
+  }
+
+  /**
+   * Sends all buffered requests.
+   */
+  void flush() {
+    List<Buffer> ready;
+    synchronized (lock) {
+      ready = new ArrayList<>(buffers.values());
+      buffers.clear();
+      sending += ready.size();
+    }
+    for (Buffer buffer : ready) {
+      send(buffer);
+    }
+  }
+
+  /**
+   * Sends all buffered requests, waits for all sent requests to complete and releases the executor
+   * used to schedule flushes. Requests submitted after this method is called are sent right away.
+   */
+  @Override
+  public void close() throws Exception {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (flushFuture != null) {
+        flushFuture.cancel(false);
+        flushFuture = null;
+      }
+    }
+    flush();
+    try {
+      List<Future<Void>> futures;
+      synchronized (lock) {
+        while (sending > 0) {
+          lock.wait();
+        }
+        futures = new ArrayList<>(inFlight);
+        inFlight.clear();
+      }
+      for (Future<Void> future : futures) {
+        try {
+          Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException ex) {
+          // failed requests are not retried, as for requests sent before close
+        }
+      }
+    } finally {
+      executorFactory.release(executor);
+    }
+  }
+}
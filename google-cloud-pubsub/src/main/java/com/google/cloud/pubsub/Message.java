@@ -24,9 +24,12 @@ import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableMap;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Timestamp;
+import com.google.protobuf.UnsafeByteOperations;
 import com.google.pubsub.v1.PubsubMessage;
 
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -97,6 +100,14 @@ public class Message implements Serializable {
      */
     public abstract Builder payload(ByteArray payload);
 
+    /**
+     * Sets the message payload to the remaining bytes of the provided {@link ByteBuffer}. The
+     * buffer's position is not modified. If the buffer is read-only, the payload wraps the buffer
+     * without copying it: the buffer's content must not be modified afterwards (e.g. via a
+     * writable view of the same memory). Otherwise, the remaining bytes are copied.
+     */
+    public abstract Builder payload(ByteBuffer payload);
+
     /**
      * Sets the message attributes to the provided map. Message attributes are key-value pairs that
      * a publisher can define for a message. For example, a key {@code iana.org/language_tag} and
@@ -162,6 +173,16 @@ public class Message implements Serializable {
       return this;
     }
 
+    @Override
+    public Builder payload(ByteBuffer payload) {
+      if (payload.isReadOnly()) {
+        this.payload = new InternalByteArray(UnsafeByteOperations.unsafeWrap(payload));
+      } else {
+        this.payload = ByteArray.copyFrom(payload.duplicate());
+      }
+      return this;
+    }
+
     @Override
     public Builder addAttribute(String name, String value) {
       attributes.put(name, value);
@@ -246,6 +267,20 @@ public class Message implements Serializable {
     return payload;
   }
 
+  /**
+   * Returns the message payload as a read-only {@link ByteBuffer}. The payload is not copied.
+   */
+  public ByteBuffer payloadAsByteBuffer() {
+    return payload.asReadOnlyByteBuffer();
+  }
+
+  /**
+   * Returns an {@link InputStream} that reads the message payload. The payload is not copied.
+   */
+  public InputStream payloadAsInputStream() {
+    return payload.asInputStream();
+  }
+
   final boolean baseEquals(Message message) {
     return Objects.equals(id, message.id)
         && Objects.equals(payload, message.payload)
@@ -292,8 +327,13 @@ public class Message implements Serializable {
     return builder.build();
   }
 
-  static Message fromPb(PubsubMessage messagePb) {
-    Builder builder = builder(new InternalByteArray(messagePb.getData()));
+  /**
+   * Returns a builder initialized with the content of the provided message. The payload of the
+   * returned builder shares the bytes of {@code messagePb} rather than copying them.
+   */
+  static BuilderImpl builderFromPb(PubsubMessage messagePb) {
+    BuilderImpl builder = new BuilderImpl();
+    builder.payload(new InternalByteArray(messagePb.getData()));
     if (messagePb.hasPublishTime()) {
       Timestamp ts = messagePb.getPublishTime();
       Long millis = ts.getSeconds() * MILLIS_PER_SECOND + ts.getNanos() / NANOS_PER_MILLISECOND;
@@ -304,10 +344,12 @@ public class Message implements Serializable {
     if (!Objects.equals(messagePb.getMessageId(), "")) {
       builder.id(messagePb.getMessageId());
     }
-    for (Map.Entry<String, String> entry : messagePb.getAttributes().entrySet()) {
-      builder.addAttribute(entry.getKey(), entry.getValue());
-    }
-    return builder.build();
+    builder.attributes(messagePb.getAttributes());
+    return builder;
+  }
+
+  static Message fromPb(PubsubMessage messagePb) {
+    return builderFromPb(messagePb).build();
   }
 
   /**
@@ -333,6 +375,15 @@ public class Message implements Serializable {
     return builder(payload).build();
   }
 
+  /**
+   * Creates a {@code Message} object given the payload as a {@link ByteBuffer}. If the buffer is
+   * read-only it is wrapped without copying, see {@link Builder#payload(ByteBuffer)}. To be
+   * published a message must have a non-empty payload.
+   */
+  public static Message of(ByteBuffer payload) {
+    return builder(payload).build();
+  }
+
   /**
    * Creates a builder for {@code Message} objects given the payload as a string. The string is
    * enconded using {@code UTF-8}. To be published a message must have a non-empty payload.
@@ -348,4 +399,13 @@ public class Message implements Serializable {
   public static Builder builder(ByteArray payload) {
     return new BuilderImpl().payload(payload);
   }
+
+  /**
+   * Creates a builder for {@code Message} objects given the payload as a {@link ByteBuffer}. If the
+   * buffer is read-only it is wrapped without copying, see {@link Builder#payload(ByteBuffer)}. To
+   * be published a message must have a non-empty payload, or at least one attribute.
+   */
+  public static Builder builder(ByteBuffer payload) {
+    return new BuilderImpl().payload(payload);
+  }
 }
@@ -30,12 +30,15 @@ import com.google.pubsub.v1.PullResponse;
 
 import io.grpc.internal.SharedResourceHolder;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default implementation for a message consumer.
@@ -43,6 +46,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 final class MessageConsumerImpl implements MessageConsumer {
 
   private static final int MAX_QUEUED_CALLBACKS = 100;
+  private static final long MAX_QUEUED_BYTES = Long.MAX_VALUE;
+  private static final int CONCURRENT_PULLS = 1;
   // shared scheduled executor, used to schedule pulls
   private static final SharedResourceHolder.Resource<ExecutorService> CONSUMER_EXECUTOR =
       new SharedResourceHolder.Resource<ExecutorService>() {
@@ -61,45 +66,67 @@ final class MessageConsumerImpl implements MessageConsumer {
   private final PubSubRpc pubsubRpc;
   private final PubSub pubsub;
   private final AckDeadlineRenewer deadlineRenewer;
+  private final AckDispatcher ackDispatcher;
   private final String subscription;
   private final MessageProcessor messageProcessor;
   private final ExecutorService consumerExecutor;
   private final ExecutorFactory<ExecutorService> executorFactory;
   private final ExecutorService executor;
   private final AtomicInteger queuedCallbacks;
+  private final AtomicLong queuedBytes;
   private final int maxQueuedCallbacks;
+  private final long maxQueuedBytes;
+  private final int maxMessagesPerPull;
   private final Object futureLock = new Object();
-  private final Runnable consumerRunnable;
+  private final List<ConsumerRunnable> consumerRunnables;
   private final NextPullPolicy pullPolicy;
+  private final String orderingAttribute;
+  private final OrderedExecutor orderedExecutor;
   private boolean closed;
-  private Future<?> scheduledFuture;
-  private PullFuture pullerFuture;
+  // the following fields are guarded by futureLock
+  // number of messages and estimated bytes requested by pulls in flight
+  private int reservedCallbacks;
+  private long reservedBytes;
+  // number of messages and bytes received so far, used to estimate the size of pulled messages
+  private long receivedMessages;
+  private long receivedBytes;
+  // number of pull loops held back by flow control, and since when at least one loop was
+  private int throttledPullLoops;
+  private long throttledSinceNanos;
+  private long throttledNanos;
 
   /**
    * Interface for policies according to which the consumer should pull messages.
    */
   interface NextPullPolicy {
 
-    boolean shouldPull(int queuedCallbacks);
+    boolean shouldPull(int queuedCallbacks, long queuedBytes);
   }
 
   /**
    * Default pull policy. The consumer will pull again once {@code nextPullThreshold} messages out
-   * of {@code maxQueuedCallbacks} have been processed.
+   * of {@code maxQueuedCallbacks} have been processed and the queued messages use no more than
+   * {@code maxQueuedBytes - nextPullBytesThreshold} bytes.
    */
   static class DefaultNextPullPolicy implements NextPullPolicy {
 
     final int maxQueuedCallbacks;
     final int nextPullThreshold;
+    final long maxQueuedBytes;
+    final long nextPullBytesThreshold;
 
-    DefaultNextPullPolicy(int maxQueuedCallbacks, int nextPullThreshold) {
+    DefaultNextPullPolicy(int maxQueuedCallbacks, int nextPullThreshold, long maxQueuedBytes,
+        long nextPullBytesThreshold) {
       this.maxQueuedCallbacks = maxQueuedCallbacks;
       this.nextPullThreshold = nextPullThreshold;
+      this.maxQueuedBytes = maxQueuedBytes;
+      this.nextPullBytesThreshold = nextPullBytesThreshold;
     }
 
     @Override
-    public boolean shouldPull(int queuedCallbacks) {
-      return (maxQueuedCallbacks - queuedCallbacks) >= nextPullThreshold;
+    public boolean shouldPull(int queuedCallbacks, long queuedBytes) {
+      return (maxQueuedCallbacks - queuedCallbacks) >= nextPullThreshold
+          && (maxQueuedBytes - queuedBytes) >= nextPullBytesThreshold;
     }
   }
 
@@ -122,56 +149,125 @@ final class MessageConsumerImpl implements MessageConsumer {
     }
   }
 
+  /**
+   * A pull loop. Each consumer runs one or more pull loops, each with at most one pull in flight.
+   * Pull loops share the consumer's {@code maxQueuedCallbacks} and {@code maxQueuedBytes} budgets:
+   * every pull reserves the number of messages it requests, and their estimated size, until its
+   * response is received.
+   */
   class ConsumerRunnable implements Runnable {
 
+    // the following fields are guarded by futureLock
+    private Future<?> scheduledFuture;
+    private PullFuture pullerFuture;
+    private int reserved;
+    private long reservedSize;
+    private boolean throttled;
+
     @Override
     public void run() {
-      if (closed) {
-        return;
+      int maxMessages;
+      synchronized (futureLock) {
+        if (closed) {
+          scheduledFuture = null;
+          return;
+        }
+        maxMessages = Math.min(maxMessagesPerPull, availableCallbacks());
+        long availableBytes = availableBytes();
+        if (maxMessages <= 0 || availableBytes <= 0 || lanesFull()) {
+          throttle(this);
+          return;
+        }
+        long averageBytes = receivedMessages > 0 ? receivedBytes / receivedMessages : 0;
+        if (averageBytes > 0) {
+          // only request as many messages as are likely to fit in the available bytes
+          maxMessages = (int) Math.min(maxMessages, Math.max(1, availableBytes / averageBytes));
+        }
+        reserved = maxMessages;
+        reservedSize = maxMessages * averageBytes;
+        reservedCallbacks += reserved;
+        reservedBytes += reservedSize;
+      }
+      PullFuture future = pubsubRpc.pull(createPullRequest(maxMessages));
+      synchronized (futureLock) {
+        if (closed) {
+          // the consumer was closed while the pull was being sent
+          future.cancel(true);
+        }
+        pullerFuture = future;
       }
-      pullerFuture = pubsubRpc.pull(createPullRequest());
-      pullerFuture.addCallback(new PullCallback() {
+      future.addCallback(new PullCallback() {
         @Override
         public void success(PullResponse response) {
           List<com.google.pubsub.v1.ReceivedMessage> messages = response.getReceivedMessagesList();
-          queuedCallbacks.addAndGet(messages.size());
+          long responseBytes = 0;
+          for (com.google.pubsub.v1.ReceivedMessage message : messages) {
+            responseBytes += message.getMessage().getSerializedSize();
+          }
+          synchronized (futureLock) {
+            releaseReservation();
+            queuedCallbacks.addAndGet(messages.size());
+            queuedBytes.addAndGet(responseBytes);
+            receivedMessages += messages.size();
+            receivedBytes += responseBytes;
+          }
           for (com.google.pubsub.v1.ReceivedMessage message : messages) {
             deadlineRenewer.add(subscription, message.getAckId());
             ReceivedMessage receivedMessage = ReceivedMessage.fromPb(pubsub, subscription, message);
-            executor.execute(ackingRunnable(receivedMessage));
+            Runnable ackingRunnable =
+                ackingRunnable(receivedMessage, message.getMessage().getSerializedSize());
+            String orderingKey = orderingAttribute != null
+                ? receivedMessage.attributes().get(orderingAttribute) : null;
+            if (orderingKey != null) {
+              orderedExecutor.execute(orderingKey, ackingRunnable);
+            } else {
+              executor.execute(ackingRunnable);
+            }
           }
-          nextPull();
+          nextPull(ConsumerRunnable.this);
         }
 
         @Override
         public void failure(Throwable error) {
+          synchronized (futureLock) {
+            releaseReservation();
+          }
           if (!(error instanceof CancellationException)) {
-            nextPull();
+            nextPull(ConsumerRunnable.this);
           }
         }
       });
     }
 
-    private PullRequest createPullRequest() {
+    private void releaseReservation() {
+      reservedCallbacks -= reserved;
+      reservedBytes -= reservedSize;
+      reserved = 0;
+      reservedSize = 0;
+      pullerFuture = null;
+    }
+
+    private PullRequest createPullRequest(int maxMessages) {
       return PullRequest.newBuilder()
           .setSubscription(formatSubscriptionName(pubsubOptions.projectId(), subscription))
-          .setMaxMessages(maxQueuedCallbacks - queuedCallbacks.get())
+          .setMaxMessages(maxMessages)
           .setReturnImmediately(false)
           .build();
     }
 
-    private Runnable ackingRunnable(final ReceivedMessage receivedMessage) {
+    private Runnable ackingRunnable(final ReceivedMessage receivedMessage, final int size) {
       return new Runnable() {
         @Override
         public void run() {
           try {
             messageProcessor.process(receivedMessage);
-            pubsub.ackAsync(receivedMessage.subscription(), receivedMessage.ackId());
+            ackDispatcher.ack(receivedMessage.subscription(), receivedMessage.ackId());
           } catch (Exception ex) {
-            pubsub.nackAsync(receivedMessage.subscription(), receivedMessage.ackId());
+            ackDispatcher.nack(receivedMessage.subscription(), receivedMessage.ackId());
           } finally {
             deadlineRenewer.remove(receivedMessage.subscription(), receivedMessage.ackId());
             queuedCallbacks.decrementAndGet();
+            queuedBytes.addAndGet(-size);
             // We can now pull more messages, according to the next pull policy.
             pullIfNeeded();
           }
@@ -187,35 +283,136 @@ final class MessageConsumerImpl implements MessageConsumer {
     this.pubsubRpc = pubsubOptions.rpc();
     this.pubsub = pubsubOptions.service();
     this.deadlineRenewer = builder.deadlineRenewer;
+    this.ackDispatcher = builder.ackDispatcher;
     this.queuedCallbacks = new AtomicInteger();
+    this.queuedBytes = new AtomicLong();
     this.consumerExecutor = SharedResourceHolder.get(CONSUMER_EXECUTOR);
     this.executorFactory =
         builder.executorFactory != null ? builder.executorFactory : new DefaultExecutorFactory();
     this.executor = executorFactory.get();
     this.maxQueuedCallbacks = firstNonNull(builder.maxQueuedCallbacks, MAX_QUEUED_CALLBACKS);
-    this.consumerRunnable = new ConsumerRunnable();
+    this.maxQueuedBytes = firstNonNull(builder.maxQueuedBytes, MAX_QUEUED_BYTES);
+    int concurrentPulls = firstNonNull(builder.concurrentPulls, CONCURRENT_PULLS);
+    // pull loops split the budget evenly so that together they never exceed maxQueuedCallbacks
+    this.maxMessagesPerPull = Math.max(1,
+        (maxQueuedCallbacks + concurrentPulls - 1) / concurrentPulls);
     int nextPullThreshold = builder.nextPullThreshold != null ? builder.nextPullThreshold
         : this.maxQueuedCallbacks / 2;
-    this.pullPolicy = new DefaultNextPullPolicy(maxQueuedCallbacks, nextPullThreshold);
-    nextPull();
+    this.pullPolicy = new DefaultNextPullPolicy(maxQueuedCallbacks, nextPullThreshold,
+        maxQueuedBytes, maxQueuedBytes / 2);
+    this.orderingAttribute = builder.orderingAttribute;
+    // a single ordering key can hold at most half of the queued callbacks
+    this.orderedExecutor = orderingAttribute != null
+        ? new OrderedExecutor(executor, Math.max(1, maxQueuedCallbacks / 2)) : null;
+    this.consumerRunnables = new ArrayList<>(concurrentPulls);
+    for (int i = 0; i < concurrentPulls; i++) {
+      consumerRunnables.add(new ConsumerRunnable());
+    }
+    for (ConsumerRunnable consumerRunnable : consumerRunnables) {
+      nextPull(consumerRunnable);
+    }
+  }
+
+  /**
+   * Returns the number of messages that can still be requested, given the queued messages and
+   * the messages requested by pulls in flight. Must be called while holding {@code futureLock}.
+   */
+  private int availableCallbacks() {
+    return maxQueuedCallbacks - queuedCallbacks.get() - reservedCallbacks;
+  }
+
+  /**
+   * Returns the number of bytes that can still be pulled, given the size of queued messages and
+   * the estimated size of messages requested by pulls in flight. Must be called while holding
+   * {@code futureLock}.
+   */
+  private long availableBytes() {
+    return maxQueuedBytes - queuedBytes.get() - reservedBytes;
+  }
+
+  /**
+   * Returns {@code true} if messages are processed in order and the lane of at least one ordering
+   * key is full. Pulling stops until full lanes drain, as messages with the same ordering key can
+   * only be processed one at a time.
+   */
+  private boolean lanesFull() {
+    return orderedExecutor != null && orderedExecutor.hasFullLanes();
+  }
+
+  /**
+   * Holds back a pull loop because the flow control limits were reached. Must be called while
+   * holding {@code futureLock}.
+   */
+  private void throttle(ConsumerRunnable consumerRunnable) {
+    consumerRunnable.scheduledFuture = null;
+    if (!consumerRunnable.throttled) {
+      consumerRunnable.throttled = true;
+      if (throttledPullLoops++ == 0) {
+        throttledSinceNanos = System.nanoTime();
+      }
+    }
+  }
+
+  /**
+   * Schedules a pull for the provided pull loop. Must be called while holding {@code futureLock}.
+   */
+  private void schedule(ConsumerRunnable consumerRunnable) {
+    consumerRunnable.scheduledFuture = consumerExecutor.submit(consumerRunnable);
+    if (consumerRunnable.throttled) {
+      consumerRunnable.throttled = false;
+      if (--throttledPullLoops == 0) {
+        throttledNanos += System.nanoTime() - throttledSinceNanos;
+      }
+    }
   }
 
   private void pullIfNeeded() {
     synchronized (futureLock) {
-      if (closed || scheduledFuture != null || !pullPolicy.shouldPull(queuedCallbacks.get())) {
+      if (closed) {
         return;
       }
-      scheduledFuture = consumerExecutor.submit(consumerRunnable);
+      for (ConsumerRunnable consumerRunnable : consumerRunnables) {
+        // messages requested by pulls in flight count as queued for the next pull policy
+        if (consumerRunnable.scheduledFuture == null && !lanesFull() && pullPolicy.shouldPull(
+            queuedCallbacks.get() + reservedCallbacks, queuedBytes.get() + reservedBytes)) {
+          schedule(consumerRunnable);
+        }
+      }
     }
   }
 
-  private void nextPull() {
+  private void nextPull(ConsumerRunnable consumerRunnable) {
     synchronized (futureLock) {
-      if (closed || queuedCallbacks.get() == maxQueuedCallbacks) {
-        scheduledFuture = null;
+      if (closed) {
+        consumerRunnable.scheduledFuture = null;
         return;
       }
-      scheduledFuture = consumerExecutor.submit(consumerRunnable);
+      if (availableCallbacks() <= 0 || availableBytes() <= 0 || lanesFull()) {
+        throttle(consumerRunnable);
+        return;
+      }
+      schedule(consumerRunnable);
+    }
+  }
+
+  @Override
+  public int queuedMessages() {
+    return queuedCallbacks.get();
+  }
+
+  @Override
+  public long queuedBytes() {
+    return queuedBytes.get();
+  }
+
+  @Override
+  public long throttledTimeMillis() {
+    synchronized (futureLock) {
+      long nanos = throttledNanos;
+      if (throttledPullLoops > 0) {
+        nanos += System.nanoTime() - throttledSinceNanos;
+      }
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
     }
   }
 
@@ -226,31 +423,44 @@ final class MessageConsumerImpl implements MessageConsumer {
         return;
       }
       closed = true;
-      if (scheduledFuture != null) {
-        scheduledFuture.cancel(true);
+      if (throttledPullLoops > 0) {
+        throttledNanos += System.nanoTime() - throttledSinceNanos;
+        throttledPullLoops = 0;
       }
-      if (pullerFuture != null) {
-        pullerFuture.cancel(true);
+      for (ConsumerRunnable consumerRunnable : consumerRunnables) {
+        if (consumerRunnable.scheduledFuture != null) {
+          consumerRunnable.scheduledFuture.cancel(true);
+        }
+        if (consumerRunnable.pullerFuture != null) {
+          consumerRunnable.pullerFuture.cancel(true);
+        }
       }
     }
     SharedResourceHolder.release(CONSUMER_EXECUTOR, consumerExecutor);
     executorFactory.release(executor);
+    // acks and nacks of processed messages are sent right away
+    ackDispatcher.flush(subscription);
   }
 
   static final class Builder {
     private final PubSubOptions pubsubOptions;
     private final String subscription;
     private final AckDeadlineRenewer deadlineRenewer;
+    private final AckDispatcher ackDispatcher;
     private final MessageProcessor messageProcessor;
     private Integer maxQueuedCallbacks;
+    private Long maxQueuedBytes;
+    private Integer concurrentPulls;
+    private String orderingAttribute;
     private ExecutorFactory<ExecutorService> executorFactory;
     private Integer nextPullThreshold;
 
     Builder(PubSubOptions pubsubOptions, String subscription, AckDeadlineRenewer deadlineRenewer,
-        MessageProcessor messageProcessor) {
+        AckDispatcher ackDispatcher, MessageProcessor messageProcessor) {
       this.pubsubOptions = pubsubOptions;
       this.subscription = subscription;
       this.deadlineRenewer = deadlineRenewer;
+      this.ackDispatcher = ackDispatcher;
       this.messageProcessor = messageProcessor;
     }
 
@@ -262,6 +472,32 @@ final class MessageConsumerImpl implements MessageConsumer {
       return this;
     }
 
+    /**
+     * Sets the maximum size, in bytes, of the messages either being processed or waiting for
+     * processing.
+     */
+    Builder maxQueuedBytes(Long maxQueuedBytes) {
+      this.maxQueuedBytes = maxQueuedBytes;
+      return this;
+    }
+
+    /**
+     * Sets the number of pulls that can be in flight at the same time.
+     */
+    Builder concurrentPulls(Integer concurrentPulls) {
+      this.concurrentPulls = concurrentPulls;
+      return this;
+    }
+
+    /**
+     * Sets the attribute used as ordering key. Messages with the same value for this attribute are
+     * processed one at a time, in the order they were pulled.
+     */
+    Builder orderingAttribute(String orderingAttribute) {
+      this.orderingAttribute = orderingAttribute;
+      return this;
+    }
+
     /**
      * Sets the executor factory, used to manage the executor that will run message processor
      * callbacks message consumer.
@@ -291,11 +527,13 @@ final class MessageConsumerImpl implements MessageConsumer {
 
   /**
    * Returns a builder for {@code MessageConsumerImpl} objects given the service options, the
-   * subscription from which messages must be pulled, the acknowledge deadline renewer and a message
-   * processor used to process messages.
+   * subscription from which messages must be pulled, the acknowledge deadline renewer, the
+   * dispatcher used to send acks and nacks and a message processor used to process messages.
    */
   static Builder builder(PubSubOptions pubsubOptions, String subscription,
-      AckDeadlineRenewer deadlineRenewer, MessageProcessor messageProcessor) {
-    return new Builder(pubsubOptions, subscription, deadlineRenewer, messageProcessor);
+      AckDeadlineRenewer deadlineRenewer, AckDispatcher ackDispatcher,
+      MessageProcessor messageProcessor) {
+    return new Builder(pubsubOptions, subscription, deadlineRenewer, ackDispatcher,
+        messageProcessor);
   }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Class for an ordered executor. Tasks submitted with the same key (via
+ * {@link #execute(String, Runnable)}) run one at a time, in submission order, in a lane dedicated
+ * to the key. Lanes of different keys run in parallel on the underlying executor. A lane is full
+ * when {@code laneCapacity} of its tasks are waiting to run; callers can use
+ * {@link #hasFullLanes()} to stop submitting tasks until lanes drain.
+ */
+class OrderedExecutor {
+
+  private final Executor executor;
+  private final int laneCapacity;
+  private final Map<String, Lane> lanes = new HashMap<>();
+  private final Object lock = new Object();
+  // the following fields are guarded by lock
+  private int fullLanes;
+
+  /**
+   * The tasks waiting to run for a key. A lane is submitted to the underlying executor when it has
+   * tasks to run and runs one task per activation, so that lanes share the executor fairly.
+   */
+  private final class Lane implements Runnable {
+
+    private final String key;
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    Lane(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      Runnable task;
+      synchronized (lock) {
+        if (tasks.size() == laneCapacity) {
+          fullLanes--;
+        }
+        task = tasks.poll();
+      }
+      try {
+        task.run();
+      } finally {
+        boolean empty;
+        synchronized (lock) {
+          empty = tasks.isEmpty();
+          if (empty) {
+            lanes.remove(key);
+          }
+        }
+        if (!empty) {
+          submit(this);
+        }
+      }
+    }
+  }
+
+  OrderedExecutor(Executor executor, int laneCapacity) {
+    this.executor = executor;
+    this.laneCapacity = laneCapacity;
+  }
+
+  /**
+   * Submits a task to the lane of the provided key. The task runs after all tasks previously
+   * submitted with the same key have completed.
+   *
+   * @param key the ordering key
+   * @param task the task to run
+   * @throws RejectedExecutionException if the underlying executor rejects the key's lane
+   */
+  void execute(String key, Runnable task) {
+    Lane lane;
+    boolean start = false;
+    synchronized (lock) {
+      lane = lanes.get(key);
+      if (lane == null) {
+        lane = new Lane(key);
+        lanes.put(key, lane);
+        start = true;
+      }
+      lane.tasks.add(task);
+      if (lane.tasks.size() == laneCapacity) {
+        fullLanes++;
+      }
+    }
+    if (start) {
+      submit(lane);
+    }
+  }
+
+  /**
+   * Submits the provided lane to the underlying executor. If the executor rejects the lane (e.g.
+   * because it was shut down) the lane is removed and its waiting tasks are discarded, so that
+   * tasks submitted later with the same key start a new lane rather than queue forever.
+   */
+  private void submit(Lane lane) {
+    try {
+      executor.execute(lane);
+    } catch (RejectedExecutionException ex) {
+      synchronized (lock) {
+        if (lane.tasks.size() >= laneCapacity) {
+          fullLanes--;
+        }
+        lane.tasks.clear();
+        lanes.remove(lane.key);
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Returns {@code true} if at least one lane has {@code laneCapacity} or more tasks waiting to
+   * run.
+   */
+  boolean hasFullLanes() {
+    synchronized (lock) {
+      return fullLanes > 0;
+    }
+  }
+}
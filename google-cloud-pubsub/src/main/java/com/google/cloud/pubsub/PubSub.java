@@ -16,6 +16,9 @@
 
 package com.google.cloud.pubsub;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import com.google.cloud.AsyncPage;
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.cloud.Page;
@@ -88,7 +91,10 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
 
     enum OptionType implements Option.OptionType {
       EXECUTOR_FACTORY,
-      MAX_QUEUED_CALLBACKS;
+      MAX_QUEUED_CALLBACKS,
+      MAX_QUEUED_BYTES,
+      CONCURRENT_PULLS,
+      ORDERING_ATTRIBUTE;
 
       @SuppressWarnings("unchecked")
       <T> T get(Map<Option.OptionType, ?> options) {
@@ -99,6 +105,14 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
         return get(options);
       }
 
+      Long getLong(Map<Option.OptionType, ?> options) {
+        return get(options);
+      }
+
+      String getString(Map<Option.OptionType, ?> options) {
+        return get(options);
+      }
+
       ExecutorFactory<ExecutorService> getExecutorFactory(Map<Option.OptionType, ?> options) {
         return get(options);
       }
@@ -119,6 +133,57 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
       return new PullOption(OptionType.MAX_QUEUED_CALLBACKS, maxQueuedCallbacks);
     }
 
+    /**
+     * Returns an option to specify the maximum size, in bytes, of the messages that can be queued
+     * in the message consumer at any time. The size of a message is the size of its payload and
+     * attributes. Once the limit is reached the message consumer stops pulling until enough queued
+     * messages have been processed. Pull requests are sized according to the average size of the
+     * messages received so far, however a single pull can exceed the limit if the subscription's
+     * messages are larger than expected. This option can be used together with
+     * {@link #maxQueuedCallbacks(int)} to bound the memory used by a message consumer on topics
+     * with messages of mixed size. If not provided, queued messages are only limited by number.
+     *
+     * @param maxQueuedBytes the maximum size of queued messages, must be positive
+     */
+    public static PullOption maxQueuedBytes(long maxQueuedBytes) {
+      checkArgument(maxQueuedBytes > 0, "maxQueuedBytes must be positive");
+      return new PullOption(OptionType.MAX_QUEUED_BYTES, maxQueuedBytes);
+    }
+
+    /**
+     * Returns an option to specify the number of pull requests that the message consumer can have
+     * in flight at the same time. Concurrent pulls share the {@link #maxQueuedCallbacks(int)}
+     * budget: each pull requests at most {@code maxQueuedCallbacks / concurrentPulls} messages
+     * and new pulls are only sent when the queue has room for the messages they request. Several
+     * concurrent pulls can increase the throughput of subscriptions with a high message volume. If
+     * not provided, at most one pull request is in flight at any time.
+     *
+     * @param concurrentPulls the number of concurrent pull requests, must be positive
+     */
+    public static PullOption concurrentPulls(int concurrentPulls) {
+      checkArgument(concurrentPulls > 0, "concurrentPulls must be positive");
+      return new PullOption(OptionType.CONCURRENT_PULLS, concurrentPulls);
+    }
+
+    /**
+     * Returns an option to specify the message attribute used as ordering key. Messages that have
+     * the same value for the provided attribute are processed one at a time, in the order they
+     * were pulled, while messages with different values are processed in parallel by the executor
+     * set with {@link #executorFactory(ExecutorFactory)}. Messages that do not have the attribute
+     * are processed without ordering guarantees. At most half of the
+     * {@link #maxQueuedCallbacks(int)} queued messages can wait for the same ordering key: once
+     * this limit is reached the message consumer stops pulling until the key's messages are
+     * processed. If not provided, messages are processed without ordering guarantees.
+     *
+     * <p>Ordering only applies to messages pulled by the same message consumer, in the order they
+     * are returned by the service.
+     *
+     * @param attribute the name of the attribute that holds the ordering key
+     */
+    public static PullOption orderingAttribute(String attribute) {
+      return new PullOption(OptionType.ORDERING_ATTRIBUTE, checkNotNull(attribute));
+    }
+
     /**
      * Returns an option to specify the executor used to execute message processor callbacks. The
      * executor determines the number of messages that can be processed at the same time. If not
@@ -156,6 +221,26 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
    */
   interface MessageConsumer extends AutoCloseable {
 
+    /**
+     * Returns the number of messages that have been pulled and are either waiting to be processed
+     * or being processed.
+     */
+    int queuedMessages();
+
+    /**
+     * Returns the size, in bytes, of the messages that have been pulled and are either waiting to
+     * be processed or being processed.
+     */
+    long queuedBytes();
+
+    /**
+     * Returns the total time, in milliseconds, during which this message consumer held back pull
+     * requests because the limits set with {@link PullOption#maxQueuedCallbacks(int)} or
+     * {@link PullOption#maxQueuedBytes(long)} were reached. A steadily growing value means that
+     * messages are pulled faster than they are processed.
+     */
+    long throttledTimeMillis();
+
     /**
      * Stops pulling messages from the subscription associated with this {@code MessageConsumer} and
      * frees all resources. Messages that have already been pulled are processed before closing.
@@ -332,7 +417,10 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
    * Sends a request for publishing a message to the provided topic. This method returns a
    * {@code Future} object to consume the result. {@link Future#get()} returns a service-generated
    * id for the published message. Service-generated ids are guaranteed to be unique within the
-   * topic.
+   * topic. If {@link PubSubOptions#publishBundlingOptions()} are set, the message is bundled with
+   * other messages published to the same topic and sent in a single request. If
+   * {@link PubSubOptions#publishFlowControlOptions()} are set, this method may block or the
+   * returned future may fail when the topic has too many outstanding messages.
    *
    * <p>Example of asynchronously publishing one message to a topic.
    * <pre> {@code
@@ -441,6 +529,28 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
    */
   Future<List<String>> publishAsync(String topic, Iterable<Message> messages);
 
+  /**
+   * Returns the number of messages published to the provided topic whose publication has not
+   * completed yet. Outstanding messages are only tracked when
+   * {@link PubSubOptions#publishFlowControlOptions()} are set, otherwise this method returns
+   * {@code 0}.
+   *
+   * @param topic the topic where messages are published
+   * @see PublishFlowControlOptions
+   */
+  int outstandingPublishMessages(String topic);
+
+  /**
+   * Returns the size, in bytes, of the messages published to the provided topic whose
+   * publication has not completed yet. Outstanding messages are only tracked when
+   * {@link PubSubOptions#publishFlowControlOptions()} are set, otherwise this method returns
+   * {@code 0}.
+   *
+   * @param topic the topic where messages are published
+   * @see PublishFlowControlOptions
+   */
+  long outstandingPublishBytes(String topic);
+
   /**
    * Creates a new subscription.
    *
@@ -763,9 +873,13 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
    * acknowledged or "nacked".
    *
    * <p>The {@link PullOption#maxQueuedCallbacks(int)} option can be used to control the maximum
-   * number of queued messages (messages either being processed or waiting to be processed). The
+   * number of queued messages (messages either being processed or waiting to be processed), the
+   * {@link PullOption#maxQueuedBytes(long)} option can be used to control their maximum size. The
    * {@link PullOption#executorFactory(ExecutorFactory)} can be used to provide an executor to run
-   * message processor callbacks.
+   * message processor callbacks. The {@link PullOption#concurrentPulls(int)} option can be used to
+   * have several pull requests in flight at the same time. The
+   * {@link PullOption#orderingAttribute(String)} option can be used to process messages with the
+   * same ordering key one at a time, in the order they were pulled.
    *
    * <p>Example of continuously pulling messages from a subscription.
    * <pre> {@code
@@ -1269,7 +1383,8 @@ public interface PubSub extends AutoCloseable, Service<PubSubOptions> {
    * such as a customized graphical user interface. For example, the Cloud Platform Console tests
    * IAM permissions internally to determine which UI should be available to the logged-in user.
    *
-   * <p>Example of asynchronously testing whether the caller has the provided permissions on a topic.
+   * <p>Example of asynchronously testing whether the caller has the provided permissions on a
+   * topic.
    * <pre> {@code
    * String topicName = "my_topic_name";
    * List<String> permissions = new LinkedList<>();
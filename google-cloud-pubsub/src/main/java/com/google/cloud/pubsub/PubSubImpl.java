@@ -18,8 +18,11 @@ package com.google.cloud.pubsub;
 
 import static com.google.cloud.pubsub.PubSub.ListOption.OptionType.PAGE_SIZE;
 import static com.google.cloud.pubsub.PubSub.ListOption.OptionType.PAGE_TOKEN;
+import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.CONCURRENT_PULLS;
 import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.EXECUTOR_FACTORY;
+import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.MAX_QUEUED_BYTES;
 import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.MAX_QUEUED_CALLBACKS;
+import static com.google.cloud.pubsub.PubSub.PullOption.OptionType.ORDERING_ATTRIBUTE;
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -64,6 +67,7 @@ import com.google.pubsub.v1.ModifyAckDeadlineRequest;
 import com.google.pubsub.v1.ModifyPushConfigRequest;
 import com.google.pubsub.v1.PublishRequest;
 import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
 import com.google.pubsub.v1.PullRequest;
 import com.google.pubsub.v1.PullResponse;
 
@@ -80,6 +84,9 @@ class PubSubImpl extends BaseService<PubSubOptions> implements PubSub {
 
   private final PubSubRpc rpc;
   private final AckDeadlineRenewer ackDeadlineRenewer;
+  private final AckDispatcher ackDispatcher;
+  private final PublishBundler publishBundler;
+  private final PublishFlowController publishFlowController;
   private boolean closed;
 
   private static final Function<Empty, Void> EMPTY_TO_VOID_FUNCTION = new Function<Empty, Void>() {
@@ -113,14 +120,39 @@ class PubSubImpl extends BaseService<PubSubOptions> implements PubSub {
   PubSubImpl(PubSubOptions options) {
     super(options);
     rpc = options.rpc();
-    ackDeadlineRenewer = new AckDeadlineRenewer(this);
+    ackDispatcher = new AckDispatcher(this, options.executorFactory());
+    ackDeadlineRenewer = new AckDeadlineRenewer(this, ackDispatcher);
+    publishBundler = publishBundler(options, rpc);
+    publishFlowController = publishFlowController(options, publishBundler);
   }
 
   @VisibleForTesting
-  PubSubImpl(PubSubOptions options, AckDeadlineRenewer ackDeadlineRenewer) {
+  PubSubImpl(PubSubOptions options, AckDeadlineRenewer ackDeadlineRenewer,
+      AckDispatcher ackDispatcher) {
     super(options);
     rpc = options.rpc();
     this.ackDeadlineRenewer = ackDeadlineRenewer;
+    this.ackDispatcher = ackDispatcher;
+    publishBundler = publishBundler(options, rpc);
+    publishFlowController = publishFlowController(options, publishBundler);
+  }
+
+  @VisibleForTesting
+  AckDispatcher ackDispatcher() {
+    return ackDispatcher;
+  }
+
+  private static PublishBundler publishBundler(PubSubOptions options, PubSubRpc rpc) {
+    PublishBundlingOptions bundlingOptions = options.publishBundlingOptions();
+    return bundlingOptions == null
+        ? null : new PublishBundler(rpc, bundlingOptions, options.executorFactory());
+  }
+
+  private static PublishFlowController publishFlowController(PubSubOptions options,
+      PublishBundler publishBundler) {
+    PublishFlowControlOptions flowControlOptions = options.publishFlowControlOptions();
+    return flowControlOptions == null
+        ? null : new PublishFlowController(flowControlOptions, publishBundler);
   }
 
   private abstract static class BasePageFetcher<T> implements AsyncPageImpl.NextPageFetcher<T> {
@@ -304,7 +336,26 @@ class PubSubImpl extends BaseService<PubSubOptions> implements PubSub {
 
   @Override
   public Future<String> publishAsync(String topic, Message message) {
-    return transform(
+    if (publishFlowController != null) {
+      String topicName = PublisherApi.formatTopicName(options().projectId(), topic);
+      int size = message.toPb().getSerializedSize();
+      try {
+        publishFlowController.reserve(topicName, 1, size);
+      } catch (PubSubException ex) {
+        return Futures.immediateFailedFuture(ex);
+      }
+      return publishFlowController.releaseWhenDone(topicName, doPublishAsync(topic, message), 1,
+          size);
+    }
+    return doPublishAsync(topic, message);
+  }
+
+  private ListenableFuture<String> doPublishAsync(String topic, Message message) {
+    if (publishBundler != null) {
+      return publishBundler.add(PublisherApi.formatTopicName(options().projectId(), topic),
+          Collections.singletonList(message.toPb())).get(0);
+    }
+    return Futures.transform(
         rpc.publish(publishRequest(options(), topic, Collections.singletonList(message))),
         new Function<PublishResponse, String>() {
           @Override
@@ -331,7 +382,42 @@ class PubSubImpl extends BaseService<PubSubOptions> implements PubSub {
 
   @Override
   public Future<List<String>> publishAsync(String topic, Iterable<Message> messages) {
-    return transform(rpc.publish(publishRequest(options(), topic, messages)),
+    if (publishFlowController == null) {
+      return doPublishAsync(topic, messages);
+    }
+    String topicName = PublisherApi.formatTopicName(options().projectId(), topic);
+    List<PubsubMessage> messagesPb =
+        ImmutableList.copyOf(Iterables.transform(messages, Message.TO_PB_FUNCTION));
+    long size = 0;
+    for (PubsubMessage messagePb : messagesPb) {
+      size += messagePb.getSerializedSize();
+    }
+    try {
+      publishFlowController.reserve(topicName, messagesPb.size(), size);
+    } catch (PubSubException ex) {
+      return Futures.immediateFailedFuture(ex);
+    }
+    if (publishBundler != null) {
+      // bundled messages are released one by one, as they may be sent in different requests
+      List<ListenableFuture<String>> futures = publishBundler.add(topicName, messagesPb);
+      for (int i = 0; i < futures.size(); i++) {
+        publishFlowController.releaseWhenDone(topicName, futures.get(i), 1,
+            messagesPb.get(i).getSerializedSize());
+      }
+      return Futures.allAsList(futures);
+    }
+    return publishFlowController.releaseWhenDone(topicName, doPublishAsync(topic, messages),
+        messagesPb.size(), size);
+  }
+
+  private ListenableFuture<List<String>> doPublishAsync(String topic,
+      Iterable<Message> messages) {
+    if (publishBundler != null) {
+      return Futures.allAsList(
+          publishBundler.add(PublisherApi.formatTopicName(options().projectId(), topic),
+              Iterables.transform(messages, Message.TO_PB_FUNCTION)));
+    }
+    return Futures.transform(rpc.publish(publishRequest(options(), topic, messages)),
         new Function<PublishResponse, List<String>>() {
           @Override
           public List<String> apply(PublishResponse publishResponse) {
@@ -340,6 +426,18 @@ class PubSubImpl extends BaseService<PubSubOptions> implements PubSub {
         });
   }
 
+  @Override
+  public int outstandingPublishMessages(String topic) {
+    return publishFlowController == null ? 0 : publishFlowController.outstandingMessages(
+        PublisherApi.formatTopicName(options().projectId(), topic));
+  }
+
+  @Override
+  public long outstandingPublishBytes(String topic) {
+    return publishFlowController == null ? 0 : publishFlowController.outstandingBytes(
+        PublisherApi.formatTopicName(options().projectId(), topic));
+  }
+
   @Override
   public Subscription create(SubscriptionInfo subscription) {
     return get(createAsync(subscription));
@@ -536,8 +634,12 @@ class PubSubImpl extends BaseService<PubSubOptions> implements PubSub {
   public MessageConsumer pullAsync(String subscription, MessageProcessor callback,
       PullOption... options) {
     Map<Option.OptionType, ?> optionMap = optionMap(options);
-    return MessageConsumerImpl.builder(options(), subscription, ackDeadlineRenewer, callback)
+    return MessageConsumerImpl.builder(options(), subscription, ackDeadlineRenewer, ackDispatcher,
+        callback)
         .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS.getInteger(optionMap))
+        .maxQueuedBytes(MAX_QUEUED_BYTES.getLong(optionMap))
+        .concurrentPulls(CONCURRENT_PULLS.getInteger(optionMap))
+        .orderingAttribute(ORDERING_ATTRIBUTE.getString(optionMap))
         .executorFactory(EXECUTOR_FACTORY.getExecutorFactory(optionMap))
         .build();
   }
@@ -726,6 +828,14 @@ class PubSubImpl extends BaseService<PubSubOptions> implements PubSub {
       return;
     }
     closed = true;
+    if (publishBundler != null) {
+      // pending messages are published before the rpc is closed
+      publishBundler.close();
+    }
+    if (ackDispatcher != null) {
+      // buffered acks and ack deadline modifications are sent before the rpc is closed
+      ackDispatcher.close();
+    }
     rpc.close();
     if (ackDeadlineRenewer != null) {
       ackDeadlineRenewer.close();
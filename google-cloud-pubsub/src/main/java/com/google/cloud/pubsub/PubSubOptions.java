@@ -24,6 +24,7 @@ import com.google.cloud.pubsub.spi.v1.PublisherSettings;
 import com.google.common.collect.ImmutableSet;
 
 import java.io.IOException;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -35,6 +36,9 @@ public class PubSubOptions extends GrpcServiceOptions<PubSub, PubSubRpc, PubSubO
   private static final String DEFAULT_HOST = PublisherSettings.getDefaultServiceAddress()
       + ':' + PublisherSettings.getDefaultServicePort();
 
+  private final PublishBundlingOptions publishBundlingOptions;
+  private final PublishFlowControlOptions publishFlowControlOptions;
+
   public static class DefaultPubSubFactory implements PubSubFactory {
     private static final PubSubFactory INSTANCE = new DefaultPubSubFactory();
 
@@ -72,10 +76,38 @@ public class PubSubOptions extends GrpcServiceOptions<PubSub, PubSubRpc, PubSubO
   public static class Builder extends
       GrpcServiceOptions.Builder<PubSub, PubSubRpc, PubSubOptions, Builder> {
 
+    private PublishBundlingOptions publishBundlingOptions;
+    private PublishFlowControlOptions publishFlowControlOptions;
+
     private Builder() {}
 
     private Builder(PubSubOptions options) {
       super(options);
+      publishBundlingOptions = options.publishBundlingOptions;
+      publishFlowControlOptions = options.publishFlowControlOptions;
+    }
+
+    /**
+     * Enables client-side bundling of published messages. By default each call to a
+     * {@code publish} method is sent in its own publish request.
+     *
+     * @see PublishBundlingOptions
+     */
+    public Builder publishBundlingOptions(PublishBundlingOptions publishBundlingOptions) {
+      this.publishBundlingOptions = publishBundlingOptions;
+      return this;
+    }
+
+    /**
+     * Enables publisher flow control, limiting the number and size of outstanding published
+     * messages per topic. By default outstanding messages are not limited.
+     *
+     * @see PublishFlowControlOptions
+     */
+    public Builder publishFlowControlOptions(
+        PublishFlowControlOptions publishFlowControlOptions) {
+      this.publishFlowControlOptions = publishFlowControlOptions;
+      return this;
     }
 
     @Override
@@ -86,6 +118,24 @@ public class PubSubOptions extends GrpcServiceOptions<PubSub, PubSubRpc, PubSubO
 
   protected PubSubOptions(Builder builder) {
     super(PubSubFactory.class, PubSubRpcFactory.class, builder);
+    publishBundlingOptions = builder.publishBundlingOptions;
+    publishFlowControlOptions = builder.publishFlowControlOptions;
+  }
+
+  /**
+   * Returns the options for client-side bundling of published messages or {@code null} if
+   * messages are not bundled.
+   */
+  public PublishBundlingOptions publishBundlingOptions() {
+    return publishBundlingOptions;
+  }
+
+  /**
+   * Returns the options for publisher flow control or {@code null} if outstanding published
+   * messages are not limited.
+   */
+  public PublishFlowControlOptions publishFlowControlOptions() {
+    return publishFlowControlOptions;
   }
 
   @Override
@@ -110,12 +160,18 @@ public class PubSubOptions extends GrpcServiceOptions<PubSub, PubSubRpc, PubSubO
 
   @Override
   public boolean equals(Object obj) {
-    return obj instanceof PubSubOptions && baseEquals((PubSubOptions) obj);
+    if (!(obj instanceof PubSubOptions)) {
+      return false;
+    }
+    PubSubOptions other = (PubSubOptions) obj;
+    return baseEquals(other)
+        && Objects.equals(publishBundlingOptions, other.publishBundlingOptions)
+        && Objects.equals(publishFlowControlOptions, other.publishFlowControlOptions);
   }
 
   @Override
   public int hashCode() {
-    return baseHashCode();
+    return Objects.hash(baseHashCode(), publishBundlingOptions, publishFlowControlOptions);
   }
 
   @Override
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
+import com.google.cloud.pubsub.spi.PubSubRpc;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class for a publish bundler. A publish bundler accumulates messages published to the same topic
+ * (via {@link #add(String, Iterable)}) and sends them in a single publish request once the
+ * thresholds in {@link PublishBundlingOptions} are reached. Every message is given a future that
+ * is completed with the message's service-generated id, or failed with the error of the publish
+ * request that carried it.
+ */
+class PublishBundler implements AutoCloseable {
+
+  private final PubSubRpc rpc;
+  private final int maxMessages;
+  private final long maxBytes;
+  private final long delayThresholdMillis;
+  private final ScheduledExecutorService executor;
+  private final ExecutorFactory<ScheduledExecutorService> executorFactory;
+  private final Map<String, Bundle> bundles = new HashMap<>();
+  private final Object lock = new Object();
+  private int publishing;
+  private boolean closed;
+
+  /**
+   * This class holds the messages accumulated for a topic and their futures.
+   */
+  private static final class Bundle {
+
+    private final String topic;
+    private final List<PubsubMessage> messages = new ArrayList<>();
+    private final List<SettableFuture<String>> futures = new ArrayList<>();
+    private long bytes;
+    private Future<?> flushFuture;
+
+    Bundle(String topic) {
+      this.topic = topic;
+    }
+
+    ListenableFuture<String> add(PubsubMessage message, int size) {
+      SettableFuture<String> future = SettableFuture.create();
+      messages.add(message);
+      futures.add(future);
+      bytes += size;
+      return future;
+    }
+
+    boolean isEmpty() {
+      return messages.isEmpty();
+    }
+
+    PublishRequest toPb() {
+      return PublishRequest.newBuilder().setTopic(topic).addAllMessages(messages).build();
+    }
+
+    void setMessageIds(List<String> messageIds) {
+      for (int i = 0; i < futures.size(); i++) {
+        if (i < messageIds.size()) {
+          futures.get(i).set(messageIds.get(i));
+        } else {
+          futures.get(i).setException(
+              new IllegalStateException("No message id returned for published message"));
+        }
+      }
+    }
+
+    SettableFuture<String> removeFirst() {
+      bytes -= messages.remove(0).getSerializedSize();
+      return futures.remove(0);
+    }
+
+    void setException(Throwable throwable) {
+      for (SettableFuture<String> future : futures) {
+        future.setException(throwable);
+      }
+    }
+  }
+
+  PublishBundler(PubSubRpc rpc, PublishBundlingOptions options,
+      ExecutorFactory<ScheduledExecutorService> executorFactory) {
+    this.rpc = rpc;
+    this.maxMessages = options.maxMessages();
+    this.maxBytes = options.maxBytes();
+    this.delayThresholdMillis = options.delayThresholdMillis();
+    this.executorFactory = executorFactory;
+    this.executor = executorFactory.get();
+  }
+
+  /**
+   * Adds messages to the bundle of the provided topic. Bundles that reach the message count or
+   * byte size thresholds are published right away, the remaining messages are published when the
+   * delay threshold expires. This method returns a future for each of the provided messages, in
+   * the same order.
+   *
+   * @param topic the fully qualified name of the topic where messages are published
+   * @param messages the messages to publish
+   */
+  List<ListenableFuture<String>> add(String topic, Iterable<PubsubMessage> messages) {
+    List<ListenableFuture<String>> futures = new ArrayList<>();
+    List<Bundle> ready = new LinkedList<>();
+    synchronized (lock) {
+      if (closed) {
+        for (PubsubMessage ignored : messages) {
+          futures.add(Futures.<String>immediateFailedFuture(
+              new IllegalStateException("PubSub service has been closed")));
+        }
+        return futures;
+      }
+      Bundle current = bundles.get(topic);
+      Bundle bundle = current;
+      for (PubsubMessage message : messages) {
+        int size = message.getSerializedSize();
+        if (bundle != null && !bundle.isEmpty() && bundle.bytes + size > maxBytes) {
+          // the message does not fit in the current bundle, we publish the bundle first
+          ready.add(bundle);
+          bundle = null;
+        }
+        if (bundle == null) {
+          bundle = new Bundle(topic);
+        }
+        futures.add(bundle.add(message, size));
+        if (bundle.messages.size() >= maxMessages || bundle.bytes >= maxBytes) {
+          ready.add(bundle);
+          bundle = null;
+        }
+      }
+      if (current != null && current != bundle && current.flushFuture != null) {
+        // the topic's bundle is being published, its scheduled flush is no longer needed
+        current.flushFuture.cancel(false);
+      }
+      if (bundle == null) {
+        bundles.remove(topic);
+      } else if (bundle != current) {
+        bundles.put(topic, bundle);
+        scheduleFlush(bundle);
+      }
+      publishing += ready.size();
+    }
+    for (Bundle bundle : ready) {
+      publish(bundle);
+    }
+    return futures;
+  }
+
+  /**
+   * Drops the oldest message held for the provided topic, failing its future with the provided
+   * error. Returns {@code false} if no message is held for the topic.
+   *
+   * @param topic the fully qualified name of the topic
+   * @param error the error used to fail the dropped message's future
+   */
+  boolean dropOldest(String topic, Throwable error) {
+    SettableFuture<String> future;
+    synchronized (lock) {
+      Bundle bundle = bundles.get(topic);
+      if (bundle == null || bundle.isEmpty()) {
+        return false;
+      }
+      future = bundle.removeFirst();
+      if (bundle.isEmpty()) {
+        bundles.remove(topic);
+        if (bundle.flushFuture != null) {
+          bundle.flushFuture.cancel(false);
+        }
+      }
+    }
+    future.setException(error);
+    return true;
+  }
+
+  private void scheduleFlush(final Bundle bundle) {
+    bundle.flushFuture = executor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (lock) {
+          if (bundles.get(bundle.topic) != bundle) {
+            // the bundle was already published because it reached a threshold
+            return;
+          }
+          bundles.remove(bundle.topic);
+          publishing++;
+        }
+        publish(bundle);
+      }
+    }, delayThresholdMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sends a publish request for the provided bundle. Callers must increment {@link #publishing},
+   * while holding {@link #lock}, when removing the bundle from {@link #bundles}. The count is
+   * decremented once the request completes.
+   */
+  private void publish(final Bundle bundle) {
+    ListenableFuture<PublishResponse> response;
+    try {
+      response = rpc.publish(bundle.toPb());
+    } catch (RuntimeException ex) {
+      bundle.setException(ex);
+      published();
+      return;
+    }
+    response.addListener(new Runnable() {
+      @Override
+      public void run() {
+        published();
+      }
+    }, MoreExecutors.directExecutor());
+    Futures.addCallback(response, new FutureCallback<PublishResponse>() {
+      @Override
+      public void onSuccess(PublishResponse result) {
+        bundle.setMessageIds(result.getMessageIdsList());
+      }
+
+      @Override
+      public void onFailure(Throwable throwable) {
+        bundle.setException(throwable);
+      }
+    });
+  }
+
+  private void published() {
+    synchronized (lock) {
+      publishing--;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Publishes all accumulated messages, waits for all publish requests to complete and releases the
+   * executor used to schedule flushes. Messages added after this method is called fail with an
+   * {@link IllegalStateException}.
+   */
+  @Override
+  public void close() throws Exception {
+    List<Bundle> pending;
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      pending = new ArrayList<>(bundles.values());
+      bundles.clear();
+      publishing += pending.size();
+    }
+    for (Bundle bundle : pending) {
+      if (bundle.flushFuture != null) {
+        bundle.flushFuture.cancel(false);
+      }
+      publish(bundle);
+    }
+    try {
+      synchronized (lock) {
+        while (publishing > 0) {
+          lock.wait();
+        }
+      }
+    } finally {
+      executorFactory.release(executor);
+    }
+  }
+}
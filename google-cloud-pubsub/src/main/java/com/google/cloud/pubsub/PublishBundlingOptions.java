@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for client-side bundling of published messages. When set via
+ * {@link PubSubOptions.Builder#publishBundlingOptions(PublishBundlingOptions)}, messages published
+ * with {@link PubSub#publishAsync(String, Message)} (and the other {@code publish} methods) are
+ * accumulated per topic and sent in a single publish request when any of the following happens:
+ * <ul>
+ *   <li>the number of accumulated messages reaches {@link #maxMessages()}
+ *   <li>the size of the accumulated messages reaches {@link #maxBytes()}
+ *   <li>{@link #delayThresholdMillis()} milliseconds have passed since the first message was
+ *       accumulated
+ * </ul>
+ * Each message still gets its own future, completed with the message's service-generated id once
+ * the bundle it belongs to is published.
+ *
+ * <p>Example of enabling publish bundling.
+ * <pre> {@code
+ * PublishBundlingOptions bundlingOptions = PublishBundlingOptions.builder()
+ *     .maxMessages(500)
+ *     .delayThreshold(20, TimeUnit.MILLISECONDS)
+ *     .build();
+ * PubSub pubsub = PubSubOptions.builder()
+ *     .publishBundlingOptions(bundlingOptions)
+ *     .build()
+ *     .service();
+ * Future<String> messageId = pubsub.publishAsync(topicName, Message.of("payload"));
+ * }</pre>
+ */
+public final class PublishBundlingOptions implements Serializable {
+
+  private static final long serialVersionUID = -3960435768413839224L;
+
+  /**
+   * The maximum number of messages accepted by the service in a single publish request.
+   */
+  public static final int MAX_MESSAGES_LIMIT = 1_000;
+
+  /**
+   * The maximum size, in bytes, accepted by the service for a single publish request.
+   */
+  public static final long MAX_BYTES_LIMIT = 10L * 1024 * 1024;
+
+  public static final int DEFAULT_MAX_MESSAGES = 100;
+  public static final long DEFAULT_MAX_BYTES = 1024L * 1024;
+  public static final long DEFAULT_DELAY_THRESHOLD_MILLIS = 10L;
+
+  private final int maxMessages;
+  private final long maxBytes;
+  private final long delayThresholdMillis;
+
+  /**
+   * Builder for {@code PublishBundlingOptions}.
+   */
+  public static final class Builder {
+
+    private int maxMessages = DEFAULT_MAX_MESSAGES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long delayThresholdMillis = DEFAULT_DELAY_THRESHOLD_MILLIS;
+
+    private Builder() {}
+
+    private Builder(PublishBundlingOptions options) {
+      maxMessages = options.maxMessages;
+      maxBytes = options.maxBytes;
+      delayThresholdMillis = options.delayThresholdMillis;
+    }
+
+    /**
+     * Sets the number of messages that triggers the publication of a bundle. Must be between 1 and
+     * {@value #MAX_MESSAGES_LIMIT}.
+     */
+    public Builder maxMessages(int maxMessages) {
+      checkArgument(maxMessages > 0 && maxMessages <= MAX_MESSAGES_LIMIT,
+          "maxMessages must be between 1 and %s", MAX_MESSAGES_LIMIT);
+      this.maxMessages = maxMessages;
+      return this;
+    }
+
+    /**
+     * Sets the size, in bytes, of accumulated messages that triggers the publication of a bundle.
+     * Must be between 1 and {@value #MAX_BYTES_LIMIT}. A message larger than this value is
+     * published on its own.
+     */
+    public Builder maxBytes(long maxBytes) {
+      checkArgument(maxBytes > 0 && maxBytes <= MAX_BYTES_LIMIT,
+          "maxBytes must be between 1 and %s", MAX_BYTES_LIMIT);
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Sets the maximum time a message is held before its bundle is published. A delay of zero
+     * publishes messages as soon as possible, bundling only messages published concurrently.
+     */
+    public Builder delayThreshold(long delay, TimeUnit unit) {
+      checkArgument(delay >= 0, "delay must be non-negative");
+      this.delayThresholdMillis = unit.toMillis(delay);
+      return this;
+    }
+
+    /**
+     * Creates a {@code PublishBundlingOptions} object.
+     */
+    public PublishBundlingOptions build() {
+      return new PublishBundlingOptions(this);
+    }
+  }
+
+  private PublishBundlingOptions(Builder builder) {
+    maxMessages = builder.maxMessages;
+    maxBytes = builder.maxBytes;
+    delayThresholdMillis = builder.delayThresholdMillis;
+  }
+
+  /**
+   * Returns the number of messages that triggers the publication of a bundle.
+   */
+  public int maxMessages() {
+    return maxMessages;
+  }
+
+  /**
+   * Returns the size, in bytes, of accumulated messages that triggers the publication of a bundle.
+   */
+  public long maxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the maximum time, in milliseconds, a message is held before its bundle is published.
+   */
+  public long delayThresholdMillis() {
+    return delayThresholdMillis;
+  }
+
+  /**
+   * Returns a builder for the current options.
+   */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(maxMessages, maxBytes, delayThresholdMillis);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof PublishBundlingOptions)) {
+      return false;
+    }
+    PublishBundlingOptions other = (PublishBundlingOptions) obj;
+    return maxMessages == other.maxMessages
+        && maxBytes == other.maxBytes
+        && delayThresholdMillis == other.delayThresholdMillis;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("maxMessages", maxMessages)
+        .add("maxBytes", maxBytes)
+        .add("delayThresholdMillis", delayThresholdMillis)
+        .toString();
+  }
+
+  /**
+   * Returns a builder for {@code PublishBundlingOptions} objects.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns a {@code PublishBundlingOptions} object with default settings.
+   */
+  public static PublishBundlingOptions defaultInstance() {
+    return builder().build();
+  }
+}
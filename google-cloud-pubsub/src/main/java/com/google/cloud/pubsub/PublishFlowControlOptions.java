@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Options for publisher flow control. When set via
+ * {@link PubSubOptions.Builder#publishFlowControlOptions(PublishFlowControlOptions)}, the number
+ * and size of outstanding messages (messages passed to a {@code publish} method whose publication
+ * has not completed yet) are limited per topic. When publishing a message would exceed
+ * {@link #maxOutstandingMessages()} or {@link #maxOutstandingBytes()}, the
+ * {@link #limitExceededBehavior()} decides what happens. The current outstanding load of a topic
+ * can be read with {@link PubSub#outstandingPublishMessages(String)} and
+ * {@link PubSub#outstandingPublishBytes(String)}.
+ *
+ * <p>Example of limiting outstanding messages to 10MB per topic, failing publications that exceed
+ * the limit.
+ * <pre> {@code
+ * PublishFlowControlOptions flowControlOptions = PublishFlowControlOptions.builder()
+ *     .maxOutstandingBytes(10L * 1024 * 1024)
+ *     .limitExceededBehavior(LimitExceededBehavior.FAIL_FAST)
+ *     .build();
+ * PubSub pubsub = PubSubOptions.builder()
+ *     .publishFlowControlOptions(flowControlOptions)
+ *     .build()
+ *     .service();
+ * }</pre>
+ */
+public final class PublishFlowControlOptions implements Serializable {
+
+  private static final long serialVersionUID = 2617400463286421532L;
+
+  public static final int DEFAULT_MAX_OUTSTANDING_MESSAGES = 1_000;
+  public static final long DEFAULT_MAX_OUTSTANDING_BYTES = 100L * 1024 * 1024;
+
+  private final int maxOutstandingMessages;
+  private final long maxOutstandingBytes;
+  private final LimitExceededBehavior limitExceededBehavior;
+
+  /**
+   * What to do when publishing a message would exceed the flow control limits of its topic.
+   */
+  public enum LimitExceededBehavior {
+
+    /**
+     * The {@code publish} method blocks until the topic's outstanding messages drop below the
+     * limits.
+     */
+    BLOCK,
+
+    /**
+     * The returned future fails right away with a {@link PubSubException} whose reason is
+     * {@code RESOURCE_EXHAUSTED}.
+     */
+    FAIL_FAST,
+
+    /**
+     * The oldest outstanding messages of the topic that have not been sent yet are dropped to make
+     * room for the new message, their futures fail with a {@link PubSubException} whose reason is
+     * {@code RESOURCE_EXHAUSTED}. Messages are only held before being sent when publish bundling
+     * is enabled (see {@link PublishBundlingOptions}). If not enough messages can be dropped, the
+     * new message fails as with {@link #FAIL_FAST}.
+     */
+    DROP_OLDEST
+  }
+
+  /**
+   * Builder for {@code PublishFlowControlOptions}.
+   */
+  public static final class Builder {
+
+    private int maxOutstandingMessages = DEFAULT_MAX_OUTSTANDING_MESSAGES;
+    private long maxOutstandingBytes = DEFAULT_MAX_OUTSTANDING_BYTES;
+    private LimitExceededBehavior limitExceededBehavior = LimitExceededBehavior.BLOCK;
+
+    private Builder() {}
+
+    private Builder(PublishFlowControlOptions options) {
+      maxOutstandingMessages = options.maxOutstandingMessages;
+      maxOutstandingBytes = options.maxOutstandingBytes;
+      limitExceededBehavior = options.limitExceededBehavior;
+    }
+
+    /**
+     * Sets the maximum number of outstanding messages per topic.
+     */
+    public Builder maxOutstandingMessages(int maxOutstandingMessages) {
+      checkArgument(maxOutstandingMessages > 0, "maxOutstandingMessages must be positive");
+      this.maxOutstandingMessages = maxOutstandingMessages;
+      return this;
+    }
+
+    /**
+     * Sets the maximum size, in bytes, of outstanding messages per topic. A message larger than
+     * this value is only accepted when the topic has no other outstanding messages.
+     */
+    public Builder maxOutstandingBytes(long maxOutstandingBytes) {
+      checkArgument(maxOutstandingBytes > 0, "maxOutstandingBytes must be positive");
+      this.maxOutstandingBytes = maxOutstandingBytes;
+      return this;
+    }
+
+    /**
+     * Sets what to do when publishing a message would exceed the limits. By default
+     * {@link LimitExceededBehavior#BLOCK} is used.
+     */
+    public Builder limitExceededBehavior(LimitExceededBehavior limitExceededBehavior) {
+      this.limitExceededBehavior = checkNotNull(limitExceededBehavior);
+      return this;
+    }
+
+    /**
+     * Creates a {@code PublishFlowControlOptions} object.
+     */
+    public PublishFlowControlOptions build() {
+      return new PublishFlowControlOptions(this);
+    }
+  }
+
+  private PublishFlowControlOptions(Builder builder) {
+    maxOutstandingMessages = builder.maxOutstandingMessages;
+    maxOutstandingBytes = builder.maxOutstandingBytes;
+    limitExceededBehavior = builder.limitExceededBehavior;
+  }
+
+  /**
+   * Returns the maximum number of outstanding messages per topic.
+   */
+  public int maxOutstandingMessages() {
+    return maxOutstandingMessages;
+  }
+
+  /**
+   * Returns the maximum size, in bytes, of outstanding messages per topic.
+   */
+  public long maxOutstandingBytes() {
+    return maxOutstandingBytes;
+  }
+
+  /**
+   * Returns what to do when publishing a message would exceed the limits.
+   */
+  public LimitExceededBehavior limitExceededBehavior() {
+    return limitExceededBehavior;
+  }
+
+  /**
+   * Returns a builder for the current options.
+   */
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(maxOutstandingMessages, maxOutstandingBytes, limitExceededBehavior);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof PublishFlowControlOptions)) {
+      return false;
+    }
+    PublishFlowControlOptions other = (PublishFlowControlOptions) obj;
+    return maxOutstandingMessages == other.maxOutstandingMessages
+        && maxOutstandingBytes == other.maxOutstandingBytes
+        && limitExceededBehavior == other.limitExceededBehavior;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("maxOutstandingMessages", maxOutstandingMessages)
+        .add("maxOutstandingBytes", maxOutstandingBytes)
+        .add("limitExceededBehavior", limitExceededBehavior)
+        .toString();
+  }
+
+  /**
+   * Returns a builder for {@code PublishFlowControlOptions} objects.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns a {@code PublishFlowControlOptions} object with default settings.
+   */
+  public static PublishFlowControlOptions defaultInstance() {
+    return builder().build();
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.cloud.pubsub.PublishFlowControlOptions.LimitExceededBehavior;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.Status;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Class for a publish flow controller. A publish flow controller keeps track of the outstanding
+ * messages of each topic: messages are reserved (via {@link #reserve(String, int, long)}) before
+ * being published and released once their publication completes (via
+ * {@link #releaseWhenDone(String, ListenableFuture, int, long)}). Reservations that would exceed
+ * the limits in {@link PublishFlowControlOptions} block, fail or drop the oldest messages held by
+ * the {@link PublishBundler}, according to
+ * {@link PublishFlowControlOptions#limitExceededBehavior()}.
+ */
+class PublishFlowController {
+
+  private final int maxOutstandingMessages;
+  private final long maxOutstandingBytes;
+  private final LimitExceededBehavior limitExceededBehavior;
+  private final PublishBundler publishBundler;
+  private final ConcurrentMap<String, Outstanding> outstanding = new ConcurrentHashMap<>();
+
+  /**
+   * This class holds the number and size of the outstanding messages of a topic. Its monitor
+   * guards its fields and is used to wait for outstanding messages to be released.
+   */
+  private static final class Outstanding {
+
+    private int messages;
+    private long bytes;
+  }
+
+  PublishFlowController(PublishFlowControlOptions options, PublishBundler publishBundler) {
+    this.maxOutstandingMessages = options.maxOutstandingMessages();
+    this.maxOutstandingBytes = options.maxOutstandingBytes();
+    this.limitExceededBehavior = options.limitExceededBehavior();
+    this.publishBundler = publishBundler;
+  }
+
+  private Outstanding outstanding(String topic) {
+    Outstanding current = outstanding.get(topic);
+    if (current == null) {
+      Outstanding created = new Outstanding();
+      current = outstanding.putIfAbsent(topic, created);
+      if (current == null) {
+        current = created;
+      }
+    }
+    return current;
+  }
+
+  private boolean fits(Outstanding current, int messages, long bytes) {
+    // a publication larger than the limits is accepted when nothing else is outstanding
+    return current.messages == 0
+        || current.messages + messages <= maxOutstandingMessages
+        && current.bytes + bytes <= maxOutstandingBytes;
+  }
+
+  private static PubSubException limitExceeded(String message) {
+    return new PubSubException(Status.Code.RESOURCE_EXHAUSTED.value(), message,
+        Status.Code.RESOURCE_EXHAUSTED.name(), false);
+  }
+
+  /**
+   * Reserves room for messages to be published to the provided topic.
+   *
+   * @param topic the fully qualified name of the topic where messages are published
+   * @param messages the number of messages
+   * @param bytes the size of the messages, in bytes
+   * @throws PubSubException if the limits are exceeded and the messages can not be accepted, or
+   *     if the thread was interrupted while waiting for room
+   */
+  void reserve(String topic, int messages, long bytes) {
+    Outstanding current = outstanding(topic);
+    while (true) {
+      synchronized (current) {
+        if (fits(current, messages, bytes)) {
+          current.messages += messages;
+          current.bytes += bytes;
+          return;
+        }
+        switch (limitExceededBehavior) {
+          case BLOCK:
+            try {
+              current.wait();
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+              throw new PubSubException(Status.Code.CANCELLED.value(),
+                  "Interrupted while waiting for publisher flow control",
+                  Status.Code.CANCELLED.name(), false);
+            }
+            continue;
+          case FAIL_FAST:
+            throw limitExceeded("Publisher flow control limits exceeded for topic " + topic);
+          case DROP_OLDEST:
+            break;
+          default:
+            throw new IllegalStateException("Unexpected behavior " + limitExceededBehavior);
+        }
+      }
+      // Dropped messages are released by their futures' listeners, outside of the monitor
+      if (publishBundler == null || !publishBundler.dropOldest(topic,
+          limitExceeded("Message dropped by publisher flow control"))) {
+        throw limitExceeded("Publisher flow control limits exceeded for topic " + topic
+            + " and no message can be dropped");
+      }
+    }
+  }
+
+  /**
+   * Releases the room reserved for messages once the provided future completes.
+   *
+   * @param topic the fully qualified name of the topic where messages are published
+   * @param future the future of the messages' publication
+   * @param messages the number of messages
+   * @param bytes the size of the messages, in bytes
+   */
+  <V> ListenableFuture<V> releaseWhenDone(final String topic, ListenableFuture<V> future,
+      final int messages, final long bytes) {
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        release(topic, messages, bytes);
+      }
+    }, MoreExecutors.directExecutor());
+    return future;
+  }
+
+  private void release(String topic, int messages, long bytes) {
+    Outstanding current = outstanding(topic);
+    synchronized (current) {
+      current.messages -= messages;
+      current.bytes -= bytes;
+      current.notifyAll();
+    }
+  }
+
+  /**
+   * Returns the number of outstanding messages for the provided topic.
+   */
+  int outstandingMessages(String topic) {
+    Outstanding current = outstanding.get(topic);
+    if (current == null) {
+      return 0;
+    }
+    synchronized (current) {
+      return current.messages;
+    }
+  }
+
+  /**
+   * Returns the size, in bytes, of the outstanding messages for the provided topic.
+   */
+  long outstandingBytes(String topic) {
+    Outstanding current = outstanding.get(topic);
+    if (current == null) {
+      return 0;
+    }
+    synchronized (current) {
+      return current.bytes;
+    }
+  }
+}
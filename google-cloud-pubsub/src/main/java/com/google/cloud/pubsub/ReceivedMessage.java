@@ -22,6 +22,7 @@ import com.google.cloud.ByteArray;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Future;
@@ -77,6 +78,12 @@ public final class ReceivedMessage extends Message {
       return this;
     }
 
+    @Override
+    public Builder payload(ByteBuffer payload) {
+      delegate.payload(payload);
+      return this;
+    }
+
     @Override
     public Builder attributes(Map<String, String> attributes) {
       delegate.attributes(attributes);
@@ -247,8 +254,7 @@ public final class ReceivedMessage extends Message {
 
   static ReceivedMessage fromPb(PubSub pubsub, String subscription,
       com.google.pubsub.v1.ReceivedMessage msgPb) {
-    Message message = fromPb(msgPb.getMessage());
     String ackId = msgPb.getAckId();
-    return new Builder(subscription, ackId, pubsub, new BuilderImpl(message)).build();
+    return new Builder(subscription, ackId, pubsub, builderFromPb(msgPb.getMessage())).build();
   }
 }
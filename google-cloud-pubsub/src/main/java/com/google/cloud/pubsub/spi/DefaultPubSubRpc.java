@@ -189,7 +189,7 @@ public class DefaultPubSubRpc implements PubSubRpc {
   }
 
   @Override
-  public Future<PublishResponse> publish(PublishRequest request) {
+  public ListenableFuture<PublishResponse> publish(PublishRequest request) {
     return translate(publisherApi.publishCallable().futureCall(request), false);
   }
 
@@ -16,6 +16,7 @@
 
 package com.google.cloud.pubsub.spi;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.iam.v1.Policy;
 import com.google.iam.v1.SetIamPolicyRequest;
 import com.google.iam.v1.TestIamPermissionsRequest;
@@ -92,12 +93,13 @@ public interface PubSubRpc extends AutoCloseable {
   Future<Topic> create(Topic topic);
 
   /**
-   * Sends a request to publish messages. This method returns a {@code Future} object to consume the
-   * result. {@link Future#get()} returns a response object containing the publish result.
+   * Sends a request to publish messages. This method returns a {@code ListenableFuture} object to
+   * consume the result. {@link Future#get()} returns a response object containing the publish
+   * result.
    *
    * @param request the request object containing all of the parameters for the API call
    */
-  Future<PublishResponse> publish(PublishRequest request);
+  ListenableFuture<PublishResponse> publish(PublishRequest request);
 
   /**
    * Sends a request to get a topic. This method returns a {@code Future} object to consume the
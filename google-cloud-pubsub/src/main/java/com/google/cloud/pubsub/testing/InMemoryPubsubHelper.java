@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub.testing;
+
+import com.google.cloud.AuthCredentials;
+import com.google.cloud.Clock;
+import com.google.cloud.RetryParams;
+import com.google.cloud.pubsub.PubSubOptions;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.NegotiationType;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.UUID;
+
+/**
+ * A class that runs an in-memory Pub/Sub server in the current process, for use in tests and
+ * benchmarks. Unlike {@link LocalPubsubHelper}, it does not require the Cloud SDK nor network
+ * access. The server listens on an ephemeral port on localhost and is backed by an
+ * {@link InMemoryPubsubImpl}.
+ *
+ * <p>Example of running a test against the in-memory server.
+ * <pre> {@code
+ * InMemoryPubsubHelper helper = InMemoryPubsubHelper.create();
+ * helper.start();
+ * PubSub pubsub = helper.options().service();
+ * // use pubsub
+ * pubsub.close();
+ * helper.stop();
+ * }</pre>
+ */
+public class InMemoryPubsubHelper {
+
+  private static final String DEFAULT_HOST = "localhost";
+  private static final String PROJECT_ID_PREFIX = "test-project-";
+
+  private final Server server;
+  private final InMemoryPubsubImpl pubsubImpl;
+  private final String projectId;
+
+  private InMemoryPubsubHelper(Clock clock) {
+    pubsubImpl = new InMemoryPubsubImpl(clock);
+    server = NettyServerBuilder.forAddress(new InetSocketAddress(DEFAULT_HOST, 0))
+        .addService(pubsubImpl.publisherService().bindService())
+        .addService(pubsubImpl.subscriberService().bindService())
+        .build();
+    projectId = PROJECT_ID_PREFIX + UUID.randomUUID().toString();
+  }
+
+  /**
+   * Constructs a new {@code InMemoryPubsubHelper}. The method {@code start()} must be called before
+   * it is used.
+   */
+  public static InMemoryPubsubHelper create() {
+    return new InMemoryPubsubHelper(Clock.defaultClock());
+  }
+
+  /**
+   * Constructs a new {@code InMemoryPubsubHelper} whose ack deadlines are measured with the
+   * provided clock. The method {@code start()} must be called before it is used.
+   */
+  public static InMemoryPubsubHelper create(Clock clock) {
+    return new InMemoryPubsubHelper(clock);
+  }
+
+  /**
+   * Starts the in-memory server.
+   *
+   * @throws IOException if the server could not be bound
+   */
+  public void start() throws IOException {
+    server.start();
+  }
+
+  /**
+   * Resets the state of the in-memory server.
+   */
+  public void reset() {
+    pubsubImpl.reset();
+  }
+
+  /**
+   * Shuts down the in-memory server.
+   */
+  public void stop() {
+    server.shutdownNow();
+  }
+
+  /**
+   * Returns the internal in-memory service.
+   */
+  public InMemoryPubsubImpl pubsubImpl() {
+    return pubsubImpl;
+  }
+
+  /**
+   * Returns the port the in-memory server listens on. The server must have been started.
+   */
+  public int port() {
+    return server.getPort();
+  }
+
+  /**
+   * Creates a channel for making requests to the in-memory server.
+   */
+  public ManagedChannel createChannel() {
+    return NettyChannelBuilder.forAddress(DEFAULT_HOST, port())
+        .negotiationType(NegotiationType.PLAINTEXT)
+        .build();
+  }
+
+  /**
+   * Returns a {@link PubSubOptions} instance that sets the host to use the in-memory server. The
+   * server must have been started.
+   */
+  public PubSubOptions options() {
+    return PubSubOptions.builder()
+        .projectId(projectId)
+        .host(DEFAULT_HOST + ":" + port())
+        .authCredentials(AuthCredentials.noAuth())
+        .retryParams(RetryParams.noRetries())
+        .build();
+  }
+}
@@ -0,0 +1,668 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub.testing;
+
+import com.google.cloud.Clock;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Timestamp;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.DeleteSubscriptionRequest;
+import com.google.pubsub.v1.DeleteTopicRequest;
+import com.google.pubsub.v1.GetSubscriptionRequest;
+import com.google.pubsub.v1.GetTopicRequest;
+import com.google.pubsub.v1.ListSubscriptionsRequest;
+import com.google.pubsub.v1.ListSubscriptionsResponse;
+import com.google.pubsub.v1.ListTopicSubscriptionsRequest;
+import com.google.pubsub.v1.ListTopicSubscriptionsResponse;
+import com.google.pubsub.v1.ListTopicsRequest;
+import com.google.pubsub.v1.ListTopicsResponse;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import com.google.pubsub.v1.ModifyPushConfigRequest;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PublisherGrpc;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PullRequest;
+import com.google.pubsub.v1.PullResponse;
+import com.google.pubsub.v1.ReceivedMessage;
+import com.google.pubsub.v1.Subscription;
+import com.google.pubsub.v1.SubscriberGrpc;
+import com.google.pubsub.v1.Topic;
+
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory implementation of the Pub/Sub Publisher and Subscriber services. Topics and
+ * subscriptions are kept in memory, published messages are queued for every subscription of their
+ * topic and pulled messages are redelivered if they are not acknowledged before their ack deadline
+ * expires. Ack deadlines are measured with the {@link Clock} provided at construction time.
+ * Push delivery and IAM methods are not supported. The services to register with a gRPC server
+ * are returned by {@link #publisherService()} and {@link #subscriberService()}.
+ */
+public class InMemoryPubsubImpl {
+
+  static final String DELETED_TOPIC = "_deleted-topic_";
+  static final int DEFAULT_ACK_DEADLINE_SECONDS = 10;
+  static final int MAX_ACK_DEADLINE_SECONDS = 600;
+  static final int DEFAULT_PAGE_SIZE = 100;
+  static final long MAX_PULL_WAIT_MILLIS = 1000;
+  private static final long PULL_POLL_MILLIS = 100;
+
+  private final Clock clock;
+  private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+  private final Object lock = new Object();
+  // the following fields are guarded by lock
+  private final NavigableMap<String, Topic> topics = new TreeMap<>();
+  private final NavigableMap<String, SubscriptionState> subscriptions = new TreeMap<>();
+  private long nextMessageId;
+  private long nextAckId;
+  private final PublisherGrpc.PublisherImplBase publisherService = new PublisherService();
+  private final SubscriberGrpc.SubscriberImplBase subscriberService = new SubscriberService();
+
+  /**
+   * A message pulled from a subscription and not acknowledged yet.
+   */
+  private static final class OutstandingMessage {
+
+    private final PubsubMessage message;
+    private long deadline;
+
+    OutstandingMessage(PubsubMessage message, long deadline) {
+      this.message = message;
+      this.deadline = deadline;
+    }
+  }
+
+  /**
+   * The state of a subscription: messages waiting to be pulled and outstanding messages, by ack
+   * id.
+   */
+  private static final class SubscriptionState {
+
+    private Subscription subscription;
+    private final Deque<PubsubMessage> pending = new ArrayDeque<>();
+    private final Map<String, OutstandingMessage> outstanding = new LinkedHashMap<>();
+    private long nextExpiration = Long.MAX_VALUE;
+
+    SubscriptionState(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    /**
+     * Moves outstanding messages whose deadline has expired back to the front of the pending
+     * queue, oldest first.
+     */
+    void expireDeadlines(long now) {
+      if (now < nextExpiration) {
+        return;
+      }
+      List<PubsubMessage> expired = new ArrayList<>();
+      nextExpiration = Long.MAX_VALUE;
+      Iterator<OutstandingMessage> iterator = outstanding.values().iterator();
+      while (iterator.hasNext()) {
+        OutstandingMessage outstandingMessage = iterator.next();
+        if (outstandingMessage.deadline <= now) {
+          expired.add(outstandingMessage.message);
+          iterator.remove();
+        } else {
+          nextExpiration = Math.min(nextExpiration, outstandingMessage.deadline);
+        }
+      }
+      for (int i = expired.size() - 1; i >= 0; i--) {
+        pending.addFirst(expired.get(i));
+      }
+    }
+  }
+
+  /**
+   * The Publisher service, forwarding requests to the enclosing instance.
+   */
+  private final class PublisherService extends PublisherGrpc.PublisherImplBase {
+
+    @Override
+    public void createTopic(Topic request, StreamObserver<Topic> responseObserver) {
+      InMemoryPubsubImpl.this.createTopic(request, responseObserver);
+    }
+
+    @Override
+    public void publish(PublishRequest request, StreamObserver<PublishResponse> responseObserver) {
+      InMemoryPubsubImpl.this.publish(request, responseObserver);
+    }
+
+    @Override
+    public void getTopic(GetTopicRequest request, StreamObserver<Topic> responseObserver) {
+      InMemoryPubsubImpl.this.getTopic(request, responseObserver);
+    }
+
+    @Override
+    public void listTopics(ListTopicsRequest request,
+        StreamObserver<ListTopicsResponse> responseObserver) {
+      InMemoryPubsubImpl.this.listTopics(request, responseObserver);
+    }
+
+    @Override
+    public void listTopicSubscriptions(ListTopicSubscriptionsRequest request,
+        StreamObserver<ListTopicSubscriptionsResponse> responseObserver) {
+      InMemoryPubsubImpl.this.listTopicSubscriptions(request, responseObserver);
+    }
+
+    @Override
+    public void deleteTopic(DeleteTopicRequest request, StreamObserver<Empty> responseObserver) {
+      InMemoryPubsubImpl.this.deleteTopic(request, responseObserver);
+    }
+  }
+
+  /**
+   * The Subscriber service, forwarding requests to the enclosing instance.
+   */
+  private final class SubscriberService extends SubscriberGrpc.SubscriberImplBase {
+
+    @Override
+    public void createSubscription(Subscription request,
+        StreamObserver<Subscription> responseObserver) {
+      InMemoryPubsubImpl.this.createSubscription(request, responseObserver);
+    }
+
+    @Override
+    public void getSubscription(GetSubscriptionRequest request,
+        StreamObserver<Subscription> responseObserver) {
+      InMemoryPubsubImpl.this.getSubscription(request, responseObserver);
+    }
+
+    @Override
+    public void listSubscriptions(ListSubscriptionsRequest request,
+        StreamObserver<ListSubscriptionsResponse> responseObserver) {
+      InMemoryPubsubImpl.this.listSubscriptions(request, responseObserver);
+    }
+
+    @Override
+    public void deleteSubscription(DeleteSubscriptionRequest request,
+        StreamObserver<Empty> responseObserver) {
+      InMemoryPubsubImpl.this.deleteSubscription(request, responseObserver);
+    }
+
+    @Override
+    public void modifyAckDeadline(ModifyAckDeadlineRequest request,
+        StreamObserver<Empty> responseObserver) {
+      InMemoryPubsubImpl.this.modifyAckDeadline(request, responseObserver);
+    }
+
+    @Override
+    public void acknowledge(AcknowledgeRequest request, StreamObserver<Empty> responseObserver) {
+      InMemoryPubsubImpl.this.acknowledge(request, responseObserver);
+    }
+
+    @Override
+    public void pull(PullRequest request, StreamObserver<PullResponse> responseObserver) {
+      InMemoryPubsubImpl.this.pull(request, responseObserver);
+    }
+
+    @Override
+    public void modifyPushConfig(ModifyPushConfigRequest request,
+        StreamObserver<Empty> responseObserver) {
+      InMemoryPubsubImpl.this.modifyPushConfig(request, responseObserver);
+    }
+  }
+
+  public InMemoryPubsubImpl() {
+    this(Clock.defaultClock());
+  }
+
+  public InMemoryPubsubImpl(Clock clock) {
+    this.clock = clock;
+  }
+
+  private static void notFound(StreamObserver<?> responseObserver, String resource) {
+    responseObserver.onError(
+        Status.NOT_FOUND.withDescription("Resource not found: " + resource).asRuntimeException());
+  }
+
+  private static void alreadyExists(StreamObserver<?> responseObserver, String resource) {
+    responseObserver.onError(Status.ALREADY_EXISTS
+        .withDescription("Resource already exists: " + resource).asRuntimeException());
+  }
+
+  private static void invalidArgument(StreamObserver<?> responseObserver, String message) {
+    responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(message).asRuntimeException());
+  }
+
+  private void countRequest(String method) {
+    AtomicLong count = requestCounts.get(method);
+    if (count == null) {
+      AtomicLong created = new AtomicLong();
+      count = requestCounts.putIfAbsent(method, created);
+      if (count == null) {
+        count = created;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  private static <V> void respond(StreamObserver<V> responseObserver, V response) {
+    responseObserver.onNext(response);
+    responseObserver.onCompleted();
+  }
+
+  private static int pageSize(int requestedPageSize) {
+    return requestedPageSize > 0 ? requestedPageSize : DEFAULT_PAGE_SIZE;
+  }
+
+  /**
+   * Returns the entries of {@code map} whose key starts with {@code prefix} and follows
+   * {@code pageToken}, the last key of the previous page.
+   */
+  private static <V> NavigableMap<String, V> page(NavigableMap<String, V> map, String prefix,
+      String pageToken) {
+    String from = pageToken.isEmpty() ? prefix : pageToken;
+    return map.tailMap(from, pageToken.isEmpty()).headMap(prefix + Character.MAX_VALUE, false);
+  }
+
+  private static long deadline(long now, int ackDeadlineSeconds) {
+    return now + TimeUnit.SECONDS.toMillis(ackDeadlineSeconds);
+  }
+
+  public void createTopic(Topic request, StreamObserver<Topic> responseObserver) {
+    countRequest("createTopic");
+    synchronized (lock) {
+      if (topics.containsKey(request.getName())) {
+        alreadyExists(responseObserver, request.getName());
+        return;
+      }
+      topics.put(request.getName(), request);
+    }
+    respond(responseObserver, request);
+  }
+
+  public void publish(PublishRequest request, StreamObserver<PublishResponse> responseObserver) {
+    countRequest("publish");
+    PublishResponse.Builder response = PublishResponse.newBuilder();
+    synchronized (lock) {
+      if (!topics.containsKey(request.getTopic())) {
+        notFound(responseObserver, request.getTopic());
+        return;
+      }
+      long now = clock.millis();
+      Timestamp publishTime = Timestamp.newBuilder()
+          .setSeconds(TimeUnit.MILLISECONDS.toSeconds(now))
+          .setNanos((int) TimeUnit.MILLISECONDS.toNanos(now % 1000))
+          .build();
+      List<PubsubMessage> messages = new ArrayList<>(request.getMessagesCount());
+      for (PubsubMessage message : request.getMessagesList()) {
+        String messageId = Long.toString(++nextMessageId);
+        messages.add(message.toBuilder()
+            .setMessageId(messageId)
+            .setPublishTime(publishTime)
+            .build());
+        response.addMessageIds(messageId);
+      }
+      for (SubscriptionState state : subscriptions.values()) {
+        if (state.subscription.getTopic().equals(request.getTopic())) {
+          state.pending.addAll(messages);
+        }
+      }
+      lock.notifyAll();
+    }
+    respond(responseObserver, response.build());
+  }
+
+  public void getTopic(GetTopicRequest request, StreamObserver<Topic> responseObserver) {
+    countRequest("getTopic");
+    Topic topic;
+    synchronized (lock) {
+      topic = topics.get(request.getTopic());
+    }
+    if (topic == null) {
+      notFound(responseObserver, request.getTopic());
+      return;
+    }
+    respond(responseObserver, topic);
+  }
+
+  public void listTopics(ListTopicsRequest request,
+      StreamObserver<ListTopicsResponse> responseObserver) {
+    countRequest("listTopics");
+    ListTopicsResponse.Builder response = ListTopicsResponse.newBuilder();
+    int pageSize = pageSize(request.getPageSize());
+    synchronized (lock) {
+      String prefix = request.getProject() + "/topics/";
+      for (Topic topic : page(topics, prefix, request.getPageToken()).values()) {
+        if (response.getTopicsCount() == pageSize) {
+          response.setNextPageToken(response.getTopics(pageSize - 1).getName());
+          break;
+        }
+        response.addTopics(topic);
+      }
+    }
+    respond(responseObserver, response.build());
+  }
+
+  public void listTopicSubscriptions(ListTopicSubscriptionsRequest request,
+      StreamObserver<ListTopicSubscriptionsResponse> responseObserver) {
+    countRequest("listTopicSubscriptions");
+    ListTopicSubscriptionsResponse.Builder response = ListTopicSubscriptionsResponse.newBuilder();
+    int pageSize = pageSize(request.getPageSize());
+    synchronized (lock) {
+      if (!topics.containsKey(request.getTopic())) {
+        notFound(responseObserver, request.getTopic());
+        return;
+      }
+      String prefix = request.getTopic().substring(0, request.getTopic().indexOf("/topics/"))
+          + "/subscriptions/";
+      for (SubscriptionState state : page(subscriptions, prefix, request.getPageToken()).values()) {
+        if (!state.subscription.getTopic().equals(request.getTopic())) {
+          continue;
+        }
+        if (response.getSubscriptionsCount() == pageSize) {
+          response.setNextPageToken(response.getSubscriptions(pageSize - 1));
+          break;
+        }
+        response.addSubscriptions(state.subscription.getName());
+      }
+    }
+    respond(responseObserver, response.build());
+  }
+
+  public void deleteTopic(DeleteTopicRequest request, StreamObserver<Empty> responseObserver) {
+    countRequest("deleteTopic");
+    synchronized (lock) {
+      if (topics.remove(request.getTopic()) == null) {
+        notFound(responseObserver, request.getTopic());
+        return;
+      }
+      for (SubscriptionState state : subscriptions.values()) {
+        if (state.subscription.getTopic().equals(request.getTopic())) {
+          state.subscription = state.subscription.toBuilder().setTopic(DELETED_TOPIC).build();
+        }
+      }
+    }
+    respond(responseObserver, Empty.getDefaultInstance());
+  }
+
+  public void createSubscription(Subscription request,
+      StreamObserver<Subscription> responseObserver) {
+    countRequest("createSubscription");
+    Subscription subscription = request;
+    if (subscription.getAckDeadlineSeconds() == 0) {
+      subscription = subscription.toBuilder()
+          .setAckDeadlineSeconds(DEFAULT_ACK_DEADLINE_SECONDS)
+          .build();
+    }
+    synchronized (lock) {
+      if (!topics.containsKey(subscription.getTopic())) {
+        notFound(responseObserver, subscription.getTopic());
+        return;
+      }
+      if (subscriptions.containsKey(subscription.getName())) {
+        alreadyExists(responseObserver, subscription.getName());
+        return;
+      }
+      subscriptions.put(subscription.getName(), new SubscriptionState(subscription));
+    }
+    respond(responseObserver, subscription);
+  }
+
+  public void getSubscription(GetSubscriptionRequest request,
+      StreamObserver<Subscription> responseObserver) {
+    countRequest("getSubscription");
+    Subscription subscription = null;
+    synchronized (lock) {
+      SubscriptionState state = subscriptions.get(request.getSubscription());
+      if (state != null) {
+        subscription = state.subscription;
+      }
+    }
+    if (subscription == null) {
+      notFound(responseObserver, request.getSubscription());
+      return;
+    }
+    respond(responseObserver, subscription);
+  }
+
+  public void listSubscriptions(ListSubscriptionsRequest request,
+      StreamObserver<ListSubscriptionsResponse> responseObserver) {
+    countRequest("listSubscriptions");
+    ListSubscriptionsResponse.Builder response = ListSubscriptionsResponse.newBuilder();
+    int pageSize = pageSize(request.getPageSize());
+    synchronized (lock) {
+      String prefix = request.getProject() + "/subscriptions/";
+      for (SubscriptionState state : page(subscriptions, prefix, request.getPageToken()).values()) {
+        if (response.getSubscriptionsCount() == pageSize) {
+          response.setNextPageToken(response.getSubscriptions(pageSize - 1).getName());
+          break;
+        }
+        response.addSubscriptions(state.subscription);
+      }
+    }
+    respond(responseObserver, response.build());
+  }
+
+  public void deleteSubscription(DeleteSubscriptionRequest request,
+      StreamObserver<Empty> responseObserver) {
+    countRequest("deleteSubscription");
+    synchronized (lock) {
+      if (subscriptions.remove(request.getSubscription()) == null) {
+        notFound(responseObserver, request.getSubscription());
+        return;
+      }
+      // wakes up pulls waiting on the deleted subscription
+      lock.notifyAll();
+    }
+    respond(responseObserver, Empty.getDefaultInstance());
+  }
+
+  public void modifyAckDeadline(ModifyAckDeadlineRequest request,
+      StreamObserver<Empty> responseObserver) {
+    countRequest("modifyAckDeadline");
+    int ackDeadlineSeconds = request.getAckDeadlineSeconds();
+    if (ackDeadlineSeconds < 0 || ackDeadlineSeconds > MAX_ACK_DEADLINE_SECONDS) {
+      invalidArgument(responseObserver, "Invalid ack deadline " + ackDeadlineSeconds);
+      return;
+    }
+    synchronized (lock) {
+      SubscriptionState state = subscriptions.get(request.getSubscription());
+      if (state == null) {
+        notFound(responseObserver, request.getSubscription());
+        return;
+      }
+      long now = clock.millis();
+      state.expireDeadlines(now);
+      long deadline = deadline(now, ackDeadlineSeconds);
+      for (String ackId : request.getAckIdsList()) {
+        OutstandingMessage outstandingMessage = state.outstanding.get(ackId);
+        if (outstandingMessage != null) {
+          outstandingMessage.deadline = deadline;
+          state.nextExpiration = Math.min(state.nextExpiration, deadline);
+        }
+      }
+      if (ackDeadlineSeconds == 0) {
+        state.expireDeadlines(now);
+        lock.notifyAll();
+      }
+    }
+    respond(responseObserver, Empty.getDefaultInstance());
+  }
+
+  public void acknowledge(AcknowledgeRequest request, StreamObserver<Empty> responseObserver) {
+    countRequest("acknowledge");
+    synchronized (lock) {
+      SubscriptionState state = subscriptions.get(request.getSubscription());
+      if (state == null) {
+        notFound(responseObserver, request.getSubscription());
+        return;
+      }
+      // messages whose deadline expired can no longer be acknowledged
+      state.expireDeadlines(clock.millis());
+      for (String ackId : request.getAckIdsList()) {
+        state.outstanding.remove(ackId);
+      }
+    }
+    respond(responseObserver, Empty.getDefaultInstance());
+  }
+
+  /**
+   * Pulls messages from a subscription. If no message is available and
+   * {@link PullRequest#getReturnImmediately()} is {@code false}, the call waits up to
+   * {@link #MAX_PULL_WAIT_MILLIS} for messages to be published or redelivered before returning
+   * an empty response.
+   */
+  public void pull(PullRequest request, StreamObserver<PullResponse> responseObserver) {
+    countRequest("pull");
+    if (request.getMaxMessages() <= 0) {
+      invalidArgument(responseObserver, "maxMessages must be positive");
+      return;
+    }
+    Context context = Context.current();
+    long waitUntil = System.nanoTime() + (request.getReturnImmediately()
+        ? 0 : TimeUnit.MILLISECONDS.toNanos(MAX_PULL_WAIT_MILLIS));
+    PullResponse.Builder response = PullResponse.newBuilder();
+    synchronized (lock) {
+      while (true) {
+        SubscriptionState state = subscriptions.get(request.getSubscription());
+        if (state == null) {
+          notFound(responseObserver, request.getSubscription());
+          return;
+        }
+        long now = clock.millis();
+        state.expireDeadlines(now);
+        if (context.isCancelled()) {
+          responseObserver.onError(Status.CANCELLED.asRuntimeException());
+          return;
+        }
+        long waitNanos = waitUntil - System.nanoTime();
+        if (!state.pending.isEmpty() || waitNanos <= 0) {
+          long deadline = deadline(now, state.subscription.getAckDeadlineSeconds());
+          while (!state.pending.isEmpty()
+              && response.getReceivedMessagesCount() < request.getMaxMessages()) {
+            PubsubMessage message = state.pending.poll();
+            String ackId = Long.toString(++nextAckId);
+            state.outstanding.put(ackId, new OutstandingMessage(message, deadline));
+            state.nextExpiration = Math.min(state.nextExpiration, deadline);
+            response.addReceivedMessages(
+                ReceivedMessage.newBuilder().setAckId(ackId).setMessage(message));
+          }
+          break;
+        }
+        try {
+          // waits in small steps to notice deadline expirations and cancelled calls
+          lock.wait(Math.max(1,
+              Math.min(PULL_POLL_MILLIS, TimeUnit.NANOSECONDS.toMillis(waitNanos))));
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          responseObserver.onError(Status.CANCELLED.withCause(ex).asRuntimeException());
+          return;
+        }
+      }
+    }
+    respond(responseObserver, response.build());
+  }
+
+  public void modifyPushConfig(ModifyPushConfigRequest request,
+      StreamObserver<Empty> responseObserver) {
+    countRequest("modifyPushConfig");
+    synchronized (lock) {
+      SubscriptionState state = subscriptions.get(request.getSubscription());
+      if (state == null) {
+        notFound(responseObserver, request.getSubscription());
+        return;
+      }
+      state.subscription =
+          state.subscription.toBuilder().setPushConfig(request.getPushConfig()).build();
+    }
+    respond(responseObserver, Empty.getDefaultInstance());
+  }
+
+  /**
+   * Returns the Publisher service backed by this instance, to be registered with a gRPC server.
+   */
+  public PublisherGrpc.PublisherImplBase publisherService() {
+    return publisherService;
+  }
+
+  /**
+   * Returns the Subscriber service backed by this instance, to be registered with a gRPC server.
+   */
+  public SubscriberGrpc.SubscriberImplBase subscriberService() {
+    return subscriberService;
+  }
+
+  /**
+   * Returns the number of messages of the provided subscription that are waiting to be pulled,
+   * including messages that are waiting to be redelivered.
+   */
+  public int pendingMessages(String subscription) {
+    synchronized (lock) {
+      SubscriptionState state = subscriptions.get(subscription);
+      if (state == null) {
+        return 0;
+      }
+      state.expireDeadlines(clock.millis());
+      return state.pending.size();
+    }
+  }
+
+  /**
+   * Returns the number of messages of the provided subscription that were pulled and are not
+   * acknowledged yet.
+   */
+  public int outstandingMessages(String subscription) {
+    synchronized (lock) {
+      SubscriptionState state = subscriptions.get(subscription);
+      if (state == null) {
+        return 0;
+      }
+      state.expireDeadlines(clock.millis());
+      return state.outstanding.size();
+    }
+  }
+
+  /**
+   * Returns the number of requests received by the provided method, e.g. {@code "pull"} or
+   * {@code "acknowledge"}, since creation or the last {@link #reset()}.
+   */
+  public long requestCount(String method) {
+    AtomicLong count = requestCounts.get(method);
+    return count != null ? count.get() : 0;
+  }
+
+  /**
+   * Removes all topics, subscriptions and messages and clears request counts.
+   */
+  public void reset() {
+    requestCounts.clear();
+    synchronized (lock) {
+      topics.clear();
+      subscriptions.clear();
+      lock.notifyAll();
+    }
+  }
+}
@@ -30,6 +30,9 @@
  * helper.stop();
  * } </pre>
  *
+ * <p>{@link com.google.cloud.pubsub.testing.InMemoryPubsubHelper} can be used in the same way to
+ * run an in-memory Pub/Sub server in the test process, without the Cloud SDK.
+ *
  * @see <a href="https://github.com/GoogleCloudPlatform/google-cloud-java/blob/master/TESTING.md#testing-code-that-uses-pubsub">
  *     Google Cloud Java tools for testing</a>
  */
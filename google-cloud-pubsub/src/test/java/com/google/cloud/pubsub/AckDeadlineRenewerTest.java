@@ -16,11 +16,14 @@
 
 package com.google.cloud.pubsub;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.google.cloud.Clock;
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.common.collect.ImmutableList;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.junit.After;
@@ -47,6 +50,7 @@ public class AckDeadlineRenewerTest {
   private static final String ACK_ID3 = "ack-id3";
 
   private PubSub pubsub;
+  private AckDispatcher ackDispatcher;
   private AckDeadlineRenewer ackDeadlineRenewer;
 
   @Rule
@@ -60,13 +64,32 @@ public class AckDeadlineRenewerTest {
         .build();
     EasyMock.expect(pubsub.options()).andReturn(options);
     EasyMock.replay(pubsub);
-    ackDeadlineRenewer = new AckDeadlineRenewer(pubsub);
+    ackDispatcher = new AckDispatcher(pubsub, options.executorFactory());
+    ackDeadlineRenewer = new AckDeadlineRenewer(pubsub, ackDispatcher);
   }
 
   @After
   public void tearDown() throws Exception {
     EasyMock.verify(pubsub);
+    // renewals buffered after the test completed are ignored
+    EasyMock.resetToNice(pubsub);
+    EasyMock.replay(pubsub);
     ackDeadlineRenewer.close();
+    ackDispatcher.close();
+  }
+
+  private static final class FakeClock extends Clock {
+
+    private long millis;
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+
+    void millis(long millis) {
+      this.millis = millis;
+    }
   }
 
   private static IAnswer<Future<Void>> createAnswer(final CountDownLatch latch,
@@ -239,6 +262,97 @@ public class AckDeadlineRenewerTest {
     assertTrue(secondRenewalSub2.get() < (firstRenewalSub2.get() + MIN_DEADLINE_MILLIS));
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRenewalsAreBatched() throws Exception {
+    PubSub pubsub = EasyMock.createStrictMock(PubSub.class);
+    AckDispatcher ackDispatcher = EasyMock.createStrictMock(AckDispatcher.class);
+    ScheduledExecutorService executor = EasyMock.createMock(ScheduledExecutorService.class);
+    ExecutorFactory executorFactory = EasyMock.createStrictMock(ExecutorFactory.class);
+    ScheduledFuture future = EasyMock.createNiceMock(ScheduledFuture.class);
+    FakeClock clock = new FakeClock();
+    EasyMock.expect(executorFactory.get()).andReturn(executor);
+    Capture<Runnable> renewal = Capture.newInstance();
+    EasyMock.expect(executor.schedule(EasyMock.capture(renewal), EasyMock.anyLong(),
+        EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(future).anyTimes();
+    PubSubOptions options = PubSubOptions.builder()
+        .projectId("projectId")
+        .executorFactory(executorFactory)
+        .clock(clock)
+        .build();
+    EasyMock.expect(pubsub.options()).andReturn(options);
+    // the deadlines of ACK_ID1 and ACK_ID2 expire 1.5 seconds apart, they are renewed together
+    ackDispatcher.modifyAckDeadline(SUBSCRIPTION1, MIN_DEADLINE_MILLIS, TimeUnit.MILLISECONDS,
+        ImmutableList.of(ACK_ID1, ACK_ID2));
+    EasyMock.expectLastCall();
+    executorFactory.release(executor);
+    EasyMock.expectLastCall();
+    EasyMock.replay(executor, executorFactory, future, pubsub, ackDispatcher);
+    AckDeadlineRenewer ackDeadlineRenewer = new AckDeadlineRenewer(pubsub, ackDispatcher);
+    ackDeadlineRenewer.add(SUBSCRIPTION1, ACK_ID1);
+    clock.millis(1_500);
+    ackDeadlineRenewer.add(SUBSCRIPTION1, ACK_ID2);
+    clock.millis(5_000);
+    renewal.getValue().run();
+    clock.millis(7_000);
+    renewal.getValue().run();
+    ackDeadlineRenewer.close();
+    EasyMock.verify(pubsub, ackDispatcher, executor, executorFactory);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testExtensionAdaptsToProcessingTime() throws Exception {
+    PubSub pubsub = EasyMock.createStrictMock(PubSub.class);
+    AckDispatcher ackDispatcher = EasyMock.createStrictMock(AckDispatcher.class);
+    ScheduledExecutorService executor = EasyMock.createMock(ScheduledExecutorService.class);
+    ExecutorFactory executorFactory = EasyMock.createStrictMock(ExecutorFactory.class);
+    ScheduledFuture future = EasyMock.createNiceMock(ScheduledFuture.class);
+    FakeClock clock = new FakeClock();
+    EasyMock.expect(executorFactory.get()).andReturn(executor);
+    Capture<Runnable> renewal = Capture.newInstance();
+    EasyMock.expect(executor.schedule(EasyMock.capture(renewal), EasyMock.anyLong(),
+        EasyMock.eq(TimeUnit.MILLISECONDS))).andReturn(future).anyTimes();
+    PubSubOptions options = PubSubOptions.builder()
+        .projectId("projectId")
+        .executorFactory(executorFactory)
+        .clock(clock)
+        .build();
+    EasyMock.expect(pubsub.options()).andReturn(options);
+    ackDispatcher.modifyAckDeadline(SUBSCRIPTION1, 30_000, TimeUnit.MILLISECONDS,
+        ImmutableList.of(ACK_ID2));
+    EasyMock.expectLastCall();
+    executorFactory.release(executor);
+    EasyMock.expectLastCall();
+    EasyMock.replay(executor, executorFactory, future, pubsub, ackDispatcher);
+    AckDeadlineRenewer ackDeadlineRenewer = new AckDeadlineRenewer(pubsub, ackDispatcher);
+    assertEquals(MIN_DEADLINE_MILLIS, ackDeadlineRenewer.extensionMillis());
+    ackDeadlineRenewer.add(SUBSCRIPTION1, ACK_ID1);
+    clock.millis(30_000);
+    ackDeadlineRenewer.remove(SUBSCRIPTION1, ACK_ID1);
+    assertEquals(30_000, ackDeadlineRenewer.extensionMillis());
+    ackDeadlineRenewer.add(SUBSCRIPTION1, ACK_ID2);
+    clock.millis(35_000);
+    renewal.getValue().run();
+    clock.millis(36_000);
+    renewal.getValue().run();
+    ackDeadlineRenewer.close();
+    EasyMock.verify(pubsub, ackDispatcher, executor, executorFactory);
+  }
+
+  @Test
+  public void testDistribution() {
+    AckDeadlineRenewer.Distribution distribution = new AckDeadlineRenewer.Distribution(600);
+    assertEquals(0, distribution.percentile(99));
+    for (int i = 1; i <= 100; i++) {
+      distribution.record(i * 1_000L);
+    }
+    assertEquals(50, distribution.percentile(50));
+    assertEquals(99, distribution.percentile(99));
+    distribution.record(1_000_000L);
+    assertEquals(600, distribution.percentile(100));
+  }
+
   @Test
   @SuppressWarnings("unchecked")
   public void testClose() throws Exception {
@@ -254,7 +368,7 @@ public class AckDeadlineRenewerTest {
     executorFactory.release(executor);
     EasyMock.expectLastCall();
     EasyMock.replay(executor, executorFactory, pubsub);
-    AckDeadlineRenewer ackDeadlineRenewer = new AckDeadlineRenewer(pubsub);
+    AckDeadlineRenewer ackDeadlineRenewer = new AckDeadlineRenewer(pubsub, ackDispatcher);
     ackDeadlineRenewer.close();
     EasyMock.verify(pubsub, executor, executorFactory);
   }
@@ -278,7 +392,7 @@ public class AckDeadlineRenewerTest {
     executorFactory.release(executor);
     EasyMock.expectLastCall();
     EasyMock.replay(executor, executorFactory, future, pubsub);
-    AckDeadlineRenewer ackDeadlineRenewer = new AckDeadlineRenewer(pubsub);
+    AckDeadlineRenewer ackDeadlineRenewer = new AckDeadlineRenewer(pubsub, ackDispatcher);
     ackDeadlineRenewer.add(SUBSCRIPTION1, ACK_ID1);
     ackDeadlineRenewer.close();
     EasyMock.verify(pubsub, executor, executorFactory, future);
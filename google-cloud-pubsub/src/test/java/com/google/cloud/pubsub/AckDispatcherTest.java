@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
+import com.google.common.collect.ImmutableList;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class AckDispatcherTest {
+
+  private static final String SUBSCRIPTION1 = "subscription1";
+  private static final String SUBSCRIPTION2 = "subscription2";
+  private static final String ACK_ID1 = "ack-id1";
+  private static final String ACK_ID2 = "ack-id2";
+  private static final String ACK_ID3 = "ack-id3";
+  private static final long DELAY_MILLIS = 100;
+
+  private PubSub pubsub;
+  private ExecutorFactory<ScheduledExecutorService> executorFactoryMock;
+  private ScheduledExecutorService executorMock;
+  private ScheduledFuture<?> scheduledFutureMock;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    pubsub = EasyMock.createStrictMock(PubSub.class);
+    executorFactoryMock = EasyMock.createStrictMock(ExecutorFactory.class);
+    executorMock = EasyMock.createStrictMock(ScheduledExecutorService.class);
+    scheduledFutureMock = EasyMock.createNiceMock(ScheduledFuture.class);
+    EasyMock.expect(executorFactoryMock.get()).andReturn(executorMock);
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(pubsub, executorFactoryMock, executorMock);
+  }
+
+  private AckDispatcher createDispatcher(int maxAckIds, long maxBytes) {
+    EasyMock.replay(pubsub, executorFactoryMock, executorMock, scheduledFutureMock);
+    return new AckDispatcher(pubsub, executorFactoryMock, maxAckIds, maxBytes, DELAY_MILLIS);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void expectSchedule(Capture<Runnable> capture) {
+    EasyMock.expect(executorMock.schedule(EasyMock.capture(capture), EasyMock.eq(DELAY_MILLIS),
+        EasyMock.same(TimeUnit.MILLISECONDS))).andReturn((ScheduledFuture) scheduledFutureMock);
+  }
+
+  @Test
+  public void testAcksAreCoalesced() {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID1, ACK_ID2, ACK_ID3)))
+        .andReturn(null);
+    AckDispatcher dispatcher = createDispatcher(100, 1024);
+    dispatcher.ack(SUBSCRIPTION1, ACK_ID1);
+    dispatcher.ack(SUBSCRIPTION1, ACK_ID2);
+    dispatcher.ack(SUBSCRIPTION1, ACK_ID3);
+    flush.getValue().run();
+  }
+
+  @Test
+  public void testRequestTypesAreNotMixed() {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID1))).andReturn(null);
+    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID2))).andReturn(null);
+    EasyMock.expect(pubsub.modifyAckDeadlineAsync(SUBSCRIPTION1, 10_000, TimeUnit.MILLISECONDS,
+        ImmutableList.of(ACK_ID3))).andReturn(null);
+    AckDispatcher dispatcher = createDispatcher(100, 1024);
+    dispatcher.ack(SUBSCRIPTION1, ACK_ID1);
+    dispatcher.nack(SUBSCRIPTION1, ACK_ID2);
+    dispatcher.modifyAckDeadline(SUBSCRIPTION1, 10, TimeUnit.SECONDS, ImmutableList.of(ACK_ID3));
+    flush.getValue().run();
+  }
+
+  @Test
+  public void testRequestsAreSentInOrder() {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION2, ImmutableList.of(ACK_ID1, ACK_ID3)))
+        .andReturn(null);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID2))).andReturn(null);
+    AckDispatcher dispatcher = createDispatcher(100, 1024);
+    dispatcher.ack(SUBSCRIPTION2, ACK_ID1);
+    dispatcher.ack(SUBSCRIPTION1, ACK_ID2);
+    dispatcher.ack(SUBSCRIPTION2, ACK_ID3);
+    flush.getValue().run();
+  }
+
+  @Test
+  public void testSendOnMaxAckIds() {
+    Capture<Runnable> flush = Capture.newInstance();
+    EasyMock.expect(pubsub.modifyAckDeadlineAsync(SUBSCRIPTION1, 10_000, TimeUnit.MILLISECONDS,
+        ImmutableList.of(ACK_ID1, ACK_ID2))).andReturn(null);
+    expectSchedule(flush);
+    EasyMock.expect(pubsub.modifyAckDeadlineAsync(SUBSCRIPTION1, 10_000, TimeUnit.MILLISECONDS,
+        ImmutableList.of(ACK_ID3))).andReturn(null);
+    AckDispatcher dispatcher = createDispatcher(2, 1024);
+    dispatcher.modifyAckDeadline(SUBSCRIPTION1, 10_000, TimeUnit.MILLISECONDS,
+        ImmutableList.of(ACK_ID1, ACK_ID2, ACK_ID3));
+    flush.getValue().run();
+  }
+
+  @Test
+  public void testSendOnMaxBytes() {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID1, ACK_ID2)))
+        .andReturn(null);
+    AckDispatcher dispatcher = createDispatcher(100, ACK_ID1.length() + ACK_ID2.length());
+    dispatcher.ack(SUBSCRIPTION1, ACK_ID1);
+    dispatcher.ack(SUBSCRIPTION1, ACK_ID2);
+    // the scheduled flush does nothing once the acks were sent
+    flush.getValue().run();
+  }
+
+  @Test
+  public void testFlushSubscription() {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION2, ImmutableList.of(ACK_ID2))).andReturn(null);
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID1))).andReturn(null);
+    AckDispatcher dispatcher = createDispatcher(100, 1024);
+    dispatcher.ack(SUBSCRIPTION1, ACK_ID1);
+    dispatcher.ack(SUBSCRIPTION2, ACK_ID2);
+    dispatcher.flush(SUBSCRIPTION2);
+    flush.getValue().run();
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID1))).andReturn(null);
+    executorFactoryMock.release(executorMock);
+    EasyMock.expectLastCall();
+    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION1, ImmutableList.of(ACK_ID2))).andReturn(null);
+    AckDispatcher dispatcher = createDispatcher(100, 1024);
+    dispatcher.nack(SUBSCRIPTION1, ACK_ID1);
+    dispatcher.close();
+    // requests submitted after close are sent right away
+    dispatcher.ack(SUBSCRIPTION1, ACK_ID2);
+    flush.getValue().run();
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.cloud.pubsub;
 
+import static org.junit.Assert.assertTrue;
+
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.cloud.pubsub.PubSub.MessageConsumer;
 import com.google.cloud.pubsub.PubSub.MessageProcessor;
@@ -25,6 +27,8 @@ import com.google.cloud.pubsub.spi.PubSubRpc.PullFuture;
 import com.google.common.util.concurrent.ForwardingListenableFuture;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.pubsub.v1.PullRequest;
 import com.google.pubsub.v1.PullResponse;
 
@@ -82,6 +86,7 @@ public class MessageConsumerImplTest {
   private PubSub pubsub;
   private PubSubOptions options;
   private AckDeadlineRenewer renewer;
+  private AckDispatcher ackDispatcher;
 
   @Rule
   public Timeout globalTimeout = Timeout.seconds(60);
@@ -94,6 +99,10 @@ public class MessageConsumerImplTest {
       super(Futures.immediateFuture(response));
     }
 
+    TestPullFuture(ListenableFuture<PullResponse> response) {
+      super(response);
+    }
+
     @Override
     public void addCallback(final PullCallback callback) {
       Futures.addCallback(delegate(), new FutureCallback<PullResponse>() {
@@ -116,6 +125,7 @@ public class MessageConsumerImplTest {
     pubsub = EasyMock.createMock(PubSub.class);
     options = EasyMock.createStrictMock(PubSubOptions.class);
     renewer = EasyMock.createMock(AckDeadlineRenewer.class);
+    ackDispatcher = EasyMock.createMock(AckDispatcher.class);
   }
 
   @After
@@ -124,6 +134,7 @@ public class MessageConsumerImplTest {
     EasyMock.verify(pubsub);
     EasyMock.verify(options);
     EasyMock.verify(renewer);
+    EasyMock.verify(ackDispatcher);
 
   }
 
@@ -153,8 +164,10 @@ public class MessageConsumerImplTest {
     EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
     EasyMock.expect(pubsub.options()).andReturn(options).times(2);
     final CountDownLatch latch = new CountDownLatch(2);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID2)).andReturn(null);
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request)).andReturn(new TestPullFuture(PULL_RESPONSE));
     EasyMock.expect(pubsubRpc.pull(EasyMock.<PullRequest>anyObject()))
@@ -167,9 +180,12 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
     renewer.remove(SUBSCRIPTION, ACK_ID2);
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
-    EasyMock.replay(pubsubRpc, options, renewer);
+    ackDispatcher.flush(SUBSCRIPTION);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, options, renewer, ackDispatcher);
     try (MessageConsumer consumer =
-         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, DO_NOTHING_PROCESSOR)
+         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, ackDispatcher,
+             DO_NOTHING_PROCESSOR)
              .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
              .build()) {
       latch.await();
@@ -184,8 +200,10 @@ public class MessageConsumerImplTest {
     EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
     EasyMock.expect(pubsub.options()).andReturn(options).times(2);
     final CountDownLatch latch = new CountDownLatch(2);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID2)).andReturn(null);
+    ackDispatcher.nack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    ackDispatcher.nack(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request)).andReturn(new TestPullFuture(PULL_RESPONSE));
     EasyMock.expect(pubsubRpc.pull(EasyMock.<PullRequest>anyObject()))
@@ -198,9 +216,12 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
     renewer.remove(SUBSCRIPTION, ACK_ID2);
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
-    EasyMock.replay(pubsubRpc, options, renewer);
+    ackDispatcher.flush(SUBSCRIPTION);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, options, renewer, ackDispatcher);
     try (MessageConsumer consumer =
-        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, THROW_PROCESSOR)
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, ackDispatcher,
+            THROW_PROCESSOR)
             .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
             .build()) {
       latch.await();
@@ -223,15 +244,17 @@ public class MessageConsumerImplTest {
     final CountDownLatch nextPullLatch = new CountDownLatch(1);
     final CountDownLatch latch = new CountDownLatch(2);
     EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID1)).andAnswer(new IAnswer<Future<Void>>() {
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
       @Override
-      public Future<Void> answer() throws Throwable {
+      public Void answer() throws Throwable {
         nextPullLatch.await();
         return null;
       }
     });
     EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID2)).andReturn(null);
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request1)).andReturn(new TestPullFuture(response1));
     EasyMock.expect(pubsubRpc.pull(request2)).andAnswer(new IAnswer<PullFuture>() {
@@ -251,9 +274,12 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall();
     renewer.remove(SUBSCRIPTION, ACK_ID2);
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
-    EasyMock.replay(pubsubRpc, options, renewer);
+    ackDispatcher.flush(SUBSCRIPTION);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, options, renewer, ackDispatcher);
     try (MessageConsumer consumer =
-        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, DO_NOTHING_PROCESSOR)
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, ackDispatcher,
+            DO_NOTHING_PROCESSOR)
             .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
             .build()) {
       latch.await();
@@ -276,15 +302,17 @@ public class MessageConsumerImplTest {
     final CountDownLatch nextPullLatch = new CountDownLatch(1);
     final CountDownLatch latch = new CountDownLatch(2);
     EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID1)).andAnswer(new IAnswer<Future<Void>>() {
+    ackDispatcher.nack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
       @Override
-      public Future<Void> answer() throws Throwable {
+      public Void answer() throws Throwable {
         nextPullLatch.await();
         return null;
       }
     });
     EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID2)).andReturn(null);
+    ackDispatcher.nack(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request1)).andReturn(new TestPullFuture(response1));
     EasyMock.expect(pubsubRpc.pull(request2)).andAnswer(new IAnswer<PullFuture>() {
@@ -304,9 +332,12 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall();
     renewer.remove(SUBSCRIPTION, ACK_ID2);
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
-    EasyMock.replay(pubsubRpc, options, renewer);
+    ackDispatcher.flush(SUBSCRIPTION);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, options, renewer, ackDispatcher);
     try (MessageConsumer consumer =
-        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, THROW_PROCESSOR)
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, ackDispatcher,
+            THROW_PROCESSOR)
             .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
             .build()) {
       latch.await();
@@ -326,16 +357,19 @@ public class MessageConsumerImplTest {
     EasyMock.expect(pubsub.options()).andReturn(options).times(2);
     final CountDownLatch nextPullLatch = new CountDownLatch(1);
     final CountDownLatch latch = new CountDownLatch(3);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID2)).andAnswer(new IAnswer<Future<Void>>() {
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
       @Override
-      public Future<Void> answer() throws Throwable {
+      public Void answer() throws Throwable {
         nextPullLatch.await();
         return null;
       }
     });
     EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.ackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request1)).andReturn(new TestPullFuture(PULL_RESPONSE));
     EasyMock.expect(pubsubRpc.pull(request2)).andAnswer(new IAnswer<PullFuture>() {
@@ -359,9 +393,12 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall();
     renewer.remove(SUBSCRIPTION, ACK_ID1);
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
-    EasyMock.replay(pubsubRpc, options, renewer);
+    ackDispatcher.flush(SUBSCRIPTION);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, options, renewer, ackDispatcher);
     try (MessageConsumer consumer =
-         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, DO_NOTHING_PROCESSOR)
+         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, ackDispatcher,
+             DO_NOTHING_PROCESSOR)
              .maxQueuedCallbacks(2)
              .build()) {
       latch.await();
@@ -381,16 +418,19 @@ public class MessageConsumerImplTest {
     EasyMock.expect(pubsub.options()).andReturn(options).times(2);
     final CountDownLatch nextPullLatch = new CountDownLatch(1);
     final CountDownLatch latch = new CountDownLatch(3);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID2)).andAnswer(new IAnswer<Future<Void>>() {
+    ackDispatcher.nack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    ackDispatcher.nack(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
       @Override
-      public Future<Void> answer() throws Throwable {
+      public Void answer() throws Throwable {
         nextPullLatch.await();
         return null;
       }
     });
     EasyMock.expect(pubsub.options()).andReturn(options);
-    EasyMock.expect(pubsub.nackAsync(SUBSCRIPTION, ACK_ID1)).andReturn(null);
+    ackDispatcher.nack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
     EasyMock.replay(pubsub);
     EasyMock.expect(pubsubRpc.pull(request1)).andReturn(new TestPullFuture(PULL_RESPONSE));
     EasyMock.expect(pubsubRpc.pull(request2)).andAnswer(new IAnswer<PullFuture>() {
@@ -414,15 +454,116 @@ public class MessageConsumerImplTest {
     EasyMock.expectLastCall();
     renewer.remove(SUBSCRIPTION, ACK_ID1);
     EasyMock.expectLastCall().andAnswer(createAnswer(latch));
-    EasyMock.replay(pubsubRpc, options, renewer);
+    ackDispatcher.flush(SUBSCRIPTION);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, options, renewer, ackDispatcher);
     try (MessageConsumer consumer =
-         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, THROW_PROCESSOR)
+         MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, ackDispatcher,
+             THROW_PROCESSOR)
              .maxQueuedCallbacks(2)
              .build()) {
       latch.await();
     }
   }
 
+  @Test
+  public void testMessageConsumerMaxQueuedBytes() throws Exception {
+    int messageSize = MESSAGE1_PB.getMessage().getSerializedSize();
+    EasyMock.expect(options.rpc()).andReturn(pubsubRpc);
+    EasyMock.expect(options.service()).andReturn(pubsub);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(pubsub.options()).andReturn(options).times(2);
+    final CountDownLatch latch = new CountDownLatch(2);
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsub);
+    EasyMock.expect(pubsubRpc.pull(pullRequest(MAX_QUEUED_CALLBACKS)))
+        .andReturn(new TestPullFuture(PULL_RESPONSE));
+    // no pull is sent until both messages are processed, then only one message fits in the limit
+    EasyMock.expect(pubsubRpc.pull(pullRequest(1)))
+        .andReturn(new TestPullFuture(EMPTY_RESPONSE)).anyTimes();
+    renewer.add(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    renewer.add(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
+    renewer.remove(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall().andAnswer(createAnswer(latch));
+    renewer.remove(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall().andAnswer(createAnswer(latch));
+    ackDispatcher.flush(SUBSCRIPTION);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, options, renewer, ackDispatcher);
+    MessageProcessor slowProcessor = new MessageProcessor() {
+      @Override
+      public void process(Message message) throws Exception {
+        Thread.sleep(10);
+      }
+    };
+    try (MessageConsumer consumer =
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, ackDispatcher, slowProcessor)
+            .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
+            .maxQueuedBytes((long) messageSize)
+            .build()) {
+      latch.await();
+      assertTrue(consumer.throttledTimeMillis() > 0);
+    }
+  }
+
+  @Test
+  public void testMessageConsumerConcurrentPulls() throws Exception {
+    PullRequest request = pullRequest(2);
+    final PullResponse response1 = PullResponse.newBuilder()
+        .addReceivedMessages(MESSAGE1_PB)
+        .build();
+    final PullResponse response2 = PullResponse.newBuilder()
+        .addReceivedMessages(MESSAGE2_PB)
+        .build();
+    EasyMock.expect(options.rpc()).andReturn(pubsubRpc);
+    EasyMock.expect(options.service()).andReturn(pubsub);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(pubsub.options()).andReturn(options).times(2);
+    final CountDownLatch latch = new CountDownLatch(2);
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    ackDispatcher.ack(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsub);
+    final SettableFuture<PullResponse> firstResponse = SettableFuture.create();
+    EasyMock.expect(pubsubRpc.pull(request)).andReturn(new TestPullFuture(firstResponse));
+    // the second pull is sent while the first one is still in flight, each pull requests half of
+    // the queue budget
+    EasyMock.expect(pubsubRpc.pull(request)).andAnswer(new IAnswer<PullFuture>() {
+      @Override
+      public PullFuture answer() throws Throwable {
+        firstResponse.set(response1);
+        return new TestPullFuture(response2);
+      }
+    });
+    EasyMock.expect(pubsubRpc.pull(EasyMock.<PullRequest>anyObject()))
+        .andReturn(new TestPullFuture(EMPTY_RESPONSE)).anyTimes();
+    renewer.add(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall();
+    renewer.remove(SUBSCRIPTION, ACK_ID1);
+    EasyMock.expectLastCall().andAnswer(createAnswer(latch));
+    renewer.add(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall();
+    renewer.remove(SUBSCRIPTION, ACK_ID2);
+    EasyMock.expectLastCall().andAnswer(createAnswer(latch));
+    ackDispatcher.flush(SUBSCRIPTION);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, options, renewer, ackDispatcher);
+    try (MessageConsumer consumer =
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, ackDispatcher,
+            DO_NOTHING_PROCESSOR)
+            .maxQueuedCallbacks(4)
+            .concurrentPulls(2)
+            .build()) {
+      latch.await();
+    }
+  }
+
   @Test
   public void testClose() throws Exception {
     EasyMock.expect(options.rpc()).andReturn(pubsubRpc);
@@ -430,9 +571,12 @@ public class MessageConsumerImplTest {
     final ExecutorService executor = EasyMock.createStrictMock(ExecutorService.class);
     executor.shutdown();
     EasyMock.expectLastCall();
-    EasyMock.replay(pubsubRpc, pubsub, options, executor, renewer);
+    ackDispatcher.flush(SUBSCRIPTION);
+    EasyMock.expectLastCall();
+    EasyMock.replay(pubsubRpc, pubsub, options, executor, renewer, ackDispatcher);
     MessageConsumer consumer =
-        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, DO_NOTHING_PROCESSOR)
+        MessageConsumerImpl.builder(options, SUBSCRIPTION, renewer, ackDispatcher,
+            DO_NOTHING_PROCESSOR)
             .maxQueuedCallbacks(MAX_QUEUED_CALLBACKS)
             .executorFactory(new ExecutorFactory<ExecutorService>() {
               @Override
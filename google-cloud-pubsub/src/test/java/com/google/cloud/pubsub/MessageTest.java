@@ -18,12 +18,16 @@ package com.google.cloud.pubsub;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.google.cloud.ByteArray;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
 
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
@@ -111,6 +115,37 @@ public class MessageTest {
     compareMessage(message1 ,message2);
   }
 
+  @Test
+  public void testPayloadFromByteBuffer() {
+    byte[] bytes = PAYLOAD_STRING.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 2);
+    buffer.put((byte) 0).put(bytes).put((byte) 0);
+    buffer.position(1).limit(bytes.length + 1);
+    // writable buffers are copied, the buffer's position is not modified
+    Message copied = Message.of(buffer);
+    assertEquals(1, buffer.position());
+    buffer.put(1, (byte) 'P');
+    compareMessage(Message.of(PAYLOAD_STRING), copied);
+    // read-only buffers are wrapped
+    Message wrapped = Message.builder(PAYLOAD)
+        .payload(buffer.asReadOnlyBuffer())
+        .build();
+    assertEquals(1, buffer.position());
+    assertEquals("Payload", wrapped.payloadAsString());
+    buffer.put(1, (byte) 'p');
+    compareMessage(Message.of(PAYLOAD_STRING), wrapped);
+    compareMessage(Message.of(PAYLOAD_STRING), Message.fromPb(wrapped.toPb()));
+  }
+
+  @Test
+  public void testPayloadAsByteBufferAndInputStream() throws IOException {
+    ByteBuffer buffer = MESSAGE.payloadAsByteBuffer();
+    assertTrue(buffer.isReadOnly());
+    assertEquals(PAYLOAD.asReadOnlyByteBuffer(), buffer);
+    assertEquals(PAYLOAD_STRING, new String(ByteStreams.toByteArray(MESSAGE.payloadAsInputStream()),
+        StandardCharsets.UTF_8));
+  }
+
   @Test
   public void testToAndFromPb() {
     compareMessage(MESSAGE, Message.fromPb(MESSAGE.toPb()));
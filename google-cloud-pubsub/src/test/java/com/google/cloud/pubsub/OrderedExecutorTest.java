@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class OrderedExecutorTest {
+
+  private static final String KEY1 = "key1";
+  private static final String KEY2 = "key2";
+  private static final int TASKS = 100;
+
+  private ExecutorService executor;
+
+  @Rule
+  public Timeout globalTimeout = Timeout.seconds(60);
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static Runnable addingRunnable(final List<Integer> list, final int value,
+      final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        list.add(value);
+        latch.countDown();
+      }
+    };
+  }
+
+  @Test
+  public void testTasksWithSameKeyRunInOrder() throws InterruptedException {
+    OrderedExecutor orderedExecutor = new OrderedExecutor(executor, TASKS);
+    List<Integer> list1 = Collections.synchronizedList(new ArrayList<Integer>());
+    List<Integer> list2 = Collections.synchronizedList(new ArrayList<Integer>());
+    CountDownLatch latch = new CountDownLatch(2 * TASKS);
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < TASKS; i++) {
+      orderedExecutor.execute(KEY1, addingRunnable(list1, i, latch));
+      orderedExecutor.execute(KEY2, addingRunnable(list2, i, latch));
+      expected.add(i);
+    }
+    latch.await();
+    assertEquals(expected, list1);
+    assertEquals(expected, list2);
+  }
+
+  @Test
+  public void testDifferentKeysRunInParallel() throws InterruptedException {
+    OrderedExecutor orderedExecutor = new OrderedExecutor(executor, TASKS);
+    final CountDownLatch key2Latch = new CountDownLatch(1);
+    final CountDownLatch doneLatch = new CountDownLatch(2);
+    // the task for KEY1 can only complete if the task for KEY2 runs concurrently
+    orderedExecutor.execute(KEY1, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          key2Latch.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        doneLatch.countDown();
+      }
+    });
+    orderedExecutor.execute(KEY2, new Runnable() {
+      @Override
+      public void run() {
+        key2Latch.countDown();
+        doneLatch.countDown();
+      }
+    });
+    doneLatch.await();
+  }
+
+  @Test
+  public void testFullLanes() {
+    final Queue<Runnable> submitted = new LinkedList<>();
+    Executor manualExecutor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        submitted.add(command);
+      }
+    };
+    List<Integer> list = new ArrayList<>();
+    CountDownLatch latch = new CountDownLatch(3);
+    OrderedExecutor orderedExecutor = new OrderedExecutor(manualExecutor, 2);
+    orderedExecutor.execute(KEY1, addingRunnable(list, 1, latch));
+    assertFalse(orderedExecutor.hasFullLanes());
+    orderedExecutor.execute(KEY1, addingRunnable(list, 2, latch));
+    assertTrue(orderedExecutor.hasFullLanes());
+    orderedExecutor.execute(KEY2, addingRunnable(list, 3, latch));
+    // only one activation per lane is submitted
+    assertEquals(2, submitted.size());
+    submitted.poll().run();
+    assertFalse(orderedExecutor.hasFullLanes());
+    assertEquals(ImmutableList.of(1), list);
+    // the lane of KEY1 is submitted again as it has more tasks to run
+    assertEquals(2, submitted.size());
+    submitted.poll().run();
+    submitted.poll().run();
+    assertEquals(ImmutableList.of(1, 3, 2), list);
+    assertTrue(submitted.isEmpty());
+  }
+
+  @Test
+  public void testRejectedLaneIsRemoved() {
+    final Queue<Runnable> submitted = new LinkedList<>();
+    final AtomicBoolean reject = new AtomicBoolean(true);
+    Executor rejectingExecutor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        if (reject.get()) {
+          throw new RejectedExecutionException();
+        }
+        submitted.add(command);
+      }
+    };
+    List<Integer> list = new ArrayList<>();
+    CountDownLatch latch = new CountDownLatch(2);
+    OrderedExecutor orderedExecutor = new OrderedExecutor(rejectingExecutor, 1);
+    try {
+      orderedExecutor.execute(KEY1, addingRunnable(list, 1, latch));
+      fail("RejectedExecutionException expected");
+    } catch (RejectedExecutionException ex) {
+      // expected
+    }
+    assertFalse(orderedExecutor.hasFullLanes());
+    // once the executor accepts tasks again, tasks for the same key start a new lane
+    reject.set(false);
+    orderedExecutor.execute(KEY1, addingRunnable(list, 2, latch));
+    assertEquals(1, submitted.size());
+    submitted.poll().run();
+    assertEquals(ImmutableList.of(2), list);
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import com.google.cloud.pubsub.PubSub.MessageConsumer;
+import com.google.cloud.pubsub.PubSub.MessageProcessor;
+import com.google.cloud.pubsub.PubSub.PullOption;
+import com.google.cloud.pubsub.spi.v1.SubscriberApi;
+import com.google.cloud.pubsub.testing.InMemoryPubsubHelper;
+import com.google.cloud.pubsub.testing.InMemoryPubsubImpl;
+import com.google.common.base.Splitter;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A load generator that measures the performance of {@link PubSub} publishers and subscribers
+ * against an in-memory Pub/Sub server (see {@link InMemoryPubsubHelper}), so that it can run on an
+ * offline machine. The following is measured, for each payload size:
+ * <ul>
+ *   <li>publish throughput, in messages and bytes per second, and bytes allocated per message
+ *   <li>end-to-end latency percentiles (from {@code publishAsync} to {@link MessageProcessor}) and
+ *       the number of pull, acknowledge and modify ack deadline requests per 1000 messages
+ * </ul>
+ * Finally, a batch of messages is kept in flight in a {@link MessageConsumer} to measure the cost
+ * of renewing their ack deadlines: process CPU time and modify ack deadline requests per in-flight
+ * message.
+ *
+ * <p>Client and server run in the same process: allocation and CPU figures include the server and
+ * are meant to be compared across versions of this library rather than read as absolute values.
+ *
+ * <p>To run the benchmark:
+ * <pre> {@code
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.google.cloud.pubsub.PubSubBenchmark
+ * }</pre>
+ *
+ * <p>The following system properties can be set: {@code benchmark.payloadSizes} (comma separated
+ * sizes in bytes, defaults to {@code 100,1024,10240,102400,1048576}), {@code benchmark.messages}
+ * (maximum number of messages per payload size, defaults to {@code 10000}),
+ * {@code benchmark.inFlightMessages} (defaults to {@code 1000}) and
+ * {@code benchmark.inFlightSeconds} (defaults to {@code 30}).
+ */
+public class PubSubBenchmark {
+
+  private static final String PUBLISH_NANOS_ATTRIBUTE = "publishNanos";
+  private static final long MAX_BYTES_PER_RUN = 256L * 1024 * 1024;
+  private static final int WARMUP_DIVISOR = 10;
+
+  private final InMemoryPubsubHelper helper;
+  private final PubSub pubsub;
+  private final Random random = new Random(42);
+  private int resources;
+
+  private PubSubBenchmark(InMemoryPubsubHelper helper, PubSub pubsub) {
+    this.helper = helper;
+    this.pubsub = pubsub;
+  }
+
+  private String createTopic() {
+    String topic = "benchmark-topic-" + resources++;
+    pubsub.create(TopicInfo.of(topic));
+    return topic;
+  }
+
+  private String createSubscription(String topic) {
+    String subscription = "benchmark-subscription-" + resources++;
+    pubsub.create(SubscriptionInfo.of(topic, subscription));
+    return subscription;
+  }
+
+  private Message message(int payloadSize, boolean timestamp) {
+    byte[] payload = new byte[payloadSize];
+    random.nextBytes(payload);
+    Message.Builder builder = Message.builder(ByteBuffer.wrap(payload).asReadOnlyBuffer());
+    if (timestamp) {
+      builder.addAttribute(PUBLISH_NANOS_ATTRIBUTE, Long.toString(System.nanoTime()));
+    }
+    return builder.build();
+  }
+
+  private static int messages(int maxMessages, int payloadSize) {
+    return (int) Math.max(1, Math.min(maxMessages, MAX_BYTES_PER_RUN / payloadSize));
+  }
+
+  /**
+   * Returns the number of bytes allocated so far by live threads, or {@code -1} if the JVM does
+   * not support measuring it.
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+    if (!sunThreadBean.isThreadAllocatedMemorySupported()
+        || !sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    long total = 0;
+    for (long allocated : sunThreadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+      total += Math.max(0, allocated);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the CPU time used so far by the process, in nanoseconds, or {@code -1} if the JVM does
+   * not support measuring it.
+   */
+  private static long processCpuNanos() {
+    java.lang.management.OperatingSystemMXBean osBean =
+        ManagementFactory.getOperatingSystemMXBean();
+    if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+    }
+    return -1;
+  }
+
+  private static double perSecond(long count, long elapsedNanos) {
+    return count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private long publish(String topic, int payloadSize, int messages, boolean timestamp)
+      throws Exception {
+    List<Future<String>> futures = new ArrayList<>(messages);
+    long start = System.nanoTime();
+    for (int i = 0; i < messages; i++) {
+      futures.add(pubsub.publishAsync(topic, message(payloadSize, timestamp)));
+    }
+    for (Future<String> future : futures) {
+      future.get();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private void benchmarkPublish(int payloadSize, int maxMessages) throws Exception {
+    String topic = createTopic();
+    int messages = messages(maxMessages, payloadSize);
+    publish(topic, payloadSize, Math.max(1, messages / WARMUP_DIVISOR), false);
+    long allocatedBefore = allocatedBytes();
+    long elapsed = publish(topic, payloadSize, messages, false);
+    long allocated = allocatedBefore >= 0 ? allocatedBytes() - allocatedBefore : -1;
+    System.out.printf("publish       %9d B %7d msgs %12.1f msgs/s %10.2f MB/s %12d B/msg%n",
+        payloadSize, messages, perSecond(messages, elapsed),
+        perSecond((long) messages * payloadSize, elapsed) / (1024 * 1024),
+        allocated >= 0 ? allocated / messages : -1);
+    pubsub.deleteTopic(topic);
+  }
+
+  private void benchmarkEndToEnd(int payloadSize, int maxMessages) throws Exception {
+    String topic = createTopic();
+    String subscription = createSubscription(topic);
+    int messages = messages(maxMessages, payloadSize);
+    final long[] latencies = new long[messages];
+    final AtomicInteger received = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(messages);
+    MessageProcessor processor = new MessageProcessor() {
+      @Override
+      public void process(Message message) {
+        long latency =
+            System.nanoTime() - Long.parseLong(message.attributes().get(PUBLISH_NANOS_ATTRIBUTE));
+        int index = received.getAndIncrement();
+        if (index < latencies.length) {
+          latencies[index] = latency;
+        }
+        done.countDown();
+      }
+    };
+    InMemoryPubsubImpl server = helper.pubsubImpl();
+    long pulls = server.requestCount("pull");
+    long acks = server.requestCount("acknowledge");
+    long modifies = server.requestCount("modifyAckDeadline");
+    long start = System.nanoTime();
+    try (MessageConsumer consumer = pubsub.pullAsync(subscription, processor)) {
+      publish(topic, payloadSize, messages, true);
+      done.await();
+    }
+    long elapsed = System.nanoTime() - start;
+    Arrays.sort(latencies);
+    double perThousand = 1000.0 / messages;
+    System.out.printf("end-to-end    %9d B %7d msgs %12.1f msgs/s   latency ms p50 %.2f p90 %.2f"
+        + " p99 %.2f p99.9 %.2f max %.2f   per 1000 msgs: %.1f pulls %.1f acks %.1f modacks%n",
+        payloadSize, messages, perSecond(messages, elapsed), millis(percentile(latencies, 50)),
+        millis(percentile(latencies, 90)), millis(percentile(latencies, 99)),
+        millis(percentile(latencies, 99.9)), millis(latencies[latencies.length - 1]),
+        (server.requestCount("pull") - pulls) * perThousand,
+        (server.requestCount("acknowledge") - acks) * perThousand,
+        (server.requestCount("modifyAckDeadline") - modifies) * perThousand);
+    pubsub.deleteSubscription(subscription);
+    pubsub.deleteTopic(topic);
+  }
+
+  private static long percentile(long[] sortedValues, double percentile) {
+    int rank = (int) Math.ceil(sortedValues.length * percentile / 100);
+    return sortedValues[Math.max(0, Math.min(rank, sortedValues.length) - 1)];
+  }
+
+  private void benchmarkInFlight(int inFlightMessages, int seconds) throws Exception {
+    String topic = createTopic();
+    String subscription = createSubscription(topic);
+    final CountDownLatch release = new CountDownLatch(1);
+    MessageProcessor processor = new MessageProcessor() {
+      @Override
+      public void process(Message message) throws InterruptedException {
+        release.await();
+      }
+    };
+    // messages are published before the consumer starts so that they are pulled at once
+    List<Message> messages = new ArrayList<>(inFlightMessages);
+    for (int i = 0; i < inFlightMessages; i++) {
+      messages.add(message(100, false));
+    }
+    pubsub.publish(topic, messages);
+    InMemoryPubsubImpl server = helper.pubsubImpl();
+    String subscriptionName =
+        SubscriberApi.formatSubscriptionName(pubsub.options().projectId(), subscription);
+    try (MessageConsumer consumer = pubsub.pullAsync(subscription, processor,
+        PullOption.maxQueuedCallbacks(inFlightMessages))) {
+      while (server.outstandingMessages(subscriptionName) < inFlightMessages) {
+        Thread.sleep(10);
+      }
+      long modifies = server.requestCount("modifyAckDeadline");
+      long cpuBefore = processCpuNanos();
+      long start = System.nanoTime();
+      Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+      long elapsed = System.nanoTime() - start;
+      long cpu = cpuBefore >= 0 ? processCpuNanos() - cpuBefore : -1;
+      long redelivered = server.pendingMessages(subscriptionName);
+      double minutes = elapsed / (double) TimeUnit.MINUTES.toNanos(1);
+      System.out.printf("in-flight     %7d msgs %5d s   process CPU %.3f ms per msg per minute"
+          + "   %.1f modack requests per minute   %d redelivered%n",
+          inFlightMessages, seconds, cpu >= 0 ? millis(cpu) / inFlightMessages / minutes : -1,
+          (server.requestCount("modifyAckDeadline") - modifies) / minutes, redelivered);
+      release.countDown();
+    }
+    pubsub.deleteSubscription(subscription);
+    pubsub.deleteTopic(topic);
+  }
+
+  public static void main(String... args) throws Exception {
+    List<Integer> payloadSizes = new ArrayList<>();
+    for (String size : Splitter.on(',').trimResults().omitEmptyStrings()
+        .split(System.getProperty("benchmark.payloadSizes", "100,1024,10240,102400,1048576"))) {
+      payloadSizes.add(Integer.parseInt(size));
+    }
+    int maxMessages = Integer.getInteger("benchmark.messages", 10_000);
+    int inFlightMessages = Integer.getInteger("benchmark.inFlightMessages", 1_000);
+    int inFlightSeconds = Integer.getInteger("benchmark.inFlightSeconds", 30);
+    InMemoryPubsubHelper helper = InMemoryPubsubHelper.create();
+    helper.start();
+    PubSubOptions options = helper.options().toBuilder()
+        .publishBundlingOptions(PublishBundlingOptions.defaultInstance())
+        .publishFlowControlOptions(PublishFlowControlOptions.defaultInstance())
+        .build();
+    try (PubSub pubsub = options.service()) {
+      PubSubBenchmark benchmark = new PubSubBenchmark(helper, pubsub);
+      for (int payloadSize : payloadSizes) {
+        benchmark.benchmarkPublish(payloadSize, maxMessages);
+      }
+      for (int payloadSize : payloadSizes) {
+        benchmark.benchmarkEndToEnd(payloadSize, maxMessages);
+      }
+      benchmark.benchmarkInFlight(inFlightMessages, inFlightSeconds);
+    } finally {
+      helper.stop();
+    }
+  }
+}
@@ -26,6 +26,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.cloud.AsyncPage;
+import com.google.cloud.Clock;
 import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
 import com.google.cloud.Identity;
 import com.google.cloud.Page;
@@ -47,6 +48,9 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.iam.v1.SetIamPolicyRequest;
 import com.google.iam.v1.TestIamPermissionsRequest;
 import com.google.iam.v1.TestIamPermissionsResponse;
@@ -84,7 +88,10 @@ import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class PubSubImplTest {
@@ -157,6 +164,7 @@ public class PubSubImplTest {
   private PubSubRpcFactory rpcFactoryMock;
   private PubSubRpc pubsubRpcMock;
   private AckDeadlineRenewer renewerMock;
+  private AckDispatcher ackDispatcherMock;
   private PubSub pubsub;
 
   @Rule
@@ -168,17 +176,20 @@ public class PubSubImplTest {
     rpcFactoryMock = EasyMock.createStrictMock(PubSubRpcFactory.class);
     pubsubRpcMock = EasyMock.createStrictMock(PubSubRpc.class);
     renewerMock = EasyMock.createStrictMock(AckDeadlineRenewer.class);
+    ackDispatcherMock = EasyMock.createNiceMock(AckDispatcher.class);
     options = EasyMock.createMock(PubSubOptions.class);
     EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
     EasyMock.expect(options.rpc()).andReturn(pubsubRpcMock).anyTimes();
     EasyMock.expect(options.retryParams()).andReturn(RetryParams.noRetries()).anyTimes();
-    EasyMock.replay(rpcFactoryMock, pubsubRpcMock, renewerMock, options);
+    EasyMock.expect(options.publishBundlingOptions()).andReturn(null).anyTimes();
+    EasyMock.expect(options.publishFlowControlOptions()).andReturn(null).anyTimes();
+    EasyMock.replay(rpcFactoryMock, pubsubRpcMock, renewerMock, ackDispatcherMock, options);
     EasyMock.reset(pubsubRpcMock, renewerMock);
   }
 
   @After
   public void tearDown() {
-    EasyMock.verify(rpcFactoryMock, pubsubRpcMock, renewerMock, options);
+    EasyMock.verify(rpcFactoryMock, pubsubRpcMock, renewerMock, ackDispatcherMock, options);
   }
 
   private void resetOptionsForList(int pageCount) {
@@ -192,7 +203,7 @@ public class PubSubImplTest {
   @Test
   public void testGetOptions() {
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertSame(options, pubsub.options());
   }
 
@@ -202,7 +213,7 @@ public class PubSubImplTest {
     Future<com.google.pubsub.v1.Topic> response = Futures.immediateFuture(topicPb);
     EasyMock.expect(pubsubRpcMock.create(topicPb)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Topic topic = pubsub.create(TOPIC_INFO);
     assertEquals(new Topic(pubsub, new TopicInfo.BuilderImpl(TOPIC_INFO)), topic);
   }
@@ -213,7 +224,7 @@ public class PubSubImplTest {
     Future<com.google.pubsub.v1.Topic> response = Futures.immediateFuture(topicPb);
     EasyMock.expect(pubsubRpcMock.create(topicPb)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Topic topic = pubsub.createAsync(TOPIC_INFO).get();
     assertEquals(new Topic(pubsub, new TopicInfo.BuilderImpl(TOPIC_INFO)), topic);
   }
@@ -225,7 +236,7 @@ public class PubSubImplTest {
         Futures.immediateFuture(TOPIC_INFO.toPb(PROJECT));
     EasyMock.expect(pubsubRpcMock.get(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Topic topic = pubsub.getTopic(TOPIC);
     assertEquals(new Topic(pubsub, new TopicInfo.BuilderImpl(TOPIC_INFO)), topic);
   }
@@ -236,7 +247,7 @@ public class PubSubImplTest {
     Future<com.google.pubsub.v1.Topic> responseFuture = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.get(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertNull(pubsub.getTopic(TOPIC));
   }
 
@@ -247,7 +258,7 @@ public class PubSubImplTest {
         Futures.immediateFuture(TOPIC_INFO.toPb(PROJECT));
     EasyMock.expect(pubsubRpcMock.get(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Future<Topic> topicFuture = pubsub.getTopicAsync(TOPIC);
     assertEquals(new Topic(pubsub, new TopicInfo.BuilderImpl(TOPIC_INFO)), topicFuture.get());
   }
@@ -258,7 +269,7 @@ public class PubSubImplTest {
     Future<com.google.pubsub.v1.Topic> responseFuture = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.get(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertNull(pubsub.getTopicAsync(TOPIC).get());
   }
 
@@ -268,7 +279,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(Empty.getDefaultInstance());
     EasyMock.expect(pubsubRpcMock.delete(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertTrue(pubsub.deleteTopic(TOPIC));
   }
 
@@ -278,7 +289,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.delete(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertFalse(pubsub.deleteTopic(TOPIC));
   }
 
@@ -288,7 +299,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(Empty.getDefaultInstance());
     EasyMock.expect(pubsubRpcMock.delete(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertTrue(pubsub.deleteTopicAsync(TOPIC).get());
   }
 
@@ -298,14 +309,14 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.delete(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertFalse(pubsub.deleteTopicAsync(TOPIC).get());
   }
 
   @Test
   public void testListTopics() {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListTopicsRequest request = ListTopicsRequest.newBuilder().setProject(PROJECT_PB).build();
     List<Topic> topicList = ImmutableList.of(
@@ -326,7 +337,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicsNextPage() {
     String cursor1 = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(2);
     ListTopicsRequest request1 = ListTopicsRequest.newBuilder().setProject(PROJECT_PB).build();
     ListTopicsRequest request2 = ListTopicsRequest.newBuilder()
@@ -362,7 +373,7 @@ public class PubSubImplTest {
 
   @Test
   public void testListTopicsEmpty() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListTopicsRequest request = ListTopicsRequest.newBuilder().setProject(PROJECT_PB).build();
     List<Topic> topicList = ImmutableList.of();
@@ -382,7 +393,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicsWithOptions() {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListTopicsRequest request = ListTopicsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -408,7 +419,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicsAsync() throws ExecutionException, InterruptedException {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListTopicsRequest request = ListTopicsRequest.newBuilder().setProject(PROJECT_PB).build();
     List<Topic> topicList = ImmutableList.of(
@@ -429,7 +440,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicsAsyncNextPage() throws ExecutionException, InterruptedException {
     String cursor1 = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(2);
     ListTopicsRequest request1 = ListTopicsRequest.newBuilder().setProject(PROJECT_PB).build();
     ListTopicsRequest request2 = ListTopicsRequest.newBuilder()
@@ -465,7 +476,7 @@ public class PubSubImplTest {
 
   @Test
   public void testListTopicsAsyncEmpty() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListTopicsRequest request = ListTopicsRequest.newBuilder().setProject(PROJECT_PB).build();
     List<Topic> topicList = ImmutableList.of();
@@ -486,7 +497,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicsAsyncWithOptions() throws ExecutionException, InterruptedException {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListTopicsRequest request = ListTopicsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -518,10 +529,10 @@ public class PubSubImplTest {
         .build();
     String messageId = "messageId";
     PublishResponse response = PublishResponse.newBuilder().addMessageIds(messageId).build();
-    Future<PublishResponse> responseFuture = Futures.immediateFuture(response);
+    ListenableFuture<PublishResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.publish(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertEquals(messageId, pubsub.publish(TOPIC, MESSAGE));
   }
 
@@ -533,10 +544,10 @@ public class PubSubImplTest {
         .build();
     String messageId = "messageId";
     PublishResponse response = PublishResponse.newBuilder().addMessageIds(messageId).build();
-    Future<PublishResponse> responseFuture = Futures.immediateFuture(response);
+    ListenableFuture<PublishResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.publish(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertEquals(messageId, pubsub.publishAsync(TOPIC, MESSAGE).get());
   }
 
@@ -550,10 +561,10 @@ public class PubSubImplTest {
     PublishResponse response = PublishResponse.newBuilder()
         .addAllMessageIds(messageIds)
         .build();
-    Future<PublishResponse> responseFuture = Futures.immediateFuture(response);
+    ListenableFuture<PublishResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.publish(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertEquals(messageIds, pubsub.publish(TOPIC, MESSAGE, MESSAGE));
   }
 
@@ -567,13 +578,145 @@ public class PubSubImplTest {
     PublishResponse response = PublishResponse.newBuilder()
         .addAllMessageIds(messageIds)
         .build();
-    Future<PublishResponse> responseFuture = Futures.immediateFuture(response);
+    ListenableFuture<PublishResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.publish(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertEquals(messageIds, pubsub.publishAsync(TOPIC, MESSAGE, MESSAGE).get());
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testPublishMoreMessagesBundled() throws Exception {
+    ExecutorFactory<ScheduledExecutorService> executorFactoryMock =
+        EasyMock.createStrictMock(ExecutorFactory.class);
+    ScheduledExecutorService executorMock =
+        EasyMock.createStrictMock(ScheduledExecutorService.class);
+    EasyMock.expect(executorFactoryMock.get()).andReturn(executorMock);
+    executorFactoryMock.release(executorMock);
+    EasyMock.expectLastCall();
+    EasyMock.reset(options);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.rpc()).andReturn(pubsubRpcMock);
+    EasyMock.expect(options.publishBundlingOptions())
+        .andReturn(PublishBundlingOptions.builder().maxMessages(2).build());
+    EasyMock.expect(options.publishFlowControlOptions()).andReturn(null);
+    EasyMock.expect(options.executorFactory()).andReturn(executorFactoryMock);
+    PublishRequest request = PublishRequest.newBuilder()
+        .setTopic(TOPIC_NAME_PB)
+        .addAllMessages(ImmutableList.of(MESSAGE.toPb(), MESSAGE.toPb()))
+        .build();
+    List<String> messageIds = ImmutableList.of("messageId1", "messageId2");
+    PublishResponse response = PublishResponse.newBuilder()
+        .addAllMessageIds(messageIds)
+        .build();
+    EasyMock.expect(pubsubRpcMock.publish(request)).andReturn(Futures.immediateFuture(response));
+    pubsubRpcMock.close();
+    EasyMock.expectLastCall();
+    renewerMock.close();
+    EasyMock.expectLastCall();
+    EasyMock.replay(options, pubsubRpcMock, renewerMock, executorFactoryMock, executorMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
+    assertEquals(messageIds, pubsub.publishAsync(TOPIC, MESSAGE, MESSAGE).get());
+    pubsub.close();
+    EasyMock.verify(executorFactoryMock, executorMock);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testCloseWaitsForPendingBundles() throws Exception {
+    ExecutorFactory<ScheduledExecutorService> executorFactoryMock =
+        EasyMock.createStrictMock(ExecutorFactory.class);
+    ScheduledExecutorService executorMock =
+        EasyMock.createStrictMock(ScheduledExecutorService.class);
+    ScheduledFuture<?> flushFutureMock = EasyMock.createStrictMock(ScheduledFuture.class);
+    EasyMock.expect(executorFactoryMock.get()).andReturn(executorMock);
+    EasyMock.expect(executorMock.schedule(EasyMock.<Runnable>anyObject(), EasyMock.anyLong(),
+        EasyMock.same(TimeUnit.MILLISECONDS))).andReturn((ScheduledFuture) flushFutureMock);
+    EasyMock.expect(flushFutureMock.cancel(false)).andReturn(true);
+    executorFactoryMock.release(executorMock);
+    EasyMock.expectLastCall();
+    EasyMock.reset(options);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.rpc()).andReturn(pubsubRpcMock);
+    EasyMock.expect(options.publishBundlingOptions())
+        .andReturn(PublishBundlingOptions.builder().maxMessages(2).build());
+    EasyMock.expect(options.publishFlowControlOptions()).andReturn(null);
+    EasyMock.expect(options.executorFactory()).andReturn(executorFactoryMock);
+    PublishRequest request = PublishRequest.newBuilder()
+        .setTopic(TOPIC_NAME_PB)
+        .addMessages(MESSAGE.toPb())
+        .build();
+    final SettableFuture<PublishResponse> responseFuture = SettableFuture.create();
+    EasyMock.expect(pubsubRpcMock.publish(request)).andAnswer(
+        new IAnswer<ListenableFuture<PublishResponse>>() {
+          @Override
+          public ListenableFuture<PublishResponse> answer() throws Throwable {
+            // the response arrives after close started waiting for it
+            new Thread(new Runnable() {
+              @Override
+              public void run() {
+                Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+                responseFuture.set(PublishResponse.newBuilder().addMessageIds("messageId").build());
+              }
+            }).start();
+            return responseFuture;
+          }
+        });
+    pubsubRpcMock.close();
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override
+      public Void answer() throws Throwable {
+        assertTrue(responseFuture.isDone());
+        return null;
+      }
+    });
+    renewerMock.close();
+    EasyMock.expectLastCall();
+    EasyMock.replay(options, pubsubRpcMock, renewerMock, executorFactoryMock, executorMock,
+        flushFutureMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
+    Future<String> future = pubsub.publishAsync(TOPIC, MESSAGE);
+    assertFalse(future.isDone());
+    pubsub.close();
+    assertEquals("messageId", future.get());
+    EasyMock.verify(executorFactoryMock, executorMock, flushFutureMock);
+  }
+
+  @Test
+  public void testPublishWithFlowControl() throws Exception {
+    EasyMock.reset(options);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.rpc()).andReturn(pubsubRpcMock);
+    EasyMock.expect(options.publishBundlingOptions()).andReturn(null);
+    EasyMock.expect(options.publishFlowControlOptions()).andReturn(
+        PublishFlowControlOptions.builder()
+            .maxOutstandingMessages(1)
+            .limitExceededBehavior(PublishFlowControlOptions.LimitExceededBehavior.FAIL_FAST)
+            .build());
+    PublishRequest request = PublishRequest.newBuilder()
+        .setTopic(TOPIC_NAME_PB)
+        .addMessages(MESSAGE.toPb())
+        .build();
+    SettableFuture<PublishResponse> responseFuture = SettableFuture.create();
+    EasyMock.expect(pubsubRpcMock.publish(request)).andReturn(responseFuture);
+    EasyMock.replay(options, pubsubRpcMock, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
+    Future<String> future = pubsub.publishAsync(TOPIC, MESSAGE);
+    assertEquals(1, pubsub.outstandingPublishMessages(TOPIC));
+    assertEquals(MESSAGE.toPb().getSerializedSize(), pubsub.outstandingPublishBytes(TOPIC));
+    try {
+      pubsub.publishAsync(TOPIC, MESSAGE).get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertEquals("RESOURCE_EXHAUSTED", ((PubSubException) ex.getCause()).reason());
+    }
+    responseFuture.set(PublishResponse.newBuilder().addMessageIds("messageId").build());
+    assertEquals("messageId", future.get());
+    assertEquals(0, pubsub.outstandingPublishMessages(TOPIC));
+    assertEquals(0, pubsub.outstandingPublishBytes(TOPIC));
+  }
+
   @Test
   public void testPublishMessageList() {
     PublishRequest request = PublishRequest.newBuilder()
@@ -584,10 +727,10 @@ public class PubSubImplTest {
     PublishResponse response = PublishResponse.newBuilder()
         .addAllMessageIds(messageIds)
         .build();
-    Future<PublishResponse> responseFuture = Futures.immediateFuture(response);
+    ListenableFuture<PublishResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.publish(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertEquals(messageIds, pubsub.publish(TOPIC, ImmutableList.of(MESSAGE, MESSAGE)));
   }
 
@@ -601,10 +744,10 @@ public class PubSubImplTest {
     PublishResponse response = PublishResponse.newBuilder()
         .addAllMessageIds(messageIds)
         .build();
-    Future<PublishResponse> responseFuture = Futures.immediateFuture(response);
+    ListenableFuture<PublishResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.publish(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertEquals(messageIds, pubsub.publishAsync(TOPIC, ImmutableList.of(MESSAGE, MESSAGE)).get());
   }
 
@@ -615,7 +758,7 @@ public class PubSubImplTest {
         Futures.immediateFuture(subscriptionPb);
     EasyMock.expect(pubsubRpcMock.create(subscriptionPb)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Subscription subscription = pubsub.create(SUBSCRIPTION_INFO);
     assertEquals(
         new Subscription(pubsub, new SubscriptionInfo.BuilderImpl(COMPLETE_SUBSCRIPTION_INFO)),
@@ -629,7 +772,7 @@ public class PubSubImplTest {
         Futures.immediateFuture(subscriptionPb);
     EasyMock.expect(pubsubRpcMock.create(subscriptionPb)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Subscription subscription = pubsub.createAsync(SUBSCRIPTION_INFO).get();
     assertEquals(
         new Subscription(pubsub, new SubscriptionInfo.BuilderImpl(COMPLETE_SUBSCRIPTION_INFO)),
@@ -644,7 +787,7 @@ public class PubSubImplTest {
         Futures.immediateFuture(SUBSCRIPTION_INFO.toPb(PROJECT));
     EasyMock.expect(pubsubRpcMock.get(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Subscription subscription = pubsub.getSubscription(SUBSCRIPTION);
     assertEquals(
         new Subscription(pubsub, new SubscriptionInfo.BuilderImpl(COMPLETE_SUBSCRIPTION_INFO)),
@@ -658,7 +801,7 @@ public class PubSubImplTest {
     Future<com.google.pubsub.v1.Subscription> response = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.get(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertNull(pubsub.getSubscription(SUBSCRIPTION));
   }
 
@@ -670,7 +813,7 @@ public class PubSubImplTest {
         Futures.immediateFuture(SUBSCRIPTION_INFO.toPb(PROJECT));
     EasyMock.expect(pubsubRpcMock.get(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Subscription subscription = pubsub.getSubscriptionAsync(SUBSCRIPTION).get();
     assertEquals(
         new Subscription(pubsub, new SubscriptionInfo.BuilderImpl(COMPLETE_SUBSCRIPTION_INFO)),
@@ -684,7 +827,7 @@ public class PubSubImplTest {
     Future<com.google.pubsub.v1.Subscription> response = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.get(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertNull(pubsub.getSubscriptionAsync(SUBSCRIPTION).get());
   }
 
@@ -696,7 +839,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(Empty.getDefaultInstance());
     EasyMock.expect(pubsubRpcMock.delete(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertTrue(pubsub.deleteSubscription(SUBSCRIPTION));
   }
 
@@ -708,7 +851,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.delete(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertFalse(pubsub.deleteSubscription(SUBSCRIPTION));
   }
 
@@ -720,7 +863,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(Empty.getDefaultInstance());
     EasyMock.expect(pubsubRpcMock.delete(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertTrue(pubsub.deleteSubscriptionAsync(SUBSCRIPTION).get());
   }
 
@@ -732,7 +875,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.delete(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertFalse(pubsub.deleteSubscriptionAsync(SUBSCRIPTION).get());
   }
 
@@ -745,7 +888,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(Empty.getDefaultInstance());
     EasyMock.expect(pubsubRpcMock.modify(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     pubsub.replacePushConfig(SUBSCRIPTION, PUSH_CONFIG);
   }
 
@@ -758,7 +901,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(Empty.getDefaultInstance());
     EasyMock.expect(pubsubRpcMock.modify(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     pubsub.replacePushConfig(SUBSCRIPTION, null);
   }
 
@@ -771,7 +914,7 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(Empty.getDefaultInstance());
     EasyMock.expect(pubsubRpcMock.modify(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     pubsub.replacePushConfigAsync(SUBSCRIPTION, PUSH_CONFIG).get();
   }
 
@@ -784,14 +927,14 @@ public class PubSubImplTest {
     Future<Empty> response = Futures.immediateFuture(Empty.getDefaultInstance());
     EasyMock.expect(pubsubRpcMock.modify(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     pubsub.replacePushConfigAsync(SUBSCRIPTION, null).get();
   }
 
   @Test
   public void testListSubscriptions() {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListSubscriptionsRequest request = ListSubscriptionsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -815,7 +958,7 @@ public class PubSubImplTest {
   @Test
   public void testListSubscriptionsNextPage() {
     String cursor1 = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(2);
     ListSubscriptionsRequest request1 = ListSubscriptionsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -855,7 +998,7 @@ public class PubSubImplTest {
 
   @Test
   public void testListSubscriptionsEmpty() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListSubscriptionsRequest request = ListSubscriptionsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -878,7 +1021,7 @@ public class PubSubImplTest {
   @Test
   public void testListSubscriptionsWithOptions() {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListSubscriptionsRequest request = ListSubscriptionsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -906,7 +1049,7 @@ public class PubSubImplTest {
   @Test
   public void testListSubscriptionsAsync() throws ExecutionException, InterruptedException {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListSubscriptionsRequest request = ListSubscriptionsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -930,7 +1073,7 @@ public class PubSubImplTest {
   @Test
   public void testListSubscriptionsAsyncNextPage() throws ExecutionException, InterruptedException {
     String cursor1 = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(2);
     ListSubscriptionsRequest request1 = ListSubscriptionsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -970,7 +1113,7 @@ public class PubSubImplTest {
 
   @Test
   public void testListSubscriptionsAsyncEmpty() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListSubscriptionsRequest request = ListSubscriptionsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -995,7 +1138,7 @@ public class PubSubImplTest {
   public void testListSubscriptionsAsyncWithOptions()
       throws ExecutionException, InterruptedException {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     resetOptionsForList(1);
     ListSubscriptionsRequest request = ListSubscriptionsRequest.newBuilder()
         .setProject(PROJECT_PB)
@@ -1024,7 +1167,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicSubscriptions() {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ListTopicSubscriptionsRequest request = ListTopicSubscriptionsRequest.newBuilder()
         .setTopic(TOPIC_NAME_PB)
         .build();
@@ -1048,7 +1191,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicSubscriptionsNextPage() {
     String cursor1 = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ListTopicSubscriptionsRequest request1 = ListTopicSubscriptionsRequest.newBuilder()
         .setTopic(TOPIC_NAME_PB)
         .build();
@@ -1089,7 +1232,7 @@ public class PubSubImplTest {
 
   @Test
   public void testListTopicSubscriptionsEmpty() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ListTopicSubscriptionsRequest request = ListTopicSubscriptionsRequest.newBuilder()
         .setTopic(TOPIC_NAME_PB)
         .build();
@@ -1112,7 +1255,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicSubscriptionsWithOptions() {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ListTopicSubscriptionsRequest request = ListTopicSubscriptionsRequest.newBuilder()
         .setTopic(TOPIC_NAME_PB)
         .setPageSize(42)
@@ -1140,7 +1283,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicSubscriptionsAsync() throws ExecutionException, InterruptedException {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ListTopicSubscriptionsRequest request = ListTopicSubscriptionsRequest.newBuilder()
         .setTopic(TOPIC_NAME_PB)
         .build();
@@ -1165,7 +1308,7 @@ public class PubSubImplTest {
   public void testListTopicSubscriptionsAsyncNextPage()
       throws ExecutionException, InterruptedException {
     String cursor1 = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ListTopicSubscriptionsRequest request1 = ListTopicSubscriptionsRequest.newBuilder()
         .setTopic(TOPIC_NAME_PB)
         .build();
@@ -1207,7 +1350,7 @@ public class PubSubImplTest {
   @Test
   public void testListTopicSubscriptionsAsyncEmpty()
       throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ListTopicSubscriptionsRequest request = ListTopicSubscriptionsRequest.newBuilder()
         .setTopic(TOPIC_NAME_PB)
         .build();
@@ -1232,7 +1375,7 @@ public class PubSubImplTest {
   public void testListTopicSubscriptionsAsyncWithOptions()
       throws ExecutionException, InterruptedException {
     String cursor = "cursor";
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ListTopicSubscriptionsRequest request = ListTopicSubscriptionsRequest.newBuilder()
         .setTopic(TOPIC_NAME_PB)
         .setPageSize(42)
@@ -1260,7 +1403,7 @@ public class PubSubImplTest {
 
   @Test
   public void testPullMessages() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     PullRequest request = PullRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
         .setMaxMessages(42)
@@ -1297,7 +1440,7 @@ public class PubSubImplTest {
 
   @Test
   public void testPullMessagesAsync() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     PullRequest request = PullRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
         .setMaxMessages(42)
@@ -1334,7 +1477,7 @@ public class PubSubImplTest {
 
   @Test
   public void testPullMessagesError() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     PullRequest request = PullRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
         .setMaxMessages(42)
@@ -1358,7 +1501,7 @@ public class PubSubImplTest {
 
   @Test
   public void testPullMessagesAsyncError() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     PullRequest request = PullRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
         .setMaxMessages(42)
@@ -1382,7 +1525,7 @@ public class PubSubImplTest {
 
   @Test
   public void testMessageConsumer() throws Exception {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     EasyMock.reset(options);
     EasyMock.expect(options.service()).andReturn(pubsub);
     EasyMock.expect(options.rpc()).andReturn(pubsubRpcMock);
@@ -1410,7 +1553,7 @@ public class PubSubImplTest {
 
   @Test
   public void testMessageConsumerWithOptions() throws Exception {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     EasyMock.reset(options);
     EasyMock.expect(options.service()).andReturn(pubsub);
     EasyMock.expect(options.rpc()).andReturn(pubsubRpcMock);
@@ -1444,7 +1587,7 @@ public class PubSubImplTest {
 
   @Test
   public void testAckOneMessage() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     AcknowledgeRequest request = AcknowledgeRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
         .addAckIds("ackId")
@@ -1455,9 +1598,64 @@ public class PubSubImplTest {
     pubsub.ack(SUBSCRIPTION, "ackId");
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testCloseWaitsForPendingAcks() throws Exception {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    ExecutorFactory<ScheduledExecutorService> executorFactoryMock =
+        EasyMock.createMock(ExecutorFactory.class);
+    EasyMock.expect(executorFactoryMock.get()).andReturn(executor).times(2);
+    executorFactoryMock.release(executor);
+    EasyMock.expectLastCall().times(2);
+    EasyMock.reset(options);
+    EasyMock.expect(options.projectId()).andReturn(PROJECT).anyTimes();
+    EasyMock.expect(options.rpc()).andReturn(pubsubRpcMock);
+    EasyMock.expect(options.publishBundlingOptions()).andReturn(null);
+    EasyMock.expect(options.publishFlowControlOptions()).andReturn(null);
+    EasyMock.expect(options.executorFactory()).andReturn(executorFactoryMock).anyTimes();
+    EasyMock.expect(options.clock()).andReturn(Clock.defaultClock());
+    AcknowledgeRequest request = AcknowledgeRequest.newBuilder()
+        .setSubscription(SUBSCRIPTION_NAME_PB)
+        .addAckIds("ackId")
+        .build();
+    final SettableFuture<Empty> responseFuture = SettableFuture.create();
+    EasyMock.expect(pubsubRpcMock.acknowledge(request)).andAnswer(new IAnswer<Future<Empty>>() {
+      @Override
+      public Future<Empty> answer() throws Throwable {
+        // the response arrives after close started waiting for it
+        new Thread(new Runnable() {
+          @Override
+          public void run() {
+            Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+            responseFuture.set(Empty.getDefaultInstance());
+          }
+        }).start();
+        return responseFuture;
+      }
+    });
+    pubsubRpcMock.close();
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override
+      public Void answer() throws Throwable {
+        assertTrue(responseFuture.isDone());
+        return null;
+      }
+    });
+    EasyMock.replay(options, pubsubRpcMock, renewerMock, executorFactoryMock);
+    PubSubImpl pubsubImpl = new PubSubImpl(options);
+    pubsub = pubsubImpl;
+    pubsubImpl.ackDispatcher().ack(SUBSCRIPTION, "ackId");
+    try {
+      pubsub.close();
+    } finally {
+      executor.shutdownNow();
+    }
+    EasyMock.verify(executorFactoryMock);
+  }
+
   @Test
   public void testAckOneMessageAsync() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     AcknowledgeRequest request = AcknowledgeRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
         .addAckIds("ackId")
@@ -1471,7 +1669,7 @@ public class PubSubImplTest {
 
   @Test
   public void testAckMoreMessages() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     AcknowledgeRequest request = AcknowledgeRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
         .addAllAckIds(ImmutableList.of("ackId1", "ackId2"))
@@ -1484,7 +1682,7 @@ public class PubSubImplTest {
 
   @Test
   public void testAckMoreMessagesAsync() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     AcknowledgeRequest request = AcknowledgeRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
         .addAllAckIds(ImmutableList.of("ackId1", "ackId2"))
@@ -1498,7 +1696,7 @@ public class PubSubImplTest {
 
   @Test
   public void testAckMessageList() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<String> ackIds = ImmutableList.of("ackId1", "ackId2");
     AcknowledgeRequest request = AcknowledgeRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1512,7 +1710,7 @@ public class PubSubImplTest {
 
   @Test
   public void testAckMessageListAsync() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<String> ackIds = ImmutableList.of("ackId1", "ackId2");
     AcknowledgeRequest request = AcknowledgeRequest.newBuilder()
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1527,7 +1725,7 @@ public class PubSubImplTest {
 
   @Test
   public void testNackOneMessage() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(0)
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1541,7 +1739,7 @@ public class PubSubImplTest {
 
   @Test
   public void testNackOneMessageAsync() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(0)
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1556,7 +1754,7 @@ public class PubSubImplTest {
 
   @Test
   public void testNackMoreMessages() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(0)
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1570,7 +1768,7 @@ public class PubSubImplTest {
 
   @Test
   public void testNackMoreMessagesAsync() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(0)
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1585,7 +1783,7 @@ public class PubSubImplTest {
 
   @Test
   public void testNackMessageList() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<String> ackIds = ImmutableList.of("ackId1", "ackId2");
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(0)
@@ -1600,7 +1798,7 @@ public class PubSubImplTest {
 
   @Test
   public void testNackMessageListAsync() throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<String> ackIds = ImmutableList.of("ackId1", "ackId2");
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(0)
@@ -1616,7 +1814,7 @@ public class PubSubImplTest {
 
   @Test
   public void testModifyAckDeadlineOneMessage() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(10)
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1631,7 +1829,7 @@ public class PubSubImplTest {
   @Test
   public void testModifyAckDeadlineOneMessageAsync()
       throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(10)
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1647,7 +1845,7 @@ public class PubSubImplTest {
 
   @Test
   public void testModifyAckDeadlineMoreMessages() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(10)
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1662,7 +1860,7 @@ public class PubSubImplTest {
   @Test
   public void testModifyAckDeadlineMoreMessagesAsync()
       throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(10)
         .setSubscription(SUBSCRIPTION_NAME_PB)
@@ -1678,7 +1876,7 @@ public class PubSubImplTest {
 
   @Test
   public void testModifyAckDeadlineMessageList() {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<String> ackIds = ImmutableList.of("ackId1", "ackId2");
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(10)
@@ -1694,7 +1892,7 @@ public class PubSubImplTest {
   @Test
   public void testModifyAckDeadlineMessageListAsync()
       throws ExecutionException, InterruptedException {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<String> ackIds = ImmutableList.of("ackId1", "ackId2");
     ModifyAckDeadlineRequest request = ModifyAckDeadlineRequest.newBuilder()
         .setAckDeadlineSeconds(10)
@@ -1713,7 +1911,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(POLICY_PB);
     EasyMock.expect(pubsubRpcMock.getIamPolicy(TOPIC_NAME_PB)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Policy policy = pubsub.getTopicPolicy(TOPIC);
     assertEquals(POLICY, policy);
   }
@@ -1723,7 +1921,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.getIamPolicy(TOPIC_NAME_PB)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertNull(pubsub.getTopicPolicy(TOPIC));
   }
 
@@ -1732,7 +1930,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(POLICY_PB);
     EasyMock.expect(pubsubRpcMock.getIamPolicy(TOPIC_NAME_PB)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Future<Policy> future = pubsub.getTopicPolicyAsync(TOPIC);
     assertEquals(POLICY, future.get());
   }
@@ -1742,7 +1940,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.getIamPolicy(TOPIC_NAME_PB)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertNull(pubsub.getTopicPolicyAsync(TOPIC).get());
   }
 
@@ -1755,7 +1953,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(POLICY_PB);
     EasyMock.expect(pubsubRpcMock.setIamPolicy(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Policy policy = pubsub.replaceTopicPolicy(TOPIC, POLICY);
     assertEquals(POLICY, policy);
   }
@@ -1769,7 +1967,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(POLICY_PB);
     EasyMock.expect(pubsubRpcMock.setIamPolicy(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Future<Policy> future = pubsub.replaceTopicPolicyAsync(TOPIC, POLICY);
     assertEquals(POLICY, future.get());
   }
@@ -1787,7 +1985,7 @@ public class PubSubImplTest {
     Future<TestIamPermissionsResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.testIamPermissions(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<Boolean> permissionBooleans = pubsub.testTopicPermissions(TOPIC, permissions);
     assertEquals(ImmutableList.of(true), permissionBooleans);
   }
@@ -1805,7 +2003,7 @@ public class PubSubImplTest {
     Future<TestIamPermissionsResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.testIamPermissions(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<Boolean> permissionBooleans = pubsub.testTopicPermissions(TOPIC, permissions);
     assertEquals(ImmutableList.of(false), permissionBooleans);
   }
@@ -1823,7 +2021,7 @@ public class PubSubImplTest {
     Future<TestIamPermissionsResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.testIamPermissions(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Future<List<Boolean>> future = pubsub.testTopicPermissionsAsync(TOPIC, permissions);
     assertEquals(ImmutableList.of(true), future.get());
   }
@@ -1841,7 +2039,7 @@ public class PubSubImplTest {
     Future<TestIamPermissionsResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.testIamPermissions(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Future<List<Boolean>> future = pubsub.testTopicPermissionsAsync(TOPIC, permissions);
     assertEquals(ImmutableList.of(false), future.get());
   }
@@ -1851,7 +2049,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(POLICY_PB);
     EasyMock.expect(pubsubRpcMock.getIamPolicy(SUBSCRIPTION_NAME_PB)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Policy policy = pubsub.getSubscriptionPolicy(SUBSCRIPTION);
     assertEquals(POLICY, policy);
   }
@@ -1861,7 +2059,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(null);
     EasyMock.expect(pubsubRpcMock.getIamPolicy(SUBSCRIPTION_NAME_PB)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     assertNull(pubsub.getSubscriptionPolicy(SUBSCRIPTION));
   }
 
@@ -1874,7 +2072,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(POLICY_PB);
     EasyMock.expect(pubsubRpcMock.setIamPolicy(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Policy policy = pubsub.replaceSubscriptionPolicy(SUBSCRIPTION, POLICY);
     assertEquals(POLICY, policy);
   }
@@ -1888,7 +2086,7 @@ public class PubSubImplTest {
     Future<com.google.iam.v1.Policy> response = Futures.immediateFuture(POLICY_PB);
     EasyMock.expect(pubsubRpcMock.setIamPolicy(request)).andReturn(response);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Future<Policy> future = pubsub.replaceSubscriptionPolicyAsync(SUBSCRIPTION, POLICY);
     assertEquals(POLICY, future.get());
   }
@@ -1906,7 +2104,7 @@ public class PubSubImplTest {
     Future<TestIamPermissionsResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.testIamPermissions(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<Boolean> permissionBooleans =
         pubsub.testSubscriptionPermissions(SUBSCRIPTION, permissions);
     assertEquals(ImmutableList.of(true), permissionBooleans);
@@ -1925,7 +2123,7 @@ public class PubSubImplTest {
     Future<TestIamPermissionsResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.testIamPermissions(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     List<Boolean> permissionBooleans =
         pubsub.testSubscriptionPermissions(SUBSCRIPTION, permissions);
     assertEquals(ImmutableList.of(false), permissionBooleans);
@@ -1945,7 +2143,7 @@ public class PubSubImplTest {
     Future<TestIamPermissionsResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.testIamPermissions(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Future<List<Boolean>> future =
         pubsub.testSubscriptionPermissionsAsync(SUBSCRIPTION, permissions);
     assertEquals(ImmutableList.of(true), future.get());
@@ -1965,7 +2163,7 @@ public class PubSubImplTest {
     Future<TestIamPermissionsResponse> responseFuture = Futures.immediateFuture(response);
     EasyMock.expect(pubsubRpcMock.testIamPermissions(request)).andReturn(responseFuture);
     EasyMock.replay(pubsubRpcMock, renewerMock);
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
     Future<List<Boolean>> future =
         pubsub.testSubscriptionPermissionsAsync(SUBSCRIPTION, permissions);
     assertEquals(ImmutableList.of(false), future.get());
@@ -1973,7 +2171,11 @@ public class PubSubImplTest {
 
   @Test
   public void testClose() throws Exception {
-    pubsub = new PubSubImpl(options, renewerMock);
+    pubsub = new PubSubImpl(options, renewerMock, ackDispatcherMock);
+    EasyMock.resetToStrict(ackDispatcherMock);
+    ackDispatcherMock.close();
+    EasyMock.expectLastCall();
+    EasyMock.replay(ackDispatcherMock);
     pubsubRpcMock.close();
     EasyMock.expectLastCall();
     EasyMock.expectLastCall();
@@ -31,6 +31,9 @@ public class PubSubTest {
   private static final int PAGE_SIZE = 42;
   private static final String PAGE_TOKEN = "page token";
   private static final int MAX_QUEUED_CALLBACKS = 42;
+  private static final long MAX_QUEUED_BYTES = 1024L * 1024;
+  private static final int CONCURRENT_PULLS = 4;
+  private static final String ORDERING_ATTRIBUTE = "key";
 
   @Test
   public void testListOption() {
@@ -51,9 +54,21 @@ public class PubSubTest {
     PullOption pullOption = PullOption.maxQueuedCallbacks(MAX_QUEUED_CALLBACKS);
     assertEquals(MAX_QUEUED_CALLBACKS, pullOption.value());
     assertEquals(PullOption.OptionType.MAX_QUEUED_CALLBACKS, pullOption.optionType());
+    // max queued bytes
+    pullOption = PullOption.maxQueuedBytes(MAX_QUEUED_BYTES);
+    assertEquals(MAX_QUEUED_BYTES, pullOption.value());
+    assertEquals(PullOption.OptionType.MAX_QUEUED_BYTES, pullOption.optionType());
     ExecutorFactory executorFactory = EasyMock.createStrictMock(ExecutorFactory.class);
     pullOption = PullOption.executorFactory(executorFactory);
     assertSame(executorFactory, pullOption.value());
     assertEquals(PullOption.OptionType.EXECUTOR_FACTORY, pullOption.optionType());
+    // concurrent pulls
+    pullOption = PullOption.concurrentPulls(CONCURRENT_PULLS);
+    assertEquals(CONCURRENT_PULLS, pullOption.value());
+    assertEquals(PullOption.OptionType.CONCURRENT_PULLS, pullOption.optionType());
+    // ordering attribute
+    pullOption = PullOption.orderingAttribute(ORDERING_ATTRIBUTE);
+    assertEquals(ORDERING_ATTRIBUTE, pullOption.value());
+    assertEquals(PullOption.OptionType.ORDERING_ATTRIBUTE, pullOption.optionType());
   }
 }
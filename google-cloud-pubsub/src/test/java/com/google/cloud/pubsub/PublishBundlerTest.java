@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.GrpcServiceOptions.ExecutorFactory;
+import com.google.cloud.pubsub.spi.PubSubRpc;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class PublishBundlerTest {
+
+  private static final String TOPIC = "projects/project/topics/topic";
+  private static final String OTHER_TOPIC = "projects/project/topics/other-topic";
+  private static final PubsubMessage MESSAGE1 = PubsubMessage.newBuilder()
+      .setData(ByteString.copyFromUtf8("payload1"))
+      .build();
+  private static final PubsubMessage MESSAGE2 = PubsubMessage.newBuilder()
+      .setData(ByteString.copyFromUtf8("payload2"))
+      .build();
+  private static final PubsubMessage MESSAGE3 = PubsubMessage.newBuilder()
+      .setData(ByteString.copyFromUtf8("payload3"))
+      .build();
+  private static final long DELAY_MILLIS = 10;
+
+  private PubSubRpc rpcMock;
+  private ExecutorFactory<ScheduledExecutorService> executorFactoryMock;
+  private ScheduledExecutorService executorMock;
+  private ScheduledFuture<?> scheduledFutureMock;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    rpcMock = EasyMock.createStrictMock(PubSubRpc.class);
+    executorFactoryMock = EasyMock.createStrictMock(ExecutorFactory.class);
+    executorMock = EasyMock.createStrictMock(ScheduledExecutorService.class);
+    scheduledFutureMock = EasyMock.createStrictMock(ScheduledFuture.class);
+    EasyMock.expect(executorFactoryMock.get()).andReturn(executorMock);
+  }
+
+  @After
+  public void tearDown() {
+    EasyMock.verify(rpcMock, executorFactoryMock, executorMock, scheduledFutureMock);
+  }
+
+  private PublishBundler createBundler(PublishBundlingOptions options) {
+    EasyMock.replay(rpcMock, executorFactoryMock, executorMock, scheduledFutureMock);
+    return new PublishBundler(rpcMock, options, executorFactoryMock);
+  }
+
+  private static PublishBundlingOptions.Builder optionsBuilder() {
+    return PublishBundlingOptions.builder().delayThreshold(DELAY_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private static PublishRequest publishRequest(String topic, PubsubMessage... messages) {
+    return PublishRequest.newBuilder()
+        .setTopic(topic)
+        .addAllMessages(ImmutableList.copyOf(messages))
+        .build();
+  }
+
+  private static ListenableFuture<PublishResponse> publishResponse(String... messageIds) {
+    return Futures.immediateFuture(
+        PublishResponse.newBuilder().addAllMessageIds(ImmutableList.copyOf(messageIds)).build());
+  }
+
+  @SuppressWarnings("unchecked")
+  private void expectSchedule(Capture<Runnable> capture) {
+    EasyMock.expect(executorMock.schedule(EasyMock.capture(capture), EasyMock.eq(DELAY_MILLIS),
+        EasyMock.same(TimeUnit.MILLISECONDS))).andReturn((ScheduledFuture) scheduledFutureMock);
+  }
+
+  @Test
+  public void testPublishOnDelayThreshold() throws Exception {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    EasyMock.expect(rpcMock.publish(publishRequest(TOPIC, MESSAGE1, MESSAGE2)))
+        .andReturn(publishResponse("id1", "id2"));
+    PublishBundler bundler = createBundler(optionsBuilder().build());
+    ListenableFuture<String> future1 = bundler.add(TOPIC, ImmutableList.of(MESSAGE1)).get(0);
+    ListenableFuture<String> future2 = bundler.add(TOPIC, ImmutableList.of(MESSAGE2)).get(0);
+    assertFalse(future1.isDone());
+    assertFalse(future2.isDone());
+    flush.getValue().run();
+    assertEquals("id1", future1.get());
+    assertEquals("id2", future2.get());
+  }
+
+  @Test
+  public void testPublishOnMaxMessages() throws Exception {
+    Capture<Runnable> flush = Capture.newInstance();
+    EasyMock.expect(rpcMock.publish(publishRequest(TOPIC, MESSAGE1, MESSAGE2)))
+        .andReturn(publishResponse("id1", "id2"));
+    expectSchedule(flush);
+    EasyMock.expect(rpcMock.publish(publishRequest(TOPIC, MESSAGE3)))
+        .andReturn(publishResponse("id3"));
+    PublishBundler bundler = createBundler(optionsBuilder().maxMessages(2).build());
+    List<ListenableFuture<String>> futures =
+        bundler.add(TOPIC, ImmutableList.of(MESSAGE1, MESSAGE2, MESSAGE3));
+    assertEquals("id1", futures.get(0).get());
+    assertEquals("id2", futures.get(1).get());
+    assertFalse(futures.get(2).isDone());
+    flush.getValue().run();
+    assertEquals("id3", futures.get(2).get());
+  }
+
+  @Test
+  public void testPublishOnMaxBytes() throws Exception {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    EasyMock.expect(scheduledFutureMock.cancel(false)).andReturn(true);
+    EasyMock.expect(rpcMock.publish(publishRequest(TOPIC, MESSAGE1)))
+        .andReturn(publishResponse("id1"));
+    expectSchedule(flush);
+    PublishBundler bundler = createBundler(optionsBuilder()
+        .maxBytes(MESSAGE1.getSerializedSize() + MESSAGE2.getSerializedSize() - 1)
+        .build());
+    ListenableFuture<String> future1 = bundler.add(TOPIC, ImmutableList.of(MESSAGE1)).get(0);
+    ListenableFuture<String> future2 = bundler.add(TOPIC, ImmutableList.of(MESSAGE2)).get(0);
+    assertEquals("id1", future1.get());
+    assertFalse(future2.isDone());
+  }
+
+  @Test
+  public void testBundlesArePerTopic() throws Exception {
+    Capture<Runnable> flush1 = Capture.newInstance();
+    Capture<Runnable> flush2 = Capture.newInstance();
+    expectSchedule(flush1);
+    expectSchedule(flush2);
+    EasyMock.expect(rpcMock.publish(publishRequest(OTHER_TOPIC, MESSAGE2)))
+        .andReturn(publishResponse("id2"));
+    EasyMock.expect(rpcMock.publish(publishRequest(TOPIC, MESSAGE1)))
+        .andReturn(publishResponse("id1"));
+    PublishBundler bundler = createBundler(optionsBuilder().build());
+    ListenableFuture<String> future1 = bundler.add(TOPIC, ImmutableList.of(MESSAGE1)).get(0);
+    ListenableFuture<String> future2 =
+        bundler.add(OTHER_TOPIC, ImmutableList.of(MESSAGE2)).get(0);
+    flush2.getValue().run();
+    assertEquals("id2", future2.get());
+    assertFalse(future1.isDone());
+    flush1.getValue().run();
+    assertEquals("id1", future1.get());
+  }
+
+  @Test
+  public void testPublishFailure() throws Exception {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    RuntimeException exception = new RuntimeException("publish failed");
+    EasyMock.expect(rpcMock.publish(publishRequest(TOPIC, MESSAGE1, MESSAGE2)))
+        .andReturn(Futures.<PublishResponse>immediateFailedFuture(exception));
+    PublishBundler bundler = createBundler(optionsBuilder().build());
+    List<ListenableFuture<String>> futures =
+        bundler.add(TOPIC, ImmutableList.of(MESSAGE1, MESSAGE2));
+    flush.getValue().run();
+    for (ListenableFuture<String> future : futures) {
+      try {
+        future.get();
+        fail("ExecutionException expected");
+      } catch (ExecutionException ex) {
+        assertSame(exception, ex.getCause());
+      }
+    }
+  }
+
+  @Test
+  public void testDropOldest() throws Exception {
+    Capture<Runnable> flush = Capture.newInstance();
+    Capture<Runnable> otherFlush = Capture.newInstance();
+    expectSchedule(flush);
+    expectSchedule(otherFlush);
+    // dropping the last message held for a topic cancels the topic's scheduled flush
+    EasyMock.expect(scheduledFutureMock.cancel(false)).andReturn(true);
+    EasyMock.expect(rpcMock.publish(publishRequest(TOPIC, MESSAGE2)))
+        .andReturn(publishResponse("id2"));
+    PublishBundler bundler = createBundler(optionsBuilder().build());
+    List<ListenableFuture<String>> futures =
+        bundler.add(TOPIC, ImmutableList.of(MESSAGE1, MESSAGE2));
+    RuntimeException exception = new RuntimeException("dropped");
+    assertTrue(bundler.dropOldest(TOPIC, exception));
+    try {
+      futures.get(0).get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertSame(exception, ex.getCause());
+    }
+    ListenableFuture<String> otherFuture =
+        bundler.add(OTHER_TOPIC, ImmutableList.of(MESSAGE3)).get(0);
+    assertTrue(bundler.dropOldest(OTHER_TOPIC, exception));
+    assertTrue(otherFuture.isDone());
+    assertFalse(bundler.dropOldest(OTHER_TOPIC, exception));
+    flush.getValue().run();
+    assertEquals("id2", futures.get(1).get());
+  }
+
+  @Test
+  public void testClosePublishesPendingMessages() throws Exception {
+    Capture<Runnable> flush = Capture.newInstance();
+    expectSchedule(flush);
+    EasyMock.expect(scheduledFutureMock.cancel(false)).andReturn(true);
+    EasyMock.expect(rpcMock.publish(publishRequest(TOPIC, MESSAGE1)))
+        .andReturn(publishResponse("id1"));
+    executorFactoryMock.release(executorMock);
+    EasyMock.expectLastCall();
+    PublishBundler bundler = createBundler(optionsBuilder().build());
+    ListenableFuture<String> future = bundler.add(TOPIC, ImmutableList.of(MESSAGE1)).get(0);
+    bundler.close();
+    assertEquals("id1", future.get());
+    // the scheduled flush does nothing once the bundle was published
+    flush.getValue().run();
+  }
+
+  @Test
+  public void testAddAfterClose() throws Exception {
+    executorFactoryMock.release(executorMock);
+    EasyMock.expectLastCall();
+    PublishBundler bundler = createBundler(optionsBuilder().build());
+    bundler.close();
+    ListenableFuture<String> future = bundler.add(TOPIC, ImmutableList.of(MESSAGE1)).get(0);
+    try {
+      future.get();
+      fail("ExecutionException expected");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.pubsub.PublishFlowControlOptions.LimitExceededBehavior;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.CountDownLatch;
+
+public class PublishFlowControllerTest {
+
+  private static final String TOPIC = "projects/project/topics/topic";
+  private static final String OTHER_TOPIC = "projects/project/topics/other-topic";
+
+  @Rule
+  public Timeout globalTimeout = Timeout.seconds(60);
+
+  private static PublishFlowControlOptions options(int maxMessages, long maxBytes,
+      LimitExceededBehavior behavior) {
+    return PublishFlowControlOptions.builder()
+        .maxOutstandingMessages(maxMessages)
+        .maxOutstandingBytes(maxBytes)
+        .limitExceededBehavior(behavior)
+        .build();
+  }
+
+  private static void assertLimitExceeded(PublishFlowController controller, int messages,
+      long bytes) {
+    try {
+      controller.reserve(TOPIC, messages, bytes);
+      fail("PubSubException expected");
+    } catch (PubSubException ex) {
+      assertEquals("RESOURCE_EXHAUSTED", ex.reason());
+    }
+  }
+
+  @Test
+  public void testReserveAndRelease() {
+    PublishFlowController controller =
+        new PublishFlowController(options(10, 100, LimitExceededBehavior.FAIL_FAST), null);
+    SettableFuture<String> future = SettableFuture.create();
+    controller.reserve(TOPIC, 2, 20);
+    controller.releaseWhenDone(TOPIC, future, 2, 20);
+    assertEquals(2, controller.outstandingMessages(TOPIC));
+    assertEquals(20, controller.outstandingBytes(TOPIC));
+    assertEquals(0, controller.outstandingMessages(OTHER_TOPIC));
+    assertEquals(0, controller.outstandingBytes(OTHER_TOPIC));
+    future.set("messageId");
+    assertEquals(0, controller.outstandingMessages(TOPIC));
+    assertEquals(0, controller.outstandingBytes(TOPIC));
+  }
+
+  @Test
+  public void testFailFast() {
+    PublishFlowController controller =
+        new PublishFlowController(options(2, 100, LimitExceededBehavior.FAIL_FAST), null);
+    controller.reserve(TOPIC, 2, 20);
+    assertLimitExceeded(controller, 1, 10);
+    // limits are per topic
+    controller.reserve(OTHER_TOPIC, 2, 20);
+    controller =
+        new PublishFlowController(options(10, 100, LimitExceededBehavior.FAIL_FAST), null);
+    controller.reserve(TOPIC, 1, 90);
+    assertLimitExceeded(controller, 1, 20);
+  }
+
+  @Test
+  public void testLargePublicationAcceptedWhenNothingIsOutstanding() {
+    PublishFlowController controller =
+        new PublishFlowController(options(1, 100, LimitExceededBehavior.FAIL_FAST), null);
+    controller.reserve(TOPIC, 5, 500);
+    assertLimitExceeded(controller, 1, 10);
+  }
+
+  @Test
+  public void testBlock() throws InterruptedException {
+    final PublishFlowController controller =
+        new PublishFlowController(options(1, 100, LimitExceededBehavior.BLOCK), null);
+    SettableFuture<String> future = SettableFuture.create();
+    controller.reserve(TOPIC, 1, 10);
+    controller.releaseWhenDone(TOPIC, future, 1, 10);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch reserved = new CountDownLatch(1);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        started.countDown();
+        controller.reserve(TOPIC, 1, 10);
+        reserved.countDown();
+      }
+    };
+    thread.start();
+    started.await();
+    assertEquals(1, reserved.getCount());
+    future.set("messageId");
+    reserved.await();
+    thread.join();
+    assertEquals(1, controller.outstandingMessages(TOPIC));
+  }
+
+  @Test
+  public void testDropOldest() {
+    PublishBundler bundler = EasyMock.createStrictMock(PublishBundler.class);
+    PublishFlowController controller =
+        new PublishFlowController(options(1, 100, LimitExceededBehavior.DROP_OLDEST), bundler);
+    final SettableFuture<String> oldest = SettableFuture.create();
+    EasyMock.expect(bundler.dropOldest(EasyMock.eq(TOPIC), EasyMock.isA(PubSubException.class)))
+        .andAnswer(new IAnswer<Boolean>() {
+          @Override
+          public Boolean answer() throws Throwable {
+            oldest.setException((Throwable) EasyMock.getCurrentArguments()[1]);
+            return true;
+          }
+        });
+    EasyMock.expect(bundler.dropOldest(EasyMock.eq(TOPIC), EasyMock.isA(PubSubException.class)))
+        .andReturn(false);
+    EasyMock.replay(bundler);
+    controller.reserve(TOPIC, 1, 10);
+    controller.releaseWhenDone(TOPIC, oldest, 1, 10);
+    controller.reserve(TOPIC, 1, 10);
+    assertTrue(oldest.isDone());
+    assertEquals(1, controller.outstandingMessages(TOPIC));
+    // the new message was not released, there is nothing else to drop
+    assertLimitExceeded(controller, 1, 10);
+    EasyMock.verify(bundler);
+  }
+
+  @Test
+  public void testDropOldestWithoutBundling() {
+    PublishFlowController controller =
+        new PublishFlowController(options(1, 100, LimitExceededBehavior.DROP_OLDEST), null);
+    controller.reserve(TOPIC, 1, 10);
+    assertLimitExceeded(controller, 1, 10);
+    assertEquals(1, controller.outstandingMessages(TOPIC));
+  }
+}
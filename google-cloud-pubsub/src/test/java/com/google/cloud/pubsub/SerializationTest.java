@@ -24,7 +24,10 @@ import com.google.cloud.pubsub.PubSub.ListOption;
 import com.google.cloud.pubsub.PubSub.PullOption;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class SerializationTest extends BaseSerializationTest {
 
@@ -34,6 +37,8 @@ public class SerializationTest extends BaseSerializationTest {
       .host("localhost")
       .build().service();
   private static final Message MESSAGE = Message.of("payload");
+  private static final Message WRAPPED_MESSAGE = Message.of(
+      ByteBuffer.wrap("payload".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer());
   private static final com.google.pubsub.v1.ReceivedMessage RECEIVED_MESSAGE_PB =
       com.google.pubsub.v1.ReceivedMessage.newBuilder()
           .setMessage(MESSAGE.toPb())
@@ -53,6 +58,18 @@ public class SerializationTest extends BaseSerializationTest {
   private static final PullOption MAX_QUEUED_CALLBACKS_OPTION = PullOption.maxQueuedCallbacks(42);
   private static final PullOption EXECUTOR_FACTORY_OPTION =
       PullOption.executorFactory(new TestExecutorFactory());
+  private static final PublishBundlingOptions PUBLISH_BUNDLING_OPTIONS =
+      PublishBundlingOptions.builder()
+          .maxMessages(42)
+          .maxBytes(4096)
+          .delayThreshold(5, TimeUnit.MILLISECONDS)
+          .build();
+  private static final PublishFlowControlOptions PUBLISH_FLOW_CONTROL_OPTIONS =
+      PublishFlowControlOptions.builder()
+          .maxOutstandingMessages(42)
+          .maxOutstandingBytes(4096)
+          .limitExceededBehavior(PublishFlowControlOptions.LimitExceededBehavior.FAIL_FAST)
+          .build();
 
   public static class TestExecutorFactory
       implements ExecutorFactory<ScheduledExecutorService>, Serializable {
@@ -89,10 +106,13 @@ public class SerializationTest extends BaseSerializationTest {
     PubSubOptions otherOptions = options.toBuilder()
         .projectId("p2")
         .executorFactory(new TestExecutorFactory())
+        .publishBundlingOptions(PUBLISH_BUNDLING_OPTIONS)
+        .publishFlowControlOptions(PUBLISH_FLOW_CONTROL_OPTIONS)
         .build();
-    return new Serializable[]{options, otherOptions, MESSAGE, RECEIVED_MESSAGE, SUBSCRIPTION_INFO,
-        SUBSCRIPTION, SUBSCRIPTION_ID, TOPIC_INFO, TOPIC, PAGE_TOKEN_OPTION, PAGE_SIZE_OPTION,
-        MAX_QUEUED_CALLBACKS_OPTION, EXECUTOR_FACTORY_OPTION};
+    return new Serializable[]{options, otherOptions, MESSAGE, WRAPPED_MESSAGE, RECEIVED_MESSAGE,
+        SUBSCRIPTION_INFO, SUBSCRIPTION, SUBSCRIPTION_ID, TOPIC_INFO, TOPIC, PAGE_TOKEN_OPTION,
+        PAGE_SIZE_OPTION, MAX_QUEUED_CALLBACKS_OPTION, EXECUTOR_FACTORY_OPTION,
+        PUBLISH_BUNDLING_OPTIONS, PUBLISH_FLOW_CONTROL_OPTIONS};
   }
 
   @Override
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.pubsub.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.Clock;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.google.pubsub.v1.AcknowledgeRequest;
+import com.google.pubsub.v1.DeleteTopicRequest;
+import com.google.pubsub.v1.GetSubscriptionRequest;
+import com.google.pubsub.v1.ModifyAckDeadlineRequest;
+import com.google.pubsub.v1.PublishRequest;
+import com.google.pubsub.v1.PublishResponse;
+import com.google.pubsub.v1.PubsubMessage;
+import com.google.pubsub.v1.PullRequest;
+import com.google.pubsub.v1.PullResponse;
+import com.google.pubsub.v1.ReceivedMessage;
+import com.google.pubsub.v1.Subscription;
+import com.google.pubsub.v1.Topic;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class InMemoryPubsubImplTest {
+
+  private static final String TOPIC = "projects/project/topics/topic";
+  private static final String SUBSCRIPTION = "projects/project/subscriptions/subscription";
+  private static final int ACK_DEADLINE_SECONDS = 10;
+
+  private FakeClock clock;
+  private InMemoryPubsubImpl pubsubImpl;
+
+  private static final class FakeClock extends Clock {
+
+    private long millis;
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+
+    void advance(long millis) {
+      this.millis += millis;
+    }
+  }
+
+  private static final class RecordingObserver<V> implements StreamObserver<V> {
+
+    private V value;
+    private Throwable error;
+
+    @Override
+    public void onNext(V value) {
+      this.value = value;
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      this.error = error;
+    }
+
+    @Override
+    public void onCompleted() {}
+
+    V value() {
+      if (error != null) {
+        throw new AssertionError(error);
+      }
+      return value;
+    }
+
+    Status.Code errorCode() {
+      return ((StatusRuntimeException) error).getStatus().getCode();
+    }
+  }
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    pubsubImpl = new InMemoryPubsubImpl(clock);
+    pubsubImpl.createTopic(Topic.newBuilder().setName(TOPIC).build(),
+        new RecordingObserver<Topic>());
+    pubsubImpl.createSubscription(Subscription.newBuilder()
+        .setName(SUBSCRIPTION)
+        .setTopic(TOPIC)
+        .setAckDeadlineSeconds(ACK_DEADLINE_SECONDS)
+        .build(), new RecordingObserver<Subscription>());
+  }
+
+  private List<String> publish(String... payloads) {
+    PublishRequest.Builder request = PublishRequest.newBuilder().setTopic(TOPIC);
+    for (String payload : payloads) {
+      request.addMessages(
+          PubsubMessage.newBuilder().setData(ByteString.copyFromUtf8(payload)).build());
+    }
+    RecordingObserver<PublishResponse> observer = new RecordingObserver<>();
+    pubsubImpl.publish(request.build(), observer);
+    return observer.value().getMessageIdsList();
+  }
+
+  private List<ReceivedMessage> pull(int maxMessages) {
+    RecordingObserver<PullResponse> observer = new RecordingObserver<>();
+    pubsubImpl.pull(PullRequest.newBuilder()
+        .setSubscription(SUBSCRIPTION)
+        .setMaxMessages(maxMessages)
+        .setReturnImmediately(true)
+        .build(), observer);
+    return observer.value().getReceivedMessagesList();
+  }
+
+  private void ack(String ackId) {
+    RecordingObserver<Empty> observer = new RecordingObserver<>();
+    pubsubImpl.acknowledge(AcknowledgeRequest.newBuilder()
+        .setSubscription(SUBSCRIPTION)
+        .addAckIds(ackId)
+        .build(), observer);
+    observer.value();
+  }
+
+  private void modifyAckDeadline(String ackId, int seconds) {
+    RecordingObserver<Empty> observer = new RecordingObserver<>();
+    pubsubImpl.modifyAckDeadline(ModifyAckDeadlineRequest.newBuilder()
+        .setSubscription(SUBSCRIPTION)
+        .addAckIds(ackId)
+        .setAckDeadlineSeconds(seconds)
+        .build(), observer);
+    observer.value();
+  }
+
+  @Test
+  public void testPublishAndPull() {
+    List<String> messageIds = publish("payload1", "payload2");
+    assertEquals(2, pubsubImpl.pendingMessages(SUBSCRIPTION));
+    List<ReceivedMessage> messages = pull(1);
+    assertEquals(1, messages.size());
+    assertEquals(messageIds.get(0), messages.get(0).getMessage().getMessageId());
+    assertEquals("payload1", messages.get(0).getMessage().getData().toStringUtf8());
+    assertEquals(1, pubsubImpl.pendingMessages(SUBSCRIPTION));
+    assertEquals(1, pubsubImpl.outstandingMessages(SUBSCRIPTION));
+    ack(messages.get(0).getAckId());
+    assertEquals(0, pubsubImpl.outstandingMessages(SUBSCRIPTION));
+    messages = pull(2);
+    assertEquals(1, messages.size());
+    assertEquals(messageIds.get(1), messages.get(0).getMessage().getMessageId());
+    assertEquals(1, pubsubImpl.requestCount("publish"));
+    assertEquals(2, pubsubImpl.requestCount("pull"));
+    assertEquals(1, pubsubImpl.requestCount("acknowledge"));
+    assertEquals(0, pubsubImpl.requestCount("modifyAckDeadline"));
+  }
+
+  @Test
+  public void testRedeliveryOnDeadlineExpiry() {
+    publish("payload1", "payload2");
+    List<ReceivedMessage> messages = pull(2);
+    assertEquals(2, messages.size());
+    modifyAckDeadline(messages.get(1).getAckId(), 2 * ACK_DEADLINE_SECONDS);
+    clock.advance(ACK_DEADLINE_SECONDS * 1000 - 1);
+    assertTrue(pull(2).isEmpty());
+    clock.advance(1);
+    List<ReceivedMessage> redelivered = pull(2);
+    assertEquals(1, redelivered.size());
+    assertEquals(messages.get(0).getMessage(), redelivered.get(0).getMessage());
+    // the ack id of an expired delivery is no longer valid
+    ack(messages.get(0).getAckId());
+    assertEquals(2, pubsubImpl.outstandingMessages(SUBSCRIPTION));
+    ack(redelivered.get(0).getAckId());
+    clock.advance(ACK_DEADLINE_SECONDS * 1000);
+    redelivered = pull(2);
+    assertEquals(1, redelivered.size());
+    assertEquals(messages.get(1).getMessage(), redelivered.get(0).getMessage());
+  }
+
+  @Test
+  public void testNackRedeliversImmediately() {
+    publish("payload");
+    List<ReceivedMessage> messages = pull(1);
+    modifyAckDeadline(messages.get(0).getAckId(), 0);
+    List<ReceivedMessage> redelivered = pull(1);
+    assertEquals(1, redelivered.size());
+    assertEquals(messages.get(0).getMessage(), redelivered.get(0).getMessage());
+  }
+
+  @Test
+  public void testDeleteTopic() {
+    RecordingObserver<Empty> deleteObserver = new RecordingObserver<>();
+    pubsubImpl.deleteTopic(DeleteTopicRequest.newBuilder().setTopic(TOPIC).build(),
+        deleteObserver);
+    deleteObserver.value();
+    RecordingObserver<Subscription> getObserver = new RecordingObserver<>();
+    pubsubImpl.getSubscription(
+        GetSubscriptionRequest.newBuilder().setSubscription(SUBSCRIPTION).build(), getObserver);
+    assertEquals(InMemoryPubsubImpl.DELETED_TOPIC, getObserver.value().getTopic());
+    RecordingObserver<PublishResponse> publishObserver = new RecordingObserver<>();
+    pubsubImpl.publish(PublishRequest.newBuilder().setTopic(TOPIC).build(), publishObserver);
+    assertNull(publishObserver.value);
+    assertEquals(Status.Code.NOT_FOUND, publishObserver.errorCode());
+  }
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.trace;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.trace.spi.v1.TraceServiceApi;
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.cloudtrace.v1.PatchTracesRequest;
+import com.google.devtools.cloudtrace.v1.Trace;
+import com.google.devtools.cloudtrace.v1.TraceSpan;
+import com.google.devtools.cloudtrace.v1.Traces;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exports finished spans to Stackdriver Trace in the background.
+ *
+ * <p>Application threads hand finished spans to {@link #export(String, TraceSpan)}, which never
+ * blocks: spans are added to a bounded lock-free queue and dropped if the queue is full. A
+ * background thread drains the queue every flush interval (defaults to 5 seconds), or as soon as
+ * enough spans are queued to fill a request, groups the spans by trace and writes them with a
+ * single {@code PatchTraces} request per batch.
+ *
+ * <p>Spans can be sampled before they are queued. Probabilistic sampling keeps the configured
+ * fraction of traces: the decision is derived from the trace id, so the spans of a trace are
+ * either all kept or all discarded, on every process exporting to the same trace. Rate limiting
+ * caps the number of spans exported per second, allowing bursts of up to one second worth of
+ * spans. The rate limiting decision is made once per trace, when its first span is exported, and
+ * applies to all the following spans of the trace, which are charged against the limit but never
+ * rejected; decisions are remembered for the most recent traces only. The number of spans that
+ * were sampled out, rate limited, dropped because the queue was full or could not be written are
+ * available through the exporter's counters.
+ */
+public final class TraceExporter implements AutoCloseable {
+
+  private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 5_000;
+  private static final int DEFAULT_MAX_SPANS_PER_REQUEST = 1_000;
+  private static final int DEFAULT_MAX_QUEUE_SIZE = 10_000;
+  private static final int MAX_TRACKED_TRACES = 10_000;
+  private static final HashFunction TRACE_ID_HASH = Hashing.murmur3_32();
+  private static final Logger logger = Logger.getLogger(TraceExporter.class.getName());
+
+  private final TraceServiceApi traceService;
+  private final String projectId;
+  private final int maxSpansPerRequest;
+  private final int maxQueueSize;
+  private final long sampleThreshold;
+  private final RateLimiter rateLimiter;
+  // rate limiting decisions of the most recent traces, guarded by itself
+  private final Map<String, Boolean> rateLimitDecisions =
+      new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 3462306843218917207L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+          return size() > MAX_TRACKED_TRACES;
+        }
+      };
+  private final Queue<QueuedSpan> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queuedSpans = new AtomicInteger();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final AtomicLong sampledOutSpans = new AtomicLong();
+  private final AtomicLong rateLimitedSpans = new AtomicLong();
+  private final AtomicLong droppedSpans = new AtomicLong();
+  private final AtomicLong failedSpans = new AtomicLong();
+  private final ScheduledExecutorService executor;
+  private final boolean ownsExecutor;
+  private final ScheduledFuture<?> flushTask;
+  private final Runnable flushRunnable = new Runnable() {
+    @Override
+    public void run() {
+      flushScheduled.set(false);
+      try {
+        flush();
+      } catch (RuntimeException ex) {
+        logger.log(Level.WARNING, "Failed to export spans", ex);
+      }
+    }
+  };
+  private final Object flushLock = new Object();
+  private volatile boolean closed;
+
+  private static final class QueuedSpan {
+
+    private final String traceId;
+    private final TraceSpan span;
+
+    QueuedSpan(String traceId, TraceSpan span) {
+      this.traceId = traceId;
+      this.span = span;
+    }
+  }
+
+  /**
+   * A lock-free rate limiter that tracks the time at which the next span is allowed, in the style
+   * of the generic cell rate algorithm.
+   */
+  private static final class RateLimiter {
+
+    private final Ticker ticker;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong nextFreeNanos;
+
+    RateLimiter(double spansPerSecond, Ticker ticker) {
+      this.ticker = ticker;
+      this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / spansPerSecond));
+      this.burstNanos = Math.max(intervalNanos, TimeUnit.SECONDS.toNanos(1));
+      this.nextFreeNanos = new AtomicLong(ticker.read() - burstNanos);
+    }
+
+    boolean tryAcquire() {
+      return acquire(false);
+    }
+
+    /**
+     * Charges a span even if the limit is exceeded, delaying the next spans that are allowed.
+     */
+    void forceAcquire() {
+      acquire(true);
+    }
+
+    private boolean acquire(boolean force) {
+      long now = ticker.read();
+      while (true) {
+        long nextFree = nextFreeNanos.get();
+        long next = Math.max(nextFree, now - burstNanos) + intervalNanos;
+        if (!force && next - now > 0) {
+          return false;
+        }
+        if (nextFreeNanos.compareAndSet(nextFree, next)) {
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * A builder for {@code TraceExporter} objects.
+   */
+  public static final class Builder {
+
+    private final String projectId;
+    private final TraceServiceApi traceService;
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private int maxSpansPerRequest = DEFAULT_MAX_SPANS_PER_REQUEST;
+    private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private double sampleRate = 1.0;
+    private double maxSpansPerSecond;
+    private ScheduledExecutorService executor;
+    private Ticker ticker = Ticker.systemTicker();
+
+    private Builder(String projectId, TraceServiceApi traceService) {
+      this.projectId = checkNotNull(projectId);
+      this.traceService = checkNotNull(traceService);
+    }
+
+    /**
+     * Sets how often queued spans are exported. If not set, spans are exported every 5 seconds.
+     */
+    public Builder flushInterval(long flushInterval, TimeUnit unit) {
+      checkArgument(flushInterval > 0, "Flush interval must be > 0");
+      this.flushIntervalMillis = unit.toMillis(flushInterval);
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of spans in a request. Queued spans are exported as soon as this
+     * many spans are queued, without waiting for the flush interval. If not set, 1000 is used.
+     */
+    public Builder maxSpansPerRequest(int maxSpansPerRequest) {
+      checkArgument(maxSpansPerRequest > 0, "Max spans per request must be > 0");
+      this.maxSpansPerRequest = maxSpansPerRequest;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of queued spans. Spans exported while the queue is full are dropped.
+     * If not set, 10000 is used.
+     */
+    public Builder maxQueueSize(int maxQueueSize) {
+      checkArgument(maxQueueSize > 0, "Max queue size must be > 0");
+      this.maxQueueSize = maxQueueSize;
+      return this;
+    }
+
+    /**
+     * Sets the fraction of traces whose spans are exported, between 0 and 1. If not set, all
+     * traces are exported.
+     */
+    public Builder sampleRate(double sampleRate) {
+      checkArgument(sampleRate >= 0 && sampleRate <= 1, "Sample rate must be in [0, 1]");
+      this.sampleRate = sampleRate;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of spans exported per second. Sampled traces whose first span
+     * exceeds the limit are discarded as a whole. If not set, the number of exported spans is not
+     * limited.
+     */
+    public Builder maxSpansPerSecond(double maxSpansPerSecond) {
+      checkArgument(maxSpansPerSecond > 0, "Max spans per second must be > 0");
+      this.maxSpansPerSecond = maxSpansPerSecond;
+      return this;
+    }
+
+    /**
+     * Sets the executor used to export spans. The executor is not shut down when the exporter is
+     * closed. If not set, the exporter uses its own daemon thread.
+     */
+    public Builder executor(ScheduledExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    Builder ticker(Ticker ticker) {
+      this.ticker = checkNotNull(ticker);
+      return this;
+    }
+
+    /**
+     * Creates a {@code TraceExporter} object and starts exporting spans periodically.
+     */
+    public TraceExporter build() {
+      return new TraceExporter(this);
+    }
+  }
+
+  private TraceExporter(Builder builder) {
+    traceService = builder.traceService;
+    projectId = builder.projectId;
+    maxSpansPerRequest = builder.maxSpansPerRequest;
+    maxQueueSize = builder.maxQueueSize;
+    sampleThreshold = (long) (builder.sampleRate * (1L << 32));
+    rateLimiter = builder.maxSpansPerSecond > 0
+        ? new RateLimiter(builder.maxSpansPerSecond, builder.ticker) : null;
+    ownsExecutor = builder.executor == null;
+    executor = ownsExecutor
+        ? Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("trace-exporter-%d")
+            .build())
+        : builder.executor;
+    flushTask = executor.scheduleWithFixedDelay(flushRunnable, builder.flushIntervalMillis,
+        builder.flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns a builder for {@code TraceExporter} objects.
+   *
+   * @param projectId the project to which spans are exported
+   * @param traceService the client used to export spans
+   */
+  public static Builder builder(String projectId, TraceServiceApi traceService) {
+    return new Builder(projectId, traceService);
+  }
+
+  /**
+   * Returns whether the spans of the provided trace are kept by probabilistic sampling.
+   * Instrumentation can use this method to avoid building spans that would be sampled out.
+   */
+  public boolean isSampled(String traceId) {
+    return sampleThreshold > 0xFFFFFFFFL || (TRACE_ID_HASH
+        .hashString(traceId, StandardCharsets.UTF_8).asInt() & 0xFFFFFFFFL) < sampleThreshold;
+  }
+
+  /**
+   * Queues a finished span of the provided trace for export. This method never blocks.
+   *
+   * @return {@code true} if the span was queued, {@code false} if it was sampled out, rate limited
+   *     or dropped because the queue is full or the exporter is closed
+   */
+  public boolean export(String traceId, TraceSpan span) {
+    checkNotNull(traceId);
+    checkNotNull(span);
+    if (!isSampled(traceId)) {
+      sampledOutSpans.incrementAndGet();
+      return false;
+    }
+    if (rateLimiter != null && !isAdmitted(traceId)) {
+      rateLimitedSpans.incrementAndGet();
+      return false;
+    }
+    if (closed) {
+      droppedSpans.incrementAndGet();
+      return false;
+    }
+    if (queuedSpans.incrementAndGet() > maxQueueSize) {
+      queuedSpans.decrementAndGet();
+      droppedSpans.incrementAndGet();
+      return false;
+    }
+    queue.add(new QueuedSpan(traceId, span));
+    if (queuedSpans.get() >= maxSpansPerRequest && flushScheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(flushRunnable);
+      } catch (RejectedExecutionException ex) {
+        flushScheduled.set(false);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether a span of the provided trace is within the rate limit. The first span of a
+   * trace decides for the whole trace, the following spans of an admitted trace are charged
+   * against the limit but always admitted.
+   */
+  private boolean isAdmitted(String traceId) {
+    Boolean admitted;
+    synchronized (rateLimitDecisions) {
+      admitted = rateLimitDecisions.get(traceId);
+      if (admitted == null) {
+        admitted = rateLimiter.tryAcquire();
+        rateLimitDecisions.put(traceId, admitted);
+        return admitted;
+      }
+    }
+    if (admitted) {
+      rateLimiter.forceAcquire();
+    }
+    return admitted;
+  }
+
+  /**
+   * Returns the number of queued spans that have not been exported yet.
+   */
+  public int pendingSpans() {
+    return queuedSpans.get();
+  }
+
+  /**
+   * Returns the number of spans discarded by probabilistic sampling.
+   */
+  public long sampledOutSpans() {
+    return sampledOutSpans.get();
+  }
+
+  /**
+   * Returns the number of spans discarded because the rate limit was exceeded.
+   */
+  public long rateLimitedSpans() {
+    return rateLimitedSpans.get();
+  }
+
+  /**
+   * Returns the number of spans dropped because the queue was full or the exporter was closed.
+   */
+  public long droppedSpans() {
+    return droppedSpans.get();
+  }
+
+  /**
+   * Returns the number of spans dropped because the request exporting them failed.
+   */
+  public long failedSpans() {
+    return failedSpans.get();
+  }
+
+  /**
+   * Exports the queued spans on the calling thread. Spans queued while flushing are left for the
+   * next flush.
+   */
+  public void flush() {
+    synchronized (flushLock) {
+      int remaining = queuedSpans.get();
+      while (remaining > 0) {
+        Map<String, Trace.Builder> traces = new LinkedHashMap<>();
+        int batchSize = 0;
+        QueuedSpan queued;
+        while (batchSize < Math.min(remaining, maxSpansPerRequest)
+            && (queued = queue.poll()) != null) {
+          Trace.Builder trace = traces.get(queued.traceId);
+          if (trace == null) {
+            trace = Trace.newBuilder().setProjectId(projectId).setTraceId(queued.traceId);
+            traces.put(queued.traceId, trace);
+          }
+          trace.addSpans(queued.span);
+          batchSize++;
+        }
+        if (batchSize == 0) {
+          return;
+        }
+        queuedSpans.addAndGet(-batchSize);
+        remaining -= batchSize;
+        write(traces.values(), batchSize);
+      }
+    }
+  }
+
+  private void write(Iterable<Trace.Builder> traces, int spanCount) {
+    Traces.Builder builder = Traces.newBuilder();
+    for (Trace.Builder trace : traces) {
+      builder.addTraces(trace);
+    }
+    try {
+      traceService.patchTraces(PatchTracesRequest.newBuilder()
+          .setProjectId(projectId)
+          .setTraces(builder)
+          .build());
+    } catch (RuntimeException ex) {
+      failedSpans.addAndGet(spanCount);
+      logger.log(Level.FINE, "Failed to export spans", ex);
+    }
+  }
+
+  /**
+   * Stops exporting spans periodically and exports the queued spans. Spans exported after the
+   * exporter is closed are dropped. If the exporter uses its own thread, the thread is stopped. The
+   * {@link TraceServiceApi} client is not closed.
+   */
+  @Override
+  public void close() {
+    synchronized (flushLock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    flushTask.cancel(false);
+    try {
+      flush();
+    } finally {
+      if (ownsExecutor) {
+        executor.shutdown();
+      }
+    }
+  }
+}
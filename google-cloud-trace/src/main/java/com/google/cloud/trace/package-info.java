@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * High-level clients to Stackdriver Trace, built on the clients in
+ * {@link com.google.cloud.trace.spi.v1}.
+ *
+ * <p>{@link com.google.cloud.trace.TraceExporter} exports finished spans in the background, in
+ * batches:
+ * <pre> {@code
+ * try (TraceServiceApi traceServiceApi = TraceServiceApi.create();
+ *     TraceExporter exporter = TraceExporter.builder("my-project", traceServiceApi)
+ *         .sampleRate(0.1)
+ *         .build()) {
+ *   exporter.export(traceId, span);
+ * }
+ * }</pre>
+ */
+package com.google.cloud.trace;
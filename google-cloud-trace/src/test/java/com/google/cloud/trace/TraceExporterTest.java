@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.gax.testing.MockGrpcService;
+import com.google.api.gax.testing.MockServiceHelper;
+import com.google.cloud.trace.spi.v1.MockTraceService;
+import com.google.cloud.trace.spi.v1.TraceServiceApi;
+import com.google.cloud.trace.spi.v1.TraceServiceSettings;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.cloudtrace.v1.PatchTracesRequest;
+import com.google.devtools.cloudtrace.v1.Trace;
+import com.google.devtools.cloudtrace.v1.TraceSpan;
+import com.google.protobuf.Empty;
+import com.google.protobuf.GeneratedMessage;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TraceExporterTest {
+
+  private static final String PROJECT = "project";
+  private static final String TRACE_ID1 = "7dac4e3c0a2d4d2cbcd2f4a3d4e9d1a0";
+  private static final String TRACE_ID2 = "16e3e12e1c2a4b7fb6c1b6ad9b4f6f3e";
+  private static final String TRACE_ID3 = "a3f1c0e9d27b4e6c8f5a1b2c3d4e5f60";
+  private static final String TRACE_ID4 = "0123456789abcdef0123456789abcdef";
+  private static final TraceSpan SPAN1 =
+      TraceSpan.newBuilder().setSpanId(1).setName("span1").build();
+  private static final TraceSpan SPAN2 =
+      TraceSpan.newBuilder().setSpanId(2).setName("span2").build();
+  private static final TraceSpan SPAN3 =
+      TraceSpan.newBuilder().setSpanId(3).setName("span3").build();
+
+  private static MockTraceService mockTraceService;
+  private static MockServiceHelper serviceHelper;
+  private TraceServiceApi traceServiceApi;
+  private TraceExporter exporter;
+
+  private static final class FakeTicker extends Ticker {
+
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long time, TimeUnit unit) {
+      nanos += unit.toNanos(time);
+    }
+  }
+
+  @BeforeClass
+  public static void startStaticServer() {
+    mockTraceService = new MockTraceService();
+    serviceHelper = new MockServiceHelper("in-process-exporter",
+        Arrays.<MockGrpcService>asList(mockTraceService));
+    serviceHelper.start();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    serviceHelper.stop();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    serviceHelper.reset();
+    TraceServiceSettings settings = TraceServiceSettings.defaultBuilder()
+        .provideChannelWith(serviceHelper.createChannel(), true)
+        .build();
+    traceServiceApi = TraceServiceApi.create(settings);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    exporter.close();
+    traceServiceApi.close();
+  }
+
+  private TraceExporter.Builder exporterBuilder() {
+    return TraceExporter.builder(PROJECT, traceServiceApi).flushInterval(1, TimeUnit.HOURS);
+  }
+
+  private static void setResponses(int count) {
+    mockTraceService.setResponses(
+        Collections.<GeneratedMessage>nCopies(count, Empty.getDefaultInstance()));
+  }
+
+  private static PatchTracesRequest request(int index) {
+    return (PatchTracesRequest) mockTraceService.getRequests().get(index);
+  }
+
+  @Test
+  public void testFlushGroupsSpansByTrace() {
+    setResponses(1);
+    exporter = exporterBuilder().build();
+    assertTrue(exporter.export(TRACE_ID1, SPAN1));
+    assertTrue(exporter.export(TRACE_ID2, SPAN2));
+    assertTrue(exporter.export(TRACE_ID1, SPAN3));
+    assertEquals(3, exporter.pendingSpans());
+    exporter.flush();
+    assertEquals(0, exporter.pendingSpans());
+    assertEquals(1, mockTraceService.getRequests().size());
+    PatchTracesRequest request = request(0);
+    assertEquals(PROJECT, request.getProjectId());
+    List<Trace> expected = ImmutableList.of(
+        Trace.newBuilder()
+            .setProjectId(PROJECT)
+            .setTraceId(TRACE_ID1)
+            .addSpans(SPAN1)
+            .addSpans(SPAN3)
+            .build(),
+        Trace.newBuilder().setProjectId(PROJECT).setTraceId(TRACE_ID2).addSpans(SPAN2).build());
+    assertEquals(expected, request.getTraces().getTracesList());
+    exporter.flush();
+    assertEquals(1, mockTraceService.getRequests().size());
+  }
+
+  @Test
+  public void testMaxSpansPerRequest() {
+    setResponses(2);
+    exporter = exporterBuilder().maxSpansPerRequest(2).build();
+    exporter.export(TRACE_ID1, SPAN1);
+    exporter.export(TRACE_ID1, SPAN2);
+    exporter.export(TRACE_ID1, SPAN3);
+    exporter.close();
+    assertEquals(2, mockTraceService.getRequests().size());
+    assertEquals(2, request(0).getTraces().getTraces(0).getSpansCount());
+    assertEquals(1, request(1).getTraces().getTraces(0).getSpansCount());
+  }
+
+  @Test
+  public void testFailedRequest() {
+    exporter = exporterBuilder().build();
+    exporter.export(TRACE_ID1, SPAN1);
+    exporter.export(TRACE_ID2, SPAN2);
+    exporter.flush();
+    assertEquals(2, exporter.failedSpans());
+    assertEquals(0, exporter.pendingSpans());
+  }
+
+  @Test
+  public void testMaxQueueSize() {
+    setResponses(1);
+    exporter = exporterBuilder().maxQueueSize(2).build();
+    assertTrue(exporter.export(TRACE_ID1, SPAN1));
+    assertTrue(exporter.export(TRACE_ID1, SPAN2));
+    assertFalse(exporter.export(TRACE_ID1, SPAN3));
+    assertEquals(1, exporter.droppedSpans());
+    assertEquals(2, exporter.pendingSpans());
+  }
+
+  @Test
+  public void testSampleRate() {
+    setResponses(1);
+    exporter = exporterBuilder().sampleRate(0.5).build();
+    int sampled = 0;
+    for (int i = 0; i < 1000; i++) {
+      String traceId = String.format("%032x", i);
+      // the decision is the same for all spans of a trace
+      assertEquals(exporter.isSampled(traceId), exporter.isSampled(traceId));
+      if (exporter.export(traceId, SPAN1)) {
+        sampled++;
+      }
+    }
+    assertTrue(sampled > 400 && sampled < 600);
+    assertEquals(1000 - sampled, exporter.sampledOutSpans());
+  }
+
+  @Test
+  public void testNoSampling() {
+    exporter = exporterBuilder().sampleRate(0).build();
+    assertFalse(exporter.isSampled(TRACE_ID1));
+    assertFalse(exporter.export(TRACE_ID1, SPAN1));
+    assertEquals(1, exporter.sampledOutSpans());
+    assertEquals(0, exporter.pendingSpans());
+  }
+
+  @Test
+  public void testMaxSpansPerSecond() {
+    setResponses(1);
+    FakeTicker ticker = new FakeTicker();
+    exporter = exporterBuilder().maxSpansPerSecond(2).ticker(ticker).build();
+    assertTrue(exporter.export(TRACE_ID1, SPAN1));
+    assertTrue(exporter.export(TRACE_ID2, SPAN1));
+    assertFalse(exporter.export(TRACE_ID3, SPAN1));
+    ticker.advance(500, TimeUnit.MILLISECONDS);
+    assertFalse(exporter.export(TRACE_ID3, SPAN2));
+    assertTrue(exporter.export(TRACE_ID4, SPAN1));
+    assertEquals(2, exporter.rateLimitedSpans());
+    assertEquals(3, exporter.pendingSpans());
+  }
+
+  @Test
+  public void testMaxSpansPerSecondKeepsTracesWhole() {
+    setResponses(1);
+    FakeTicker ticker = new FakeTicker();
+    exporter = exporterBuilder().maxSpansPerSecond(2).ticker(ticker).build();
+    // an admitted trace is exported whole, even if it exceeds the limit
+    assertTrue(exporter.export(TRACE_ID1, SPAN1));
+    assertTrue(exporter.export(TRACE_ID1, SPAN2));
+    assertTrue(exporter.export(TRACE_ID1, SPAN3));
+    // a rate limited trace is dropped whole, even once the limit allows more spans
+    assertFalse(exporter.export(TRACE_ID2, SPAN1));
+    ticker.advance(1, TimeUnit.SECONDS);
+    assertFalse(exporter.export(TRACE_ID2, SPAN2));
+    assertFalse(exporter.export(TRACE_ID2, SPAN3));
+    assertTrue(exporter.export(TRACE_ID3, SPAN1));
+    assertEquals(3, exporter.rateLimitedSpans());
+    assertEquals(4, exporter.pendingSpans());
+    exporter.flush();
+    List<Trace> traces = request(0).getTraces().getTracesList();
+    assertEquals(2, traces.size());
+    assertEquals(TRACE_ID1, traces.get(0).getTraceId());
+    assertEquals(3, traces.get(0).getSpansCount());
+    assertEquals(TRACE_ID3, traces.get(1).getTraceId());
+  }
+
+  @Test
+  public void testExportAfterClose() {
+    exporter = exporterBuilder().build();
+    exporter.close();
+    assertFalse(exporter.export(TRACE_ID1, SPAN1));
+    assertEquals(1, exporter.droppedSpans());
+  }
+}